@@ -24,9 +24,12 @@ import java.util.*;
 
 import org.apache.log4j.Logger;
 
+import com.ecyrd.jspwiki.event.WikiEvent;
+import com.ecyrd.jspwiki.event.WikiEventListener;
 import com.ecyrd.jspwiki.event.WikiEventManager;
 import com.ecyrd.jspwiki.event.WikiPageEvent;
 import com.ecyrd.jspwiki.modules.ModuleManager;
+import com.ecyrd.jspwiki.providers.CachingProvider;
 import com.ecyrd.jspwiki.providers.ProviderException;
 import com.ecyrd.jspwiki.providers.RepositoryModifiedException;
 import com.ecyrd.jspwiki.providers.VersioningProvider;
@@ -64,6 +67,8 @@ public class PageManager extends ModuleManager
     private int m_expiryTime = 60;
 
     private LockReaper m_reaper = null;
+
+    private PageNameIndex m_pageNameIndex;
     
     /**
      *  Creates a new PageManager.
@@ -131,6 +136,23 @@ public class PageManager extends ModuleManager
             throw new WikiException("Unable to start page provider: "+e.getMessage());
         }        
 
+        m_pageNameIndex = new PageNameIndex( m_provider, props );
+        WikiEventManager.addWikiEventListener( this, m_pageNameIndex );
+
+        //
+        //  The CachingProvider tells when its watcher sees pages change on disk.
+        //
+        WikiEventManager.addWikiEventListener( m_provider, new WikiEventListener()
+        {
+            public void actionPerformed( WikiEvent event )
+            {
+                if( event instanceof WikiPageEvent && 
+                    event.getType() == WikiPageEvent.PAGE_CHANGED )
+                {
+                    pageChanged( ((WikiPageEvent) event).getPageName() );
+                }
+            }
+        } );
     }
 
 
@@ -148,6 +170,17 @@ public class PageManager extends ModuleManager
         return m_provider.getAllPages();
     }
 
+    /**
+     *  Returns the index of the names of all the pages.
+     *  
+     *  @return The PageNameIndex.
+     *  @since 2.4.71
+     */
+    public PageNameIndex getPageNameIndex()
+    {
+        return m_pageNameIndex;
+    }
+
     /**
      *  Fetches the page text from the repository.  This method also does some sanity checks,
      *  like checking for the pageName validity, etc.  Also, if the page repository has been
@@ -201,6 +234,42 @@ public class PageManager extends ModuleManager
         return text;
     }
 
+    /**
+     *  Returns the section index of the page text.  If the CachingProvider
+     *  is in use, the index of the latest version is built only once and
+     *  cached with the text.
+     *
+     *  @param pageName The name of the page.
+     *  @param version The version of the page.
+     *  @return The index.  A missing page looks like an empty one.
+     *  @throws ProviderException If the page text cannot be read.
+     *  @since 2.4.71
+     */
+    public SectionIndex getSectionIndex( String pageName, int version )
+        throws ProviderException
+    {
+        if( pageName == null || pageName.length() == 0 )
+        {
+            throw new ProviderException("Illegal page name");
+        }
+
+        if( m_provider instanceof CachingProvider )
+        {
+            try
+            {
+                SectionIndex index = ((CachingProvider)m_provider).getSectionIndex( pageName, version );
+                
+                if( index != null ) return index;
+            }
+            catch( RepositoryModifiedException e )
+            {
+                // getPageText() below knows how to handle this.
+            }
+        }
+
+        return new SectionIndex( getPageText( pageName, version ) );
+    }
+
     public WikiEngine getEngine()
     {
         return m_engine;
@@ -223,6 +292,8 @@ public class PageManager extends ModuleManager
         }
 
         m_provider.putPageText( page, content );
+
+        fireEvent( WikiPageEvent.PAGE_SAVED, page.getName() );
     }
 
     /**
@@ -361,6 +432,7 @@ public class PageManager extends ModuleManager
 
             WikiPage p = new WikiPage( m_engine, pageName );
             
+            m_pageNameIndex.refresh( pageName );
             m_engine.updateReferences( p );
 
             page = m_provider.getPageInfo( pageName, version );
@@ -445,6 +517,11 @@ public class PageManager extends ModuleManager
     {
         m_provider.deleteVersion( page.getName(), page.getVersion() );
 
+        if( !m_provider.pageExists( page.getName() ) )
+        {
+            fireEvent( WikiPageEvent.PAGE_DELETED, page.getName() );
+        }
+
         // FIXME: If this was the latest, reindex Lucene
         // FIXME: Update RefMgr
     }
@@ -462,6 +539,38 @@ public class PageManager extends ModuleManager
         fireEvent( WikiPageEvent.PAGE_DELETED, page.getName() );
     }
 
+    /**
+     *  Moves a page, with all its versions, to a new name.  The attachments
+     *  are not moved, and the references are not changed.
+     *  
+     *  @param from The current name of the page.
+     *  @param to   The new name of the page.
+     *  @throws ProviderException If the provider could not move the page.
+     *  @since 2.4.71
+     */
+    public void movePage( String from, String to )
+        throws ProviderException
+    {
+        m_provider.movePage( from, to );
+
+        pageChanged( from );
+        pageChanged( to );
+    }
+
+    /**
+     *  Updates the page name index, and tells the listeners that the page
+     *  may have appeared or disappeared.  The index is updated first, so
+     *  that the listeners see the new state.
+     */
+    private void pageChanged( String pageName )
+    {
+        if( pageName == null ) return;
+        
+        m_pageNameIndex.refresh( pageName );
+
+        fireEvent( WikiPageEvent.PAGE_CHANGED, pageName );
+    }
+
     /**
      *  This is a simple reaper thread that runs roughly every minute
      *  or so (it's not really that important, as long as it runs),
@@ -0,0 +1,278 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import com.ecyrd.jspwiki.cache.CacheEntry;
+import com.ecyrd.jspwiki.cache.CacheFactory;
+import com.ecyrd.jspwiki.cache.WikiCache;
+import com.ecyrd.jspwiki.event.WikiEvent;
+import com.ecyrd.jspwiki.event.WikiEventListener;
+import com.ecyrd.jspwiki.event.WikiPageEvent;
+import com.ecyrd.jspwiki.providers.CachingProvider;
+import com.ecyrd.jspwiki.providers.ProviderException;
+import com.ecyrd.jspwiki.providers.WikiPageProvider;
+
+/**
+ *  Keeps the names of all the pages in the repository in memory, so that
+ *  finding out whether a page exists is a single hash lookup.  This is
+ *  what resolves the links when pages are rendered, and the references
+ *  in the ReferenceManager, which may mean hundreds of lookups for a
+ *  single page.
+ *  <p>
+ *  The index is read from the provider when it is first needed, and then
+ *  kept up to date by listening to the page events of the PageManager.
+ *  It is read without locking: every change makes a new copy of the set
+ *  of names, which is cheap, since pages are rarely created or deleted
+ *  compared to how often links are resolved.
+ *  <p>
+ *  Pages which are renamed, or added to or removed from the repository
+ *  behind the back of JSPWiki, are checked again through {@link #refresh(String)}
+ *  by the PageManager.  It notices the changes made outside JSPWiki when the
+ *  CachingProvider watches the page directory, or when it happens to read
+ *  a changed page.  Since a page added outside JSPWiki is not read before
+ *  something links to it, a name which is not in the index is also looked
+ *  up from the provider.  The names which are not found there either are
+ *  remembered for "jspwiki.cachingProvider.cacheCheckInterval" seconds,
+ *  like the CachingProvider remembers them.
+ *
+ *  @since 2.4.71
+ */
+public class PageNameIndex
+    implements WikiEventListener
+{
+    private static Logger log = Logger.getLogger( PageNameIndex.class );
+
+    private final WikiPageProvider m_provider;
+
+    /**
+     *  This many missing names are remembered at most.  Resolving a link
+     *  may look up several forms of the name, e.g. singular and plural.
+     */
+    private static final int MISSING_CAPACITY = 10000;
+
+    /** The names which were recently not found from the provider either. */
+    private final WikiCache m_missing;
+
+    /** For how many seconds a missing name is remembered. */
+    private final int m_missingExpiry;
+
+    /** The names of the pages, or null, if not yet read.  Never modified. */
+    private volatile Set m_names;
+
+    /**
+     *  Creates an index for the pages of the given provider.
+     *
+     *  @param provider The provider to get the page names from.
+     *  @param properties The engine properties.
+     */
+    public PageNameIndex( WikiPageProvider provider, Properties properties )
+    {
+        m_provider      = provider;
+        m_missing       = CacheFactory.createCache( properties, "pageNameIndex.missing", MISSING_CAPACITY, 0 );
+        m_missingExpiry = TextUtil.getIntegerProperty( properties,
+                                                       CachingProvider.PROP_CACHECHECKINTERVAL,
+                                                       30 );
+    }
+
+    /**
+     *  Tells whether a page with exactly the given name exists.
+     *
+     *  @param pageName The name of the page.
+     *  @return True, if the page exists.
+     *  @throws ProviderException If the page names could not be read.
+     */
+    public boolean contains( String pageName )
+        throws ProviderException
+    {
+        Set names = m_names;
+
+        if( names == null )
+        {
+            names = load();
+        }
+
+        if( names.contains( pageName ) )
+        {
+            return true;
+        }
+
+        return findMissing( pageName );
+    }
+
+    /**
+     *  Looks up a name which is not in the index from the provider, in case
+     *  the page was added outside JSPWiki.
+     */
+    private boolean findMissing( String pageName )
+    {
+        CacheEntry entry = m_missing.get( pageName );
+
+        if( entry != null && !entry.isExpired( m_missingExpiry ) )
+        {
+            return false;
+        }
+
+        if( pageName.length() > 0 && m_provider.pageExists( pageName ) )
+        {
+            log.info( "Page "+pageName+" has been added outside JSPWiki." );
+
+            //  Asks again with the lock held, in case it was just deleted.
+            refresh( pageName );
+
+            Set names = m_names;
+
+            return names == null || names.contains( pageName );
+        }
+
+        m_missing.put( pageName, pageName );
+
+        return false;
+    }
+
+    /**
+     *  Returns the number of pages in the index.
+     *
+     *  @return The number of pages.
+     *  @throws ProviderException If the page names could not be read.
+     */
+    public int size()
+        throws ProviderException
+    {
+        Set names = m_names;
+
+        if( names == null )
+        {
+            names = load();
+        }
+
+        return names.size();
+    }
+
+    /**
+     *  Reads the names of all pages from the provider, unless some other
+     *  thread did it already.
+     */
+    private synchronized Set load()
+        throws ProviderException
+    {
+        if( m_names == null )
+        {
+            Collection pages = m_provider.getAllPages();
+            Set        names = new HashSet( pages.size()*2 );
+
+            for( Iterator i = pages.iterator(); i.hasNext(); )
+            {
+                names.add( ((WikiPage) i.next()).getName() );
+            }
+
+            m_names = names;
+
+            log.debug( "Indexed "+names.size()+" page names." );
+        }
+
+        return m_names;
+    }
+
+    /**
+     *  Asks the provider again whether the given page exists, and updates
+     *  the index accordingly.
+     *
+     *  @param pageName The name of the page.
+     */
+    public synchronized void refresh( String pageName )
+    {
+        if( m_names == null ) return; // Will be read when needed
+
+        try
+        {
+            update( pageName, m_provider.pageExists( pageName ) );
+        }
+        catch( RuntimeException e )
+        {
+            log.error( "Unable to check whether "+pageName+" exists, reading all names again.", e );
+            m_names = null;
+        }
+    }
+
+    /**
+     *  Adds or removes a name.  Must be called with the lock held.
+     */
+    private void update( String pageName, boolean exists )
+    {
+        Set names = m_names;
+
+        if( exists ) m_missing.remove( pageName );
+
+        if( names == null || names.contains( pageName ) == exists ) return;
+
+        Set copy = new HashSet( names );
+
+        if( exists )
+        {
+            copy.add( pageName );
+        }
+        else
+        {
+            copy.remove( pageName );
+        }
+
+        m_names = copy;
+    }
+
+    /**
+     *  Keeps the index up to date when pages are saved or deleted.
+     *
+     *  @param event The event from the PageManager.
+     */
+    public void actionPerformed( WikiEvent event )
+    {
+        if( event instanceof WikiPageEvent )
+        {
+            String pageName = ((WikiPageEvent) event).getPageName();
+
+            if( pageName == null ) return;
+
+            switch( event.getType() )
+            {
+                case WikiPageEvent.PAGE_SAVED:
+                    synchronized( this )
+                    {
+                        update( pageName, true );
+                    }
+                    break;
+
+                case WikiPageEvent.PAGE_DELETED:
+                    synchronized( this )
+                    {
+                        update( pageName, false );
+                    }
+                    break;
+            }
+        }
+    }
+}
@@ -29,7 +29,6 @@ import com.ecyrd.jspwiki.parser.JSPWikiMarkupParser;
 import com.ecyrd.jspwiki.parser.MarkupParser;
 import com.ecyrd.jspwiki.providers.ProviderException;
 import com.ecyrd.jspwiki.providers.WikiAttachmentProvider;
-import com.ecyrd.jspwiki.providers.WikiPageProvider;
 
 
 
@@ -447,11 +446,9 @@ public class PageRenamer
     //Move the page data from the old name to the new name.
     private void movePageData(String oldName, String newName) throws WikiException
     {
-        WikiPageProvider pageProvider = m_wikiEngine.getPageManager().getProvider();
-
         try
         {
-            pageProvider.movePage(oldName, newName);
+            m_wikiEngine.getPageManager().movePage(oldName, newName);
         }
         catch (ProviderException pe)
         {
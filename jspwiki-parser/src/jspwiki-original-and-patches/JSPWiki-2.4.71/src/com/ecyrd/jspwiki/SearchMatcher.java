@@ -21,14 +21,20 @@ package com.ecyrd.jspwiki;
 
 
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * SearchMatcher performs the task of matching a search query to a page's 
  * contents. This utility class is isolated to simplify WikiPageProvider
  * implementations and to offer an easy target for upgrades. The upcoming(?)
  * TranslatorReader rewrite will presumably invalidate this, among other things.
+ * <p>
+ * Since 2.4.71 the query words are compiled into an Aho-Corasick automaton
+ * when the matcher is created, so each page is read just once, however many
+ * words there are.  The automaton is never modified afterwards, so a single
+ * matcher can be used by several threads at the same time.
  *
  * @since 2.1.5
  * @author ebu at ecyrd dot com
@@ -39,21 +45,239 @@ public class SearchMatcher
     private QueryItem[] m_queries;
     private WikiEngine m_engine;
 
+    //
+    //  The automaton.  State 0 is the root.  For each state, the characters
+    //  of its transitions in ascending order, the states they lead to, the
+    //  state to fall back to on a mismatch, and the queries whose word ends
+    //  at this state (null, if none).
+    //
+    private char[][]    m_keys;
+    private int[][]     m_next;
+    private int[]       m_fail;
+    private int[][]     m_output;
+
     public SearchMatcher( WikiEngine engine, QueryItem[] queries )
     {
         m_engine = engine;
         m_queries = queries;
+        
+        if( queries != null ) compile();
+    }
+
+    /**
+     *  Builds the automaton out of the query words.
+     */
+    private void compile()
+    {
+        List keys   = new ArrayList();
+        List next   = new ArrayList();
+        List output = new ArrayList();
+        
+        keys.add( new StringBuffer() );
+        next.add( new ArrayList() );
+        output.add( new ArrayList() );
+        
+        //
+        //  First the trie of the words.
+        //
+        for( int j = 0; j < m_queries.length; j++ )
+        {
+            String word  = m_queries[j].word;
+            int    state = 0;
+            
+            if( word == null || word.length() == 0 ) continue;
+            
+            for( int i = 0; i < word.length(); i++ )
+            {
+                char         c  = Character.toLowerCase( word.charAt( i ) );
+                StringBuffer ks = (StringBuffer) keys.get( state );
+                int          k  = ks.toString().indexOf( c );
+                
+                if( k == -1 )
+                {
+                    ks.append( c );
+                    ((List) next.get( state )).add( new Integer( keys.size() ) );
+                    
+                    state = keys.size();
+                    keys.add( new StringBuffer() );
+                    next.add( new ArrayList() );
+                    output.add( new ArrayList() );
+                }
+                else
+                {
+                    state = ((Integer) ((List) next.get( state )).get( k )).intValue();
+                }
+            }
+            
+            ((List) output.get( state )).add( new Integer( j ) );
+        }
+        
+        int states = keys.size();
+        
+        m_keys   = new char[states][];
+        m_next   = new int[states][];
+        m_fail   = new int[states];
+        m_output = new int[states][];
+        
+        for( int s = 0; s < states; s++ )
+        {
+            char[] ks = ((StringBuffer) keys.get( s )).toString().toCharArray();
+            int[]  ns = new int[ks.length];
+            
+            for( int k = 0; k < ks.length; k++ )
+            {
+                ns[k] = ((Integer) ((List) next.get( s )).get( k )).intValue();
+            }
+            
+            //  Sort the transitions by character, so that they can be binary searched
+            for( int k = 1; k < ks.length; k++ )
+            {
+                for( int m = k; m > 0 && ks[m-1] > ks[m]; m-- )
+                {
+                    char c = ks[m]; ks[m] = ks[m-1]; ks[m-1] = c;
+                    int  n = ns[m]; ns[m] = ns[m-1]; ns[m-1] = n;
+                }
+            }
+            
+            m_keys[s] = ks;
+            m_next[s] = ns;
+        }
+        
+        //
+        //  Then the failure links, breadth first, so that the state to fall
+        //  back to is always done before.  Each state also reports the words
+        //  its fallback state reports, since they end here, too.
+        //
+        List[]     outputs = new List[states];
+        LinkedList queue   = new LinkedList();
+        
+        for( int s = 0; s < states; s++ ) outputs[s] = (List) output.get( s );
+        
+        for( int k = 0; k < m_next[0].length; k++ )
+        {
+            queue.add( new Integer( m_next[0][k] ) );
+        }
+        
+        while( !queue.isEmpty() )
+        {
+            int s = ((Integer) queue.removeFirst()).intValue();
+            
+            for( int k = 0; k < m_keys[s].length; k++ )
+            {
+                char c = m_keys[s][k];
+                int  t = m_next[s][k];
+                int  f = m_fail[s];
+                
+                while( f != 0 && step( f, c ) == -1 ) f = m_fail[f];
+                
+                int g = step( f, c );
+                
+                m_fail[t] = (g == -1 || g == t) ? 0 : g;
+                outputs[t].addAll( outputs[m_fail[t]] );
+                
+                queue.add( new Integer( t ) );
+            }
+        }
+        
+        for( int s = 0; s < states; s++ )
+        {
+            if( outputs[s].isEmpty() ) continue;
+            
+            m_output[s] = new int[outputs[s].size()];
+            
+            for( int i = 0; i < m_output[s].length; i++ )
+            {
+                m_output[s][i] = ((Integer) outputs[s].get( i )).intValue();
+            }
+        }
+    }
+
+    /**
+     *  Returns the state the transition for the character leads to, or -1,
+     *  if there is none.
+     */
+    private int step( int state, char c )
+    {
+        char[] ks = m_keys[state];
+        int    lo = 0;
+        int    hi = ks.length - 1;
+        
+        while( lo <= hi )
+        {
+            int mid = (lo + hi) >>> 1;
+            
+            if( ks[mid] < c )      lo = mid + 1;
+            else if( ks[mid] > c ) hi = mid - 1;
+            else                   return m_next[state][mid];
+        }
+        
+        return -1;
+    }
+
+    /**
+     *  Runs the text through the automaton, and counts the occurrences of each
+     *  query word in it, ignoring case.
+     *
+     *  @param text The text.
+     *  @param counts Where to add the counts.
+     *  @param stopOnForbidden If true, stops at the first forbidden word.
+     *  @return False, if a forbidden word was found.
+     */
+    private boolean scan( CharSequence text, int[] counts, boolean stopOnForbidden )
+    {
+        int state = 0;
+        int len   = text.length();
+        
+        for( int i = 0; i < len; i++ )
+        {
+            char c = Character.toLowerCase( text.charAt( i ) );
+            int  t;
+            
+            while( (t = step( state, c )) == -1 && state != 0 ) state = m_fail[state];
+            
+            state = (t == -1) ? 0 : t;
+            
+            int[] out = m_output[state];
+            
+            if( out != null )
+            {
+                for( int k = 0; k < out.length; k++ )
+                {
+                    if( stopOnForbidden && m_queries[out[k]].type == QueryItem.FORBIDDEN )
+                    {
+                        return false;
+                    }
+                    
+                    counts[out[k]]++;
+                }
+            }
+        }
+        
+        return true;
     }
 
     /**
      * Compares the page content, available through the given stream, to the
      * query items of this matcher. Returns a search result object describing
      * the quality of the match.
-     *
-     * <p>This method would benefit of regexps (1.4) and streaming. FIXME!
      */
     public SearchResult matchPageContent( String wikiname, String pageText )
         throws IOException
+    {
+        return matchPageContent( wikiname, (CharSequence) pageText );
+    }
+
+    /**
+     * Compares the page content to the query items of this matcher.  The
+     * content is compared ignoring case, without making a lowercase copy of
+     * it, so it may as well be a buffer which is reused for the next page.
+     *
+     * @param wikiname The name of the page.
+     * @param pageText The content of the page.
+     * @return A SearchResult, or null, if the page does not match.
+     * @since 2.4.71
+     */
+    public SearchResult matchPageContent( String wikiname, CharSequence pageText )
     {
         if( m_queries == null )
         {
@@ -61,32 +285,17 @@ public class SearchMatcher
         }
 
         int scores[] = new int[ m_queries.length ];
-        BufferedReader in = new BufferedReader( new StringReader( pageText ) );
-        String line = null;
-            
-        while( (line = in.readLine()) != null )
+        
+        if( !scan( pageText, scores, true ) )
         {
-            line = line.toLowerCase();
-
-            for( int j = 0; j < m_queries.length; j++ )
-            {
-                int index = -1;
-                
-                while( (index = line.indexOf( m_queries[j].word, index+1 )) != -1 )
-                {
-                    if( m_queries[j].type != QueryItem.FORBIDDEN )
-                    {
-                        scores[j]++; // Mark, found this word n times
-                    }
-                    else
-                    {
-                        // Found something that was forbidden.
-                        return( null );
-                    }
-                }
-            }
+            // Found something that was forbidden.
+            return( null );
         }
         
+        int inName[] = new int[ m_queries.length ];
+        
+        scan( wikiname, inName, false );
+        
         //
         //  Check that we have all required words.
         //
@@ -98,8 +307,7 @@ public class SearchMatcher
             // Give five points for each occurrence
             // of the word in the wiki name.
             
-            if( wikiname.toLowerCase().indexOf( m_queries[j].word ) != -1 &&
-                m_queries[j].type != QueryItem.FORBIDDEN )
+            if( inName[j] > 0 && m_queries[j].type != QueryItem.FORBIDDEN )
                 scores[j] += 5;
             
             //  Filter out pages if the search word is marked 'required'
@@ -0,0 +1,205 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki;
+
+/**
+ *  Knows where the sections of a page text start and end.  Sections are
+ *  separated with "----", as in {@link TextUtil#getSection(String, int)}.
+ *  The text is scanned only once, when the index is created; after that
+ *  finding a section costs nothing, and the section is returned as a view
+ *  to the page text instead of a copy.
+ *  <p>
+ *  The CachingProvider keeps the index of each page next to its text, so
+ *  that it is built only once per page version.  Instances are immutable
+ *  and may be shared between threads.
+ *
+ *  @since 2.4.71
+ */
+public final class SectionIndex
+{
+    private static final String SEPARATOR = "----";
+
+    private final String m_text;
+
+    /** The start and end offsets of section n are at 2*n and 2*n+1. */
+    private final int[]  m_bounds;
+
+    /**
+     *  Creates an index over the given text.
+     *
+     *  @param text The WikiText.  Null is treated as an empty page.
+     */
+    public SectionIndex( String text )
+    {
+        if( text == null ) text = "";
+
+        m_text = text;
+
+        int   count  = 0;
+        int[] bounds = new int[8];
+        int   start  = 0;
+        int   end;
+
+        while( (end = text.indexOf( SEPARATOR, start )) != -1 )
+        {
+            bounds = add( bounds, count++, start, end );
+
+            start = end + SEPARATOR.length();
+        }
+
+        bounds = add( bounds, count++, start, text.length() );
+
+        m_bounds = new int[count*2];
+        System.arraycopy( bounds, 0, m_bounds, 0, m_bounds.length );
+    }
+
+    private static int[] add( int[] bounds, int section, int start, int end )
+    {
+        if( bounds.length < section*2+2 )
+        {
+            int[] grown = new int[bounds.length*2];
+            System.arraycopy( bounds, 0, grown, 0, bounds.length );
+            bounds = grown;
+        }
+
+        bounds[section*2]   = start;
+        bounds[section*2+1] = end;
+
+        return bounds;
+    }
+
+    /**
+     *  Returns the text this index was built from.
+     *
+     *  @return The page text.
+     */
+    public String getText()
+    {
+        return m_text;
+    }
+
+    /**
+     *  Returns the number of sections.  An empty page has no sections, and
+     *  a page without section markers has one.  Section #1 of an empty page
+     *  may still be asked for; it is empty.
+     *
+     *  @return The number of sections.
+     */
+    public int getSectionCount()
+    {
+        return m_text.length() > 0 ? m_bounds.length / 2 : 0;
+    }
+
+    /**
+     *  Returns the offset where the given section starts in the text.
+     *
+     *  @param section The section number.  The first section is #1.
+     *  @return The offset of the first character of the section.
+     *  @throws IllegalArgumentException If the page does not contain this many sections.
+     */
+    public int getSectionStart( int section )
+    {
+        checkSection( section );
+
+        return m_bounds[section*2-2];
+    }
+
+    /**
+     *  Returns the offset where the given section ends in the text.
+     *
+     *  @param section The section number.  The first section is #1.
+     *  @return The offset just after the last character of the section.
+     *  @throws IllegalArgumentException If the page does not contain this many sections.
+     */
+    public int getSectionEnd( int section )
+    {
+        checkSection( section );
+
+        return m_bounds[section*2-1];
+    }
+
+    /**
+     *  Returns the given section without copying it.  Call toString() on the
+     *  result if you need a String.
+     *
+     *  @param section The section number.  The first section is #1.
+     *  @return A view to the section in the page text.
+     *  @throws IllegalArgumentException If the page does not contain this many sections.
+     */
+    public CharSequence getSection( int section )
+    {
+        return new TextView( m_text, getSectionStart( section ), getSectionEnd( section ) );
+    }
+
+    private void checkSection( int section )
+    {
+        if( section < 1 || section > m_bounds.length / 2 )
+        {
+            throw new IllegalArgumentException("There is no section no. "+section+" on the page.");
+        }
+    }
+
+    /**
+     *  A read-only window to a part of a String.
+     */
+    private static final class TextView implements CharSequence
+    {
+        private final String m_text;
+        private final int    m_start;
+        private final int    m_end;
+
+        TextView( String text, int start, int end )
+        {
+            m_text  = text;
+            m_start = start;
+            m_end   = end;
+        }
+
+        public int length()
+        {
+            return m_end - m_start;
+        }
+
+        public char charAt( int index )
+        {
+            if( index < 0 || index >= length() )
+            {
+                throw new IndexOutOfBoundsException( "Index: "+index+", length: "+length() );
+            }
+
+            return m_text.charAt( m_start + index );
+        }
+
+        public CharSequence subSequence( int start, int end )
+        {
+            if( start < 0 || end > length() || start > end )
+            {
+                throw new IndexOutOfBoundsException( "Range: "+start+"-"+end+", length: "+length() );
+            }
+
+            return new TextView( m_text, m_start + start, m_start + end );
+        }
+
+        public String toString()
+        {
+            return m_text.substring( m_start, m_end );
+        }
+    }
+}
@@ -592,19 +592,7 @@ public class TextUtil
 
     public static int countSections( String pagedata )
     {
-        int tags  = 0;
-        int start = 0;
-
-        while( (start = pagedata.indexOf("----",start)) != -1 )
-        {
-            tags++;
-            start+=4; // Skip this "----"
-        }
-
-        //
-        // The first section does not get the "----"
-        //
-        return pagedata.length() > 0 ? tags+1 : 0;
+        return new SectionIndex( pagedata ).getSectionCount();
     }
 
     /**
@@ -616,33 +604,13 @@ public class TextUtil
      *  @param section  Which section to get.
      *  @return String  The section.
      *  @throws IllegalArgumentException If the page does not contain this many sections.
+     *  @see SectionIndex
      *  @since 2.1.86.
      */
     public static String getSection( String pagedata, int section )
         throws IllegalArgumentException
     {
-        int tags  = 0;
-        int start = 0;
-        int previous = 0;
-
-        while( (start = pagedata.indexOf("----",start)) != -1 )
-        {
-            if( ++tags == section )
-            {
-                return pagedata.substring( previous, start );
-            }
-
-            start += 4; // Skip this "----"
-
-            previous = start;
-        }
-
-        if( ++tags == section )
-        {
-            return pagedata.substring( previous );
-        }
-
-        throw new IllegalArgumentException("There is no section no. "+section+" on the page.");
+        return new SectionIndex( pagedata ).getSection( section ).toString();
     }
 
     /**
@@ -28,6 +28,7 @@ import org.apache.oro.text.regex.*;
 
 import com.ecyrd.jspwiki.parser.Heading;
 import com.ecyrd.jspwiki.parser.HeadingListener;
+import com.ecyrd.jspwiki.parser.ParserInput;
 import com.ecyrd.jspwiki.plugin.PluginManager;
 import com.ecyrd.jspwiki.plugin.PluginException;
 import com.ecyrd.jspwiki.attachment.AttachmentManager;
@@ -70,10 +71,9 @@ public class TranslatorReader extends Reader
 
     private static final String           PUNCTUATION_CHARS_ALLOWED = "._";
 
-    /** Allow this many characters to be pushed back in the stream.  In effect,
-        this limits the size of a single heading line.  */
-    private static final int              PUSHBACK_BUFFER_SIZE = 10*1024;
-    private PushbackReader m_in;
+    /** The text being translated.  Read from m_reader on first use, if null. */
+    private ParserInput    m_input;
+    private Reader         m_reader;
 
     private StringReader   m_data = new StringReader("");
 
@@ -225,12 +225,12 @@ public class TranslatorReader extends Reader
      */
     public Reader setInputReader( Reader in )
     {
-        Reader old = m_in;
+        Reader old = m_reader;
 
         if( in != null )
         {
-            m_in = new PushbackReader( new BufferedReader( in ),
-                                       PUSHBACK_BUFFER_SIZE );
+            m_reader = in;
+            m_input  = null;
         }
 
         return old;
@@ -1178,11 +1178,22 @@ public class TranslatorReader extends Reader
     }
 
 
+    private ParserInput getInput()
+        throws IOException
+    {
+        if( m_input == null && m_reader != null )
+        {
+            m_input = ParserInput.read( m_reader );
+        }
+        return m_input;
+    }
+
     private int nextToken()
         throws IOException
     {
-        if( m_in == null ) return -1;
-        return m_in.read();
+        ParserInput in = getInput();
+        if( in == null ) return -1;
+        return in.read();
     }
 
     /**
@@ -1192,24 +1203,9 @@ public class TranslatorReader extends Reader
     private void pushBack( int c )
         throws IOException
     {        
-        if( c != -1 && m_in != null )
-        {
-            m_in.unread( c );
-        }
-    }
-
-    /**
-     *  Pushes back any string that has been read.  It will obviously
-     *  be pushed back in a reverse order.
-     *
-     *  @since 2.1.77
-     */
-    private void pushBack( String s )
-        throws IOException
-    {
-        for( int i = s.length()-1; i >= 0; i-- )
+        if( c != -1 && m_input != null )
         {
-            pushBack( s.charAt(i) );
+            m_input.unread( (char) c );
         }
     }
 
@@ -1404,10 +1400,23 @@ public class TranslatorReader extends Reader
     private String peekAheadLine()
         throws IOException
     {
-        String s = readUntilEOL().toString();
-        pushBack( s );
+        ParserInput  in  = getInput();
+        StringBuffer buf = new StringBuffer();
+
+        for( int i = 0; in != null; i++ )
+        {
+            int ch = in.peek( i );
 
-        return s;
+            if( ch == -1 )
+                break;
+
+            buf.append( (char) ch );
+
+            if( ch == '\n' ) 
+                break;
+        }
+
+        return buf.toString();
     }
 
     private String handleHeading()
@@ -1448,31 +1457,7 @@ public class TranslatorReader extends Reader
         return buf.toString();
     }
 
-    /**
-     *  Reads the stream until the next EOL or EOF.  Note that it will also read the
-     *  EOL from the stream.
-     */
-    private StringBuffer readUntilEOL()
-        throws IOException
-    {
-        int ch;
-        StringBuffer buf = new StringBuffer();
 
-        while( true )
-        {
-            ch = nextToken();
-
-            if( ch == -1 )
-                break;
-
-            buf.append( (char) ch );
-
-            if( ch == '\n' ) 
-                break;
-        }
-
-        return buf;
-    }
 
     /**
      *  Starts a block level element, therefore closing the
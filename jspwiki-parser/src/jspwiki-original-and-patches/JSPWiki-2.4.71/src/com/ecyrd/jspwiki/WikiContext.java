@@ -605,6 +605,22 @@ public class WikiContext
         return null;
     }
     
+    /**
+     *  Returns a clone of the WikiContext which has its own copy of the
+     *  variables.  Setting a variable in the copy does not affect this
+     *  context, so the copy can be used e.g. in another thread.
+     *
+     *  @since 2.4.71
+     */
+    public WikiContext deepClone()
+    {
+        WikiContext copy = (WikiContext)clone();
+        
+        copy.m_variableMap = new HashMap( m_variableMap );
+        
+        return copy;
+    }
+
     /**
      * Returns the WikiSession associated with the context.
      * This method is guaranteed to always return a valid WikiSession. 
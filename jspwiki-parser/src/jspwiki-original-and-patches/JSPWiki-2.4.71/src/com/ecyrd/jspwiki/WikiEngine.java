@@ -1318,6 +1318,24 @@ public class WikiEngine
 
         return res;
     }
+
+    /**
+     *  Writes the converted HTML of the page into the given Writer, using a
+     *  different context than the default context.
+     *
+     *  @param context The WikiContext to render in.
+     *  @param page The page to render.
+     *  @param out The Writer to write into.  It is not closed.
+     *  @throws IOException If writing fails.
+     *  @since 2.4.71
+     */
+    public void getHTML( WikiContext context, WikiPage page, Writer out )
+        throws IOException
+    {
+        String pagedata = getPureText( page.getName(), page.getVersion() );
+
+        textToHTML( context, pagedata, out );
+    }
     
     /**
      *  Returns the converted HTML of the page.
@@ -1357,8 +1375,36 @@ public class WikiEngine
      */
     public String textToHTML( WikiContext context, String pagedata )
     {
-        String result = "";
+        StringWriter out = new StringWriter();
+
+        try
+        {
+            textToHTML( context, pagedata, out );
+        }
+        catch( IOException e )
+        {
+            log.error("Unable to render page "+context.getRealPage().getName(), e );
+        }
+            
+        return out.toString();
+    }
 
+    /**
+     *  Converts raw page data to HTML, and writes the HTML into the given
+     *  Writer as it is generated.  If all the page filters are able to
+     *  post-translate a stream (see 
+     *  {@link com.ecyrd.jspwiki.filters.StreamingPageFilter}), the HTML is
+     *  never collected into a String.
+     *
+     *  @param context The WikiContext to render in.
+     *  @param pagedata Raw page data to convert to HTML
+     *  @param out The Writer to write into.  It is not closed.
+     *  @throws IOException If writing fails.
+     *  @since 2.4.71
+     */
+    public void textToHTML( WikiContext context, String pagedata, Writer out )
+        throws IOException
+    {
         boolean runFilters = "true".equals(m_variableManager.getValue(context,PROP_RUNFILTERS,"true"));
         
         StopWatch sw = new StopWatch();
@@ -1366,12 +1412,19 @@ public class WikiEngine
         try
         {
             if( runFilters )
+            {
                 pagedata = m_filterManager.doPreTranslateFiltering( context, pagedata );
-
-            result = m_renderingManager.getHTML( context, pagedata );
-
-            if( runFilters )
-                result = m_filterManager.doPostTranslateFiltering( context, result );
+            
+                Writer filtered = m_filterManager.doPostTranslateFiltering( context, out );
+                
+                m_renderingManager.render( context, pagedata, filtered );
+                
+                filtered.close();
+            }
+            else
+            {
+                m_renderingManager.render( context, pagedata, out );
+            }
         }
         catch( FilterException e )
         {
@@ -1380,8 +1433,6 @@ public class WikiEngine
         sw.stop();
         if( log.isDebugEnabled() )
             log.debug("Page "+context.getRealPage().getName()+" rendered, took "+sw );
-            
-        return( result );
     }
 
     /**
@@ -1398,18 +1449,51 @@ public class WikiEngine
     
     /**
      *  Reads a WikiPageful of data from a String and returns all links
-     *  internal to this Wiki in a Collection.
+     *  internal to this Wiki in a Collection.  The page is only parsed
+     *  for its links: it is not rendered, so no plugins are run and the
+     *  post-translate filters are not called.
      */
     protected Collection scanWikiLinks( WikiPage page, String pagedata )
     {
         LinkCollector localCollector = new LinkCollector();        
 
-        textToHTML( new WikiContext(this,page),
-                    pagedata,
-                    localCollector,
-                    null,
-                    localCollector,
-                    false );
+        if( pagedata == null ) 
+        {
+            log.error("NULL pagedata to scanWikiLinks()");
+            return localCollector.getLinks();
+        }
+
+        WikiContext context = new WikiContext( this, page );
+        
+        boolean runFilters = "true".equals(m_variableManager.getValue(context,PROP_RUNFILTERS,"true"));
+        
+        try
+        {
+            StopWatch sw = new StopWatch();
+            sw.start();
+            
+            if( runFilters )
+                pagedata = m_filterManager.doPreTranslateFiltering( context, pagedata );
+
+            m_renderingManager.scanLinks( context,
+                                          pagedata,
+                                          localCollector,
+                                          null,
+                                          localCollector );
+            
+            sw.stop();
+
+            if( log.isDebugEnabled() )
+                log.debug("Page "+page.getName()+" scanned for links, took "+sw );
+        }
+        catch( IOException e )
+        {
+            log.error("Failed to scan page data: ", e);
+        }
+        catch( FilterException e )
+        {
+            // FIXME: Don't yet know what to do
+        }
 
         return localCollector.getLinks();
     }
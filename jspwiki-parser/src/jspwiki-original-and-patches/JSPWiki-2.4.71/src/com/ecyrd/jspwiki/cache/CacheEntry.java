@@ -0,0 +1,92 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.cache;
+
+/**
+ *  Stores a single value in a {@link WikiCache}, along with the time
+ *  it was put in the cache.
+ *
+ *  @since 2.4.71
+ */
+public final class CacheEntry
+{
+    /** The refresh period to use when an entry should never expire. */
+    public static final int INDEFINITE_EXPIRY = -1;
+
+    private final Object m_key;
+    private final Object m_value;
+    private final long   m_created;
+
+    // These are for the use of the cache implementations.
+    int    m_hash;
+    long   m_weight;
+
+    public CacheEntry( Object key, Object value )
+    {
+        m_key     = key;
+        m_value   = value;
+        m_created = System.currentTimeMillis();
+    }
+
+    public Object getKey()
+    {
+        return m_key;
+    }
+
+    public Object getValue()
+    {
+        return m_value;
+    }
+
+    /**
+     *  Returns the time when this entry was created.
+     *
+     *  @return The time in milliseconds.
+     */
+    public long getCreated()
+    {
+        return m_created;
+    }
+
+    /**
+     *  Returns the approximate weight of this entry, if the cache
+     *  implementation keeps track of it.
+     *
+     *  @return Weight in bytes, or zero, if not known.
+     */
+    public long getWeight()
+    {
+        return m_weight;
+    }
+
+    /**
+     *  Checks whether this entry is older than the given refresh period.
+     *
+     *  @param refreshPeriod The period in seconds.  If it is negative, the
+     *                       entry never expires.
+     *  @return True, if the entry should be refreshed.
+     */
+    public boolean isExpired( int refreshPeriod )
+    {
+        if( refreshPeriod < 0 ) return false;
+
+        return System.currentTimeMillis() - m_created >= refreshPeriod * 1000L;
+    }
+}
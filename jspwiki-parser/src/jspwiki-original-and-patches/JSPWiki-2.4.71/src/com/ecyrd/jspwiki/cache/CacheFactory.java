@@ -0,0 +1,92 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.cache;
+
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import com.ecyrd.jspwiki.util.ClassUtil;
+
+/**
+ *  Creates WikiCache instances.  The implementation class is read from the
+ *  "jspwiki.cache.implementation" property; if it is not fully qualified, it
+ *  is looked up from this package.  The default is {@link ConcurrentWikiCache}.
+ *  If you want the old OSCache-based caching back, use
+ *  <pre>
+ *    jspwiki.cache.implementation = OSCacheWikiCache
+ *  </pre>
+ *
+ *  @since 2.4.71
+ */
+public final class CacheFactory
+{
+    private static final Logger log = Logger.getLogger( CacheFactory.class );
+
+    public static final String PROP_IMPLEMENTATION    = "jspwiki.cache.implementation";
+
+    public static final String DEFAULT_IMPLEMENTATION = ConcurrentWikiCache.class.getName();
+
+    private CacheFactory()
+    {}
+
+    /**
+     *  Creates and initializes a new cache.
+     *
+     *  @param properties The engine properties.
+     *  @param name Name of the cache, used in logs and statistics.
+     *  @param capacity Maximum number of entries; zero or less means no limit.
+     *  @param maxWeight Maximum total weight in bytes; zero or less means no limit.
+     *  @return A new WikiCache.
+     *  @throws IllegalArgumentException If the implementation class cannot be found or instantiated.
+     */
+    public static WikiCache createCache( Properties properties, String name, int capacity, long maxWeight )
+    {
+        String classname = properties.getProperty( PROP_IMPLEMENTATION, DEFAULT_IMPLEMENTATION ).trim();
+
+        WikiCache cache;
+
+        try
+        {
+            Class c = ClassUtil.findClass( "com.ecyrd.jspwiki.cache", classname );
+
+            cache = (WikiCache) c.newInstance();
+        }
+        catch( ClassNotFoundException e )
+        {
+            log.error("Unable to locate cache class "+classname,e);
+            throw new IllegalArgumentException("no cache class");
+        }
+        catch( InstantiationException e )
+        {
+            log.error("Unable to create cache class "+classname,e);
+            throw new IllegalArgumentException("faulty cache class");
+        }
+        catch( IllegalAccessException e )
+        {
+            log.error("Illegal access to cache class "+classname,e);
+            throw new IllegalArgumentException("illegal cache class");
+        }
+
+        cache.initialize( name, capacity, maxWeight, properties );
+
+        return cache;
+    }
+}
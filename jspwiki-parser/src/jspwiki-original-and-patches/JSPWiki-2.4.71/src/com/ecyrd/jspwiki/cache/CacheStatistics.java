@@ -0,0 +1,135 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.cache;
+
+/**
+ *  A snapshot of the hit, miss and eviction counts of a single
+ *  {@link WikiCache}.
+ *
+ *  @since 2.4.71
+ */
+public class CacheStatistics
+{
+    private final String m_name;
+    private final long   m_hits;
+    private final long   m_misses;
+    private final long   m_evictions;
+    private final long   m_rejections;
+    private final int    m_size;
+    private final long   m_weight;
+
+    public CacheStatistics( String name,
+                            long hits,
+                            long misses,
+                            long evictions,
+                            long rejections,
+                            int size,
+                            long weight )
+    {
+        m_name       = name;
+        m_hits       = hits;
+        m_misses     = misses;
+        m_evictions  = evictions;
+        m_rejections = rejections;
+        m_size       = size;
+        m_weight     = weight;
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public long getHits()
+    {
+        return m_hits;
+    }
+
+    public long getMisses()
+    {
+        return m_misses;
+    }
+
+    /**
+     *  Returns the number of entries that were thrown out of the cache
+     *  to make room for new ones.
+     *
+     *  @return The eviction count.
+     */
+    public long getEvictions()
+    {
+        return m_evictions;
+    }
+
+    /**
+     *  Returns the number of values the cache declined to store, because
+     *  they were too big or used less often than the entries they would
+     *  have replaced.
+     *
+     *  @return The rejection count.
+     */
+    public long getRejections()
+    {
+        return m_rejections;
+    }
+
+    /**
+     *  Returns the number of entries in the cache, or -1, if not known.
+     *
+     *  @return The size.
+     */
+    public int getSize()
+    {
+        return m_size;
+    }
+
+    /**
+     *  Returns the approximate weight of all entries in bytes, or -1,
+     *  if not known.
+     *
+     *  @return The weight.
+     */
+    public long getWeight()
+    {
+        return m_weight;
+    }
+
+    /**
+     *  Returns the hit ratio, between 0.0 and 1.0.
+     *
+     *  @return The hit ratio, or zero, if the cache has not been used yet.
+     */
+    public double getHitRatio()
+    {
+        long requests = m_hits + m_misses;
+
+        return requests == 0 ? 0.0 : (double)m_hits / requests;
+    }
+
+    public String toString()
+    {
+        return m_name+": hits="+m_hits+
+               ", misses="+m_misses+
+               ", evictions="+m_evictions+
+               ", rejections="+m_rejections+
+               ", size="+m_size+
+               ", weight="+m_weight;
+    }
+}
@@ -0,0 +1,478 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+import com.ecyrd.jspwiki.TextUtil;
+import com.ecyrd.jspwiki.WikiPage;
+import com.ecyrd.jspwiki.parser.CompactDocument;
+import com.ecyrd.jspwiki.parser.WikiDocument;
+
+/**
+ *  The default WikiCache implementation.  The key space is split into a number
+ *  of segments, each of which has its own lock, LRU list and statistics, so that
+ *  threads working on different keys do not stop each other.
+ *  <p>
+ *  The cache can be limited both by the number of entries and by the total
+ *  weight of the entries.  The weight is an estimate of the memory used by
+ *  the value in bytes; a cached 2 MB page therefore counts a lot more than a
+ *  small one.  See {@link #weigh(Object)}.
+ *  <p>
+ *  When the cache is full, a new entry is only let in if it has been asked for at
+ *  least as often as the entries it would replace.  The access frequencies
+ *  are tracked with a small count-min sketch in each segment.  This keeps a burst
+ *  of one-off requests (e.g. a crawler) from flushing out the popular pages.
+ *  <p>
+ *  The number of segments can be set with "jspwiki.cache.segments"; the default
+ *  is 16.
+ *
+ *  @since 2.4.71
+ */
+public class ConcurrentWikiCache
+    implements WikiCache
+{
+    private static final Logger log = Logger.getLogger( ConcurrentWikiCache.class );
+
+    public static final String PROP_SEGMENTS    = "jspwiki.cache.segments";
+
+    private static final int   DEFAULT_SEGMENTS = 16;
+
+    /** Segments smaller than this are not worth it. */
+    private static final int   MIN_SEGMENT_CAPACITY = 8;
+
+    /** Size of the sketch in a segment of unlimited capacity. */
+    private static final int   DEFAULT_SKETCH_SIZE  = 256;
+
+    /** Rough memory use of a single cache entry without the value. */
+    protected static final long ENTRY_OVERHEAD   = 64;
+
+    /** Rough memory use of an element in a cached Collection. */
+    protected static final long ELEMENT_OVERHEAD = 128;
+
+    /** Rough memory use of a WikiPage object. */
+    protected static final long PAGE_OVERHEAD    = 256;
+
+    /** How many times bigger the DOM tree of a WikiDocument is than its source text. */
+    protected static final long DOCUMENT_FACTOR  = 4;
+
+    private String    m_name;
+    private Segment[] m_segments;
+    private int       m_segmentMask;
+    private long      m_maxWeight;
+
+    private final Object m_weightLock = new Object();
+    private long      m_totalWeight;
+    private int       m_evictionCursor;
+
+    public void initialize( String name, int capacity, long maxWeight, Properties properties )
+    {
+        m_name      = name;
+        m_maxWeight = maxWeight > 0 ? maxWeight : 0;
+
+        int wanted = TextUtil.getIntegerProperty( properties, PROP_SEGMENTS, DEFAULT_SEGMENTS );
+
+        int segments = 1;
+        while( segments < wanted ) segments <<= 1;
+
+        if( capacity > 0 )
+        {
+            while( segments > 1 && capacity / segments < MIN_SEGMENT_CAPACITY ) segments >>= 1;
+        }
+
+        int segmentCapacity = capacity > 0 ? Math.max( 1, capacity / segments ) : 0;
+
+        m_segments    = new Segment[segments];
+        m_segmentMask = segments - 1;
+
+        for( int i = 0; i < segments; i++ )
+        {
+            m_segments[i] = new Segment( segmentCapacity );
+        }
+
+        log.debug( "Cache "+name+": "+segments+" segments, capacity "+
+                   (capacity > 0 ? Integer.toString(capacity) : "unlimited")+", max weight "+
+                   (m_maxWeight > 0 ? Long.toString(m_maxWeight) : "unlimited") );
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    /**
+     *  Spreads the bits of the hash code, so that the segment and sketch
+     *  indices are not just taken from the low bits.
+     */
+    private static int spread( Object key )
+    {
+        int h = key.hashCode();
+
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+
+        return h;
+    }
+
+    private Segment segmentFor( int hash )
+    {
+        return m_segments[(hash >>> 16) & m_segmentMask];
+    }
+
+    public CacheEntry get( Object key )
+    {
+        int     hash = spread( key );
+        Segment seg  = segmentFor( hash );
+
+        synchronized( seg )
+        {
+            seg.m_sketch.increment( hash );
+
+            CacheEntry e = (CacheEntry) seg.m_map.get( key );
+
+            if( e == null )
+                seg.m_misses++;
+            else
+                seg.m_hits++;
+
+            return e;
+        }
+    }
+
+    public void put( Object key, Object value )
+    {
+        int     hash  = spread( key );
+        Segment seg   = segmentFor( hash );
+
+        CacheEntry entry = new CacheEntry( key, value );
+        entry.m_hash   = hash;
+        entry.m_weight = weigh( value );
+
+        long delta = 0;
+
+        synchronized( seg )
+        {
+            seg.m_sketch.increment( hash );
+
+            CacheEntry old = (CacheEntry) seg.m_map.remove( key );
+
+            if( old != null ) delta -= old.m_weight;
+
+            if( m_maxWeight > 0 && entry.m_weight > m_maxWeight )
+            {
+                //  Would never fit.  The old value is out of date, so it
+                //  stays removed.
+                seg.m_rejections++;
+            }
+            else if( old == null && !seg.admit( entry, getTotalWeight() + delta ) )
+            {
+                seg.m_rejections++;
+            }
+            else
+            {
+                delta -= seg.makeRoom( entry, getTotalWeight() + delta );
+
+                seg.m_map.put( key, entry );
+                delta += entry.m_weight;
+            }
+        }
+
+        adjustWeight( delta );
+
+        if( m_maxWeight > 0 && getTotalWeight() > m_maxWeight )
+        {
+            evictForWeight();
+        }
+    }
+
+    public void remove( Object key )
+    {
+        int     hash = spread( key );
+        Segment seg  = segmentFor( hash );
+        CacheEntry old;
+
+        synchronized( seg )
+        {
+            old = (CacheEntry) seg.m_map.remove( key );
+        }
+
+        if( old != null ) adjustWeight( -old.m_weight );
+    }
+
+    public void removeMatching( String pattern )
+    {
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            Segment seg = m_segments[i];
+            long removed = 0;
+
+            synchronized( seg )
+            {
+                for( Iterator it = seg.m_map.values().iterator(); it.hasNext(); )
+                {
+                    CacheEntry e = (CacheEntry) it.next();
+
+                    if( e.getKey().toString().indexOf( pattern ) != -1 )
+                    {
+                        it.remove();
+                        removed += e.m_weight;
+                    }
+                }
+            }
+
+            adjustWeight( -removed );
+        }
+    }
+
+    public void clear()
+    {
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            Segment seg = m_segments[i];
+            long removed = 0;
+
+            synchronized( seg )
+            {
+                for( Iterator it = seg.m_map.values().iterator(); it.hasNext(); )
+                {
+                    removed += ((CacheEntry) it.next()).m_weight;
+                }
+                seg.m_map.clear();
+            }
+
+            adjustWeight( -removed );
+        }
+    }
+
+    public CacheStatistics getStatistics()
+    {
+        long hits = 0, misses = 0, evictions = 0, rejections = 0;
+        int  size = 0;
+
+        for( int i = 0; i < m_segments.length; i++ )
+        {
+            Segment seg = m_segments[i];
+
+            synchronized( seg )
+            {
+                hits       += seg.m_hits;
+                misses     += seg.m_misses;
+                evictions  += seg.m_evictions;
+                rejections += seg.m_rejections;
+                size       += seg.m_map.size();
+            }
+        }
+
+        return new CacheStatistics( m_name, hits, misses, evictions, rejections, size, getTotalWeight() );
+    }
+
+    /**
+     *  Estimates the memory used by a cached value, in bytes.  The estimate
+     *  does not need to be exact, but it should be in proportion to the real
+     *  size.  Override, if you are caching something this method does not
+     *  know about.
+     *
+     *  @param value The value.  May be null.
+     *  @return The estimated weight.
+     */
+    protected long weigh( Object value )
+    {
+        if( value == null )
+        {
+            return ENTRY_OVERHEAD;
+        }
+        else if( value instanceof String )
+        {
+            return ENTRY_OVERHEAD + 2L * ((String)value).length();
+        }
+        else if( value instanceof WikiDocument )
+        {
+            String data = ((WikiDocument)value).getPageData();
+            CompactDocument compact = ((WikiDocument)value).getCompactDocument();
+
+            if( compact != null )
+            {
+                //
+                //  The compact form knows its own size; the page text is
+                //  kept alongside it.
+                //
+                return ENTRY_OVERHEAD + compact.getSize() + (data != null ? 2L * data.length() : 0);
+            }
+
+            return ENTRY_OVERHEAD + (data != null ? DOCUMENT_FACTOR * 2L * data.length() : PAGE_OVERHEAD);
+        }
+        else if( value instanceof WikiPage )
+        {
+            return ENTRY_OVERHEAD + PAGE_OVERHEAD;
+        }
+        else if( value instanceof Collection )
+        {
+            return ENTRY_OVERHEAD + ELEMENT_OVERHEAD * ((Collection)value).size();
+        }
+
+        return ENTRY_OVERHEAD;
+    }
+
+    private long getTotalWeight()
+    {
+        synchronized( m_weightLock )
+        {
+            return m_totalWeight;
+        }
+    }
+
+    private void adjustWeight( long delta )
+    {
+        if( delta == 0 ) return;
+
+        synchronized( m_weightLock )
+        {
+            m_totalWeight += delta;
+        }
+    }
+
+    /**
+     *  Evicts the least recently used entries from all segments in turn
+     *  until the total weight is within limits.  Each segment is locked
+     *  separately, so this never holds more than one segment lock.
+     */
+    private void evictForWeight()
+    {
+        int empty = 0;
+
+        while( getTotalWeight() > m_maxWeight && empty < m_segments.length )
+        {
+            int idx;
+
+            synchronized( m_weightLock )
+            {
+                idx = m_evictionCursor;
+                m_evictionCursor = (m_evictionCursor + 1) & m_segmentMask;
+            }
+
+            Segment seg = m_segments[idx];
+            long removed = 0;
+
+            synchronized( seg )
+            {
+                Iterator it = seg.m_map.values().iterator();
+
+                if( it.hasNext() )
+                {
+                    CacheEntry victim = (CacheEntry) it.next();
+                    it.remove();
+                    seg.m_evictions++;
+                    removed = victim.m_weight;
+                    empty = 0;
+                }
+                else
+                {
+                    empty++;
+                }
+            }
+
+            adjustWeight( -removed );
+        }
+    }
+
+    /**
+     *  A part of the cache.  All fields are guarded by the Segment itself.
+     */
+    private class Segment
+    {
+        /** Keys to CacheEntries, in LRU order (eldest first). */
+        final LinkedHashMap   m_map = new LinkedHashMap( 16, 0.75f, true );
+        final FrequencySketch m_sketch;
+        final int             m_capacity;
+
+        long m_hits;
+        long m_misses;
+        long m_evictions;
+        long m_rejections;
+
+        Segment( int capacity )
+        {
+            m_capacity = capacity;
+            m_sketch   = new FrequencySketch( capacity > 0 ? capacity : DEFAULT_SKETCH_SIZE );
+        }
+
+        private boolean isFull( int size, long weight, CacheEntry candidate )
+        {
+            return (m_capacity > 0 && size >= m_capacity) ||
+                   (m_maxWeight > 0 && weight + candidate.m_weight > m_maxWeight);
+        }
+
+        /**
+         *  Decides whether a new entry is allowed in.  If there's room, it
+         *  always is.  If not, it is compared against the entries that would
+         *  be evicted to make room; if any of them has been used more often,
+         *  the candidate is rejected.
+         */
+        boolean admit( CacheEntry candidate, long totalWeight )
+        {
+            int  size   = m_map.size();
+            long weight = totalWeight;
+
+            if( !isFull( size, weight, candidate ) ) return true;
+
+            int candidateFreq = m_sketch.frequency( candidate.m_hash );
+
+            for( Iterator it = m_map.values().iterator(); it.hasNext() && isFull( size, weight, candidate ); )
+            {
+                CacheEntry victim = (CacheEntry) it.next();
+
+                if( m_sketch.frequency( victim.m_hash ) > candidateFreq ) return false;
+
+                size--;
+                weight -= victim.m_weight;
+            }
+
+            return true;
+        }
+
+        /**
+         *  Evicts the least recently used entries of this segment until the
+         *  candidate fits, or this segment runs out of entries.
+         *
+         *  @return The weight of the evicted entries.
+         */
+        long makeRoom( CacheEntry candidate, long totalWeight )
+        {
+            long removed = 0;
+
+            for( Iterator it = m_map.values().iterator();
+                 it.hasNext() && isFull( m_map.size(), totalWeight - removed, candidate ); )
+            {
+                CacheEntry victim = (CacheEntry) it.next();
+                it.remove();
+                m_evictions++;
+                removed += victim.m_weight;
+            }
+
+            return removed;
+        }
+    }
+}
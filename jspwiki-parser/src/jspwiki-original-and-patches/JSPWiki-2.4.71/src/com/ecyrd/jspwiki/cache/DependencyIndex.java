@@ -0,0 +1,184 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *  Keeps track of which cache keys depend on which wiki pages, so that
+ *  a change to a page can be propagated to exactly those cache entries
+ *  that were built from it.  A cache key may depend on any number of
+ *  pages, and each page may have any number of dependent keys.
+ *  <p>
+ *  The index does not hear about evictions from the cache it serves.  Keys
+ *  which have already been evicted are simply returned once more when one
+ *  of their dependencies changes, and removing them again from the cache is
+ *  harmless.  Since a key is dropped from the index whenever it is returned
+ *  by {@link #invalidate(String)}, and whenever it is registered again,
+ *  the index does not grow beyond the number of keys ever cached.
+ *  <p>
+ *  All methods are synchronized.
+ *
+ *  @since 2.4.71
+ */
+public class DependencyIndex
+{
+    /** Maps dependency (page name) to a Set of keys. */
+    private Map m_keysByDependency = new HashMap();
+
+    /** Maps key to a Collection of dependencies. */
+    private Map m_dependenciesByKey = new HashMap();
+
+    /**
+     *  Records the dependencies of the given key, replacing any
+     *  dependencies that were previously registered for it.
+     *
+     *  @param key The cache key.
+     *  @param dependencies A Collection of page names (Strings).
+     */
+    public synchronized void register( Object key, Collection dependencies )
+    {
+        remove( key );
+
+        Set deps = new HashSet( dependencies );
+
+        for( Iterator i = deps.iterator(); i.hasNext(); )
+        {
+            Object dep = i.next();
+
+            Set keys = (Set) m_keysByDependency.get( dep );
+
+            if( keys == null )
+            {
+                keys = new HashSet();
+                m_keysByDependency.put( dep, keys );
+            }
+
+            keys.add( key );
+        }
+
+        m_dependenciesByKey.put( key, deps );
+    }
+
+    /**
+     *  Returns all the keys which depend on the given page, and forgets
+     *  about them.  The caller is expected to remove the returned keys
+     *  from the cache.
+     *
+     *  @param dependency The name of the page which has changed.
+     *  @return A Collection of keys.  Never null.
+     */
+    public synchronized Collection invalidate( String dependency )
+    {
+        Set keys = (Set) m_keysByDependency.remove( dependency );
+
+        if( keys == null )
+        {
+            return new ArrayList();
+        }
+
+        for( Iterator i = keys.iterator(); i.hasNext(); )
+        {
+            Object key = i.next();
+
+            Collection deps = (Collection) m_dependenciesByKey.remove( key );
+
+            if( deps != null )
+            {
+                unlink( key, deps );
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     *  Forgets everything about the given key.
+     *
+     *  @param key The cache key.
+     */
+    public synchronized void remove( Object key )
+    {
+        Collection deps = (Collection) m_dependenciesByKey.remove( key );
+
+        if( deps != null )
+        {
+            unlink( key, deps );
+        }
+    }
+
+    /**
+     *  Returns the pages the given key depends on.
+     *
+     *  @param key The cache key.
+     *  @return A Collection of page names, or null, if the key is not known.
+     */
+    public synchronized Collection getDependencies( Object key )
+    {
+        Collection deps = (Collection) m_dependenciesByKey.get( key );
+
+        return deps != null ? new ArrayList( deps ) : null;
+    }
+
+    /**
+     *  Returns the number of keys in the index.
+     *
+     *  @return Number of keys.
+     */
+    public synchronized int size()
+    {
+        return m_dependenciesByKey.size();
+    }
+
+    /**
+     *  Empties the index.
+     */
+    public synchronized void clear()
+    {
+        m_keysByDependency.clear();
+        m_dependenciesByKey.clear();
+    }
+
+    private void unlink( Object key, Collection deps )
+    {
+        for( Iterator i = deps.iterator(); i.hasNext(); )
+        {
+            Object dep = i.next();
+
+            Set keys = (Set) m_keysByDependency.get( dep );
+
+            if( keys != null )
+            {
+                keys.remove( key );
+
+                if( keys.isEmpty() )
+                {
+                    m_keysByDependency.remove( dep );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.cache;
+
+/**
+ *  A count-min sketch which estimates how often a key has been seen
+ *  recently.  Each counter is four bits wide, and all counters are halved
+ *  once enough increments have happened, so that keys which were popular
+ *  a long time ago are slowly forgotten.
+ *  <p>
+ *  This class is not thread safe; the caller must synchronize.
+ *
+ *  @since 2.4.71
+ */
+class FrequencySketch
+{
+    private static final int   MAX_COUNT = 15;
+    private static final int[] SEEDS = { 0x97cb3127, 0xb1a4d5a3, 0x7f4a7c15, 0xe3779b97 };
+
+    private final byte[] m_counters;
+    private final int    m_mask;
+    private final int    m_sampleSize;
+    private       int    m_additions;
+
+    /**
+     *  Creates a sketch which is suitable for tracking the given number
+     *  of entries.
+     *
+     *  @param maxEntries The number of entries the cache holds.
+     */
+    FrequencySketch( int maxEntries )
+    {
+        int size = 16;
+
+        while( size < maxEntries * 8 && size < (1 << 24) ) size <<= 1;
+
+        m_counters   = new byte[size];
+        m_mask       = size - 1;
+        m_sampleSize = Math.max( maxEntries, 16 ) * 10;
+    }
+
+    private int indexOf( int hash, int i )
+    {
+        int h = (hash + SEEDS[i]) * SEEDS[i];
+        h ^= (h >>> 16);
+
+        return h & m_mask;
+    }
+
+    /**
+     *  Returns the estimated frequency of the key.
+     *
+     *  @param hash A well-spread hash code of the key.
+     *  @return A value between 0 and 15.
+     */
+    int frequency( int hash )
+    {
+        int min = MAX_COUNT;
+
+        for( int i = 0; i < SEEDS.length; i++ )
+        {
+            int c = m_counters[indexOf( hash, i )];
+
+            if( c < min ) min = c;
+        }
+
+        return min;
+    }
+
+    /**
+     *  Records one occurrence of the key.
+     *
+     *  @param hash A well-spread hash code of the key.
+     */
+    void increment( int hash )
+    {
+        boolean added = false;
+
+        for( int i = 0; i < SEEDS.length; i++ )
+        {
+            int idx = indexOf( hash, i );
+
+            if( m_counters[idx] < MAX_COUNT )
+            {
+                m_counters[idx]++;
+                added = true;
+            }
+        }
+
+        if( added && ++m_additions >= m_sampleSize )
+        {
+            reset();
+        }
+    }
+
+    /**
+     *  Halves all counters.
+     */
+    private void reset()
+    {
+        for( int i = 0; i < m_counters.length; i++ )
+        {
+            m_counters[i] = (byte)(m_counters[i] >>> 1);
+        }
+
+        m_additions = m_additions / 2;
+    }
+}
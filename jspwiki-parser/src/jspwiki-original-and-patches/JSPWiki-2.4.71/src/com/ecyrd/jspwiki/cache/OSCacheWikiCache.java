@@ -0,0 +1,119 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.cache;
+
+import java.util.Date;
+import java.util.Properties;
+
+import com.opensymphony.oscache.base.Cache;
+import com.opensymphony.oscache.base.NeedsRefreshException;
+
+/**
+ *  A WikiCache which stores its entries in an OSCache LRU cache, just like
+ *  JSPWiki did before the WikiCache interface existed.  The capacity is a
+ *  plain entry count; the maximum weight is ignored.
+ *  <p>
+ *  Use this by setting "jspwiki.cache.implementation = OSCacheWikiCache".
+ *
+ *  @since 2.4.71
+ */
+public class OSCacheWikiCache
+    implements WikiCache
+{
+    private static final String OSCACHE_ALGORITHM = "com.opensymphony.oscache.base.algorithm.LRUCache";
+
+    private String m_name;
+    private Cache  m_cache;
+
+    private long   m_hits   = 0;
+    private long   m_misses = 0;
+
+    public void initialize( String name, int capacity, long maxWeight, Properties properties )
+    {
+        m_name = name;
+
+        if( capacity > 0 )
+        {
+            m_cache = new Cache( true, false, false, false, OSCACHE_ALGORITHM, capacity );
+        }
+        else
+        {
+            m_cache = new Cache( true, false, false );
+        }
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public CacheEntry get( Object key )
+    {
+        String k = key.toString();
+
+        try
+        {
+            CacheEntry e = (CacheEntry) m_cache.getFromCache( k, CacheEntry.INDEFINITE_EXPIRY );
+
+            synchronized( this ) { m_hits++; }
+
+            return e;
+        }
+        catch( NeedsRefreshException e )
+        {
+            //  OSCache expects us to update the entry now; we just tell it
+            //  we're not going to.
+            m_cache.cancelUpdate( k );
+
+            synchronized( this ) { m_misses++; }
+
+            return null;
+        }
+    }
+
+    public void put( Object key, Object value )
+    {
+        m_cache.putInCache( key.toString(), new CacheEntry( key, value ) );
+    }
+
+    public void remove( Object key )
+    {
+        m_cache.flushEntry( key.toString() );
+    }
+
+    public void removeMatching( String pattern )
+    {
+        m_cache.flushPattern( pattern );
+    }
+
+    public void clear()
+    {
+        m_cache.flushAll( new Date() );
+    }
+
+    /**
+     *  OSCache does not tell us about evictions nor its size, so those are
+     *  reported as -1.
+     */
+    public synchronized CacheStatistics getStatistics()
+    {
+        return new CacheStatistics( m_name, m_hits, m_misses, -1, 0, -1, -1 );
+    }
+}
@@ -0,0 +1,104 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.cache;
+
+import java.util.Properties;
+
+/**
+ *  Defines the interface that all of the in-memory caches within JSPWiki
+ *  talk to.  A cache maps keys to {@link CacheEntry} objects; the entry
+ *  remembers when it was stored, so that the caller can decide for itself
+ *  whether the value is still fresh enough.
+ *  <p>
+ *  Caches are created through {@link CacheFactory}, which picks the
+ *  implementation from the "jspwiki.cache.implementation" property.
+ *  The implementation must have a public no-arg constructor.
+ *
+ *  @since 2.4.71
+ */
+public interface WikiCache
+{
+    /**
+     *  Initializes the cache.  This is called exactly once, before
+     *  any other method.
+     *
+     *  @param name A name for the cache.  Used for logging and statistics.
+     *  @param capacity Maximum number of entries; zero or less means no limit.
+     *  @param maxWeight Maximum total weight (approximately bytes) of the
+     *                   entries; zero or less means no limit.
+     *  @param properties The engine properties.
+     */
+    public void initialize( String name, int capacity, long maxWeight, Properties properties );
+
+    /**
+     *  Returns the name given in initialize().
+     *
+     *  @return The cache name.
+     */
+    public String getName();
+
+    /**
+     *  Returns the entry stored under the key.  The entry is returned even
+     *  if it is old; use {@link CacheEntry#isExpired(int)} to check.
+     *
+     *  @param key The key.
+     *  @return The entry, or null, if there was no such entry in the cache.
+     */
+    public CacheEntry get( Object key );
+
+    /**
+     *  Stores a value in the cache.  A null value is allowed, and is stored
+     *  as such (i.e. get() will return an entry whose value is null).  The cache
+     *  is allowed to decline storing the value, if it thinks the value is
+     *  not worth it.
+     *
+     *  @param key The key.
+     *  @param value The value to store.
+     */
+    public void put( Object key, Object value );
+
+    /**
+     *  Removes a single entry.
+     *
+     *  @param key The key to remove.
+     */
+    public void remove( Object key );
+
+    /**
+     *  Removes all the entries whose key (as a String) contains the given
+     *  pattern.  This is a slow operation, as it has to go through the
+     *  entire cache.
+     *
+     *  @param pattern The pattern to look for.
+     */
+    public void removeMatching( String pattern );
+
+    /**
+     *  Empties the cache.
+     */
+    public void clear();
+
+    /**
+     *  Returns a snapshot of the statistics of this cache.
+     *
+     *  @return A CacheStatistics object.
+     */
+    public CacheStatistics getStatistics();
+}
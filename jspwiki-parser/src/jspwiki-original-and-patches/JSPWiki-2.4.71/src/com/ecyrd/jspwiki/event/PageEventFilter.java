@@ -22,8 +22,11 @@ package com.ecyrd.jspwiki.event;
 
 import com.ecyrd.jspwiki.filters.BasicPageFilter;
 import com.ecyrd.jspwiki.filters.FilterException;
+import com.ecyrd.jspwiki.filters.StreamingPageFilter;
 
 import com.ecyrd.jspwiki.WikiContext;
+
+import java.io.Writer;
 import java.util.Properties;
 
 /**
@@ -49,7 +52,7 @@ import java.util.Properties;
   * @see com.ecyrd.jspwiki.event.WikiEventManager
   * @author Murray Altheim
   */
-public class PageEventFilter extends BasicPageFilter
+public class PageEventFilter extends BasicPageFilter implements StreamingPageFilter
 {
 
     /**
@@ -90,6 +93,18 @@ public class PageEventFilter extends BasicPageFilter
     }
 
 
+    /**
+      * Fires the same event as {@link #postTranslate(WikiContext, String)}, but
+      * lets the HTML stream through unchanged.
+      */
+    public Writer postTranslate( WikiContext wikiContext, Writer out )
+            throws FilterException
+    {
+        fireEvent( WikiPageEvent.POST_TRANSLATE, wikiContext );
+        return out;
+    }
+
+
     /**
       * This method is called before the page has been saved to the PageProvider.
       */
@@ -180,6 +180,19 @@ public class WikiPageEvent extends WikiEvent
       * @since 2.4.65 */
     public static final int PAGE_DELETED         = 27;
 
+    /** Indicates that the text of a wiki page has been written into the repository.
+      * This is based on events generated by {@link com.ecyrd.jspwiki.PageManager}. 
+      * @since 2.4.71 */
+    public static final int PAGE_SAVED           = 28;
+
+    /** Indicates that a wiki page may have appeared or disappeared without being
+      * saved or deleted through JSPWiki, such as when a page is renamed or its
+      * file is changed outside JSPWiki.  Listeners should check whether the page
+      * now exists.  This is based on events generated by
+      * {@link com.ecyrd.jspwiki.PageManager}.
+      * @since 2.4.71 */
+    public static final int PAGE_CHANGED         = 29;
+
     private String m_pagename     = null;
 
     // ............
@@ -234,7 +247,7 @@ public class WikiPageEvent extends WikiEvent
      */
     public static boolean isValidType( int type )
     {
-        return ( type >= PAGE_LOCK && type <= PAGE_DELETED );
+        return ( type >= PAGE_LOCK && type <= PAGE_CHANGED );
     }
 
 
@@ -270,6 +283,8 @@ public class WikiPageEvent extends WikiEvent
 
             case PAGE_DELETE_REQUEST:  return "PAGE_DELETE_REQUEST";     
             case PAGE_DELETED:         return "PAGE_DELETED";     
+            case PAGE_SAVED:           return "PAGE_SAVED";
+            case PAGE_CHANGED:         return "PAGE_CHANGED";
 
             default:                   return super.eventName();
         }
@@ -307,6 +322,8 @@ public class WikiPageEvent extends WikiEvent
 
             case PAGE_DELETE_REQUEST:  return "page delete request event";
             case PAGE_DELETED:         return "page deleted event";
+            case PAGE_SAVED:           return "page saved event";
+            case PAGE_CHANGED:         return "page changed event";
 
             default:                   return super.getTypeDescription();
         }
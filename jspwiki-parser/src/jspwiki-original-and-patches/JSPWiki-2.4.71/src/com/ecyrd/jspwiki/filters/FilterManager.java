@@ -19,10 +19,16 @@
  */
 package com.ecyrd.jspwiki.filters;
 
+import java.io.FilterWriter;
 import java.io.InputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.File;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Iterator;
 import java.util.List;
@@ -109,6 +115,9 @@ public final class FilterManager
     
     private WikiEngine m_engine = null;
 
+    /** Maps filter Class to Boolean: does the class override BasicPageFilter.postTranslate()? */
+    private static Map c_overridesPostTranslate = new HashMap();
+
 
     public FilterManager( WikiEngine engine, Properties props )
         throws WikiException
@@ -299,6 +308,89 @@ public final class FilterManager
         return pageData;
     }
 
+    /**
+     *  Does the filtering after HTML translation, while the HTML is being
+     *  written.  The returned Writer must be closed once all of the HTML has
+     *  been written into it; the given Writer itself is not closed.
+     *  <p>
+     *  Filters which implement {@link StreamingPageFilter} (or which do not
+     *  touch the HTML at all) see the HTML as it streams past.  Any other
+     *  filter has to see the whole page, so the HTML is collected into a
+     *  String for it, and the filtered result is written out when the
+     *  returned Writer is closed.
+     *
+     *  @param context The WikiContext.
+     *  @param out The Writer to write the filtered HTML into.
+     *  @return A Writer to write the unfiltered HTML into.
+     *  @since 2.4.71
+     */
+    public Writer doPostTranslateFiltering( WikiContext context, Writer out )
+        throws FilterException
+    {
+        fireEvent( WikiPageEvent.POST_TRANSLATE_BEGIN, context );
+
+        List filters = new ArrayList();
+        
+        for( Iterator i = m_pageFilters.iterator(); i.hasNext(); )
+        {
+            filters.add( i.next() );
+        }
+
+        //
+        //  The HTML must go through the filters in the normal order, so the
+        //  Writers are chained starting from the last filter.
+        //
+        Writer w = new EndOfFilteringWriter( context, out );
+
+        for( int i = filters.size()-1; i >= 0; i-- )
+        {
+            PageFilter f = (PageFilter) filters.get( i );
+
+            if( f instanceof StreamingPageFilter )
+            {
+                w = ((StreamingPageFilter)f).postTranslate( context, w );
+            }
+            else if( overridesPostTranslate( f ) )
+            {
+                w = new StringFilterWriter( f, context, w );
+            }
+        }
+
+        return w;
+    }
+
+    /**
+     *  Returns true, if the PageFilter has its own postTranslate() method, i.e.
+     *  one which is not inherited from BasicPageFilter.
+     */
+    private static boolean overridesPostTranslate( PageFilter f )
+    {
+        synchronized( c_overridesPostTranslate )
+        {
+            Boolean result = (Boolean) c_overridesPostTranslate.get( f.getClass() );
+
+            if( result == null )
+            {
+                try
+                {
+                    Class declarer = f.getClass().getMethod( "postTranslate",
+                                                             new Class[] { WikiContext.class, String.class } )
+                                                 .getDeclaringClass();
+                    
+                    result = (declarer != BasicPageFilter.class) ? Boolean.TRUE : Boolean.FALSE;
+                }
+                catch( NoSuchMethodException e )
+                {
+                    result = Boolean.TRUE;
+                }
+                
+                c_overridesPostTranslate.put( f.getClass(), result );
+            }
+
+            return result.booleanValue();
+        }
+    }
+
     /**
      *  Does the filtering before a save to the page repository.
      */
@@ -363,4 +455,70 @@ public final class FilterManager
         }
     }
 
+    /**
+     *  Sits at the end of a streaming filter chain.  Closing it does not close
+     *  the actual output, but signals that the filtering is done.
+     */
+    private class EndOfFilteringWriter extends FilterWriter
+    {
+        private WikiContext m_context;
+        
+        public EndOfFilteringWriter( WikiContext context, Writer out )
+        {
+            super( out );
+            m_context = context;
+        }
+        
+        public void close()
+        {
+            fireEvent( WikiPageEvent.POST_TRANSLATE_END, m_context );
+        }
+    }
+
+    /**
+     *  Collects the HTML into a String for a filter which can only
+     *  post-translate Strings.
+     */
+    private static class StringFilterWriter extends FilterWriter
+    {
+        private PageFilter  m_filter;
+        private WikiContext m_context;
+        private Writer      m_next;
+        private boolean     m_closed = false;
+        
+        public StringFilterWriter( PageFilter filter, WikiContext context, Writer next )
+        {
+            super( new StringWriter() );
+            m_filter  = filter;
+            m_context = context;
+            m_next    = next;
+        }
+        
+        public void flush()
+        {
+            // Nothing can be written before the whole page has been seen.
+        }
+        
+        public void close()
+            throws IOException
+        {
+            if( m_closed ) return;
+            m_closed = true;
+
+            String html = out.toString();
+            
+            try
+            {
+                html = m_filter.postTranslate( m_context, html );
+            }
+            catch( FilterException e )
+            {
+                log.error( "Filter "+m_filter.getClass().getName()+" failed to post-translate", e );
+            }
+            
+            m_next.write( html );
+            m_next.close();
+        }
+    }
+
 }
@@ -0,0 +1,56 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.filters;
+
+import java.io.Writer;
+
+import com.ecyrd.jspwiki.WikiContext;
+
+/**
+ *  A PageFilter which can post-translate HTML while it is being written,
+ *  instead of needing the entire page as a String.  When all the filters
+ *  are streaming filters, the rendered HTML can be written straight to
+ *  the response.
+ *  <p>
+ *  Filters which extend {@link BasicPageFilter} without overriding
+ *  {@link PageFilter#postTranslate(WikiContext, String)} are treated as
+ *  streaming filters automatically, since they do not touch the HTML at all.
+ *
+ *  @since 2.4.71
+ */
+public interface StreamingPageFilter
+    extends PageFilter
+{
+    /**
+     *  Returns a Writer which filters the HTML written into it and writes
+     *  the result into the given Writer.  If the filter does not wish to
+     *  change the HTML, it may just return the given Writer.
+     *  <p>
+     *  Once all of the HTML has been written, the returned Writer is closed.
+     *  At that point it must write out anything it has buffered, and close
+     *  the Writer it was given.
+     *
+     *  @param wikiContext The current wikicontext.
+     *  @param out The Writer to write the filtered HTML into.
+     *  @return A Writer to write the unfiltered HTML into.
+     */
+    public Writer postTranslate( WikiContext wikiContext, Writer out )
+        throws FilterException;
+}
@@ -0,0 +1,71 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.parser;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jdom.Element;
+
+/**
+ *  Is told about the parts of a document as soon as the parser has finished
+ *  them, so that they can be written out while the rest of the page is still
+ *  being parsed.  Once the listener has been called, the parser throws the
+ *  content away, so that only the open elements stay in memory.
+ *  <p>
+ *  The calls come in document order: the start of an element, any of its
+ *  content, and finally its end.  An element is started only once it is
+ *  known to have some content.
+ *
+ *  @since 2.4.71
+ */
+public interface BlockListener
+{
+    /**
+     *  Is called when an element is still open, but the start of it will
+     *  no longer change.  The content of the element follows.
+     *
+     *  @param el The element.
+     *  @throws IOException If the listener fails to write the element.
+     */
+    public void elementStarted( Element el )
+        throws IOException;
+
+    /**
+     *  Is called with finished content of the element which was started last,
+     *  or of the root element.
+     *
+     *  @param content A List of Content objects.  It is emptied by the parser
+     *                 after the call.
+     *  @throws IOException If the listener fails to write the content.
+     */
+    public void contentFinished( List content )
+        throws IOException;
+
+    /**
+     *  Is called when an element which was started has been closed, and all
+     *  of its content has been given to {@link #contentFinished(List)}.
+     *
+     *  @param el The element.
+     *  @throws IOException If the listener fails to write the element.
+     */
+    public void elementFinished( Element el )
+        throws IOException;
+}
@@ -0,0 +1,764 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.parser;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.Result;
+
+import org.jdom.Attribute;
+import org.jdom.CDATA;
+import org.jdom.Comment;
+import org.jdom.Element;
+import org.jdom.Namespace;
+import org.jdom.ProcessingInstruction;
+import org.jdom.Text;
+
+import com.ecyrd.jspwiki.WikiContext;
+
+/**
+ *  A compact, read-only form of a parsed WikiDocument.  Instead of a tree of
+ *  JDOM objects, the nodes are stored in document order in a few parallel
+ *  arrays, and all of the text shares a single char array.  A cached page
+ *  takes a fraction of the memory of its JDOM tree, and the renderers can
+ *  write it out with a simple loop.
+ *  <p>
+ *  Each node has a kind, the index just past its last descendant, a
+ *  reference, and an offset and length.  For elements the reference is the
+ *  element name and the offset and length point at its attributes; for text,
+ *  comments, CDATA and processing instructions the offset and length are a
+ *  slice of the char array.  Links, plugins and variables are still evaluated
+ *  when the page is rendered, so they are kept as objects, and the reference
+ *  points at them.
+ *  <p>
+ *  Use {@link #compact(WikiDocument)} to turn a parsed document into a compact
+ *  one.  The JDOM tree is rebuilt only if someone asks the WikiDocument for it.
+ *
+ *  @since 2.4.71
+ */
+public final class CompactDocument
+{
+    private static final byte ELEMENT       = 0;
+    private static final byte TEXT          = 1;
+    private static final byte LINK          = 2;
+    private static final byte PLUGIN        = 3;
+    private static final byte VARIABLE      = 4;
+    private static final byte PI            = 5;
+    private static final byte COMMENT       = 6;
+    private static final byte CDATA_SECTION = 7;
+
+    /** Rough size of an object header and its reference, in bytes. */
+    private static final long OBJECT_OVERHEAD = 16;
+
+    /** Rough size of a link, plugin or variable object, in bytes. */
+    private static final long DYNAMIC_OVERHEAD = 96;
+
+    private final byte[]   m_kind;
+    private final int[]    m_end;
+    private final int[]    m_ref;
+    private final int[]    m_offset;
+    private final int[]    m_length;
+
+    private final int[]    m_attrName;
+    private final int[]    m_attrOffset;
+    private final int[]    m_attrLength;
+
+    private final String[] m_names;
+    private final Object[] m_objects;
+    private final char[]   m_chars;
+
+    private CompactDocument( Builder b )
+    {
+        m_kind       = new byte[b.m_count];
+        m_end        = new int[b.m_count];
+        m_ref        = new int[b.m_count];
+        m_offset     = new int[b.m_count];
+        m_length     = new int[b.m_count];
+        System.arraycopy( b.m_kind,   0, m_kind,   0, b.m_count );
+        System.arraycopy( b.m_end,    0, m_end,    0, b.m_count );
+        System.arraycopy( b.m_ref,    0, m_ref,    0, b.m_count );
+        System.arraycopy( b.m_offset, 0, m_offset, 0, b.m_count );
+        System.arraycopy( b.m_length, 0, m_length, 0, b.m_count );
+
+        m_attrName   = new int[b.m_attrCount];
+        m_attrOffset = new int[b.m_attrCount];
+        m_attrLength = new int[b.m_attrCount];
+        System.arraycopy( b.m_attrName,   0, m_attrName,   0, b.m_attrCount );
+        System.arraycopy( b.m_attrOffset, 0, m_attrOffset, 0, b.m_attrCount );
+        System.arraycopy( b.m_attrLength, 0, m_attrLength, 0, b.m_attrCount );
+
+        m_names   = (String[]) b.m_names.toArray( new String[b.m_names.size()] );
+        m_objects = b.m_objects.toArray();
+        m_chars   = new char[b.m_chars.length()];
+        b.m_chars.getChars( 0, m_chars.length, m_chars, 0 );
+    }
+
+    /**
+     *  Creates a compact copy of the given document.  The copy has the same
+     *  page, page data, context and headings.  The given document is not
+     *  changed.
+     *  <p>
+     *  Documents which contain something the compact form cannot store, such
+     *  as namespaces or entity references, are returned as they are.
+     *
+     *  @param doc The parsed document.
+     *  @return A compact WikiDocument, or the original one.
+     */
+    public static WikiDocument compact( WikiDocument doc )
+    {
+        if( doc.getCompactDocument() != null || 
+            !doc.hasRootElement() || 
+            doc.getContentSize() != 1 )
+        {
+            return doc;
+        }
+
+        Builder b = new Builder();
+
+        if( !b.addElement( doc.getRootElement(), ELEMENT, -1 ) )
+        {
+            return doc;
+        }
+
+        WikiDocument result = new WikiDocument( doc.getPage(), new CompactDocument( b ) );
+
+        result.setPageData( doc.getPageData() );
+
+        if( doc.getContext() != null )
+        {
+            result.setContext( doc.getContext() );
+        }
+
+        for( Iterator i = doc.getHeadings().iterator(); i.hasNext(); )
+        {
+            result.addHeading( (Heading) i.next() );
+        }
+
+        return result;
+    }
+
+    /**
+     *  Returns the plugins of this document in document order.
+     *
+     *  @return A List of PluginContent objects.
+     */
+    public List getPlugins()
+    {
+        List plugins = new ArrayList();
+
+        for( int i = 0; i < m_objects.length; i++ )
+        {
+            if( m_objects[i] instanceof PluginContent )
+            {
+                plugins.add( m_objects[i] );
+            }
+        }
+
+        return plugins;
+    }
+
+    /**
+     *  Returns an estimate of the memory used by this document, in bytes.
+     *
+     *  @return The estimated size.
+     */
+    public long getSize()
+    {
+        long size = OBJECT_OVERHEAD * 11;
+
+        size += 17L * m_kind.length;
+        size += 12L * m_attrName.length;
+        size += 2L * m_chars.length;
+        size += DYNAMIC_OVERHEAD * m_objects.length;
+
+        for( int i = 0; i < m_names.length; i++ )
+        {
+            size += OBJECT_OVERHEAD + 2L * m_names[i].length();
+        }
+
+        return size;
+    }
+
+    /**
+     *  Writes the content of the document as XHTML.  The output is the same
+     *  as what XMLOutputter writes from the JDOM tree in the raw format:
+     *  empty elements are written as &lt;br /&gt;, and the processing
+     *  instructions which disable and enable output escaping are obeyed.
+     *
+     *  @param doc The WikiDocument which owns this compact document.  Its
+     *             context is used to resolve links and run plugins.
+     *  @param out The Writer to write to.
+     *  @throws IOException If writing fails.
+     */
+    public void writeXHTML( WikiDocument doc, Writer out )
+        throws IOException
+    {
+        WikiContext context = doc.getContext();
+        boolean escape = true;
+        int[] open  = new int[16];
+        int   depth = 0;
+
+        for( int n = 1; n < m_kind.length; n++ )
+        {
+            while( depth > 0 && m_end[open[depth-1]] <= n )
+            {
+                writeEndTag( open[--depth], out );
+            }
+
+            switch( m_kind[n] )
+            {
+                case ELEMENT:
+                case LINK:
+                    out.write( '<' );
+                    out.write( getName( n ) );
+
+                    if( m_kind[n] == LINK )
+                    {
+                        List attrs = ((LinkElement) m_objects[m_ref[n]]).getAttributes( context );
+
+                        for( int i = 0; i < attrs.size(); i++ )
+                        {
+                            Attribute a = (Attribute) attrs.get( i );
+                            writeAttribute( a.getName(), a.getValue(), out );
+                        }
+                    }
+                    else
+                    {
+                        for( int i = m_offset[n], end = i + m_length[n]; i < end; i++ )
+                        {
+                            out.write( ' ' );
+                            out.write( m_names[m_attrName[i]] );
+                            out.write( "=\"" );
+                            escapeAttribute( m_chars, m_attrOffset[i], m_attrLength[i], out );
+                            out.write( '"' );
+                        }
+                    }
+
+                    if( m_end[n] == n + 1 )
+                    {
+                        out.write( " />" );
+                    }
+                    else
+                    {
+                        out.write( '>' );
+
+                        if( depth == open.length )
+                        {
+                            int[] bigger = new int[depth * 2];
+                            System.arraycopy( open, 0, bigger, 0, depth );
+                            open = bigger;
+                        }
+                        open[depth++] = n;
+                    }
+                    break;
+
+                case TEXT:
+                    writeText( m_chars, m_offset[n], m_length[n], escape, out );
+                    break;
+
+                case CDATA_SECTION:
+                    if( m_length[n] > 0 )
+                    {
+                        out.write( "<![CDATA[" );
+                        out.write( m_chars, m_offset[n], m_length[n] );
+                        out.write( "]]>" );
+                    }
+                    break;
+
+                case COMMENT:
+                    out.write( "<!--" );
+                    out.write( m_chars, m_offset[n], m_length[n] );
+                    out.write( "-->" );
+                    break;
+
+                case PI:
+                    String target = m_names[m_ref[n]];
+
+                    if( target.equals( Result.PI_DISABLE_OUTPUT_ESCAPING ) )
+                    {
+                        escape = false;
+                    }
+                    else if( target.equals( Result.PI_ENABLE_OUTPUT_ESCAPING ) )
+                    {
+                        escape = true;
+                    }
+                    else
+                    {
+                        out.write( "<?" );
+                        out.write( target );
+                        if( m_length[n] > 0 )
+                        {
+                            out.write( ' ' );
+                            out.write( m_chars, m_offset[n], m_length[n] );
+                        }
+                        out.write( "?>" );
+                    }
+                    break;
+
+                case PLUGIN:
+                    writeText( ((PluginContent) m_objects[m_ref[n]]).getText( doc ), escape, out );
+                    break;
+
+                case VARIABLE:
+                    writeText( ((VariableContent) m_objects[m_ref[n]]).getValue( context ), escape, out );
+                    break;
+            }
+        }
+
+        while( depth > 0 )
+        {
+            writeEndTag( open[--depth], out );
+        }
+    }
+
+    /**
+     *  Writes only the text of the document, in document order.  This is
+     *  what the CleanTextRenderer produces.
+     *
+     *  @param doc The WikiDocument which owns this compact document.
+     *  @param out The Writer to write to.
+     *  @throws IOException If writing fails.
+     */
+    public void writeText( WikiDocument doc, Writer out )
+        throws IOException
+    {
+        for( int n = 1; n < m_kind.length; n++ )
+        {
+            switch( m_kind[n] )
+            {
+                case TEXT:
+                case CDATA_SECTION:
+                    out.write( m_chars, m_offset[n], m_length[n] );
+                    break;
+
+                case PLUGIN:
+                    out.write( ((PluginContent) m_objects[m_ref[n]]).getText( doc ) );
+                    break;
+
+                case VARIABLE:
+                    out.write( ((VariableContent) m_objects[m_ref[n]]).getValue( doc.getContext() ) );
+                    break;
+            }
+        }
+    }
+
+    /**
+     *  Builds the JDOM tree of the document again.  The links, plugins and
+     *  variables of this document are added to the tree, so this may be
+     *  called only once.
+     *
+     *  @return The root element.
+     */
+    Element inflate()
+    {
+        Element   root  = new Element( m_names[m_ref[0]] );
+        Element[] open  = new Element[m_kind.length];
+        int[]     ends  = new int[m_kind.length];
+        int       depth = 0;
+
+        open[0] = root;
+        ends[0] = m_kind.length;
+
+        for( int n = 1; n < m_kind.length; n++ )
+        {
+            while( ends[depth] <= n ) depth--;
+
+            Element parent = open[depth];
+
+            switch( m_kind[n] )
+            {
+                case ELEMENT:
+                case LINK:
+                    Element el;
+
+                    if( m_kind[n] == LINK )
+                    {
+                        el = (Element) m_objects[m_ref[n]];
+                    }
+                    else
+                    {
+                        el = new Element( m_names[m_ref[n]] );
+
+                        for( int i = m_offset[n], end = i + m_length[n]; i < end; i++ )
+                        {
+                            el.setAttribute( m_names[m_attrName[i]], 
+                                             new String( m_chars, m_attrOffset[i], m_attrLength[i] ) );
+                        }
+                    }
+
+                    parent.addContent( el );
+                    open[++depth] = el;
+                    ends[depth]   = m_end[n];
+                    break;
+
+                case TEXT:
+                    parent.addContent( new Text( getString( n ) ) );
+                    break;
+
+                case CDATA_SECTION:
+                    parent.addContent( new CDATA( getString( n ) ) );
+                    break;
+
+                case COMMENT:
+                    parent.addContent( new Comment( getString( n ) ) );
+                    break;
+
+                case PI:
+                    parent.addContent( new ProcessingInstruction( m_names[m_ref[n]], getString( n ) ) );
+                    break;
+
+                case PLUGIN:
+                case VARIABLE:
+                    parent.addContent( (Text) m_objects[m_ref[n]] );
+                    break;
+            }
+        }
+
+        return root;
+    }
+
+    private String getName( int n )
+    {
+        return m_kind[n] == LINK ? ((Element) m_objects[m_ref[n]]).getName() : m_names[m_ref[n]];
+    }
+
+    private String getString( int n )
+    {
+        return new String( m_chars, m_offset[n], m_length[n] );
+    }
+
+    private void writeEndTag( int n, Writer out )
+        throws IOException
+    {
+        out.write( "</" );
+        out.write( getName( n ) );
+        out.write( '>' );
+    }
+
+    private static void writeAttribute( String name, String value, Writer out )
+        throws IOException
+    {
+        out.write( ' ' );
+        out.write( name );
+        out.write( "=\"" );
+        escapeAttribute( value.toCharArray(), 0, value.length(), out );
+        out.write( '"' );
+    }
+
+    private static void writeText( String s, boolean escape, Writer out )
+        throws IOException
+    {
+        if( s == null ) return;
+
+        if( escape )
+        {
+            writeText( s.toCharArray(), 0, s.length(), true, out );
+        }
+        else
+        {
+            out.write( s );
+        }
+    }
+
+    /**
+     *  Writes element text, escaping it the same way as XMLOutputter does.
+     */
+    private static void writeText( char[] chars, int offset, int length, boolean escape, Writer out )
+        throws IOException
+    {
+        if( !escape )
+        {
+            out.write( chars, offset, length );
+            return;
+        }
+
+        int start = offset;
+        int end   = offset + length;
+
+        for( int i = offset; i < end; i++ )
+        {
+            String entity;
+
+            switch( chars[i] )
+            {
+                case '<':  entity = "&lt;";   break;
+                case '>':  entity = "&gt;";   break;
+                case '&':  entity = "&amp;";  break;
+                case '\r': entity = "&#xD;";  break;
+                default:   continue;
+            }
+
+            out.write( chars, start, i - start );
+            out.write( entity );
+            start = i + 1;
+        }
+
+        out.write( chars, start, end - start );
+    }
+
+    /**
+     *  Writes an attribute value, escaping it the same way as XMLOutputter does.
+     *  Attribute values are always escaped.
+     */
+    private static void escapeAttribute( char[] chars, int offset, int length, Writer out )
+        throws IOException
+    {
+        int start = offset;
+        int end   = offset + length;
+
+        for( int i = offset; i < end; i++ )
+        {
+            String entity;
+
+            switch( chars[i] )
+            {
+                case '<':  entity = "&lt;";   break;
+                case '>':  entity = "&gt;";   break;
+                case '&':  entity = "&amp;";  break;
+                case '"':  entity = "&quot;"; break;
+                case '\r': entity = "&#xD;";  break;
+                case '\n': entity = "&#xA;";  break;
+                case '\t': entity = "&#x9;";  break;
+                default:   continue;
+            }
+
+            out.write( chars, start, i - start );
+            out.write( entity );
+            start = i + 1;
+        }
+
+        out.write( chars, start, end - start );
+    }
+
+    /**
+     *  Collects the nodes of a JDOM tree into growable arrays.
+     */
+    private static final class Builder
+    {
+        byte[]       m_kind       = new byte[64];
+        int[]        m_end        = new int[64];
+        int[]        m_ref        = new int[64];
+        int[]        m_offset     = new int[64];
+        int[]        m_length     = new int[64];
+        int          m_count;
+
+        int[]        m_attrName   = new int[16];
+        int[]        m_attrOffset = new int[16];
+        int[]        m_attrLength = new int[16];
+        int          m_attrCount;
+
+        List         m_names      = new ArrayList();
+        Map          m_nameIndex  = new HashMap();
+        List         m_objects    = new ArrayList();
+        StringBuffer m_chars      = new StringBuffer();
+
+        /**
+         *  Adds an element and its content.  Returns false, if the element
+         *  cannot be stored.
+         */
+        boolean addElement( Element el, byte kind, int object )
+        {
+            if( el.getNamespace() != Namespace.NO_NAMESPACE || 
+                !el.getAdditionalNamespaces().isEmpty() )
+            {
+                return false;
+            }
+
+            int n = addNode( kind );
+
+            if( kind == LINK )
+            {
+                //
+                //  LinkElement figures out its attributes when rendered.
+                //
+                m_ref[n] = object;
+            }
+            else
+            {
+                List attrs = el.getAttributes();
+
+                m_ref[n]    = name( el.getName() );
+                m_offset[n] = m_attrCount;
+                m_length[n] = attrs.size();
+
+                for( int i = 0; i < attrs.size(); i++ )
+                {
+                    Attribute a = (Attribute) attrs.get( i );
+
+                    if( a.getNamespace() != Namespace.NO_NAMESPACE ) return false;
+
+                    addAttribute( name( a.getName() ), a.getValue() );
+                }
+            }
+
+            List content = el.getContent();
+
+            for( int i = 0, size = content.size(); i < size; i++ )
+            {
+                if( !addContent( content.get( i ) ) ) return false;
+            }
+
+            m_end[n] = m_count;
+
+            return true;
+        }
+
+        private boolean addContent( Object o )
+        {
+            if( o instanceof LinkElement )
+            {
+                LinkElement link = (LinkElement) ((LinkElement) o).clone();
+                link.removeContent();
+
+                return addElement( (LinkElement) o, LINK, object( link ) );
+            }
+            else if( o instanceof PluginContent )
+            {
+                addLeaf( PLUGIN, object( ((PluginContent) o).clone() ) );
+            }
+            else if( o instanceof VariableContent )
+            {
+                addLeaf( VARIABLE, object( ((VariableContent) o).clone() ) );
+            }
+            else if( o.getClass() == Element.class )
+            {
+                return addElement( (Element) o, ELEMENT, -1 );
+            }
+            else if( o.getClass() == Text.class )
+            {
+                addChars( addLeaf( TEXT, 0 ), ((Text) o).getText() );
+            }
+            else if( o.getClass() == CDATA.class )
+            {
+                addChars( addLeaf( CDATA_SECTION, 0 ), ((CDATA) o).getText() );
+            }
+            else if( o.getClass() == Comment.class )
+            {
+                addChars( addLeaf( COMMENT, 0 ), ((Comment) o).getText() );
+            }
+            else if( o.getClass() == ProcessingInstruction.class )
+            {
+                ProcessingInstruction pi = (ProcessingInstruction) o;
+
+                addChars( addLeaf( PI, name( pi.getTarget() ) ), pi.getData() );
+            }
+            else
+            {
+                return false;
+            }
+
+            return true;
+        }
+
+        private int addNode( byte kind )
+        {
+            if( m_count == m_kind.length )
+            {
+                int size = m_count * 2;
+
+                m_kind   = grow( m_kind, size );
+                m_end    = grow( m_end, size );
+                m_ref    = grow( m_ref, size );
+                m_offset = grow( m_offset, size );
+                m_length = grow( m_length, size );
+            }
+
+            m_kind[m_count] = kind;
+
+            return m_count++;
+        }
+
+        private int addLeaf( byte kind, int ref )
+        {
+            int n = addNode( kind );
+
+            m_ref[n] = ref;
+            m_end[n] = m_count;
+
+            return n;
+        }
+
+        private void addChars( int n, String s )
+        {
+            m_offset[n] = m_chars.length();
+            m_length[n] = s.length();
+            m_chars.append( s );
+        }
+
+        private void addAttribute( int name, String value )
+        {
+            if( m_attrCount == m_attrName.length )
+            {
+                int size = m_attrCount * 2;
+
+                m_attrName   = grow( m_attrName, size );
+                m_attrOffset = grow( m_attrOffset, size );
+                m_attrLength = grow( m_attrLength, size );
+            }
+
+            m_attrName[m_attrCount]   = name;
+            m_attrOffset[m_attrCount] = m_chars.length();
+            m_attrLength[m_attrCount] = value.length();
+            m_chars.append( value );
+            m_attrCount++;
+        }
+
+        private int name( String name )
+        {
+            Integer idx = (Integer) m_nameIndex.get( name );
+
+            if( idx == null )
+            {
+                idx = new Integer( m_names.size() );
+                m_names.add( name );
+                m_nameIndex.put( name, idx );
+            }
+
+            return idx.intValue();
+        }
+
+        private int object( Object o )
+        {
+            m_objects.add( o );
+
+            return m_objects.size() - 1;
+        }
+
+        private static byte[] grow( byte[] a, int size )
+        {
+            byte[] b = new byte[size];
+            System.arraycopy( a, 0, b, 0, a.length );
+            return b;
+        }
+
+        private static int[] grow( int[] a, int size )
+        {
+            int[] b = new int[size];
+            System.arraycopy( a, 0, b, 0, a.length );
+            return b;
+        }
+    }
+}
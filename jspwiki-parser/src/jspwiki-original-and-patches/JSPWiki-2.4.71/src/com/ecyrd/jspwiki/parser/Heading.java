@@ -36,4 +36,11 @@ public class Heading
     public String m_titleText;
     public String m_titleAnchor;
     public String m_titleSection;
+
+    /**
+     *  The position of the heading markup in the parsed wiki text, or -1,
+     *  if not known.
+     *  @since 2.4.71
+     */
+    public int    m_offset = -1;
 }
\ No newline at end of file
@@ -21,7 +21,6 @@ package com.ecyrd.jspwiki.parser;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.io.StringReader;
 import java.util.*;
 
 import javax.xml.transform.Result;
@@ -29,8 +28,8 @@ import javax.xml.transform.Result;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
-import org.apache.oro.text.GlobCompiler;
 import org.apache.oro.text.regex.*;
+import org.jdom.Attribute;
 import org.jdom.Content;
 import org.jdom.Element;
 import org.jdom.IllegalDataException;
@@ -45,6 +44,7 @@ import com.ecyrd.jspwiki.plugin.PluginException;
 import com.ecyrd.jspwiki.plugin.PluginManager;
 import com.ecyrd.jspwiki.providers.ProviderException;
 import com.ecyrd.jspwiki.render.CleanTextRenderer;
+import com.ecyrd.jspwiki.render.RenderingManager;
 
 /**
  *  Parses JSPWiki-style markup into a WikiDocument DOM tree.  This class is the
@@ -107,8 +107,11 @@ public class JSPWikiMarkupParser
 
     private boolean        m_isOpenParagraph = false;
 
+    /** The document being parsed. */
+    private WikiDocument   m_document;
+
     /** Keeps image regexp Patterns */
-    private ArrayList      m_inlineImagePatterns;
+    private List           m_inlineImagePatterns;
 
     private PatternMatcher m_inlineMatcher = new Perl5Matcher();
 
@@ -117,6 +120,24 @@ public class JSPWikiMarkupParser
     
     private Element        m_currentElement;
     
+    /** How deep the current element is below the root. */
+    private int            m_depth;
+    
+    /**
+     *  Elements are not nested deeper than this.  Deeper %%-blocks and
+     *  {{-spans are shown as text.  This keeps pathological markup from
+     *  making the parsing, which walks up the open elements on every line,
+     *  slower than linear, and the output, which recurses, from running
+     *  out of stack.
+     */
+    private static final int MAX_DEPTH = 100;
+    
+    /** Lists are not nested deeper than this; deeper items stay on the deepest level. */
+    private static final int MAX_LIST_LEVEL = 32;
+    
+    /** The elements which have been given to the BlockListener, but not yet finished. */
+    private List           m_startedElements = new ArrayList();
+    
     /**
      *  This property defines the inline image pattern.  It's current value
      *  is jspwiki.translatorReader.inlinePattern
@@ -156,12 +177,13 @@ public class JSPWikiMarkupParser
 
     private boolean                m_useRelNofollow      = false;
 
-    private PatternCompiler        m_compiler = new Perl5Compiler();
-
+    /**
+     *  Describes the CamelCase words and plain URIs which are made into links.
+     *  The matching is done by a {@link WikiWordScanner}.
+     */
     static final String WIKIWORD_REGEX = "(^|[[:^alnum:]]+)([[:upper:]]+[[:lower:]]+[[:upper:]]+[[:alnum:]]*|(http://|https://|mailto:)([A-Za-z0-9_/\\.\\+\\?\\#\\-\\@=&;]+))";
     
-    private PatternMatcher         m_camelCaseMatcher = new Perl5Matcher();
-    private Pattern                m_camelCasePattern;
+    private WikiWordScanner        m_wikiWordScanner = new WikiWordScanner();
     
     private int                    m_rowNum              = 1;
     
@@ -213,50 +235,75 @@ public class JSPWikiMarkupParser
     }
 
     /**
-     *  @param engine The WikiEngine this reader is attached to.  Is
-     * used to figure out of a page exits.
+     *  Prepares this parser for parsing another document, exactly as if it
+     *  had just been created with the given context and input.  This is
+     *  much cheaper than creating a new parser, so the RenderingManager
+     *  keeps the parsers around for reuse.
+     *  
+     *  @param context The WikiContext to parse in.  If null, the parser just
+     *                 forgets its previous context and input, and must be
+     *                 reset again before it is used.
+     *  @param in The input to parse.
+     *  @since 2.4.71
      */
-
-    // FIXME: parsers should be pooled for better performance.
-    private void initialize()
+    public void reset( WikiContext context, Reader in )
     {
-        PatternCompiler compiler         = new GlobCompiler();
-        ArrayList       compiledpatterns = new ArrayList();
-
-        Collection ptrns = getImagePatterns( m_engine );
-
-        //
-        //  Make them into Regexp Patterns.  Unknown patterns
-        //  are ignored.
-        //
-        for( Iterator i = ptrns.iterator(); i.hasNext(); )
+        super.reset( context, in );
+        
+        m_isbold          = false;
+        m_isitalic        = false;
+        m_istable         = false;
+        m_isPre           = false;
+        m_isEscaping      = false;
+        m_isdefinition    = false;
+        m_isPreBlock      = false;
+        m_isOpenParagraph = false;
+        m_restartitalic   = false;
+        m_restartbold     = false;
+        m_styleStack.clear();
+        m_genlistlevel    = 0;
+        m_genlistBulletBuffer.setLength( 0 );
+        m_allowPHPWikiStyleLists = true;
+        m_plainTextBuf.setLength( 0 );
+        m_currentElement  = null;
+        m_depth           = 0;
+        m_rowNum          = 1;
+        m_cleanTranslator = null;
+        m_outlinkImageURL = null;
+        m_document        = null;
+        m_startedElements.clear();
+        
+        if( context != null )
         {
-            try
-            {       
-                compiledpatterns.add( compiler.compile( (String)i.next() ) );
-            }
-            catch( MalformedPatternException e )
-            {
-                log.error("Malformed pattern in properties: ", e );
-            }
+            initialize();
         }
+    }
 
-        m_inlineImagePatterns = compiledpatterns;
-
-        try
-        {
-            m_camelCasePattern = m_compiler.compile( WIKIWORD_REGEX );
-        }
-        catch( MalformedPatternException e )
+    /**
+     *  Returns the parser configuration of the engine.  It is normally kept
+     *  by the RenderingManager, which may not exist yet while the engine
+     *  is starting up.
+     */
+    private ParserConfig getConfig()
+    {
+        RenderingManager mgr = m_engine.getRenderingManager();
+        
+        if( mgr != null )
         {
-            log.fatal("Internal error: Someone put in a faulty pattern.",e);
-            throw new InternalWikiException("Faulty camelcasepattern in TranslatorReader");
+            return mgr.getParserConfig();
         }
+        
+        return new ParserConfig( m_engine.getWikiProperties() );
+    }
+    
+    /**
+     *  Takes the settings from the engine's ParserConfig and the current page.
+     */
+    private void initialize()
+    {
+        ParserConfig config = getConfig();
 
-        //
-        //  Set the properties.
-        //
-        Properties props      = m_engine.getWikiProperties();
+        m_inlineImagePatterns = config.getInlineImagePatterns();
 
         String cclinks = (String)m_context.getPage().getAttribute( PROP_CAMELCASELINKS );
 
@@ -266,27 +313,14 @@ public class JSPWikiMarkupParser
         }
         else
         {
-            m_camelCaseLinks  = TextUtil.getBooleanProperty( props,
-                                                             PROP_CAMELCASELINKS, 
-                                                             m_camelCaseLinks );
-        }
-
-        m_plainUris           = TextUtil.getBooleanProperty( props,
-                                                             PROP_PLAINURIS,
-                                                             m_plainUris );
-        m_useOutlinkImage     = TextUtil.getBooleanProperty( props,
-                                                             PROP_USEOUTLINKIMAGE, 
-                                                             m_useOutlinkImage );
-        m_useAttachmentImage  = TextUtil.getBooleanProperty( props,
-                                                             PROP_USEATTACHMENTIMAGE, 
-                                                             m_useAttachmentImage );
-        m_allowHTML           = TextUtil.getBooleanProperty( props,
-                                                             MarkupParser.PROP_ALLOWHTML, 
-                                                             m_allowHTML );
-
-        m_useRelNofollow      = TextUtil.getBooleanProperty( props,
-                                                             PROP_USERELNOFOLLOW,
-                                                             m_useRelNofollow );
+            m_camelCaseLinks = config.isCamelCaseLinks();
+        }
+
+        m_plainUris           = config.isPlainUris();
+        m_useOutlinkImage     = config.isUseOutlinkImage();
+        m_useAttachmentImage  = config.isUseAttachmentImage();
+        m_allowHTML           = config.isAllowHTML();
+        m_useRelNofollow      = config.isUseRelNofollow();
     
         if( m_engine.getUserManager().getUserDatabase() == null || m_engine.getAuthorizationManager() == null )
         {
@@ -305,7 +339,17 @@ public class JSPWikiMarkupParser
     // FIXME: Does not belong here; should be elsewhere
     public static Collection getImagePatterns( WikiEngine engine )
     {
-        Properties props    = engine.getWikiProperties();
+        return getImagePatterns( engine.getWikiProperties() );
+    }
+
+    /**
+     *  Figure out which image suffixes should be inlined.
+     *  @param props The wiki properties.
+     *  @return Collection of Strings with patterns.
+     *  @since 2.4.71
+     */
+    static Collection getImagePatterns( Properties props )
+    {
         ArrayList  ptrnlist = new ArrayList();
 
         for( Enumeration e = props.propertyNames(); e.hasMoreElements(); )
@@ -393,6 +437,13 @@ public class JSPWikiMarkupParser
 
         text = callMutatorChain( m_linkMutators, text );
 
+        if( m_linksOnly )
+        {
+            //  Keeps the order of the links the same as in normal parsing.
+            flushPlainText();
+            return null;
+        }
+
         section = (section != null) ? ("#"+section) : "";
 
         // Make sure we make a link name that can be accepted
@@ -406,15 +457,12 @@ public class JSPWikiMarkupParser
         switch(type)
         {
             case READ:
-                el = new Element("a").setAttribute("class",CLASS_WIKIPAGE);
-                el.setAttribute("href",m_context.getURL(WikiContext.VIEW, link)+section);
+                el = new Element("a").setAttributes( makePageLinkAttributes( m_context, true, link, section ) );
                 el.addContent(text);
                 break;
 
             case EDIT:
-                el = new Element("a").setAttribute("class",CLASS_EDITPAGE);
-                el.setAttribute("title","Create '"+link+"'");
-                el.setAttribute("href", m_context.getURL(WikiContext.EDIT,link));
+                el = new Element("a").setAttributes( makePageLinkAttributes( m_context, false, link, section ) );
                 el.addContent(text);
                 break;
 
@@ -525,6 +573,75 @@ public class JSPWikiMarkupParser
     }
 
 
+    /**
+     *  Creates the attributes for a link to a wiki page.  This is used both
+     *  when parsing and when a {@link LinkElement} is rendered.
+     *
+     *  @param context The WikiContext to make the URLs in.
+     *  @param exists True, if the page exists, false, if the link should
+     *                point at the editor so that the page can be created.
+     *  @param link The page name.
+     *  @param section The anchor to add to the URL of an existing page, or
+     *                 an empty string.
+     *  @return A List of org.jdom.Attributes.
+     *  @since 2.4.71
+     */
+    static List makePageLinkAttributes( WikiContext context, boolean exists, String link, String section )
+    {
+        List attrs = new ArrayList( 3 );
+
+        if( exists )
+        {
+            attrs.add( new Attribute("class",CLASS_WIKIPAGE) );
+            attrs.add( new Attribute("href",context.getURL(WikiContext.VIEW, link)+section) );
+        }
+        else
+        {
+            attrs.add( new Attribute("class",CLASS_EDITPAGE) );
+            attrs.add( new Attribute("title","Create '"+link+"'") );
+            attrs.add( new Attribute("href", context.getURL(WikiContext.EDIT,link)) );
+        }
+
+        return attrs;
+    }
+
+    /**
+     *  Creates a link to a local wiki page.  Whether the page exists or not is
+     *  figured out only when the document is rendered, so that the parsed
+     *  document can be cached even if the page is created or deleted later.
+     *
+     *  @param link The page name.
+     *  @param text The link text, or null, if the page name should be used.
+     *  @param section The section in the page, or null.
+     *  @return The new element.
+     */
+    private Element makePageLink( String link, String text, String section )
+    {
+        if( link.length() == 0 )
+        {
+            return makeLink( EMPTY, link, text, null );
+        }
+
+        if( text == null ) text = link;
+
+        text = callMutatorChain( m_linkMutators, text );
+
+        if( m_linksOnly )
+        {
+            //  Keeps the order of the links the same as in normal parsing.
+            flushPlainText();
+            return null;
+        }
+
+        Element el = new LinkElement( link, section );
+        el.addContent( text );
+
+        flushPlainText();
+        m_currentElement.addContent( el );
+
+        return el;
+    }
+
     /**
      *  Figures out if a link is an off-site link.  This recognizes
      *  the most common protocols by checking how it starts.
@@ -590,26 +707,46 @@ public class JSPWikiMarkupParser
     private String peekAheadLine()
         throws IOException
     {
-        String s = readUntilEOL().toString();
+        StringBuffer buf = new StringBuffer( 256 );
         
-        if( s.length() > PUSHBACK_BUFFER_SIZE )
+        for( int i = 0; ; i++ )
         {
-            log.warn("Line is longer than maximum allowed size ("+PUSHBACK_BUFFER_SIZE+" characters.  Attempting to recover...");
-            pushBack( s.substring(0,PUSHBACK_BUFFER_SIZE-1) );
+            int ch = peekToken( i );
+            
+            if( ch == -1 )
+                break;
+            
+            buf.append( (char) ch );
+            
+            if( ch == '\n' )
+                break;
         }
-        else
+        
+        return buf.toString();
+    }
+
+    /**
+     *  Checks if there is nothing but whitespace between the current position
+     *  and the end of the line.  Unlike peekAheadLine(), this stops at the
+     *  first non-whitespace character, so it is cheap even on long lines.
+     *
+     *  @return True, if the rest of the line is blank.
+     */
+    private boolean isRestOfLineBlank()
+        throws IOException
+    {
+        for( int i = 0; ; i++ )
         {
-            try
-            {
-                pushBack( s );
-            }
-            catch( IOException e )
-            {
-                log.warn("Pushback failed: the line is probably too long.  Attempting to recover.");
-            }
+            int ch = peekToken( i );
+            
+            if( ch == -1 || ch == '\n' )
+                return true;
+            
+            if( ch > ' ' )
+                return false;
         }
-        return s;
     }
+
     
 
     /**
@@ -657,19 +794,31 @@ public class JSPWikiMarkupParser
                 {            
                     // System.out.println("Buffer="+buf);
 
-                    while( m_camelCaseMatcher.contains( buf, m_camelCasePattern ) )
-                    {
-                        MatchResult result = m_camelCaseMatcher.getMatch();
-
-                        String firstPart = buf.substring(0,result.beginOffset(0)); 
-                        String prefix = result.group(1);
-                    
-                        if( prefix == null ) prefix = "";
+                    int pos = 0;
                     
-                        String camelCase = result.group(2);
-                        String protocol  = result.group(3);
-                        String uri       = protocol+result.group(4);
-                        buf              = buf.substring(result.endOffset(0));
+                    while( m_wikiWordScanner.find( buf, pos ) )
+                    {
+                        String firstPart = buf.substring( pos, m_wikiWordScanner.getStart() );
+                        String prefix    = buf.substring( m_wikiWordScanner.getStart(), 
+                                                          m_wikiWordScanner.getWordStart() );
+                        String word      = buf.substring( m_wikiWordScanner.getWordStart(), 
+                                                          m_wikiWordScanner.getEnd() );
+                        String camelCase = null;
+                        String protocol  = null;
+                        String uri       = null;
+                        
+                        if( m_wikiWordScanner.getType() == WikiWordScanner.URI )
+                        {
+                            protocol = buf.substring( m_wikiWordScanner.getWordStart(),
+                                                      m_wikiWordScanner.getProtocolEnd() );
+                            uri      = word;
+                        }
+                        else
+                        {
+                            camelCase = word;
+                        }
+                        
+                        pos = m_wikiWordScanner.getEnd();
                     
                         m_currentElement.addContent( firstPart );
                     
@@ -700,7 +849,7 @@ public class JSPWikiMarkupParser
                             if( c == '.' || c == ',' )
                             {
                                 uri = uri.substring(0,uri.length()-1);
-                                buf = c + buf;
+                                pos--;
                             }
                             // System.out.println("URI match "+uri);
                             m_currentElement.addContent( prefix );
@@ -717,7 +866,7 @@ public class JSPWikiMarkupParser
                         }
                     }
 
-                    m_currentElement.addContent( buf );
+                    m_currentElement.addContent( buf.substring(pos) );
                 }
                 else
                 {
@@ -793,6 +942,7 @@ public class JSPWikiMarkupParser
         flushPlainText();
         m_currentElement.addContent( e );
         m_currentElement = e;
+        m_depth++;
         
         return e;
     }
@@ -820,12 +970,16 @@ public class JSPWikiMarkupParser
         int flushedBytes = flushPlainText();
     
         Element currEl = m_currentElement;
+        int     levels = 0;
         
         while( currEl.getParentElement() != null )
         {
+            levels++;
+            
             if( currEl.getName().equals(s) && !currEl.isRootElement() )
             {
                 m_currentElement = currEl.getParentElement();
+                m_depth -= levels;
                 
                 //
                 //  Check if it's okay for this element to be empty.  Then we will
@@ -958,7 +1112,7 @@ public class JSPWikiMarkupParser
         try
         {
             JSPWikiMarkupParser dtr = getCleanTranslator();
-            dtr.setInputReader( new StringReader(title) );
+            dtr.setInputText( title );
 
             CleanTextRenderer ctt = new CleanTextRenderer(m_context, dtr.parse());
             
@@ -982,6 +1136,8 @@ public class JSPWikiMarkupParser
      */ 
     public Element makeHeading( int level, String title, Heading hd )
     {
+        if( m_linksOnly ) return null;
+
         Element el = null;
         
         String pageName = m_context.getPage().getName();
@@ -1015,18 +1171,9 @@ public class JSPWikiMarkupParser
      */
     private Element makeCamelCaseLink( String wikiname )
     {
-        String matchedLink;
-
         callMutatorChain( m_localLinkMutatorChain, wikiname );
 
-        if( (matchedLink = linkExists( wikiname )) != null )
-        {
-            makeLink( READ, matchedLink, wikiname, null );
-        }
-        else
-        {
-            makeLink( EDIT, wikiname, wikiname, null );
-        }
+        makePageLink( wikiname, wikiname, null );
 
         return m_currentElement;
     }
@@ -1046,7 +1193,7 @@ public class JSPWikiMarkupParser
     {
         Element el = null;
         
-        if( m_useOutlinkImage )
+        if( m_useOutlinkImage && !m_linksOnly )
         {
             if( m_outlinkImageURL == null )
             {
@@ -1237,6 +1384,8 @@ public class JSPWikiMarkupParser
 
         if( PluginManager.isPluginLink( link ) )
         {
+            if( m_linksOnly ) return m_currentElement;
+
             try
             {
                 Content pluginContent = m_engine.getPluginManager().parsePluginLine( m_context, link, pos );
@@ -1276,9 +1425,12 @@ public class JSPWikiMarkupParser
         //  
         if( VariableManager.isVariableLink( link ) )
         {
-            Content el = new VariableContent(link);
+            if( !m_linksOnly )
+            {
+                Content el = new VariableContent(link);
 
-            addElement( el );
+                addElement( el );
+            }
         }
         else if( isExternalLink( reallink ) )
         {
@@ -1381,17 +1533,7 @@ public class JSPWikiMarkupParser
 
                 callMutatorChain( m_localLinkMutatorChain, reallink );
 
-                String matchedLink;
-                if( (matchedLink = linkExists( reallink )) != null )
-                {
-                    String sectref = "section-"+m_engine.encodeName(matchedLink)+"-"+namedSection;
-                    sectref = sectref.replace('%', '_');
-                    makeLink( READ, matchedLink, link, sectref );
-                }
-                else
-                {
-                    makeLink( EDIT, reallink, link, null );
-                }
+                makePageLink( reallink, link, namedSection );
             }
             else
             {
@@ -1400,16 +1542,7 @@ public class JSPWikiMarkupParser
 
                 callMutatorChain( m_localLinkMutatorChain, reallink );
 
-                String matchedLink = linkExists( reallink );
-                
-                if( matchedLink != null )
-                {
-                    makeLink( READ, matchedLink, link, null );
-                }
-                else
-                {
-                    makeLink( EDIT, reallink, link, null );
-                }
+                makePageLink( reallink, link, null );
             }
         }
 
@@ -1443,21 +1576,6 @@ public class JSPWikiMarkupParser
         return null;
     }
 
-    /**
-     *  Pushes back any string that has been read.  It will obviously
-     *  be pushed back in a reverse order.
-     *
-     *  @since 2.1.77
-     */
-    private void pushBack( String s )
-        throws IOException
-    {
-        for( int i = s.length()-1; i >= 0; i-- )
-        {
-            pushBack( s.charAt(i) );
-        }
-    }
-
     private Element handleBackslash()
         throws IOException
     {
@@ -1566,6 +1684,12 @@ public class JSPWikiMarkupParser
 
             pushBack( ch2 );
             
+            if( m_depth >= MAX_DEPTH )
+            {
+                pushBack( ch );
+                return null;
+            }
+            
             return pushElement( new Element("tt") );
         }
         
@@ -1661,7 +1785,8 @@ public class JSPWikiMarkupParser
     {
         Element el = null;
         
-        int ch  = nextToken();
+        int offset = getPosition();
+        int ch     = nextToken();
 
         Heading hd = new Heading();
 
@@ -1689,38 +1814,18 @@ public class JSPWikiMarkupParser
             el = makeHeading( Heading.HEADING_SMALL, title, hd );
         }
 
-        callHeadingListenerChain( hd );
+        if( !m_linksOnly )
+        {
+            hd.m_offset = offset;
+            m_document.addHeading( hd );
+            callHeadingListenerChain( hd );
+        }
 
         if( el != null ) pushElement(el);
         
         return el;
     }
 
-    /**
-     *  Reads the stream until the next EOL or EOF.  Note that it will also read the
-     *  EOL from the stream.
-     */
-    private StringBuffer readUntilEOL()
-        throws IOException
-    {
-        int ch;
-        StringBuffer buf = new StringBuffer( 256 );
-
-        while( true )
-        {
-            ch = nextToken();
-
-            if( ch == -1 )
-                break;
-
-            buf.append( (char) ch );
-
-            if( ch == '\n' ) 
-                break;
-        }
-        return buf;
-    }
-
     /** Controls whether italic is restarted after a paragraph shift */
     
     private boolean m_restartitalic = false;
@@ -1778,6 +1883,11 @@ public class JSPWikiMarkupParser
 
          String strBullets = readWhile( "*#" );
          // String strBulletsRaw = strBullets;      // to know what was original before phpwiki style substitution
+         
+         if( strBullets.length() > MAX_LIST_LEVEL )
+         {
+             strBullets = strBullets.substring( 0, MAX_LIST_LEVEL );
+         }
          int numBullets = strBullets.length();
 
          // override the beginning portion of bullet pattern to be like the previous
@@ -2073,6 +2183,16 @@ public class JSPWikiMarkupParser
 
             ch = nextToken();
             
+            if( m_depth >= MAX_DEPTH && (ch == '(' || Character.isLetter( (char) ch )) )
+            {
+                //
+                //  Too deep to open another block; show the markup as text.
+                //
+                pushBack( ch );
+                pushBack( '%' );
+                return null;
+            }
+            
             //
             //  Style or class?
             //
@@ -2142,9 +2262,7 @@ public class JSPWikiMarkupParser
             //
             //  Decide if we should open a div or a span?
             //
-            String eol = peekAheadLine();
-            
-            if( eol.trim().length() > 0 )
+            if( !isRestOfLineBlank() )
             {
                 // There is stuff after the class
                 
@@ -2268,6 +2386,7 @@ public class JSPWikiMarkupParser
         throws IOException
     {
         m_currentElement = startElement;
+        m_depth          = 0;
         
         boolean quitReading = false;
         boolean newLine     = true; // FIXME: not true if reading starts in middle of buffer
@@ -2374,6 +2493,11 @@ public class JSPWikiMarkupParser
                     popElement("tr");
                 }
                 
+                if( m_blockListener != null )
+                {
+                    streamContent( false );
+                }
+                
                 m_isdefinition = false;
 
                 if( newLine )
@@ -2531,6 +2655,89 @@ public class JSPWikiMarkupParser
         popElement("domroot");
     }
 
+    /**
+     *  Gives the finished content of the document to the BlockListener, and
+     *  removes it from the document.  Everything but the open elements, from
+     *  the root down to the current element, is finished.  The open elements
+     *  are started only once they have some finished content.
+     *
+     *  @param all If true, the whole document has been parsed, and all of it
+     *             is finished.
+     */
+    private void streamContent( boolean all )
+        throws IOException
+    {
+        List open = new ArrayList();
+        
+        if( all )
+        {
+            open.add( m_document.getRootElement() );
+        }
+        else
+        {
+            for( Element e = m_currentElement; e != null; e = e.getParentElement() )
+            {
+                open.add( e );
+            }
+            
+            Collections.reverse( open );
+        }
+        
+        //
+        //  Finish the started elements which have since been closed.
+        //
+        int common = 0;
+        
+        while( common < open.size() && common < m_startedElements.size() &&
+               open.get( common ) == m_startedElements.get( common ) )
+        {
+            common++;
+        }
+        
+        for( int i = m_startedElements.size()-1; i >= common; i-- )
+        {
+            Element el = (Element) m_startedElements.remove( i );
+            
+            finishContent( el, el.getContentSize() );
+            m_blockListener.elementFinished( el );
+            el.detach();
+        }
+        
+        //
+        //  Give out whatever precedes the open child of each open element.
+        //
+        for( int i = 0; i < open.size(); i++ )
+        {
+            Element el   = (Element) open.get( i );
+            int     done = (i+1 < open.size()) ? el.indexOf( (Element) open.get( i+1 ) ) : el.getContentSize();
+            
+            if( done > 0 )
+            {
+                while( m_startedElements.size() <= i )
+                {
+                    Element started = (Element) open.get( m_startedElements.size() );
+                    
+                    m_blockListener.elementStarted( started );
+                    m_startedElements.add( started );
+                }
+                
+                finishContent( el, done );
+            }
+        }
+    }
+    
+    private void finishContent( Element el, int count )
+        throws IOException
+    {
+        if( count > 0 )
+        {
+            List content = el.getContent().subList( 0, count );
+            
+            m_blockListener.contentFinished( content );
+            content.clear();
+        }
+    }
+    
     public WikiDocument parse()
         throws IOException
     {
@@ -2538,9 +2745,27 @@ public class JSPWikiMarkupParser
         Element rootElement = new Element("domroot");
         
         d.setRootElement( rootElement );
+        m_document = d;
+        
+        if( m_blockListener != null )
+        {
+            //
+            //  The content is written out as it is parsed, so the links
+            //  and plugins need to know their context already.
+            //
+            d.setContext( m_context );
+            d.setPartial( true );
+            m_startedElements.add( rootElement );
+        }
+        
         try
         {
             fillBuffer( rootElement );
+            
+            if( m_blockListener != null )
+            {
+                streamContent( true );
+            }
         }
         catch( IllegalDataException e )
         {
@@ -0,0 +1,239 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.parser;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.jdom.Attribute;
+import org.jdom.Element;
+import org.jdom.Namespace;
+
+import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.WikiEngine;
+import com.ecyrd.jspwiki.providers.ProviderException;
+
+/**
+ *  Stores a link to a wiki page in a WikiDocument DOM tree.  The parser
+ *  does not check whether the page exists; instead, the attributes of the link
+ *  ("class", "href" and "title") are figured out when the document is rendered.
+ *  This means that a cached WikiDocument stays valid even when the pages
+ *  it links to are created or deleted.
+ *  <p>
+ *  The resolved attributes are kept until the set of pages changes, as
+ *  told by {@link com.ecyrd.jspwiki.render.RenderingManager#getPageSetGeneration()}.
+ *  They are kept separately for contexts which want absolute and relative
+ *  URLs.  The attributes are never stored in the element itself, and the
+ *  kept ones are replaced as a whole, so several threads may render the
+ *  same document at the same time without locking.
+ *
+ *  @since 2.4.71
+ */
+public class LinkElement extends Element
+{
+    private static final long serialVersionUID = 1L;
+
+    private static Logger log = Logger.getLogger( LinkElement.class );
+
+    private String m_target;
+    private String m_section;
+
+    /** The attributes with relative URLs, or null. */
+    private volatile Resolved m_relative;
+
+    /** The attributes with absolute URLs, or null. */
+    private volatile Resolved m_absolute;
+
+    /**
+     *  The attributes of the link, as resolved in a given page set generation.
+     */
+    private static final class Resolved
+    {
+        final long m_generation;
+        final List m_attributes;
+
+        Resolved( long generation, List attributes )
+        {
+            m_generation = generation;
+            m_attributes = attributes;
+        }
+    }
+
+    /**
+     *  Creates a new link.
+     *
+     *  @param target The name of the page, as it was written in the markup.
+     *  @param section The name of the section, or null, if the link is to the
+     *                 whole page.
+     */
+    public LinkElement( String target, String section )
+    {
+        super( "a" );
+        m_target  = target;
+        m_section = section;
+    }
+
+    /**
+     *  Returns the page name as it was written in the markup.
+     *
+     *  @return The link target.
+     */
+    public String getTarget()
+    {
+        return m_target;
+    }
+
+    /**
+     *  Returns the section this link points at.
+     *
+     *  @return The section name, or null.
+     */
+    public String getSection()
+    {
+        return m_section;
+    }
+
+    /**
+     *  Returns the resolved attributes of this link.  The list cannot be
+     *  modified.
+     */
+    public List getAttributes()
+    {
+        return resolve( getContext() );
+    }
+
+    /**
+     *  Returns the attributes of this link, as resolved in the given context.
+     *  This can be used even if the link is not part of a WikiDocument.
+     *
+     *  @param context The context in which the link is rendered.
+     *  @return An unmodifiable List of Attributes.
+     */
+    public List getAttributes( WikiContext context )
+    {
+        return resolve( context );
+    }
+
+    public Attribute getAttribute( String name, Namespace ns )
+    {
+        List attrs = resolve( getContext() );
+
+        for( int i = 0; i < attrs.size(); i++ )
+        {
+            Attribute a = (Attribute) attrs.get( i );
+
+            if( a.getName().equals( name ) && a.getNamespace().equals( ns ) )
+            {
+                return a;
+            }
+        }
+
+        return null;
+    }
+
+    public String getAttributeValue( String name, Namespace ns, String def )
+    {
+        Attribute a = getAttribute( name, ns );
+
+        return a != null ? a.getValue() : def;
+    }
+
+    /**
+     *  Checks if the page set has changed since the attributes were last
+     *  resolved, and if so, resolves them again.
+     */
+    private List resolve( WikiContext context )
+    {
+        if( context == null )
+        {
+            return Collections.EMPTY_LIST;
+        }
+
+        WikiEngine engine = context.getEngine();
+        long generation = engine.getRenderingManager().getPageSetGeneration();
+
+        //  The same test as in WikiContext.getURL().
+        boolean absolute = "absolute".equals( engine.getVariable( context, WikiEngine.PROP_REFSTYLE ) );
+
+        Resolved resolved = absolute ? m_absolute : m_relative;
+
+        if( resolved != null && resolved.m_generation == generation )
+        {
+            return resolved.m_attributes;
+        }
+
+        String matchedLink = null;
+
+        try
+        {
+            matchedLink = engine.getFinalPageName( m_target );
+        }
+        catch( ProviderException e )
+        {
+            log.warn("Unable to resolve link to "+m_target,e);
+            matchedLink = m_target;
+        }
+
+        List attrs;
+
+        if( matchedLink != null )
+        {
+            String section = "";
+
+            if( m_section != null )
+            {
+                String sectref = "section-"+engine.encodeName(matchedLink)+"-"+m_section;
+                section = "#"+sectref.replace('%', '_');
+            }
+
+            attrs = JSPWikiMarkupParser.makePageLinkAttributes( context, true, matchedLink, section );
+        }
+        else
+        {
+            attrs = JSPWikiMarkupParser.makePageLinkAttributes( context, false, m_target, "" );
+        }
+
+        resolved = new Resolved( generation, Collections.unmodifiableList( attrs ) );
+
+        if( absolute )
+        {
+            m_absolute = resolved;
+        }
+        else
+        {
+            m_relative = resolved;
+        }
+
+        return resolved.m_attributes;
+    }
+
+    private WikiContext getContext()
+    {
+        WikiDocument doc = (WikiDocument) getDocument();
+
+        return (doc != null) ? doc.getContext() : null;
+    }
+
+    public String toString()
+    {
+        return "LinkElement[\""+m_target+"\"]";
+    }
+}
@@ -19,9 +19,7 @@
 */
 package com.ecyrd.jspwiki.parser;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PushbackReader;
 import java.io.Reader;
 import java.util.ArrayList;
 
@@ -39,9 +37,14 @@ import com.ecyrd.jspwiki.WikiEngine;
 public abstract class MarkupParser
 {
     /** Allow this many characters to be pushed back in the stream.  In effect,
-        this limits the size of a single line.  */
+        this limited the size of a single line, when the input was read through
+        a PushbackReader.  There is no such limit anymore.
+        @deprecated Not used anymore. */
     protected static final int              PUSHBACK_BUFFER_SIZE = 10*1024;
-    protected PushbackReader                m_in;
+
+    /** The text being parsed.  Read from m_reader on first use, if null. */
+    private ParserInput      m_input;
+    private Reader           m_reader;
     private int              m_pos = -1; // current position in reader stream
 
     protected WikiEngine     m_engine;
@@ -57,6 +60,12 @@ public abstract class MarkupParser
     protected boolean        m_inlineImages             = true;
 
     protected boolean        m_parseAccessRules = true;
+
+    /** If true, the parser only looks for links.  See {@link #enableLinksOnly(boolean)}. */
+    protected boolean        m_linksOnly        = false;
+
+    /** If set, the document is given out as it is parsed.  See {@link #setBlockListener(BlockListener)}. */
+    protected BlockListener  m_blockListener;
     /** If set to "true", allows using raw HTML within Wiki text.  Be warned,
         this is a VERY dangerous option to set - never turn this on in a publicly
         allowable Wiki, unless you are absolutely certain of what you're doing. */
@@ -76,6 +85,39 @@ public abstract class MarkupParser
         setInputReader( in );
     }
     
+    /**
+     *  Prepares this parser for parsing another document, as if it had
+     *  just been created with the given context and input.  All the hooks
+     *  and listeners are removed, and the settings are returned to their
+     *  defaults.  Subclasses must also clear their own parsing state.
+     *  
+     *  @param context The WikiContext to parse in.  If null, the parser just
+     *                 forgets its previous context and input.
+     *  @param in New source for input.
+     *  @since 2.4.71
+     */
+    public void reset( WikiContext context, Reader in )
+    {
+        m_context = context;
+        m_engine  = (context != null) ? context.getEngine() : null;
+        m_input   = null;
+        m_reader  = null;
+        m_pos     = -1;
+        
+        m_localLinkMutatorChain.clear();
+        m_externalLinkMutatorChain.clear();
+        m_attachmentLinkMutatorChain.clear();
+        m_headingListenerChain.clear();
+        m_linkMutators.clear();
+        
+        m_inlineImages     = true;
+        m_parseAccessRules = true;
+        m_linksOnly        = false;
+        m_blockListener    = null;
+        
+        setInputReader( in );
+    }
+    
     /**
      *  Replaces the current input character stream with a new one.
      *  @param in New source for input.  If null, this method does nothing.
@@ -83,17 +125,33 @@ public abstract class MarkupParser
      */
     public Reader setInputReader( Reader in )
     {
-        Reader old = m_in;
+        Reader old = m_reader;
 
         if( in != null )
         {
-            m_in = new PushbackReader( new BufferedReader( in ),
-                                       PUSHBACK_BUFFER_SIZE );
+            m_reader = in;
+            m_input  = null;
         }
 
         return old;
     }
 
+    /**
+     *  Replaces the current input with the given text.  This is faster than
+     *  giving the text through a Reader, because it need not be copied.
+     *  
+     *  @param text New text to parse.  If null, this method does nothing.
+     *  @since 2.4.71
+     */
+    public void setInputText( String text )
+    {
+        if( text != null )
+        {
+            m_reader = null;
+            m_input  = new ParserInput( text );
+        }
+    }
+
     /**
      *  Adds a hook for processing link texts.  This hook is called
      *  when the link text is written into the output stream, and
@@ -176,6 +234,39 @@ public abstract class MarkupParser
         m_inlineImages = toggle;
     }
     
+    /**
+     *  Use this to turn on or off the links-only mode.  In this mode the parser
+     *  calls the link hooks exactly as it would when parsing the document
+     *  normally, but it does not construct links, headings, plugins or variables
+     *  into the resulting document, nor does it call the heading listeners.
+     *  This is meant for callers which are only interested in the links,
+     *  such as the ReferenceManager; the returned WikiDocument should
+     *  not be rendered.
+     *
+     *  @param toggle If true, only the links are looked for.
+     *  @since 2.4.71
+     */
+    public void enableLinksOnly( boolean toggle )
+    {
+        m_linksOnly = toggle;
+    }
+    
+    /**
+     *  Sets a listener which is given the content of the document as soon
+     *  as the parser has finished it.  The content is then removed from the
+     *  document, so the document never holds the whole page, and
+     *  {@link #parse()} returns an empty document.  This allows rendering
+     *  very large pages with little memory.
+     *
+     *  @param listener The listener, or null, if the document should be
+     *                  built normally.
+     *  @since 2.4.71
+     */
+    public void setBlockListener( BlockListener listener )
+    {
+        m_blockListener = listener;
+    }
+    
     /**
      *  Parses the document.
      *  @return the parsed document, as a WikiDocument
@@ -197,9 +288,32 @@ public abstract class MarkupParser
     protected int nextToken()
         throws IOException
     {
-        if( m_in == null ) return -1;
+        if( m_input == null )
+        {
+            if( m_reader == null ) return -1;
+            m_input = ParserInput.read( m_reader );
+        }
         m_pos++;
-        return m_in.read();
+        return m_input.read();
+    }
+
+    /**
+     *  Looks at a character ahead in the input without reading it.
+     *  
+     *  @param ahead How many characters to look ahead; 0 is the character
+     *               which nextToken() would return.
+     *  @return The character, or -1, if the input ends before it.
+     *  @since 2.4.71
+     */
+    protected int peekToken( int ahead )
+        throws IOException
+    {
+        if( m_input == null )
+        {
+            if( m_reader == null ) return -1;
+            m_input = ParserInput.read( m_reader );
+        }
+        return m_input.peek( ahead );
     }
 
     /**
@@ -209,10 +323,10 @@ public abstract class MarkupParser
     protected void pushBack( int c )
         throws IOException
     {        
-        if( c != -1 && m_in != null )
+        if( c != -1 && m_input != null )
         {
             m_pos--;
-            m_in.unread( c );
+            m_input.unread( (char) c );
         }
     }
 
@@ -0,0 +1,164 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.apache.oro.text.GlobCompiler;
+import org.apache.oro.text.regex.MalformedPatternException;
+import org.apache.oro.text.regex.PatternCompiler;
+
+import com.ecyrd.jspwiki.TextUtil;
+
+/**
+ *  Holds the settings of the JSPWikiMarkupParser which come from the
+ *  wiki properties, with the inline image patterns already compiled.
+ *  A ParserConfig is immutable, so a single instance is shared by all the
+ *  parsers of a WikiEngine; the RenderingManager builds it once, and builds
+ *  a new one only when it is told that the properties have changed.
+ *  <p>
+ *  The compiled patterns may be used from several threads at once, as long
+ *  as each thread has a PatternMatcher of its own.
+ *
+ *  @since 2.4.71
+ */
+public final class ParserConfig
+{
+    private static Logger log = Logger.getLogger( ParserConfig.class );
+
+    private final List       m_inlineImagePatterns;
+    private final boolean    m_camelCaseLinks;
+    private final boolean    m_plainUris;
+    private final boolean    m_useOutlinkImage;
+    private final boolean    m_useAttachmentImage;
+    private final boolean    m_allowHTML;
+    private final boolean    m_useRelNofollow;
+
+    /**
+     *  Reads the parser settings from the given properties.
+     *
+     *  @param props The wiki properties.
+     */
+    public ParserConfig( Properties props )
+    {
+        PatternCompiler compiler         = new GlobCompiler();
+        ArrayList       compiledpatterns = new ArrayList();
+
+        //
+        //  Make them into Regexp Patterns.  Unknown patterns
+        //  are ignored.
+        //
+        for( Iterator i = JSPWikiMarkupParser.getImagePatterns( props ).iterator(); i.hasNext(); )
+        {
+            try
+            {       
+                compiledpatterns.add( compiler.compile( (String)i.next() ) );
+            }
+            catch( MalformedPatternException e )
+            {
+                log.error("Malformed pattern in properties: ", e );
+            }
+        }
+
+        m_inlineImagePatterns = Collections.unmodifiableList( compiledpatterns );
+
+        m_camelCaseLinks      = TextUtil.getBooleanProperty( props,
+                                                             JSPWikiMarkupParser.PROP_CAMELCASELINKS, 
+                                                             false );
+        m_plainUris           = TextUtil.getBooleanProperty( props,
+                                                             JSPWikiMarkupParser.PROP_PLAINURIS,
+                                                             false );
+        m_useOutlinkImage     = TextUtil.getBooleanProperty( props,
+                                                             JSPWikiMarkupParser.PROP_USEOUTLINKIMAGE, 
+                                                             true );
+        m_useAttachmentImage  = TextUtil.getBooleanProperty( props,
+                                                             JSPWikiMarkupParser.PROP_USEATTACHMENTIMAGE, 
+                                                             true );
+        m_allowHTML           = TextUtil.getBooleanProperty( props,
+                                                             MarkupParser.PROP_ALLOWHTML, 
+                                                             false );
+        m_useRelNofollow      = TextUtil.getBooleanProperty( props,
+                                                             JSPWikiMarkupParser.PROP_USERELNOFOLLOW,
+                                                             false );
+    }
+
+    /**
+     *  Returns the compiled inline image patterns.
+     *
+     *  @return An unmodifiable List of ORO Patterns.
+     */
+    public List getInlineImagePatterns()
+    {
+        return m_inlineImagePatterns;
+    }
+
+    /**
+     *  @return True, if CamelCase words are links, unless the page says otherwise.
+     */
+    public boolean isCamelCaseLinks()
+    {
+        return m_camelCaseLinks;
+    }
+
+    /**
+     *  @return True, if URIs without brackets are links.
+     */
+    public boolean isPlainUris()
+    {
+        return m_plainUris;
+    }
+
+    /**
+     *  @return True, if external links get a small link image.
+     */
+    public boolean isUseOutlinkImage()
+    {
+        return m_useOutlinkImage;
+    }
+
+    /**
+     *  @return True, if attachment links get a small info link image.
+     */
+    public boolean isUseAttachmentImage()
+    {
+        return m_useAttachmentImage;
+    }
+
+    /**
+     *  @return True, if raw HTML is allowed.
+     */
+    public boolean isAllowHTML()
+    {
+        return m_allowHTML;
+    }
+
+    /**
+     *  @return True, if external links are tagged with 'rel="nofollow"'.
+     */
+    public boolean isUseRelNofollow()
+    {
+        return m_useRelNofollow;
+    }
+}
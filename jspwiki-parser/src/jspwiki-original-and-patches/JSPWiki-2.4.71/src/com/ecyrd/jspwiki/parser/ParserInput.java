@@ -0,0 +1,166 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ *  Holds the text a parser reads, and the parser's position in it.  The
+ *  parsers read the markup one character at a time and frequently push
+ *  characters back; since the whole page is in memory anyway, this class
+ *  just moves an index in a char array for both, which is much cheaper
+ *  than going through a (synchronized) PushbackReader.
+ *  <p>
+ *  Characters which are pushed back are normally the ones which were just
+ *  read, so unreading them only moves the index back.  Any other character
+ *  is kept on a separate stack, and read again first, just like with a
+ *  PushbackReader.  There is no limit to how much can be pushed back.
+ *  <p>
+ *  A ParserInput is not thread-safe.
+ *
+ *  @since 2.4.71
+ */
+public final class ParserInput
+{
+    private final char[] m_chars;
+    private final int    m_length;
+    private int          m_index = 0;
+
+    /** Characters pushed back which differ from the ones in the text. */
+    private char[]       m_pushback = new char[8];
+    private int          m_pushbackCount = 0;
+
+    /**
+     *  Creates an input for the given text.
+     *
+     *  @param text The text to read.
+     */
+    public ParserInput( String text )
+    {
+        m_chars  = text.toCharArray();
+        m_length = m_chars.length;
+    }
+
+    /**
+     *  Creates an input for the first length characters of the array.  The
+     *  array is not copied, so it must not be changed afterwards.
+     *
+     *  @param chars  The text to read.
+     *  @param length The number of characters in the text.
+     */
+    public ParserInput( char[] chars, int length )
+    {
+        m_chars  = chars;
+        m_length = length;
+    }
+
+    /**
+     *  Reads everything from the given Reader into a new ParserInput.
+     *  The Reader is not closed.
+     *
+     *  @param in The Reader to read.
+     *  @return A ParserInput containing all the text of the Reader.
+     *  @throws IOException If the Reader fails.
+     */
+    public static ParserInput read( Reader in )
+        throws IOException
+    {
+        char[] buf = new char[1024];
+        int    len = 0;
+        int    n;
+
+        while( (n = in.read( buf, len, buf.length-len )) != -1 )
+        {
+            len += n;
+
+            if( len == buf.length )
+            {
+                char[] bigger = new char[buf.length*2];
+                System.arraycopy( buf, 0, bigger, 0, len );
+                buf = bigger;
+            }
+        }
+
+        return new ParserInput( buf, len );
+    }
+
+    /**
+     *  Reads the next character.
+     *
+     *  @return The character, or -1, if the end of the text has been reached.
+     */
+    public int read()
+    {
+        if( m_pushbackCount > 0 )
+        {
+            return m_pushback[--m_pushbackCount];
+        }
+
+        if( m_index < m_length )
+        {
+            return m_chars[m_index++];
+        }
+
+        return -1;
+    }
+
+    /**
+     *  Pushes back a character, so that it is the next one to be read.
+     *
+     *  @param c The character to push back.
+     */
+    public void unread( char c )
+    {
+        if( m_pushbackCount == 0 && m_index > 0 && m_chars[m_index-1] == c )
+        {
+            m_index--;
+            return;
+        }
+
+        if( m_pushbackCount == m_pushback.length )
+        {
+            char[] bigger = new char[m_pushback.length*2];
+            System.arraycopy( m_pushback, 0, bigger, 0, m_pushbackCount );
+            m_pushback = bigger;
+        }
+
+        m_pushback[m_pushbackCount++] = c;
+    }
+
+    /**
+     *  Looks at a character ahead without reading it.
+     *
+     *  @param ahead How many characters to look ahead; 0 is the character
+     *               which read() would return next.
+     *  @return The character, or -1, if the text ends before it.
+     */
+    public int peek( int ahead )
+    {
+        if( ahead < m_pushbackCount )
+        {
+            return m_pushback[m_pushbackCount-1-ahead];
+        }
+
+        int i = m_index + ahead - m_pushbackCount;
+
+        return (i < m_length) ? m_chars[i] : -1;
+    }
+}
@@ -27,6 +27,8 @@ import org.jdom.Text;
 
 import com.ecyrd.jspwiki.WikiContext;
 import com.ecyrd.jspwiki.WikiEngine;
+import com.ecyrd.jspwiki.plugin.PluginManager;
+import com.ecyrd.jspwiki.render.ConcurrentPluginRunner;
 
 /**
  *  Stores the contents of a plugin in a WikiDocument DOM tree.
@@ -47,16 +49,92 @@ public class PluginContent extends Text
         m_params     = parameters;
     }
     
+    /**
+     *  Returns the name of the plugin, as it was given in the markup.
+     *
+     *  @return The plugin name.
+     *  @since 2.4.71
+     */
+    public String getPluginName()
+    {
+        return m_pluginName;
+    }
+
+    /**
+     *  Returns a parameter of the plugin, before any variables have been
+     *  expanded.
+     *
+     *  @param name The parameter name.
+     *  @return The parameter value, or null, if it has not been given.
+     *  @since 2.4.71
+     */
+    public Object getParameter( String name )
+    {
+        return m_params.get( name );
+    }
+
     public String getValue()
     {
         return getText();
     }
     
+    /**
+     *  Returns the output of the plugin.  If the plugin has already been
+     *  started in another thread, this just returns its result.
+     */
     public String getText()
     {
-        String result;
+        return getText( (WikiDocument)getDocument() );
+    }
+    
+    /**
+     *  Returns the output of the plugin when it is rendered as part of the
+     *  given document.  This can be used even if the plugin is not part of
+     *  the document's JDOM tree.
+     *  
+     *  @param doc The document which is being rendered.
+     *  @return The output of the plugin.
+     *  @since 2.4.71
+     */
+    public String getText( WikiDocument doc )
+    {
+        String result = ConcurrentPluginRunner.getResult( this );
+        
+        if( result != null )
+        {
+            return result;
+        }
         
-        WikiContext context = ((WikiDocument)getDocument()).getContext();
+        return invoke( doc.getContext(), doc );
+    }
+    
+    /**
+     *  Executes the plugin in the given context.  Any errors are returned
+     *  as an error message.
+     *  
+     *  @param context The WikiContext to execute the plugin in.
+     *  @return The output of the plugin.
+     *  @since 2.4.71
+     */
+    public String invoke( WikiContext context )
+    {
+        Object doc = getDocument();
+        
+        return invoke( context, (doc instanceof WikiDocument) ? (WikiDocument)doc : null );
+    }
+    
+    /**
+     *  Executes the plugin in the given context, as a part of the given
+     *  document.  Any errors are returned as an error message.
+     *  
+     *  @param context The WikiContext to execute the plugin in.
+     *  @param doc The document the plugin is in, or null.
+     *  @return The output of the plugin.
+     *  @since 2.4.71
+     */
+    public String invoke( WikiContext context, WikiDocument doc )
+    {
+        String result;
         
         try
         {
@@ -81,6 +159,15 @@ public class PluginContent extends Text
                 parsedParams.put( e.getKey(), val );
             }
             
+            //
+            //  A partial document is still being parsed, so the plugin
+            //  cannot look at the rest of the page from it.
+            //
+            if( doc != null && !doc.isPartial() )
+            {
+                parsedParams.put( PluginManager.PARAM_DOCUMENT, doc );
+            }
+            
             result = engine.getPluginManager().execute( context,
                                                         m_pluginName,
                                                         parsedParams );
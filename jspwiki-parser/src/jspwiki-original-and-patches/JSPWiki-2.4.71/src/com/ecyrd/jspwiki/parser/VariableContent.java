@@ -47,8 +47,20 @@ public class VariableContent extends Text
     public String getValue()
     {
         WikiDocument root = (WikiDocument) getDocument();
-        WikiContext context = root.getContext();
 
+        return getValue( root.getContext() );
+    }
+
+    /**
+     *  Evaluates the variable in the given context.  This can be used even
+     *  if the variable is not part of a WikiDocument.
+     *
+     *  @param context The context in which the page is rendered.
+     *  @return The value of the variable, escaped for XML.
+     *  @since 2.4.71
+     */
+    public String getValue( WikiContext context )
+    {
         if( context == null )
             return "No WikiContext available: INTERNAL ERROR";
         
@@ -20,8 +20,15 @@
 package com.ecyrd.jspwiki.parser;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 
+import org.jdom.Content;
 import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.filter.Filter;
 
 import com.ecyrd.jspwiki.WikiContext;
 import com.ecyrd.jspwiki.WikiPage;
@@ -33,6 +40,9 @@ import com.ecyrd.jspwiki.WikiPage;
  *  <p>
  *  The document is not stored as metadata in the WikiPage because
  *  otherwise it could not be cached separately.
+ *  <p>
+ *  A document may also be stored as a {@link CompactDocument}.  In that
+ *  case the JDOM tree is built only when some method asks for it.
  *  
  *  @author Janne Jalkanen
  *  @since  2.4
@@ -46,6 +56,12 @@ public class WikiDocument extends Document
 
     private WeakReference m_context;
     
+    private List     m_headings = new ArrayList();
+    
+    private volatile CompactDocument m_compact;
+    
+    private boolean  m_partial = false;
+    
     /**
      *  Creates a new WikiDocument for a specific page.
      * 
@@ -56,6 +72,19 @@ public class WikiDocument extends Document
         m_page     = page;
     }
     
+    /**
+     *  Creates a new WikiDocument for a specific page, with compact content.
+     *  
+     *  @param page The page to which this document refers to.
+     *  @param compact The content of the document.
+     *  @since 2.4.71
+     */
+    public WikiDocument( WikiPage page, CompactDocument compact )
+    {
+        m_page    = page;
+        m_compact = compact;
+    }
+    
     public void setPageData( String data )
     {
         m_wikiText = data;
@@ -84,6 +113,167 @@ public class WikiDocument extends Document
      */
     public WikiContext getContext()
     {
-        return (WikiContext) m_context.get();
+        return m_context != null ? (WikiContext) m_context.get() : null;
+    }
+
+    /**
+     *  Marks the document as partial.  The content of a partial document is
+     *  written out and thrown away while the page is still being parsed (see
+     *  {@link MarkupParser#setBlockListener(BlockListener)}), so the document
+     *  never holds the whole page, nor all of its headings.
+     *
+     *  @param partial True, if the document is partial.
+     *  @since 2.4.71
+     */
+    public void setPartial( boolean partial )
+    {
+        m_partial = partial;
+    }
+
+    /**
+     *  Returns true, if the document does not hold the whole page.
+     *
+     *  @return True, if the document is partial.
+     *  @since 2.4.71
+     */
+    public boolean isPartial()
+    {
+        return m_partial;
+    }
+
+    /**
+     *  Adds a heading found in the page.  This is called by the parser.
+     *
+     *  @param hd The heading.
+     *  @since 2.4.71
+     */
+    public void addHeading( Heading hd )
+    {
+        m_headings.add( hd );
+    }
+
+    /**
+     *  Returns the headings of the page in the order they appear in it.
+     *  Since the headings are stored with the document, they are cached
+     *  along with it, and e.g. a table of contents can be built without
+     *  parsing the page again.
+     *
+     *  @return An unmodifiable List of Heading objects.
+     *  @since 2.4.71
+     */
+    public List getHeadings()
+    {
+        return Collections.unmodifiableList( m_headings );
+    }
+
+    /**
+     *  Returns the compact content of this document.  Once something has
+     *  asked for the JDOM tree of the document, the compact content is 
+     *  no longer used.
+     *  
+     *  @return The compact content, or null, if the document is a normal
+     *          JDOM tree.
+     *  @since 2.4.71
+     */
+    public CompactDocument getCompactDocument()
+    {
+        return m_compact;
+    }
+    
+    /**
+     *  Builds the JDOM tree from the compact content, if it has not yet
+     *  been built.
+     */
+    private void inflate()
+    {
+        if( m_compact != null )
+        {
+            synchronized( this )
+            {
+                if( m_compact != null )
+                {
+                    super.setRootElement( m_compact.inflate() );
+                    m_compact = null;
+                }
+            }
+        }
+    }
+    
+    public Element getRootElement()
+    {
+        inflate();
+        return super.getRootElement();
+    }
+    
+    public boolean hasRootElement()
+    {
+        inflate();
+        return super.hasRootElement();
+    }
+    
+    public Document setRootElement( Element root )
+    {
+        inflate();
+        return super.setRootElement( root );
+    }
+    
+    public Element detachRootElement()
+    {
+        inflate();
+        return super.detachRootElement();
+    }
+    
+    public List getContent()
+    {
+        inflate();
+        return super.getContent();
+    }
+    
+    public Content getContent( int index )
+    {
+        inflate();
+        return super.getContent( index );
+    }
+    
+    public List getContent( Filter filter )
+    {
+        inflate();
+        return super.getContent( filter );
+    }
+    
+    public int getContentSize()
+    {
+        inflate();
+        return super.getContentSize();
+    }
+    
+    public int indexOf( Content child )
+    {
+        inflate();
+        return super.indexOf( child );
+    }
+    
+    public List cloneContent()
+    {
+        inflate();
+        return super.cloneContent();
+    }
+    
+    public Iterator getDescendants()
+    {
+        inflate();
+        return super.getDescendants();
+    }
+    
+    public Iterator getDescendants( Filter filter )
+    {
+        inflate();
+        return super.getDescendants( filter );
+    }
+    
+    public Object clone()
+    {
+        inflate();
+        return super.clone();
     }
 }
@@ -0,0 +1,243 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.parser;
+
+/**
+ *  Finds CamelCase words and plain URIs in text.  This does exactly what
+ *  matching {@link JSPWikiMarkupParser#WIKIWORD_REGEX} does, but in a single
+ *  pass over the characters, without creating any objects.
+ *  <p>
+ *  A match consists of a prefix and a word.  The prefix is either empty, if
+ *  the word is at the start of the text, or the run of non-alphanumeric
+ *  characters before the word.  The word is either a CamelCase word
+ *  (uppercase letters, lowercase letters, uppercase letters and then any
+ *  letters or digits), or a URI starting with "http://", "https://" or
+ *  "mailto:".
+ *  <p>
+ *  A scanner keeps the offsets of the last match, so each thread must
+ *  have its own.
+ *
+ *  @since 2.4.71
+ */
+final class WikiWordScanner
+{
+    /** The last match was a CamelCase word. */
+    public static final int CAMELCASE = 1;
+
+    /** The last match was a URI. */
+    public static final int URI       = 2;
+
+    /** The protocols a plain URI may have, in the order the regexp tries them. */
+    private static final String[] PROTOCOLS = { "http://", "https://", "mailto:" };
+
+    private int m_start;
+    private int m_wordStart;
+    private int m_protocolEnd;
+    private int m_end;
+    private int m_type;
+
+    /**
+     *  Finds the next match in the text.  The search starts at the given
+     *  offset, which is treated as the start of the text: a word there
+     *  needs no prefix.
+     *
+     *  @param text The text to search.
+     *  @param from The offset to start from.
+     *  @return True, if a match was found.  Its offsets are then available
+     *          through the getters.
+     */
+    public boolean find( CharSequence text, int from )
+    {
+        int len = text.length();
+
+        if( from < len && matchWord( text, from ) )
+        {
+            m_start = from;
+            return true;
+        }
+
+        int pos = from;
+
+        while( pos < len )
+        {
+            if( Character.isLetterOrDigit( text.charAt(pos) ) )
+            {
+                pos++;
+                continue;
+            }
+
+            //
+            //  The prefix takes as many non-alphanumeric characters as it can,
+            //  but gives some back if the word does not match after them.  Only
+            //  the uppercase characters it gives back can start a word.
+            //
+            int prefixStart = pos;
+
+            while( pos < len && !Character.isLetterOrDigit( text.charAt(pos) ) )
+            {
+                pos++;
+            }
+
+            if( pos < len && matchWord( text, pos ) )
+            {
+                m_start = prefixStart;
+                return true;
+            }
+
+            for( int i = pos-1; i > prefixStart; i-- )
+            {
+                if( Character.isUpperCase( text.charAt(i) ) && matchWord( text, i ) )
+                {
+                    m_start = prefixStart;
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     *  Checks whether a CamelCase word or a URI starts at the given offset.
+     */
+    private boolean matchWord( CharSequence text, int start )
+    {
+        int len = text.length();
+        int pos = start;
+
+        while( pos < len && Character.isUpperCase( text.charAt(pos) ) ) pos++;
+
+        if( pos > start )
+        {
+            int lowerStart = pos;
+
+            while( pos < len && Character.isLowerCase( text.charAt(pos) ) ) pos++;
+
+            if( pos == lowerStart ) return false;
+
+            int upperStart = pos;
+
+            while( pos < len && Character.isUpperCase( text.charAt(pos) ) ) pos++;
+
+            if( pos == upperStart ) return false;
+
+            while( pos < len && Character.isLetterOrDigit( text.charAt(pos) ) ) pos++;
+
+            m_type      = CAMELCASE;
+            m_wordStart = start;
+            m_end       = pos;
+            return true;
+        }
+
+        for( int i = 0; i < PROTOCOLS.length; i++ )
+        {
+            int protocolEnd = start + PROTOCOLS[i].length();
+
+            if( protocolEnd < len && regionMatches( text, start, PROTOCOLS[i] ) )
+            {
+                pos = protocolEnd;
+
+                while( pos < len && isURIChar( text.charAt(pos) ) ) pos++;
+
+                if( pos > protocolEnd )
+                {
+                    m_type        = URI;
+                    m_wordStart   = start;
+                    m_protocolEnd = protocolEnd;
+                    m_end         = pos;
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean regionMatches( CharSequence text, int start, String s )
+    {
+        for( int i = 0; i < s.length(); i++ )
+        {
+            if( text.charAt(start+i) != s.charAt(i) ) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     *  Returns true for the characters of [A-Za-z0-9_/.+?#\-@=&amp;;].
+     */
+    private static boolean isURIChar( char ch )
+    {
+        if( (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9') )
+        {
+            return true;
+        }
+
+        switch( ch )
+        {
+            case '_': case '/': case '.': case '+': case '?':
+            case '#': case '-': case '@': case '=': case '&': case ';':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     *  @return The type of the last match, either CAMELCASE or URI.
+     */
+    public int getType()
+    {
+        return m_type;
+    }
+
+    /**
+     *  @return The offset where the prefix of the last match starts.
+     */
+    public int getStart()
+    {
+        return m_start;
+    }
+
+    /**
+     *  @return The offset where the word of the last match starts, that is,
+     *          where the prefix ends.
+     */
+    public int getWordStart()
+    {
+        return m_wordStart;
+    }
+
+    /**
+     *  @return The offset where the protocol of the last URI ends.
+     */
+    public int getProtocolEnd()
+    {
+        return m_protocolEnd;
+    }
+
+    /**
+     *  @return The offset just after the last match.
+     */
+    public int getEnd()
+    {
+        return m_end;
+    }
+}
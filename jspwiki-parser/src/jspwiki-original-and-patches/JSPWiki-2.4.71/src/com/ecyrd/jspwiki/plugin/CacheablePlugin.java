@@ -0,0 +1,72 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.plugin;
+
+import java.util.Map;
+
+import com.ecyrd.jspwiki.WikiContext;
+
+/**
+ *  If a plugin defines this interface, the PluginManager may keep its output
+ *  and use it again, instead of executing the plugin every time the page is
+ *  viewed.  The output is kept separately for each set of parameters, and
+ *  for whatever else the plugin says it depends on.
+ *  <p>
+ *  Both methods are called before the plugin is executed, with the same
+ *  parameters that execute() would get.
+ *
+ *  @since 2.4.71
+ */
+public interface CacheablePlugin
+{
+    /** The output depends on the page the plugin is on. */
+    public static final int DEPENDS_ON_PAGE    = 1;
+
+    /**
+     *  The output depends on the other pages in the wiki, and must be
+     *  created again whenever any page is saved or deleted.
+     */
+    public static final int DEPENDS_ON_PAGESET = 2;
+
+    /** The output depends on who is looking at it. */
+    public static final int DEPENDS_ON_USER    = 4;
+
+    /**
+     *  Returns the number of seconds the output may be used.  Zero means
+     *  that this particular output must not be cached at all, and
+     *  {@link com.ecyrd.jspwiki.cache.CacheEntry#INDEFINITE_EXPIRY} that it may
+     *  be used until one of its dependencies changes.
+     *
+     *  @param context The current WikiContext.
+     *  @param params The plugin parameters.
+     *  @return Time in seconds.
+     */
+    public int getCacheTime( WikiContext context, Map params );
+
+    /**
+     *  Returns what the output depends on, as a combination of the
+     *  DEPENDS_ON flags.
+     *
+     *  @param context The current WikiContext.
+     *  @param params The plugin parameters.
+     *  @return The dependency flags.
+     */
+    public int getCacheDependencies( WikiContext context, Map params );
+}
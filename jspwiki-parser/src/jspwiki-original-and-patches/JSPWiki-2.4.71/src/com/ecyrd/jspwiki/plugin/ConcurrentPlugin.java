@@ -0,0 +1,34 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.plugin;
+
+/**
+ *  Marks a plugin which may be executed at the same time with the other
+ *  plugins on the same page, in a thread of its own.  Such a plugin
+ *  gets a WikiContext of its own, and must not depend on anything that
+ *  the plugins before it on the page have done.  It also must not
+ *  modify anything it shares with the rest of the page, such as the
+ *  WikiPage.
+ *
+ *  @since 2.4.71
+ */
+public interface ConcurrentPlugin
+{
+}
@@ -27,6 +27,7 @@ import org.apache.oro.text.GlobCompiler;
 import org.apache.oro.text.regex.*;
 
 import com.ecyrd.jspwiki.*;
+import com.ecyrd.jspwiki.cache.CacheEntry;
 import com.ecyrd.jspwiki.providers.ProviderException;
 
 /**
@@ -43,7 +44,7 @@ import com.ecyrd.jspwiki.providers.ProviderException;
  *  @author Janne Jalkanen
  *  @since 1.9.9
  */
-public class IndexPlugin implements WikiPlugin
+public class IndexPlugin implements WikiPlugin, CacheablePlugin, ConcurrentPlugin
 {
     protected static final Logger log = Logger.getLogger(IndexPlugin.class);
 
@@ -63,6 +64,19 @@ public class IndexPlugin implements WikiPlugin
     private Pattern             m_excludePattern;
     
 
+    /**
+     *  The index changes only when pages are added or removed.
+     */
+    public int getCacheTime( WikiContext context, Map params )
+    {
+        return CacheEntry.INDEFINITE_EXPIRY;
+    }
+
+    public int getCacheDependencies( WikiContext context, Map params )
+    {
+        return DEPENDS_ON_PAGESET;
+    }
+
     public String execute( WikiContext i_context , Map i_params )
         throws PluginException
     {
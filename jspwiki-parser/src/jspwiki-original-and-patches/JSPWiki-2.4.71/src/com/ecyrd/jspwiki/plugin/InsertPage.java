@@ -22,6 +22,7 @@ package com.ecyrd.jspwiki.plugin;
 import com.ecyrd.jspwiki.*;
 import com.ecyrd.jspwiki.auth.*;
 import com.ecyrd.jspwiki.auth.permissions.PagePermission;
+import com.ecyrd.jspwiki.providers.ProviderException;
 import java.util.*;
 
 /**
@@ -32,7 +33,7 @@ import java.util.*;
  *  @author Janne Jalkanen
  */
 public class InsertPage
-    implements WikiPlugin
+    implements WikiPlugin, ConcurrentPlugin
 {
     public static final String PARAM_PAGENAME  = "page";
     public static final String PARAM_STYLE     = "style";
@@ -93,13 +94,14 @@ public class InsertPage
                         return "<span class=\"error\">Error: Circular reference - you can't include a page in itself!</span>";
                     }
                 }
-                else
-                {
-                    previousIncludes = new ArrayList();
-                }
                
-                previousIncludes.add( page.getName() );
-                context.setVariable( ATTR_RECURSE, previousIncludes );
+                //
+                //  The list is copied instead of modified, since other InsertPages
+                //  may be looking at it at the same time.
+                //
+                List includes = previousIncludes != null ? new ArrayList( previousIncludes ) : new ArrayList();
+                includes.add( page.getName() );
+                context.setVariable( ATTR_RECURSE, includes );
                 
 
                 /**
@@ -110,19 +112,30 @@ public class InsertPage
                 WikiContext includedContext = (WikiContext) context.clone();
                 includedContext.setPage( page );
 
-                String pageData = engine.getPureText( page );
+                String pageData;
                 String moreLink = "";
 
                 if( section != -1 )
                 {
                     try
                     {
-                        pageData = TextUtil.getSection( pageData, section );
+                        pageData = engine.getPageManager().getSectionIndex( page.getName(),
+                                                                            page.getVersion() )
+                                                          .getSection( section ).toString();
                     }
                     catch( IllegalArgumentException e )
                     {
+                        context.setVariable( ATTR_RECURSE, previousIncludes );
                         throw new PluginException( e.getMessage() );
                     }
+                    catch( ProviderException e )
+                    {
+                        pageData = "";
+                    }
+                }
+                else
+                {
+                    pageData = engine.getPureText( page );
                 }
 
                 if( pageData.length() > maxlen ) 
@@ -139,7 +152,6 @@ public class InsertPage
                 //
                 //  Remove the name from the stack; we're now done with this.
                 //
-                previousIncludes.remove( page.getName() );
                 context.setVariable( ATTR_RECURSE, previousIncludes );
             }
             else
@@ -21,6 +21,7 @@ package com.ecyrd.jspwiki.plugin;
 
 import java.io.*;
 import java.net.URL;
+import java.security.Principal;
 import java.util.*;
 
 import org.apache.commons.lang.ClassUtils;
@@ -35,6 +36,10 @@ import org.jdom.input.SAXBuilder;
 import org.jdom.xpath.XPath;
 
 import com.ecyrd.jspwiki.*;
+import com.ecyrd.jspwiki.cache.CacheEntry;
+import com.ecyrd.jspwiki.cache.CacheFactory;
+import com.ecyrd.jspwiki.cache.CacheStatistics;
+import com.ecyrd.jspwiki.cache.WikiCache;
 import com.ecyrd.jspwiki.modules.ModuleManager;
 import com.ecyrd.jspwiki.modules.WikiModuleInfo;
 import com.ecyrd.jspwiki.parser.PluginContent;
@@ -109,6 +114,18 @@ import com.ecyrd.jspwiki.util.ClassUtil;
  *   </plugin>
  *   </modules>
  *  </pre>
+ *  <p>
+ *  Since 2.4.71 the output of plugins which implement {@link CacheablePlugin}
+ *  is cached.  The size of the cache is set with the
+ *  "jspwiki.pluginManager.capacity" property; zero turns the cache off.
+ *  <p>
+ *  Each plugin execution has a time budget, and so has the rendering of a
+ *  whole page.  A plugin which goes over its budget is interrupted, and a
+ *  plugin which keeps failing or going over its budget on a page is not run
+ *  on that page for a while; its last output, or a placeholder, is shown
+ *  instead.
+ *  The execution times of each plugin can be seen with
+ *  {@link #getPluginStatistics()}.
  *  
  *  @author Janne Jalkanen
  *  @since 1.6.1
@@ -149,11 +166,85 @@ public class PluginManager extends ModuleManager
      */
     public static final String PARAM_BOUNDS    = "_bounds";
 
+    /**
+     *  The name of the parameter containing the WikiDocument the plugin is
+     *  being rendered from, if any.  Plugins may use it to get to the parsed
+     *  page, e.g. its headings, without parsing the page again.
+     *  @since 2.4.71
+     */
+    public static final String PARAM_DOCUMENT  = "_document";
+
     /**
      *  A special name to be used in case you want to see debug output
      */
     public static final String PARAM_DEBUG     = "debug";
 
+    /**
+     *  The maximum number of plugin outputs to cache.  Zero turns
+     *  the cache off.
+     */
+    public static final String PROP_CACHESIZE  = "jspwiki.pluginManager.capacity";
+
+    /**
+     *  The approximate maximum size of the cached plugin output, in bytes.
+     */
+    public static final String PROP_MAXWEIGHT  = "jspwiki.pluginManager.maxWeight";
+
+    private static final int   DEFAULT_CACHESIZE = 1000;
+    private static final int   DEFAULT_MAXWEIGHT = 16*1024*1024;
+
+    /**
+     *  How long a single plugin may run, in milliseconds.  Zero, the
+     *  default, means no limit.
+     */
+    public static final String PROP_TIMEBUDGET     = "jspwiki.pluginManager.timeBudget";
+
+    /**
+     *  How long all the plugins on a page may run together, in milliseconds.
+     *  Zero, the default, means no limit.
+     */
+    public static final String PROP_PAGETIMEBUDGET = "jspwiki.pluginManager.pageTimeBudget";
+
+    /**
+     *  After how many consecutive slow or failed executions on a page a plugin
+     *  is not run on that page any more.  Zero means never.
+     */
+    public static final String PROP_BREAKERTHRESHOLD = "jspwiki.pluginManager.breakerThreshold";
+
+    /**
+     *  For how many seconds a plugin is not run on a page, once it has failed
+     *  there too many times.
+     */
+    public static final String PROP_BREAKEROPENTIME  = "jspwiki.pluginManager.breakerOpenTime";
+
+    private static final int   DEFAULT_TIMEBUDGET       = 0;
+    private static final int   DEFAULT_PAGETIMEBUDGET   = 0;
+    private static final int   DEFAULT_BREAKERTHRESHOLD = 5;
+    private static final int   DEFAULT_BREAKEROPENTIME  = 60;
+
+    /** Returned by admit() when the plugin must not be run. */
+    private static final long  REJECTED = -1;
+
+    /** The WikiContext variable which holds the deadline of the page. */
+    private static final String VAR_PAGEDEADLINE = "com.ecyrd.jspwiki.plugin.PluginManager.pageDeadline";
+
+    /** Interrupts plugins which go over their budget.  Shared by all engines. */
+    private static Timer c_watchdogTimer;
+
+    /** 
+     *  The watchdogs of the plugins which the thread is running, the
+     *  innermost last.  Plugins may run other plugins, e.g. by including
+     *  pages, and the interrupt of an outer watchdog must not be blamed
+     *  on the inner plugin.
+     */
+    private static final ThreadLocal c_watchdogs = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new ArrayList();
+        }
+    };
+
     Vector  m_searchPath = new Vector();
 
     Pattern m_pluginPattern;
@@ -166,6 +257,22 @@ public class PluginManager extends ModuleManager
      */
     private Map m_pluginClassMap = new HashMap();
 
+    /**
+     *  Keeps the output of the CacheablePlugins, or is null, if caching
+     *  is disabled.
+     */
+    private WikiCache m_outputCache;
+
+    private long m_timeBudget;
+    private long m_pageTimeBudget;
+    private int  m_breakerThreshold;
+    private long m_breakerOpenTime;
+
+    /**
+     *  Maps plugin class names to their PluginMonitors.
+     */
+    private Map m_monitors = new HashMap();
+
 
     /**
      *  Create a new PluginManager.
@@ -189,6 +296,23 @@ public class PluginManager extends ModuleManager
 
         registerPlugins();
 
+        int cacheSize = TextUtil.getIntegerProperty( props, PROP_CACHESIZE, DEFAULT_CACHESIZE );
+        
+        if( cacheSize > 0 )
+        {
+            m_outputCache = CacheFactory.createCache( props,
+                                                      "pluginManager.output",
+                                                      cacheSize,
+                                                      TextUtil.getIntegerProperty( props, 
+                                                                                   PROP_MAXWEIGHT, 
+                                                                                   DEFAULT_MAXWEIGHT ) );
+        }
+
+        m_timeBudget       = TextUtil.getIntegerProperty( props, PROP_TIMEBUDGET, DEFAULT_TIMEBUDGET );
+        m_pageTimeBudget   = TextUtil.getIntegerProperty( props, PROP_PAGETIMEBUDGET, DEFAULT_PAGETIMEBUDGET );
+        m_breakerThreshold = TextUtil.getIntegerProperty( props, PROP_BREAKERTHRESHOLD, DEFAULT_BREAKERTHRESHOLD );
+        m_breakerOpenTime  = TextUtil.getIntegerProperty( props, PROP_BREAKEROPENTIME, DEFAULT_BREAKEROPENTIME ) * 1000L;
+
         //
         //  The default packages are always added.
         //
@@ -269,6 +393,50 @@ public class PluginManager extends ModuleManager
         return ClassUtil.findClass( m_searchPath, classname );
     }
 
+    /**
+     *  Returns the information about the given plugin, and registers it,
+     *  if it has not been used before.
+     */
+    private WikiPluginInfo getPluginInfo( String classname )
+        throws ClassNotFoundException
+    {
+        WikiPluginInfo pluginInfo = (WikiPluginInfo) m_pluginClassMap.get(classname);
+        
+        if(pluginInfo == null)
+        {
+            pluginInfo = WikiPluginInfo.newInstance(findPluginClass( classname ));
+            registerPlugin(pluginInfo);
+        }
+        
+        return pluginInfo;
+    }
+
+    /**
+     *  Returns true, if the given plugin may be executed at the same time
+     *  with the other plugins on the page, that is, it is a
+     *  {@link ConcurrentPlugin}, and plugins are being executed normally.
+     *
+     *  @param classname The plugin name, as in execute().
+     *  @return True, if the plugin can be run concurrently.
+     *  @since 2.4.71
+     */
+    public boolean isConcurrentPlugin( String classname )
+    {
+        if( !m_pluginsEnabled || m_initStage ) return false;
+        
+        try
+        {
+            WikiPluginInfo pluginInfo = getPluginInfo( classname );
+            
+            return ConcurrentPlugin.class.isAssignableFrom( pluginInfo.getPluginClass() ) && 
+                   checkCompatibility( pluginInfo );
+        }
+        catch( ClassNotFoundException e )
+        {
+            return false;
+        }
+    }
+
     /**
      *  Outputs a HTML-formatted version of a stack trace.
      */
@@ -328,13 +496,7 @@ public class PluginManager extends ModuleManager
 
             boolean debug = TextUtil.isPositive( (String) params.get( PARAM_DEBUG ) );
 
-            WikiPluginInfo pluginInfo = (WikiPluginInfo) m_pluginClassMap.get(classname);
-            
-            if(pluginInfo == null)
-            {
-                pluginInfo = WikiPluginInfo.newInstance(findPluginClass( classname ));
-                registerPlugin(pluginInfo);
-            }
+            WikiPluginInfo pluginInfo = getPluginInfo( classname );
 
             if( !checkCompatibility(pluginInfo) )
             {
@@ -377,7 +539,12 @@ public class PluginManager extends ModuleManager
                     return "";
                 }
                 
-                return plugin.execute( context, params );
+                if( m_outputCache != null && plugin instanceof CacheablePlugin )
+                {
+                    return executeCached( plugin, pluginInfo, context, classname, params );
+                }
+                
+                return executeUncached( plugin, pluginInfo, context, classname, params );
             }
             catch( PluginException e )
             {
@@ -412,6 +579,393 @@ public class PluginManager extends ModuleManager
         }
     }
 
+    /**
+     *  Returns the cached output of the plugin, if there is any, or executes it
+     *  and caches the result.  The result is also kept for showing in case the
+     *  plugin later cannot be run, regardless of how old it is or how
+     *  many pages have been saved since.
+     */
+    private String executeCached( WikiPlugin plugin,
+                                  WikiPluginInfo pluginInfo,
+                                  WikiContext context, 
+                                  String classname, 
+                                  Map params )
+        throws PluginException
+    {
+        CacheablePlugin cacheable = (CacheablePlugin)plugin;
+        int cacheTime = cacheable.getCacheTime( context, params );
+        
+        if( cacheTime == 0 )
+        {
+            return executeUncached( plugin, pluginInfo, context, classname, params );
+        }
+        
+        int    dependencies = cacheable.getCacheDependencies( context, params );
+        String key = getCacheKey( context, classname, params, dependencies );
+        
+        if( key == null )
+        {
+            return executeUncached( plugin, pluginInfo, context, classname, params );
+        }
+        
+        CacheEntry entry = m_outputCache.get( key );
+        
+        if( entry != null && !entry.isExpired( cacheTime ) )
+        {
+            return (String) entry.getValue();
+        }
+        
+        String staleKey = getCacheKey( context, classname, params, 
+                                       dependencies & ~CacheablePlugin.DEPENDS_ON_PAGESET );
+        if( staleKey != null ) 
+        {
+            staleKey = "stale|" + staleKey;
+        }
+        
+        PluginMonitor monitor = getMonitor( pluginInfo );
+        long budget = admit( monitor, context, classname );
+        
+        if( budget == REJECTED )
+        {
+            return getFallback( classname, staleKey );
+        }
+        
+        String result = executeMonitored( plugin, monitor, budget, context, classname, params );
+        
+        if( result != null )
+        {
+            m_outputCache.put( key, result );
+            if( staleKey != null ) m_outputCache.put( staleKey, result );
+        }
+        
+        return result;
+    }
+
+    private String executeUncached( WikiPlugin plugin,
+                                    WikiPluginInfo pluginInfo,
+                                    WikiContext context, 
+                                    String classname, 
+                                    Map params )
+        throws PluginException
+    {
+        PluginMonitor monitor = getMonitor( pluginInfo );
+        long budget = admit( monitor, context, classname );
+        
+        if( budget == REJECTED )
+        {
+            return getFallback( classname, null );
+        }
+        
+        return executeMonitored( plugin, monitor, budget, context, classname, params );
+    }
+
+    /**
+     *  Decides whether the plugin may be run now, and how long it may take.
+     *  
+     *  @return The time budget in milliseconds, zero for no limit, or 
+     *          REJECTED, if the plugin must not be run.
+     */
+    private long admit( PluginMonitor monitor, WikiContext context, String classname )
+    {
+        long now    = System.currentTimeMillis();
+        long budget = m_timeBudget;
+        
+        Long deadline = (Long) context.getVariable( VAR_PAGEDEADLINE );
+        
+        if( deadline != null )
+        {
+            long left = deadline.longValue() - now;
+            
+            if( left <= 0 )
+            {
+                log.info( "The page has used up its time; not running plugin "+classname );
+                monitor.reject();
+                return REJECTED;
+            }
+            
+            if( budget == 0 || left < budget ) budget = left;
+        }
+        
+        if( !monitor.allowExecution( getBreakerPage( context ), now ) )
+        {
+            log.debug( "Plugin "+classname+" has failed too often on this page; not running it." );
+            return REJECTED;
+        }
+        
+        return budget;
+    }
+    
+    /**
+     *  Runs the plugin, interrupting it if it goes over the budget, and
+     *  records how it went.
+     */
+    private String executeMonitored( WikiPlugin plugin,
+                                     PluginMonitor monitor,
+                                     long budget,
+                                     WikiContext context,
+                                     String classname,
+                                     Map params )
+        throws PluginException
+    {
+        long     start     = System.currentTimeMillis();
+        List     watchdogs = (List) c_watchdogs.get();
+        Watchdog watchdog  = null;
+        
+        if( budget > 0 )
+        {
+            watchdog = new Watchdog( Thread.currentThread() );
+            watchdogs.add( watchdog );
+            getWatchdogTimer().schedule( watchdog, budget );
+        }
+        
+        String    result = null;
+        Throwable error  = null;
+        
+        try
+        {
+            result = plugin.execute( context, params );
+        }
+        catch( Throwable t )
+        {
+            error = t;
+        }
+
+        long    time        = System.currentTimeMillis() - start;
+        boolean interrupted = false;
+        
+        if( watchdog != null )
+        {
+            watchdogs.remove( watchdogs.size()-1 );
+        }
+        
+        boolean outerFired = Watchdog.anyFired( watchdogs );
+        
+        if( watchdog != null )
+        {
+            //  If an outer plugin has run out of time too, it must still
+            //  see the interrupt.
+            interrupted = watchdog.finish( !outerFired );
+        }
+        
+        boolean slow = interrupted || (budget > 0 && time > budget);
+        
+        //
+        //  A PluginException is the plugin's own way of telling that e.g. it
+        //  has been given bad parameters, so it does not count as a failure.
+        //  Neither is the plugin to blame if it was interrupted because some
+        //  plugin further out ran out of time.
+        //
+        if( !outerFired || interrupted )
+        {
+            monitor.record( getBreakerPage( context ), time, error != null && !(error instanceof PluginException), slow );
+        }
+        else
+        {
+            monitor.endTrial( getBreakerPage( context ) );
+        }
+
+        if( error == null )
+        {
+            return result;
+        }
+        
+        if( interrupted )
+        {
+            throw new PluginException( "Plugin "+classname+" did not finish in "+budget+" ms.", error );
+        }
+        
+        if( outerFired )
+        {
+            throw new PluginException( "Plugin "+classname+" was stopped, because an enclosing plugin ran out of time.", error );
+        }
+        
+        if( error instanceof PluginException ) throw (PluginException) error;
+        if( error instanceof RuntimeException ) throw (RuntimeException) error;
+        if( error instanceof Error ) throw (Error) error;
+        
+        throw new PluginException( "Plugin failed", error );
+    }
+
+    /**
+     *  Returns what is shown instead of a plugin which cannot be run:
+     *  its last output, if there is one, or a placeholder.
+     */
+    private String getFallback( String classname, String staleKey )
+    {
+        if( staleKey != null )
+        {
+            CacheEntry entry = m_outputCache.get( staleKey );
+            
+            if( entry != null )
+            {
+                return (String) entry.getValue();
+            }
+        }
+        
+        return "<span class=\"error\">Plugin "+TextUtil.replaceEntities( classname )+
+               " is not available at the moment.</span>";
+    }
+
+    /**
+     *  Returns the name of the page whose circuit breaker is used for the
+     *  plugins run in the given context.
+     */
+    private static String getBreakerPage( WikiContext context )
+    {
+        WikiPage page = context.getPage();
+        
+        return page != null ? page.getName() : "";
+    }
+
+    private PluginMonitor getMonitor( WikiPluginInfo pluginInfo )
+    {
+        synchronized( m_monitors )
+        {
+            PluginMonitor monitor = (PluginMonitor) m_monitors.get( pluginInfo.getClassName() );
+            
+            if( monitor == null )
+            {
+                monitor = new PluginMonitor( pluginInfo.getClassName(), m_breakerThreshold, m_breakerOpenTime );
+                m_monitors.put( pluginInfo.getClassName(), monitor );
+            }
+            
+            return monitor;
+        }
+    }
+
+    private static synchronized Timer getWatchdogTimer()
+    {
+        if( c_watchdogTimer == null )
+        {
+            c_watchdogTimer = new Timer( true );
+        }
+        
+        return c_watchdogTimer;
+    }
+
+    /**
+     *  Starts the time budget of a page, if one has not been started already
+     *  for this context.  The plugins on the page, and on any pages it
+     *  includes, must finish before the budget runs out; after that they
+     *  are not run any more.
+     *
+     *  @param context The context in which the page is rendered.
+     *  @return True, if a budget was started, and {@link #endPageBudget(WikiContext)}
+     *          must be called once the page is done.
+     *  @since 2.4.71
+     */
+    public boolean startPageBudget( WikiContext context )
+    {
+        if( m_pageTimeBudget <= 0 || context.getVariable( VAR_PAGEDEADLINE ) != null )
+        {
+            return false;
+        }
+        
+        context.setVariable( VAR_PAGEDEADLINE, new Long( System.currentTimeMillis() + m_pageTimeBudget ) );
+        
+        return true;
+    }
+    
+    /**
+     *  Ends the time budget started by {@link #startPageBudget(WikiContext)}.
+     *
+     *  @param context The context in which the page was rendered.
+     *  @since 2.4.71
+     */
+    public void endPageBudget( WikiContext context )
+    {
+        context.setVariable( VAR_PAGEDEADLINE, null );
+    }
+
+    /**
+     *  Returns the execution statistics of each plugin that has been run.
+     *
+     *  @return A Collection of {@link PluginStatistics}, sorted by the plugin
+     *          class name.
+     *  @since 2.4.71
+     */
+    public Collection getPluginStatistics()
+    {
+        List result = new ArrayList();
+        
+        synchronized( m_monitors )
+        {
+            for( Iterator i = new TreeMap( m_monitors ).values().iterator(); i.hasNext(); )
+            {
+                result.add( ((PluginMonitor) i.next()).getStatistics() );
+            }
+        }
+        
+        return result;
+    }
+
+    /**
+     *  Builds the cache key from the plugin name, its parameters and the
+     *  things the output depends on.  Output which depends on the page set
+     *  is keyed on the page set generation of the RenderingManager, which 
+     *  changes whenever a page is saved or deleted, so older output is simply
+     *  never found again.
+     *  
+     *  @return The key, or null, if the output cannot be cached.
+     */
+    private String getCacheKey( WikiContext context, String classname, Map params, int dependencies )
+    {
+        StringBuffer key = new StringBuffer( classname );
+        
+        key.append( '|' ).append( context.getRequestContext() );
+        
+        if( (dependencies & CacheablePlugin.DEPENDS_ON_PAGE) != 0 )
+        {
+            WikiPage page = context.getPage();
+            
+            if( page == null ) return null;
+            
+            key.append( '|' ).append( page.getName() ).append( '#' ).append( page.getVersion() );
+        }
+        
+        if( (dependencies & CacheablePlugin.DEPENDS_ON_PAGESET) != 0 )
+        {
+            if( m_engine.getRenderingManager() == null ) return null;
+            
+            key.append( '|' ).append( m_engine.getRenderingManager().getPageSetGeneration() );
+        }
+        
+        if( (dependencies & CacheablePlugin.DEPENDS_ON_USER) != 0 )
+        {
+            Principal user = context.getCurrentUser();
+            
+            key.append( '|' ).append( user != null ? user.getName() : "" );
+        }
+        
+        //
+        //  The bounds are just the location of the plugin on the page,
+        //  and the document is identified by the page already.
+        //
+        Map sorted = new TreeMap( params );
+        sorted.remove( PARAM_BOUNDS );
+        sorted.remove( PARAM_DOCUMENT );
+        
+        for( Iterator i = sorted.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry e = (Map.Entry) i.next();
+            
+            key.append( '|' ).append( e.getKey() ).append( '=' ).append( e.getValue() );
+        }
+        
+        return key.toString();
+    }
+
+    /**
+     *  Returns the statistics of the plugin output cache.
+     *
+     *  @return The statistics, or null, if the cache is disabled.
+     *  @since 2.4.71
+     */
+    public CacheStatistics getCacheStatistics()
+    {
+        return m_outputCache != null ? m_outputCache.getStatistics() : null;
+    }
+
     /**
      *  Parses plugin arguments.  Handles quotes and all other kewl stuff.
      *
@@ -733,6 +1287,69 @@ public class PluginManager extends ModuleManager
         }
     }
 
+    /**
+     *  Interrupts a plugin which has run out of time.
+     */
+    private static class Watchdog extends TimerTask
+    {
+        private final Thread m_thread;
+        private boolean      m_fired;
+        private boolean      m_finished;
+        
+        Watchdog( Thread thread )
+        {
+            m_thread = thread;
+        }
+        
+        public synchronized void run()
+        {
+            if( !m_finished )
+            {
+                m_fired = true;
+                m_thread.interrupt();
+            }
+        }
+        
+        synchronized boolean isFired()
+        {
+            return m_fired;
+        }
+        
+        /**
+         *  Tells whether any of the given watchdogs has interrupted its thread.
+         */
+        static boolean anyFired( List watchdogs )
+        {
+            for( int i = 0; i < watchdogs.size(); i++ )
+            {
+                if( ((Watchdog) watchdogs.get( i )).isFired() ) return true;
+            }
+            
+            return false;
+        }
+        
+        /**
+         *  Stops the watchdog.  This must be called by the thread being watched.
+         *  
+         *  @param clearInterrupt If true, and this watchdog interrupted the thread,
+         *                        the interrupt is cleared.
+         *  @return True, if this watchdog interrupted the thread.
+         */
+        synchronized boolean finish( boolean clearInterrupt )
+        {
+            m_finished = true;
+            cancel();
+            
+            if( m_fired && clearInterrupt )
+            {
+                // Clear the interrupt, in case the plugin did not notice it.
+                Thread.interrupted();
+            }
+            
+            return m_fired;
+        }
+    }
+
     /**
      *  Contains information about a bunch of plugins.
      *  
@@ -822,13 +1439,25 @@ public class PluginManager extends ModuleManager
             throws ClassNotFoundException,
                    InstantiationException,
                    IllegalAccessException
+        {
+            return (WikiPlugin) getPluginClass().newInstance();
+        }
+
+        /**
+         *  Returns the plugin class.
+         *  
+         *  @return The class of the plugin.
+         *  @throws ClassNotFoundException If the class declared was not found.
+         */
+        public Class getPluginClass()
+            throws ClassNotFoundException
         {
             if( m_clazz == null )
             {
                 m_clazz = Class.forName(m_className);
             }
 
-            return (WikiPlugin) m_clazz.newInstance();
+            return m_clazz;
         }
         
         /**
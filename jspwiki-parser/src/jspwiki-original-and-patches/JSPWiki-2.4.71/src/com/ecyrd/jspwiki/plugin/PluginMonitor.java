@@ -0,0 +1,215 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.plugin;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ *  Keeps the execution statistics and the circuit breakers of a single plugin
+ *  class.  There is a breaker for each page the plugin is used on, so that
+ *  a page which makes the plugin fail does not turn it off on the other pages.
+ *  After a given number of consecutive bad executions on a page (slow ones,
+ *  or ones which failed unexpectedly) the breaker opens, and the plugin is
+ *  not run on that page for a while.  After that, the plugin is given one
+ *  try; if it goes well, the breaker closes again, and if not, it stays open
+ *  for another period.
+ *
+ *  @since 2.4.71
+ */
+final class PluginMonitor
+{
+    private static final Logger log = Logger.getLogger( PluginMonitor.class );
+    
+    private final String m_name;
+    private final int    m_threshold;
+    private final long   m_openTime;
+    
+    private long         m_executions;
+    private long         m_failures;
+    private long         m_slowExecutions;
+    private long         m_rejections;
+    private long         m_totalTime;
+    private long         m_maxTime;
+    private final long[] m_histogram = new long[PluginStatistics.BUCKET_LIMITS.length+1];
+    
+    /** Maps page names to Breakers.  Only pages with recent bad executions are here. */
+    private final Map    m_breakers = new HashMap();
+    
+    /**
+     *  The state of the breaker of one page.
+     */
+    private static final class Breaker
+    {
+        int     m_badExecutions;
+        long    m_openUntil;
+        boolean m_trialRunning;
+    }
+    
+    /**
+     *  Creates a new monitor.
+     *  
+     *  @param name The plugin class name.
+     *  @param threshold The number of consecutive bad executions after which
+     *                   the breaker opens.  Zero means never.
+     *  @param openTime How long the breaker stays open, in milliseconds.
+     */
+    PluginMonitor( String name, int threshold, long openTime )
+    {
+        m_name      = name;
+        m_threshold = threshold;
+        m_openTime  = openTime;
+    }
+    
+    /**
+     *  Checks whether the plugin may be run now on the given page.  If it
+     *  may not, the rejection is counted.  If this run is the trial of an
+     *  open breaker, either {@link #record(String, long, boolean, boolean)}
+     *  or {@link #endTrial(String)} must be called after it.
+     */
+    synchronized boolean allowExecution( String page, long now )
+    {
+        Breaker breaker = (Breaker) m_breakers.get( page );
+        
+        if( breaker == null || breaker.m_openUntil == 0 ) 
+        {
+            return true;
+        }
+        
+        if( now >= breaker.m_openUntil && !breaker.m_trialRunning )
+        {
+            breaker.m_trialRunning = true;
+            return true;
+        }
+        
+        m_rejections++;
+        return false;
+    }
+    
+    synchronized void reject()
+    {
+        m_rejections++;
+    }
+    
+    /**
+     *  Ends a run of the plugin without recording it, because the plugin was
+     *  not to blame for how it went.  If the run was a trial, the next run
+     *  may try again.
+     */
+    synchronized void endTrial( String page )
+    {
+        Breaker breaker = (Breaker) m_breakers.get( page );
+        
+        if( breaker != null )
+        {
+            breaker.m_trialRunning = false;
+        }
+    }
+    
+    /**
+     *  Records an execution of the plugin.
+     *  
+     *  @param page The name of the page the plugin was run on.
+     *  @param time How long it took, in milliseconds.
+     *  @param failed True, if it failed unexpectedly.
+     *  @param slow True, if it went over its time budget.
+     */
+    synchronized void record( String page, long time, boolean failed, boolean slow )
+    {
+        m_executions++;
+        m_totalTime += time;
+        if( time > m_maxTime ) m_maxTime = time;
+        if( failed ) m_failures++;
+        if( slow ) m_slowExecutions++;
+        
+        int bucket = 0;
+        while( bucket < PluginStatistics.BUCKET_LIMITS.length && time >= PluginStatistics.BUCKET_LIMITS[bucket] )
+        {
+            bucket++;
+        }
+        m_histogram[bucket]++;
+        
+        Breaker breaker = (Breaker) m_breakers.get( page );
+        
+        if( failed || slow )
+        {
+            if( breaker == null )
+            {
+                breaker = new Breaker();
+                m_breakers.put( page, breaker );
+            }
+            
+            breaker.m_badExecutions++;
+            
+            if( m_threshold > 0 && (breaker.m_trialRunning || breaker.m_badExecutions >= m_threshold) )
+            {
+                if( breaker.m_openUntil == 0 )
+                {
+                    log.warn( "Plugin "+m_name+" has failed or been slow "+breaker.m_badExecutions+
+                              " times in a row on page "+page+", and will not be run there for "+
+                              (m_openTime/1000)+" seconds." );
+                }
+                breaker.m_openUntil = System.currentTimeMillis() + m_openTime;
+            }
+            
+            breaker.m_trialRunning = false;
+        }
+        else if( breaker != null )
+        {
+            if( breaker.m_openUntil != 0 )
+            {
+                log.info( "Plugin "+m_name+" works again on page "+page+"." );
+            }
+            m_breakers.remove( page );
+        }
+    }
+    
+    /**
+     *  Returns true, if the breaker of some page is open.
+     */
+    private boolean isAnyOpen()
+    {
+        for( Iterator i = m_breakers.values().iterator(); i.hasNext(); )
+        {
+            if( ((Breaker) i.next()).m_openUntil != 0 )
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    synchronized PluginStatistics getStatistics()
+    {
+        return new PluginStatistics( m_name,
+                                     m_executions,
+                                     m_failures,
+                                     m_slowExecutions,
+                                     m_rejections,
+                                     m_totalTime,
+                                     m_maxTime,
+                                     (long[]) m_histogram.clone(),
+                                     isAnyOpen() );
+    }
+}
@@ -0,0 +1,169 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.plugin;
+
+/**
+ *  A snapshot of the execution times and failures of a single plugin
+ *  class, as kept by the {@link PluginManager}.  The execution times are
+ *  collected into a histogram, whose buckets are given by 
+ *  {@link #BUCKET_LIMITS}.
+ *
+ *  @since 2.4.71
+ */
+public class PluginStatistics
+{
+    /**
+     *  The upper limits of the histogram buckets, in milliseconds.  The last
+     *  bucket holds the executions which took longer than the last limit.
+     */
+    public static final long[] BUCKET_LIMITS = { 1, 10, 100, 1000, 10000 };
+    
+    private final String  m_name;
+    private final long    m_executions;
+    private final long    m_failures;
+    private final long    m_slowExecutions;
+    private final long    m_rejections;
+    private final long    m_totalTime;
+    private final long    m_maxTime;
+    private final long[]  m_histogram;
+    private final boolean m_circuitOpen;
+
+    public PluginStatistics( String name,
+                             long executions,
+                             long failures,
+                             long slowExecutions,
+                             long rejections,
+                             long totalTime,
+                             long maxTime,
+                             long[] histogram,
+                             boolean circuitOpen )
+    {
+        m_name           = name;
+        m_executions     = executions;
+        m_failures       = failures;
+        m_slowExecutions = slowExecutions;
+        m_rejections     = rejections;
+        m_totalTime      = totalTime;
+        m_maxTime        = maxTime;
+        m_histogram      = histogram;
+        m_circuitOpen    = circuitOpen;
+    }
+
+    /**
+     *  Returns the plugin class name.
+     *  
+     *  @return The class name.
+     */
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public long getExecutions()
+    {
+        return m_executions;
+    }
+
+    /**
+     *  Returns the number of executions which failed unexpectedly, that is,
+     *  with something else than a PluginException.
+     *  
+     *  @return The failure count.
+     */
+    public long getFailures()
+    {
+        return m_failures;
+    }
+
+    /**
+     *  Returns the number of executions which went over their time budget.
+     *  
+     *  @return The slow execution count.
+     */
+    public long getSlowExecutions()
+    {
+        return m_slowExecutions;
+    }
+
+    /**
+     *  Returns the number of times the plugin was not run at all, because the
+     *  circuit breaker was open or the page had run out of time.
+     *  
+     *  @return The rejection count.
+     */
+    public long getRejections()
+    {
+        return m_rejections;
+    }
+
+    public long getMaxTime()
+    {
+        return m_maxTime;
+    }
+
+    public long getAverageTime()
+    {
+        return m_executions > 0 ? m_totalTime / m_executions : 0;
+    }
+
+    /**
+     *  Returns the number of executions in each bucket of the histogram.
+     *  
+     *  @return An array with one more element than {@link #BUCKET_LIMITS}.
+     */
+    public long[] getHistogram()
+    {
+        return (long[]) m_histogram.clone();
+    }
+
+    /**
+     *  Returns true, if the circuit breaker is open on some page, and the
+     *  plugin is not being run on that page at the moment.
+     *  
+     *  @return True, if the plugin is not being run on some page.
+     */
+    public boolean isCircuitOpen()
+    {
+        return m_circuitOpen;
+    }
+
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        
+        sb.append( m_name );
+        sb.append( ": executions=" ).append( m_executions );
+        sb.append( ", failures=" ).append( m_failures );
+        sb.append( ", slow=" ).append( m_slowExecutions );
+        sb.append( ", rejected=" ).append( m_rejections );
+        sb.append( ", avg=" ).append( getAverageTime() ).append( "ms" );
+        sb.append( ", max=" ).append( m_maxTime ).append( "ms" );
+        
+        for( int i = 0; i < m_histogram.length; i++ )
+        {
+            sb.append( i < BUCKET_LIMITS.length ? ", <" + BUCKET_LIMITS[i] : ", >=" + BUCKET_LIMITS[i-1] );
+            sb.append( "ms=" ).append( m_histogram[i] );
+        }
+        
+        if( m_circuitOpen ) sb.append( ", circuit open" );
+        
+        return sb.toString();
+    }
+}
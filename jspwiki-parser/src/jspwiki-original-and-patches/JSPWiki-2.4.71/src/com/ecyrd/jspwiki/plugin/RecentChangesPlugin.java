@@ -41,7 +41,7 @@ import com.ecyrd.jspwiki.attachment.Attachment;
  *  @author Janne Jalkanen
  */
 public class RecentChangesPlugin
-    implements WikiPlugin
+    implements WikiPlugin, CacheablePlugin, ConcurrentPlugin
 {
     private static final String PARAM_FORMAT = "format";
     private static final String PARAM_TIME_FORMAT = "timeFormat";
@@ -50,6 +50,10 @@ public class RecentChangesPlugin
     /** How many days we show by default. */
     private static final int    DEFAULT_DAYS = 100*365;
 
+    /** How many seconds the list is cached.  Since the list depends on the
+        current date, too, it cannot be kept indefinitely. */
+    private static final int    CACHE_TIME = 60;
+
     private static Logger log = Logger.getLogger( RecentChangesPlugin.class );
 
     private boolean isSameDay( Date a, Date b )
@@ -61,6 +65,16 @@ public class RecentChangesPlugin
                 aa.get( Calendar.DAY_OF_YEAR ) == bb.get( Calendar.DAY_OF_YEAR ) );
     }
 
+    public int getCacheTime( WikiContext context, Map params )
+    {
+        return CACHE_TIME;
+    }
+
+    public int getCacheDependencies( WikiContext context, Map params )
+    {
+        return DEPENDS_ON_PAGESET;
+    }
+
     public String execute( WikiContext context, Map params )
         throws PluginException
     {
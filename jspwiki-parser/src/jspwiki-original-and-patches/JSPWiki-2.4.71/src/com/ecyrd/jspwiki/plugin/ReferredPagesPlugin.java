@@ -43,7 +43,7 @@ import org.apache.oro.text.regex.*;
 
 import com.ecyrd.jspwiki.*;
 
-public class ReferredPagesPlugin implements WikiPlugin
+public class ReferredPagesPlugin implements WikiPlugin, ConcurrentPlugin
 {
     private static Logger log = Logger.getLogger( ReferredPagesPlugin.class );
     private WikiEngine     m_engine;
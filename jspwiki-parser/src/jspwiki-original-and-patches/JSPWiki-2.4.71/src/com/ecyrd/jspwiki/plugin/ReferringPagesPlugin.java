@@ -21,6 +21,7 @@ package com.ecyrd.jspwiki.plugin;
 
 import org.apache.log4j.Logger;
 import com.ecyrd.jspwiki.*;
+import com.ecyrd.jspwiki.cache.CacheEntry;
 import java.util.*;
 
 /**
@@ -38,6 +39,7 @@ import java.util.*;
  */
 public class ReferringPagesPlugin
     extends AbstractReferralPlugin
+    implements CacheablePlugin, ConcurrentPlugin
 {
     private static Logger log = Logger.getLogger( ReferringPagesPlugin.class );
 
@@ -45,6 +47,19 @@ public class ReferringPagesPlugin
     public static final String PARAM_EXTRAS   = "extras";
     public static final String PARAM_PAGE     = "page";
     
+    /**
+     *  The referrers change only when pages are saved or deleted.
+     */
+    public int getCacheTime( WikiContext context, Map params )
+    {
+        return CacheEntry.INDEFINITE_EXPIRY;
+    }
+
+    public int getCacheDependencies( WikiContext context, Map params )
+    {
+        return DEPENDS_ON_PAGE | DEPENDS_ON_PAGESET;
+    }
+
     public String execute( WikiContext context, Map params )
         throws PluginException
     {
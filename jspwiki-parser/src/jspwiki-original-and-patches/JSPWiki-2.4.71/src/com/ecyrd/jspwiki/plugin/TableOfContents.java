@@ -24,6 +24,7 @@ import com.ecyrd.jspwiki.*;
 import com.ecyrd.jspwiki.parser.Heading;
 import com.ecyrd.jspwiki.parser.HeadingListener;
 import com.ecyrd.jspwiki.parser.JSPWikiMarkupParser;
+import com.ecyrd.jspwiki.parser.WikiDocument;
 
 import java.util.*;
 import java.io.StringReader;
@@ -185,14 +186,31 @@ public class TableOfContents
 
         try
         {
-            String wikiText = engine.getPureText( page );
-            
             context.setVariable( VAR_ALREADY_PROCESSING, "x" );
-            JSPWikiMarkupParser parser = new JSPWikiMarkupParser( context,
-                                                                  new StringReader(wikiText) );
-            parser.addHeadingListener( this );
 
-            parser.parse();
+            //
+            //  The headings were already collected when the page was parsed,
+            //  unless we're not being rendered from a parsed page.
+            //
+            WikiDocument doc = (WikiDocument) params.get( PluginManager.PARAM_DOCUMENT );
+            
+            if( doc != null )
+            {
+                for( Iterator i = doc.getHeadings().iterator(); i.hasNext(); )
+                {
+                    headingAdded( context, (Heading) i.next() );
+                }
+            }
+            else
+            {
+                String wikiText = engine.getPureText( page );
+            
+                JSPWikiMarkupParser parser = new JSPWikiMarkupParser( context,
+                                                                      new StringReader(wikiText) );
+                parser.addHeadingListener( this );
+
+                parser.parse();
+            }
 
             sb.append( "<ul>\n"+m_buf.toString()+"</ul>\n" );
         }
@@ -34,6 +34,7 @@ import java.util.*;
  */
 public class UndefinedPagesPlugin
     extends AbstractReferralPlugin
+    implements ConcurrentPlugin
 {
     public String execute( WikiContext context, Map params )
         throws PluginException
@@ -36,6 +36,7 @@ import java.util.*;
  */
 public class UnusedPagesPlugin
     extends AbstractReferralPlugin
+    implements ConcurrentPlugin
 {
     public String execute( WikiContext context, Map params )
         throws PluginException
@@ -37,6 +37,7 @@ import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 
 import com.ecyrd.jspwiki.PageManager;
+import com.ecyrd.jspwiki.SectionIndex;
 import com.ecyrd.jspwiki.TextUtil;
 import com.ecyrd.jspwiki.WikiContext;
 import com.ecyrd.jspwiki.WikiEngine;
@@ -75,7 +76,8 @@ import com.ecyrd.jspwiki.providers.ProviderException;
 
 public class WeblogPlugin 
     implements WikiPlugin,
-               InitializablePlugin
+               InitializablePlugin,
+               CacheablePlugin
 {
     private static Logger     log = Logger.getLogger(WeblogPlugin.class);
     private static final DateFormat DEFAULT_ENTRYFORMAT 
@@ -95,6 +97,10 @@ public class WeblogPlugin
     public static final String  PARAM_PAGE         = "page";
 
     public static final String  ATTR_ISWEBLOG      = "weblogplugin.isweblog";
+
+    /** How many seconds the weblog is cached, since the shown dates move
+        with time. */
+    private static final int    CACHE_TIME         = 60;
     
     static
     {
@@ -127,6 +133,26 @@ public class WeblogPlugin
         context.getPage().setAttribute(ATTR_ISWEBLOG, "true");
     }
 
+    /**
+     *  The weblog is not cached when the days or the start date come from
+     *  the request.
+     */
+    public int getCacheTime( WikiContext context, Map params )
+    {
+        if( context.getHttpParameter( "weblog."+PARAM_DAYS ) != null ||
+            context.getHttpParameter( "weblog."+PARAM_STARTDATE ) != null )
+        {
+            return 0;
+        }
+        
+        return CACHE_TIME;
+    }
+
+    public int getCacheDependencies( WikiContext context, Map params )
+    {
+        return DEPENDS_ON_PAGE | DEPENDS_ON_PAGESET;
+    }
+
     public String execute( WikiContext context, Map params )
         throws PluginException
     {
@@ -350,14 +376,15 @@ public class WeblogPlugin
     private int guessNumberOfComments( WikiEngine engine, String commentpage )
         throws ProviderException
     {
-        String pagedata = engine.getPureText( commentpage, WikiProvider.LATEST_VERSION );
+        SectionIndex index = engine.getPageManager().getSectionIndex( commentpage, 
+                                                                      WikiProvider.LATEST_VERSION );
 
-        if( pagedata == null || pagedata.trim().length() == 0 )
+        if( index.getText().trim().length() == 0 )
         {
             return 0;
         }
         
-        return TextUtil.countSections( pagedata );
+        return index.getSectionCount();
     }
 
     /**
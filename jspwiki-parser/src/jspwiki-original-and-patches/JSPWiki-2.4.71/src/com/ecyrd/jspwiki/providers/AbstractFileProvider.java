@@ -20,6 +20,7 @@
 package com.ecyrd.jspwiki.providers;
 
 import java.io.*;
+import java.nio.channels.ClosedByInterruptException;
 import java.util.Properties;
 import java.util.Collection;
 import java.util.Date;
@@ -67,8 +68,30 @@ public abstract class AbstractFileProvider
 
     public static final String DEFAULT_ENCODING = "ISO-8859-1";
 
+    /**
+     *  Name of the property which sets into how many parts at most a search is
+     *  divided, and how many worker threads at most the searches share.
+     *  The default is the number of processors.
+     */
+    public static final String PROP_SEARCHTHREADS = "jspwiki.fileSystemProvider.searchThreads";
+    
+    /**
+     *  Name of the property which limits the number of results from findPages().
+     *  Zero, the default, means no limit.
+     */
+    public static final String PROP_MAXSEARCHRESULTS = "jspwiki.fileSystemProvider.maxSearchResults";
+    
+    /** A thread is not worth starting for fewer pages. */
+    private static final int MIN_PAGES_PER_THREAD = 100;
+
     private boolean m_WindowsHackNeeded = false;
     
+    private int     m_searchThreads = 1;
+    
+    private int     m_maxSearchResults = 0;
+    
+    private SearchPool m_searchPool;
+    
     /**
      *  @throws FileNotFoundException If the specified page directory does not exist.
      *  @throws IOException In case the specified page directory is a file, not a directory.
@@ -96,6 +119,16 @@ public abstract class AbstractFileProvider
         m_encoding = properties.getProperty( WikiEngine.PROP_ENCODING, 
                                              DEFAULT_ENCODING );
 
+        m_searchThreads = TextUtil.getIntegerProperty( properties, 
+                                                       PROP_SEARCHTHREADS,
+                                                       Runtime.getRuntime().availableProcessors() );
+        
+        m_maxSearchResults = TextUtil.getIntegerProperty( properties,
+                                                          PROP_MAXSEARCHRESULTS,
+                                                          0 );
+        
+        m_searchPool = new SearchPool( m_searchThreads, m_encoding );
+        
         String os = System.getProperty( "os.name" ).toLowerCase();
         
         if( os.startsWith("windows") || os.equals("nt") )
@@ -172,6 +205,26 @@ public abstract class AbstractFileProvider
         return new File( m_pageDirectory, mangleName(page)+FILE_EXT );
     }
 
+    /**
+     *  Returns the name of the page to which a file in the page directory
+     *  belongs.  This is used to find out which pages have been changed
+     *  outside JSPWiki.
+     *
+     *  @param path The path of the file relative to the page directory,
+     *              separated with '/'.
+     *  @return The name of the page, or null, if the file does not belong to one.
+     *  @since 2.4.71
+     */
+    protected String getPageName( String path )
+    {
+        if( path.indexOf('/') == -1 && path.endsWith( FILE_EXT ) )
+        {
+            return unmangleName( path.substring( 0, path.length()-FILE_EXT.length() ) );
+        }
+        
+        return null;
+    }
+
     
     public boolean pageExists( String page )
     {
@@ -317,52 +370,117 @@ public abstract class AbstractFileProvider
     /**
      * Iterates through all WikiPages, matches them against the given query,
      * and returns a Collection of SearchResult objects.
+     * <p>
+     * Since 2.4.71 the pages are divided between the searching thread and
+     * a pool of worker threads shared by all the searches, each of which
+     * reads its pages into buffers of its own.  If a limit has been set with
+     * "jspwiki.fileSystemProvider.maxSearchResults", only that many of the
+     * best results are kept.  If the thread is interrupted, the search stops,
+     * and returns what it has found so far.
      */
     public Collection findPages( QueryItem[] query )
     {
         File wikipagedir = new File( m_pageDirectory );
-        TreeSet res = new TreeSet( new SearchResultComparator() );
         SearchMatcher matcher = new SearchMatcher( m_engine, query );
 
         File[] wikipages = wikipagedir.listFiles( new WikiFileFilter() );
 
-        for( int i = 0; i < wikipages.length; i++ )
-        {
-            FileInputStream input = null;
+        TreeSet res = new TreeSet( new SearchResultComparator() );
 
-            // log.debug("Searching page "+wikipages[i].getPath() );
+        if( wikipages == null ) return res;
+        
+        int threads = Math.max( 1, Math.min( m_searchThreads, wikipages.length / MIN_PAGES_PER_THREAD ) );
+        
+        PageSearcher[] searchers = new PageSearcher[threads];
+        
+        for( int i = 0; i < threads; i++ )
+        {
+            searchers[i] = new PageSearcher( wikipages, i, threads, matcher );
+        }
+        
+        if( !m_searchPool.search( searchers ) )
+        {
+            log.info( "Search interrupted; the results are incomplete." );
+        }
+        
+        for( int i = 0; i < threads; i++ )
+        {
+            if( searchers[i].isDone() )
+            {
+                res.addAll( searchers[i].m_results );
+                trimResults( res );
+            }
+        }
 
-            String filename = wikipages[i].getName();
-            int cutpoint    = filename.lastIndexOf( FILE_EXT );
-            String wikiname = filename.substring( 0, cutpoint );
+        return res;
+    }
 
-            wikiname = unmangleName( wikiname );
+    /**
+     *  Removes the worst results, if there are more than we want.
+     */
+    private void trimResults( TreeSet res )
+    {
+        while( m_maxSearchResults > 0 && res.size() > m_maxSearchResults )
+        {
+            res.remove( res.last() );
+        }
+    }
 
-            try
+    /**
+     *  Searches every n'th page of the given ones.
+     */
+    private class PageSearcher
+        extends SearchPool.Part
+    {
+        private final File[]        m_pages;
+        private final int           m_start;
+        private final int           m_step;
+        private final SearchMatcher m_matcher;
+        
+        final TreeSet               m_results = new TreeSet( new SearchResultComparator() );
+        
+        PageSearcher( File[] pages, int start, int step, SearchMatcher matcher )
+        {
+            m_pages   = pages;
+            m_start   = start;
+            m_step    = step;
+            m_matcher = matcher;
+        }
+        
+        protected void search( SearchPool.PageReader reader )
+        {
+            for( int i = m_start; i < m_pages.length; i += m_step )
             {
-                input = new FileInputStream( wikipages[i] );
-                String pagetext = FileUtil.readContents( input, m_encoding );
-                SearchResult comparison = matcher.matchPageContent( wikiname, pagetext );
-                if( comparison != null )
+                //  E.g. a plugin has run out of time.  Any file we tried to
+                //  read would fail, since the interrupt closes the channel.
+                if( isStopped() ) break;
+                
+                String filename = m_pages[i].getName();
+                int cutpoint    = filename.lastIndexOf( FILE_EXT );
+                String wikiname = unmangleName( filename.substring( 0, cutpoint ) );
+
+                try
                 {
-                    res.add( comparison );
+                    CharSequence pagetext = reader.read( m_pages[i] );
+                    
+                    SearchResult comparison = m_matcher.matchPageContent( wikiname, pagetext );
+                    
+                    if( comparison != null )
+                    {
+                        m_results.add( comparison );
+                        trimResults( m_results );
+                    }
                 }
-            }
-            catch( IOException e )
-            {
-                log.error( "Failed to read " + filename, e );
-            }
-            finally
-            {
-                try
+                catch( ClosedByInterruptException e )
+                {
+                    break;
+                }
+                catch( IOException e )
                 {
-                    if( input != null ) input.close();
+                    log.error( "Failed to read " + filename, e );
                 }
-                catch( IOException e ) {} // It's fine to fail silently.
             }
         }
-
-        return res;
     }
 
     /**
@@ -146,6 +146,33 @@ public class BasicAttachmentProvider
     {
         return TextUtil.urlDecodeUTF8( filename );
     }
+
+    String getStorageDir()
+    {
+        return m_storageDir;
+    }
+
+    /**
+     *  Returns the name of the page to which a file in the storage directory
+     *  belongs.
+     *
+     *  @param path The path of the file relative to the storage directory,
+     *              separated with '/'.
+     *  @return The name of the page, or null, if the file does not belong to one.
+     *  @since 2.4.71
+     */
+    static String getPageName( String path )
+    {
+        int slash = path.indexOf( '/' );
+        
+        if( slash == -1 ) return null;
+        
+        String dir = path.substring( 0, slash );
+        
+        if( !dir.endsWith( DIR_EXTENSION ) ) return null;
+        
+        return unmangleName( dir.substring( 0, dir.length()-DIR_EXTENSION.length() ) );
+    }
     
     /**
      *  Finds the dir in which the attachment lives.
@@ -19,6 +19,7 @@
  */
 package com.ecyrd.jspwiki.providers;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
@@ -28,15 +29,19 @@ import org.apache.log4j.Logger;
 import com.ecyrd.jspwiki.*;
 import com.ecyrd.jspwiki.attachment.Attachment;
 import com.ecyrd.jspwiki.attachment.AttachmentManager;
+import com.ecyrd.jspwiki.cache.CacheEntry;
+import com.ecyrd.jspwiki.cache.CacheFactory;
+import com.ecyrd.jspwiki.cache.WikiCache;
 import com.ecyrd.jspwiki.util.ClassUtil;
-import com.opensymphony.oscache.base.Cache;
-import com.opensymphony.oscache.base.NeedsRefreshException;
 
 /**
  *  Provides a caching attachment provider.  This class rests on top of a
  *  real provider class and provides a cache to speed things up.  Only the
  *  Attachment objects are cached; the actual attachment contents are 
  *  fetched always from the provider.
+ *  <p>
+ *  Since 2.4.71 the attachment directory can be watched for changes made
+ *  outside JSPWiki; see {@link CachingProvider#PROP_WATCHINTERVAL}.
  *
  *  @author Janne Jalkanen
  *  @since 2.1.64.
@@ -58,10 +63,7 @@ public class CachingAttachmentProvider
      *  The cache contains Collection objects which contain Attachment objects.
      *  The key is the parent wiki page name (String).
      */
-    private Cache m_cache;
-
-    private long m_cacheMisses = 0;
-    private long m_cacheHits   = 0;
+    private WikiCache m_cache;
 
     public static final String DIR_EXTENSION   = "-att";
     public static final String PROP_STORAGEDIR = "jspwiki.basicAttachmentProvider.storageDir";
@@ -79,7 +81,7 @@ public class CachingAttachmentProvider
         //
         //  Construct an unlimited cache.
         //
-        m_cache = new Cache( true, false, true );
+        m_cache = CacheFactory.createCache( properties, "cachingAttachmentProvider.lists", 0, 0 );
 
         //
         //  Find and initialize real provider.
@@ -113,6 +115,33 @@ public class CachingAttachmentProvider
             throw new IllegalArgumentException("illegal provider class");
         }
 
+        //
+        //  The attachment lists of pages changed on disk are dropped at once.
+        //
+        int watchInterval = TextUtil.getIntegerProperty( properties,
+                                                         CachingProvider.PROP_WATCHINTERVAL,
+                                                         0 );
+        
+        if( watchInterval > 0 && m_provider instanceof BasicAttachmentProvider )
+        {
+            FileChangeWatcher watcher = new FileChangeWatcher( engine, watchInterval, 2 );
+            
+            watcher.watch( new File( ((BasicAttachmentProvider)m_provider).getStorageDir() ),
+                           new FileChangeWatcher.Listener()
+                           {
+                               public void filesChanged( Collection paths )
+                               {
+                                   for( Iterator i = paths.iterator(); i.hasNext(); )
+                                   {
+                                       String name = BasicAttachmentProvider.getPageName( (String) i.next() );
+                                       
+                                       if( name != null ) m_cache.remove( name );
+                                   }
+                               }
+                           } );
+            
+            watcher.start();
+        }
     }
 
     public void putAttachmentData( Attachment att, InputStream data )
@@ -121,7 +150,7 @@ public class CachingAttachmentProvider
     {
         m_provider.putAttachmentData( att, data );
 
-        m_cache.flushEntry( att.getParentName() );
+        m_cache.remove( att.getParentName() );
     }
 
     public InputStream getAttachmentData( Attachment att )
@@ -135,14 +164,16 @@ public class CachingAttachmentProvider
         throws ProviderException
     {
         log.debug("Listing attachments for "+page);
-        try
+
+        CacheEntry entry = m_cache.get( page.getName() );
+
+        if( entry != null && !entry.isExpired( m_refreshPeriod ) )
         {
-            Collection c = (Collection)m_cache.getFromCache( page.getName(), m_refreshPeriod );
+            Collection c = (Collection)entry.getValue();
 
             if( c != null )
             {
                 log.debug("LIST from cache, "+page.getName()+", size="+c.size());
-                m_cacheHits++;
                 return cloneCollection(c);
             }
 
@@ -150,7 +181,7 @@ public class CachingAttachmentProvider
 
             refresh( page );
         }
-        catch( NeedsRefreshException nre )
+        else
         {
             try
             {
@@ -160,13 +191,11 @@ public class CachingAttachmentProvider
             }
             catch( Exception ex )
             {
-                // Is a catch-all, because cache will get confused if
-                // we let this one go.
+                // Is a catch-all, because we want to keep on serving the
+                // old content if the provider fails.
                 log.warn("Provider failed, returning cached content",ex);
 
-                m_cache.cancelUpdate(page.getName());
-                
-                return (Collection)nre.getCacheContent();
+                return (entry != null) ? (Collection)entry.getValue() : null;
             }
         }
 
@@ -216,16 +245,15 @@ public class CachingAttachmentProvider
     }
 
     /**
-     *  Refreshes the cache content and updates counters.
+     *  Refreshes the cache content.
      *
      *  @return The newly fetched object from the provider.
      */
     private final Collection refresh( WikiPage page )
         throws ProviderException
     {
-        m_cacheMisses++;
         Collection c = m_provider.listAttachments( page );
-        m_cache.putInCache( page.getName(), c );
+        m_cache.put( page.getName(), c );
 
         return c;
     }
@@ -247,9 +275,11 @@ public class CachingAttachmentProvider
             return m_provider.getAttachmentInfo( page, name, version );
         }
 
-        try
+        CacheEntry entry = m_cache.get( page.getName() );
+
+        if( entry != null && !entry.isExpired( m_refreshPeriod ) )
         {
-            Collection c = (Collection)m_cache.getFromCache( page.getName(), m_refreshPeriod );
+            Collection c = (Collection)entry.getValue();
             
             if( c == null )
             {
@@ -261,33 +291,28 @@ public class CachingAttachmentProvider
             else
             {
                 log.debug("...FOUND in the cache");
-                m_cacheHits++;
             }
 
             return findAttachmentFromCollection( c, name );
+        }
 
+        log.debug("...needs refresh");
+        Collection c = null;
+
+        try
+        {
+            c = refresh( page );
         }
-        catch( NeedsRefreshException nre )
+        catch( Exception ex )
         {
-            log.debug("...needs refresh");
-            Collection c = null;
-
-            try
-            {
-                c = refresh( page );
-            }
-            catch( Exception ex )
-            {
-                log.warn("Provider failed, returning cached content",ex);
+            log.warn("Provider failed, returning cached content",ex);
 
-                m_cache.cancelUpdate( page.getName() );
-                c = (Collection)nre.getCacheContent();
-            }
+            c = (entry != null) ? (Collection)entry.getValue() : null;
+        }
 
-            if( c != null )
-            {
-                return findAttachmentFromCollection( c, name );
-            }
+        if( c != null )
+        {
+            return findAttachmentFromCollection( c, name );
         }
 
         return null;
@@ -308,23 +333,22 @@ public class CachingAttachmentProvider
         throws ProviderException
     {
         // This isn't strictly speaking correct, but it does not really matter
-        m_cache.putInCache( att.getParentName(), null );
+        m_cache.remove( att.getParentName() );
         m_provider.deleteVersion( att );
     }
 
     public void deleteAttachment( Attachment att )
         throws ProviderException
     {
-        m_cache.putInCache( att.getParentName(), null );
+        m_cache.remove( att.getParentName() );
         m_provider.deleteAttachment( att );
     }
 
 
-    public synchronized String getProviderInfo()
+    public String getProviderInfo()
     {              
         return("Real provider: "+m_provider.getClass().getName()+
-               ".  Cache misses: "+m_cacheMisses+
-               ".  Cache hits: "+m_cacheHits);
+               ".  "+m_cache.getStatistics());
     }
 
     public WikiAttachmentProvider getRealProvider()
@@ -337,7 +361,7 @@ public class CachingAttachmentProvider
         throws ProviderException
     {
         m_provider.moveAttachmentsForPage(oldParent, newParent);
-        m_cache.putInCache( newParent, null ); // FIXME
-        m_cache.putInCache( oldParent, null );
+        m_cache.remove( newParent ); // FIXME
+        m_cache.remove( oldParent );
     }
 }
@@ -19,18 +19,23 @@
  */
 package com.ecyrd.jspwiki.providers;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
 import org.apache.log4j.Logger;
 
 import com.ecyrd.jspwiki.*;
+import com.ecyrd.jspwiki.cache.CacheEntry;
+import com.ecyrd.jspwiki.cache.CacheFactory;
+import com.ecyrd.jspwiki.cache.WikiCache;
+import com.ecyrd.jspwiki.event.WikiEventManager;
+import com.ecyrd.jspwiki.event.WikiPageEvent;
 import com.ecyrd.jspwiki.parser.MarkupParser;
 import com.ecyrd.jspwiki.render.RenderingManager;
+import com.ecyrd.jspwiki.util.BloomFilter;
 import com.ecyrd.jspwiki.util.ClassUtil;
-import com.opensymphony.oscache.base.Cache;
-import com.opensymphony.oscache.base.NeedsRefreshException;
-import com.opensymphony.oscache.base.events.*;
+import com.ecyrd.jspwiki.util.WikiBackgroundThread;
 
 /**
  *  Provides a caching page provider.  This class rests on top of a
@@ -44,13 +49,33 @@ import com.opensymphony.oscache.base.events.*;
  *  <p>
  *  Heavily based on ideas by Chris Brooking.
  *  <p>
- *  Since 2.1.52 uses the OSCache library from OpenSymphony.
+ *  Since 2.4.71 changes to a page are serialized only against changes to
+ *  pages which share the same lock stripe, and reading the pages never
+ *  blocks on a writer.
+ *  <p>
+ *  Since 2.1.52 uses the OSCache library from OpenSymphony.  Since 2.4.71
+ *  the caches are created through the {@link CacheFactory}; the page text
+ *  cache is limited both by "jspwiki.cachingProvider.capacity" (number of pages)
+ *  and "jspwiki.cachingProvider.maxWeight" (approximate bytes, default 32 MB).
+ *  <p>
+ *  If "jspwiki.cachingProvider.watchInterval" is set, and the real provider
+ *  keeps the pages in files, a {@link FileChangeWatcher} scans the page
+ *  directory and each changed page is checked against the repository on
+ *  its next use.  The cache check interval can then be much longer.
+ *  <p>
+ *  Only one thread at a time loads the info or the text of a page from the
+ *  real provider; the others asking for it meanwhile wait for its result.  With
+ *  "jspwiki.cachingProvider.staleWhileRevalidate" the expired page info is
+ *  served while it is checked in the background.
+ *  <p>
+ *  When the page directory is watched, the names of all pages are also kept
+ *  in a {@link BloomFilter}, and the pages which certainly do not exist are
+ *  answered from it, without filling the negative cache or asking the provider.
  *
  *  @author Janne Jalkanen
  *  @since 1.6.4
  *  @see RepositoryModifiedException
  */
-// FIXME: Synchronization is a bit inconsistent in places.
 // FIXME: A part of the stuff is now redundant, since we could easily use the text cache
 //        for a lot of things.  RefactorMe.
 
@@ -63,17 +88,12 @@ public class CachingProvider
     // FIXME: Find another way to the search engine to use instead of from WikiEngine?
     private WikiEngine       m_engine;
 
-    private Cache            m_cache;
-    private Cache            m_negCache; // Cache for holding non-existing pages
+    private WikiCache        m_cache;
+    private WikiCache        m_negCache; // Cache for holding non-existing pages
     
-    private Cache            m_textCache;
-    private Cache            m_historyCache;
-
-    private long             m_cacheMisses = 0;
-    private long             m_cacheHits   = 0;
-
-    private long             m_historyCacheMisses = 0;
-    private long             m_historyCacheHits   = 0;
+    private WikiCache        m_textCache;
+    private WikiCache        m_historyCache;
+    private WikiCache        m_sectionCache;
 
     private int              m_expiryPeriod = 30;
     
@@ -85,9 +105,55 @@ public class CachingProvider
     
     // FIXME: This MUST be cached somehow.
 
-    private boolean          m_gotall = false;
+    private volatile boolean m_gotall = false;
 
     private CacheItemCollector m_allCollector = new CacheItemCollector();
+
+    /**
+     *  Locks for changing the pages.  A page always maps to the same lock,
+     *  so a slow write to one page only stalls the few pages sharing its stripe.
+     */
+    private final Object[]   m_locks = createLocks( LOCK_STRIPES );
+
+    /**
+     *  Names of the pages the watcher has seen changing, which must be checked
+     *  on their next use.  Copied on write, since it is read all the time.
+     */
+    private volatile Set     m_changed = Collections.EMPTY_SET;
+    
+    private final Object     m_changedLock = new Object();
+    
+    private FileChangeWatcher m_watcher;
+    
+    private final SingleFlight m_infoLoads = new SingleFlight();
+    private final SingleFlight m_textLoads = new SingleFlight();
+    
+    /** Checks the expired pages in the background; null, if not in use. */
+    private Revalidator      m_revalidator;
+    
+    /**
+     *  The names of all pages, or null if it needs to be (re)built.  Never
+     *  modified once published.
+     */
+    private volatile BloomFilter m_nameFilter;
+    
+    /** Guards the building and the changing of the name filter. */
+    private final Object     m_nameFilterLock = new Object();
+    
+    /** The false positive rate of the name filter; zero turns it off. */
+    private double           m_nameFilterRate;
+    
+    /** Pages deleted since the name filter was built. */
+    private int              m_nameFilterDeletions;
+    
+    /**
+     *  How the name filter has been doing.  These are counted without locking,
+     *  since they are on the path of every page lookup; a few counts may get
+     *  lost when threads update them at the same time.
+     */
+    private long             m_nameFilterLookups;
+    private long             m_nameFilterMisses;
+    private long             m_nameFilterFalsePositives;
     
     /**
      *  Defines, in seconds, the amount of time a text will live in the cache
@@ -96,10 +162,56 @@ public class CachingProvider
     
     public static final String PROP_CACHECHECKINTERVAL = "jspwiki.cachingProvider.cacheCheckInterval";
     public static final String PROP_CACHECAPACITY      = "jspwiki.cachingProvider.capacity";
+    public static final String PROP_MAXWEIGHT          = "jspwiki.cachingProvider.maxWeight";
+    
+    /**
+     *  Seconds between the scans for pages which have been changed outside JSPWiki.
+     *  Zero, the default, turns the scanning off.
+     */
+    public static final String PROP_WATCHINTERVAL      = "jspwiki.cachingProvider.watchInterval";
+    
+    /**
+     *  If true, the page info which has expired is still used while it is
+     *  checked against the repository in the background.  Default is false.
+     */
+    public static final String PROP_STALEWHILEREVALIDATE = "jspwiki.cachingProvider.staleWhileRevalidate";
+    
+    /**
+     *  The chance that the filter of page names lets a non-existing page through
+     *  to the caches.  Zero turns the filter off.  It is only used when the page
+     *  directory is watched.
+     */
+    public static final String PROP_NAMEFILTERRATE     = "jspwiki.cachingProvider.nameFilter.falsePositiveRate";
+    
+    private static final double DEFAULT_NAMEFILTERRATE = 0.01;
 
     private static final int   DEFAULT_CACHECAPACITY   = 1000; // Good most wikis
+    private static final int   DEFAULT_MAXWEIGHT       = 32*1024*1024;
+
+    /** Number of page locks; must be a power of two. */
+    private static final int   LOCK_STRIPES            = 32;
+
+    private static Object[] createLocks( int count )
+    {
+        Object[] locks = new Object[count];
+        
+        for( int i = 0; i < count; i++ ) locks[i] = new Object();
+        
+        return locks;
+    }
 
-    private static final String OSCACHE_ALGORITHM      = "com.opensymphony.oscache.base.algorithm.LRUCache";
+    /**
+     *  Returns the index of the lock stripe guarding the given page.
+     */
+    private int stripeFor( String pageName )
+    {
+        int h = pageName.hashCode();
+        
+        h ^= (h >>> 16);
+        h ^= (h >>> 8);
+        
+        return h & (m_locks.length-1);
+    }
 
     
     public void initialize( WikiEngine engine, Properties properties )
@@ -127,34 +239,25 @@ public class CachingProvider
                                                     PROP_CACHECAPACITY,
                                                     DEFAULT_CACHECAPACITY );
 
-        log.debug("Cache capacity "+capacity+" pages.");
+        int maxWeight = TextUtil.getIntegerProperty( properties,
+                                                     PROP_MAXWEIGHT,
+                                                     DEFAULT_MAXWEIGHT );
+
+        log.debug("Cache capacity "+capacity+" pages, "+maxWeight+" bytes.");
         
-        m_cache = new Cache( true, false, false );
+        m_cache = CacheFactory.createCache( properties, "cachingProvider.pages", 0, 0 );
         
         //
-        //  OSCache documentation sucks big time.  The clazz-parameter is completely
-        //  undefined; I had to read the source code to figure out that you need
-        //  to declare what type of a listener you are adding by sending the type
-        //  of the interface.
-        //
-        m_cache.addCacheEventListener( m_allCollector, CacheEntryEventListener.class );
-
-        //
-        //  FIXME: There's an interesting issue here... It would probably be
-        //  possible to DOS a JSPWiki instance by bombarding it with names that
-        //  do not exist, as they would fill the negcache.  Will need to
-        //  think about this some more...
+        //  The negative cache is bounded, so that bombarding JSPWiki with
+        //  names that do not exist cannot fill the memory.
         //
-        m_negCache = new Cache( true, false, false );
+        m_negCache = CacheFactory.createCache( properties, "cachingProvider.nonexistent", capacity, 0 );
         
-        m_textCache = new Cache( true, false, false,
-                                 false,
-                                 OSCACHE_ALGORITHM,
-                                 capacity );
+        m_textCache = CacheFactory.createCache( properties, "cachingProvider.text", capacity, maxWeight );
+
+        m_historyCache = CacheFactory.createCache( properties, "cachingProvider.history", capacity, 0 );
 
-        m_historyCache = new Cache( true, false, false, false,
-                                    OSCACHE_ALGORITHM,
-                                    capacity );
+        m_sectionCache = CacheFactory.createCache( properties, "cachingProvider.sections", capacity, 0 );
                                     
         //
         //  Find and initialize real provider.
@@ -188,124 +291,452 @@ public class CachingProvider
             log.error("Illegal access to provider class "+classname,e);
             throw new IllegalArgumentException("illegal provider class");
         }
+        
+        int watchInterval = TextUtil.getIntegerProperty( properties,
+                                                         PROP_WATCHINTERVAL,
+                                                         0 );
+        
+        if( watchInterval > 0 && m_provider instanceof AbstractFileProvider )
+        {
+            final AbstractFileProvider fileProvider = (AbstractFileProvider) m_provider;
+            
+            //  Deep enough for the "OLD" directory of the VersioningFileProvider
+            m_watcher = new FileChangeWatcher( engine, watchInterval, 2 );
+            
+            m_watcher.watch( new File( fileProvider.getPageDirectory() ), 
+                           new FileChangeWatcher.Listener()
+                           {
+                               public void filesChanged( Collection paths )
+                               {
+                                   Set names = new HashSet();
+                                   
+                                   for( Iterator i = paths.iterator(); i.hasNext(); )
+                                   {
+                                       String name = fileProvider.getPageName( (String) i.next() );
+                                       
+                                       if( name != null ) names.add( name );
+                                   }
+                                   
+                                   pagesChanged( names );
+                               }
+                           } );
+            
+            m_watcher.start();
+            
+            String rate = properties.getProperty( PROP_NAMEFILTERRATE );
+            
+            m_nameFilterRate = (rate != null) ? Double.parseDouble( rate.trim() ) : DEFAULT_NAMEFILTERRATE;
+        }
+        
+        if( TextUtil.getBooleanProperty( properties, PROP_STALEWHILEREVALIDATE, false ) )
+        {
+            m_revalidator = new Revalidator( engine );
+            m_revalidator.start();
+        }
+    }
+
+    /**
+     *  Returns the watcher of the page directory.
+     *
+     *  @return The watcher, or null, if the directory is not watched.
+     */
+    FileChangeWatcher getWatcher()
+    {
+        return m_watcher;
+    }
+
+    /**
+     *  Drops the text and history of pages changed outside JSPWiki, and marks
+     *  them to be checked against the repository on their next use.  The page
+     *  info is not dropped, so that the check can still tell what happened.
+     *  A PAGE_CHANGED event is fired for each page, which the PageManager
+     *  passes on.
+     *
+     *  @param names The names of the pages.
+     */
+    void pagesChanged( Collection names )
+    {
+        if( names.isEmpty() ) return;
+        
+        synchronized( m_changedLock )
+        {
+            Set changed = new HashSet( m_changed );
+            changed.addAll( names );
+            m_changed = changed;
+        }
+        
+        for( Iterator i = names.iterator(); i.hasNext(); )
+        {
+            String name = (String) i.next();
+            
+            log.debug( "Page "+name+" changed on disk" );
+            
+            // It may be a new one
+            addToNameFilter( name );
+            
+            m_textCache.remove( name );
+            m_historyCache.remove( name );
+            m_negCache.remove( name );
+            
+            if( WikiEventManager.isListening( this ) )
+            {
+                WikiEventManager.fireEvent( this, new WikiPageEvent( m_engine, 
+                                                                     WikiPageEvent.PAGE_CHANGED, 
+                                                                     name ) );
+            }
+        }
+    }
+
+    /**
+     *  Checks, and forgets, whether the page has been seen changing.
+     */
+    private boolean takeChanged( String name )
+    {
+        if( m_changed.isEmpty() || !m_changed.contains( name ) ) return false;
+        
+        synchronized( m_changedLock )
+        {
+            Set changed = new HashSet( m_changed );
+            boolean found = changed.remove( name );
+            m_changed = changed;
+            
+            return found;
+        }
     }
 
 
 
 
+    /**
+     *  Checks the name filter.
+     *
+     *  @return True, if the page certainly does not exist.
+     */
+    private boolean isFilteredOut( String name )
+        throws ProviderException
+    {
+        if( m_nameFilterRate <= 0 ) return false;
+        
+        boolean out = !nameFilterContains( name );
+        
+        m_nameFilterLookups++;
+        if( out ) m_nameFilterMisses++;
+        
+        return out;
+    }
+    
+    /**
+     *  Checks the name filter without counting it in the statistics.
+     *
+     *  @return False, if the page certainly does not exist.
+     */
+    private boolean nameFilterContains( String name )
+        throws ProviderException
+    {
+        if( m_nameFilterRate <= 0 ) return true;
+        
+        BloomFilter filter = m_nameFilter;
+        
+        if( filter == null ) filter = buildNameFilter();
+        
+        return filter.mightContain( name );
+    }
+    
+    /**
+     *  Reads the names of all pages from the provider into a new filter,
+     *  unless another thread did it already.
+     */
+    private BloomFilter buildNameFilter()
+        throws ProviderException
+    {
+        synchronized( m_nameFilterLock )
+        {
+            if( m_nameFilter == null )
+            {
+                Collection  all    = m_provider.getAllPages();
+                BloomFilter filter = new BloomFilter( Math.max( 1000, all.size()*2 ), m_nameFilterRate );
+                
+                for( Iterator i = all.iterator(); i.hasNext(); )
+                {
+                    filter.add( ((WikiPage) i.next()).getName() );
+                }
+                
+                m_nameFilter          = filter;
+                m_nameFilterDeletions = 0;
+                
+                log.debug( "Built name filter of "+filter.size()+" pages, "+filter.getBitCount()+" bits" );
+            }
+            
+            return m_nameFilter;
+        }
+    }
+    
+    /**
+     *  Adds a page to the name filter.  A filter which is getting full is
+     *  dropped, to be built again when next needed.
+     */
+    private void addToNameFilter( String name )
+    {
+        if( m_nameFilterRate <= 0 ) return;
+        
+        synchronized( m_nameFilterLock )
+        {
+            BloomFilter filter = m_nameFilter;
+            
+            if( filter == null || filter.mightContain( name ) ) return;
+            
+            if( filter.size() >= filter.getCapacity() )
+            {
+                m_nameFilter = null;
+            }
+            else
+            {
+                filter = filter.copy();
+                filter.add( name );
+                m_nameFilter = filter;
+            }
+        }
+    }
+    
+    /**
+     *  Notes that a page was removed.  Names cannot be removed from the filter,
+     *  so it is built again after many deletions.
+     */
+    private void removedFromNameFilter( String name )
+    {
+        if( m_nameFilterRate <= 0 ) return;
+        
+        synchronized( m_nameFilterLock )
+        {
+            BloomFilter filter = m_nameFilter;
+            
+            if( filter != null && ++m_nameFilterDeletions > filter.size()/4 )
+            {
+                m_nameFilter = null;
+            }
+        }
+    }
+
     private WikiPage getPageInfoFromCache( String name )
         throws ProviderException,
                RepositoryModifiedException
     {
-        boolean wasUpdated = false;
         // Sanity check; seems to occur sometimes
         if( name == null ) return null;
         
-        try
-        {
-            WikiPage item = (WikiPage)m_cache.getFromCache( name, m_expiryPeriod );
+        if( isFilteredOut( name ) ) return null;
         
-            wasUpdated = true;
-            
-            if( item != null )
-                return item;
-            
-            return null;
-        }
-        catch( NeedsRefreshException e )
+        CacheEntry entry   = m_cache.get( name );
+        boolean    changed = takeChanged( name );
+
+        if( entry != null && !changed )
         {
-            WikiPage cached = (WikiPage)e.getCacheContent();
+            if( !entry.isExpired( m_expiryPeriod ) )
+            {
+                return (WikiPage)entry.getValue();
+            }
             
-            // int version = (cached != null) ? cached.getVersion() : WikiPageProvider.LATEST_VERSION;
+            if( m_revalidator != null )
+            {
+                m_revalidator.revalidate( name );
+                return (WikiPage)entry.getValue();
+            }
+        }
+
+        WikiPage cached = (entry != null) ? (WikiPage)entry.getValue() : null;
             
-            WikiPage refreshed;
+        // int version = (cached != null) ? cached.getVersion() : WikiPageProvider.LATEST_VERSION;
             
-            //
-            //  Just be careful that we don't accidentally leave the cache in a
-            //  hung state
-            //
-
-            refreshed = m_provider.getPageInfo( name, WikiPageProvider.LATEST_VERSION );
+        WikiPage refreshed = loadPageInfo( name );
             
-            if( refreshed == null && cached != null )
-            {
-                //  Page has been removed evilly by a goon from outer space
+        if( refreshed == null && cached != null )
+        {
+            //  Page has been removed evilly by a goon from outer space
 
-                log.debug("Page "+name+" has been removed externally.");
+            log.debug("Page "+name+" has been removed externally.");
                 
-                m_cache.putInCache( name, null );
-                m_textCache.putInCache( name, null );
-                m_historyCache.putInCache( name, null );
-                // We cache a page miss
-                m_negCache.putInCache( name, name );
-                wasUpdated = true;
+            cachePageInfo( name, null );
+            m_textCache.put( name, null );
+            m_historyCache.put( name, null );
+            // We cache a page miss
+            m_negCache.put( name, name );
                 
-                throw new RepositoryModifiedException( "Removed: "+name, name );
-            }
-            else if( cached == null )
-            {
-                // The page did not exist in the first place
+            throw new RepositoryModifiedException( "Removed: "+name, name );
+        }
+        else if( cached == null )
+        {
+            // The page did not exist in the first place
                 
-                if( refreshed != null )
-                {
-                    // We must now add it
-                    m_cache.putInCache( name, refreshed );
-                    // Requests for this page are now no longer denied
-                    m_negCache.putInCache( name, null );
-                    wasUpdated = true;
+            if( refreshed != null )
+            {
+                // We must now add it
+                cachePageInfo( name, refreshed );
+                addToNameFilter( name );
+                // Requests for this page are now no longer denied
+                m_negCache.remove( name );
                     
-                    throw new RepositoryModifiedException( "Added: "+name, name );
-                }
-
-                // Cache page miss
-                m_negCache.putInCache( name, name );
+                throw new RepositoryModifiedException( "Added: "+name, name );
             }
-            else if( cached.getVersion() != refreshed.getVersion() )
+
+            if( m_nameFilterRate > 0 )
             {
-                //  The newest version has been deleted, but older versions still remain
-                log.debug("Page "+cached.getName()+" newest version deleted, reloading...");
+                m_nameFilterFalsePositives++;
+            }
+            
+            // Cache page miss
+            m_negCache.put( name, name );
+        }
+        else if( cached.getVersion() != refreshed.getVersion() )
+        {
+            //  The newest version has been deleted, but older versions still remain
+            log.debug("Page "+cached.getName()+" newest version deleted, reloading...");
                 
-                m_cache.putInCache( name, refreshed );
-                // Requests for this page are now no longer denied
-                m_negCache.putInCache( name, null );
+            cachePageInfo( name, refreshed );
+            // Requests for this page are now no longer denied
+            m_negCache.remove( name );
 
-                m_textCache.flushEntry( name );
-                m_historyCache.flushEntry( name );
-                wasUpdated = true;
+            m_textCache.remove( name );
+            m_historyCache.remove( name );
                 
-                return refreshed;
-            }
-            else if( Math.abs(refreshed.getLastModified().getTime()-cached.getLastModified().getTime()) > 1000L )
-            {
-                //  Yes, the page has been modified externally and nobody told us
+            return refreshed;
+        }
+        else if( Math.abs(refreshed.getLastModified().getTime()-cached.getLastModified().getTime()) > 1000L )
+        {
+            //  Yes, the page has been modified externally and nobody told us
          
-                log.info("Page "+cached.getName()+" changed, reloading...");
+            log.info("Page "+cached.getName()+" changed, reloading...");
 
-                m_cache.putInCache( name, refreshed );
-                // Requests for this page are now no longer denied
-                m_negCache.putInCache( name, null );
-                m_textCache.flushEntry( name );
-                m_historyCache.flushEntry( name );
-                wasUpdated = true;
+            cachePageInfo( name, refreshed );
+            // Requests for this page are now no longer denied
+            m_negCache.remove( name );
+            m_textCache.remove( name );
+            m_historyCache.remove( name );
                 
-                throw new RepositoryModifiedException( "Modified: "+name, name );
+            throw new RepositoryModifiedException( "Modified: "+name, name );
+        }
+        else
+        {
+            // Refresh the cache by putting the same object back
+            cachePageInfo( name, cached );
+            // Requests for this page are now no longer denied
+            m_negCache.remove( name );
+        }
+
+        return cached;
+    }
+
+    /**
+     *  Gets the latest page info from the real provider.  Only one thread
+     *  at a time loads each page.
+     */
+    private WikiPage loadPageInfo( final String name )
+        throws ProviderException
+    {
+        return (WikiPage) m_infoLoads.execute( name, new SingleFlight.Call()
+        {
+            public Object call() throws ProviderException
+            {
+                return m_provider.getPageInfo( name, WikiPageProvider.LATEST_VERSION );
             }
-            else
+        } );
+    }
+
+    /**
+     *  Gets the latest page text from the real provider, and puts it in
+     *  the cache.  Only one thread at a time loads each page.
+     */
+    private String loadPageText( final String name )
+        throws ProviderException
+    {
+        return (String) m_textLoads.execute( name, new SingleFlight.Call()
+        {
+            public Object call() throws ProviderException
             {
-                // Refresh the cache by putting the same object back
-                m_cache.putInCache( name, cached );
-                // Requests for this page are now no longer denied
-                m_negCache.putInCache( name, null );
-                wasUpdated = true;
+                String text = m_provider.getPageText( name, WikiPageProvider.LATEST_VERSION );
+                
+                m_textCache.put( name, text );
+                
+                return text;
             }
+        } );
+    }
+
+    /**
+     *  Checks an expired page info against the repository.  If the page has
+     *  not changed, the cache entry is renewed; otherwise the page is marked
+     *  changed, so that its next use does the full check.
+     */
+    private void revalidatePageInfo( String name )
+        throws ProviderException
+    {
+        CacheEntry entry = m_cache.get( name );
+        
+        //  Someone else has already been at it
+        if( entry == null || !entry.isExpired( m_expiryPeriod ) ) return;
+        
+        WikiPage cached    = (WikiPage) entry.getValue();
+        WikiPage refreshed = loadPageInfo( name );
+        
+        boolean same;
+        
+        if( cached == null || refreshed == null )
+        {
+            same = (cached == refreshed);
+        }
+        else
+        {
+            same = cached.getVersion() == refreshed.getVersion() &&
+                   Math.abs(refreshed.getLastModified().getTime()-cached.getLastModified().getTime()) <= 1000L;
+        }
+        
+        if( same )
+        {
+            cachePageInfo( name, cached );
+        }
+        else
+        {
+            pagesChanged( Collections.singleton( name ) );
+        }
+    }
+
+    /**
+     *  Puts the page info in the cache, and keeps the list of all pages
+     *  up to date.  A null page means that the page does not exist.
+     */
+    private void cachePageInfo( String name, WikiPage page )
+    {
+        m_cache.put( name, page );
+        m_allCollector.put( name, page );
+    }
 
-            return cached;
+    /**
+     *  Removes the page info from the cache.
+     */
+    private void flushPageInfo( String name )
+    {
+        m_cache.remove( name );
+        m_allCollector.remove( name );
+    }
+
+    /**
+     *  Checks the negative cache.
+     *
+     *  @return True, if the page is known not to exist.
+     */
+    private boolean isKnownNonexistent( String pageName )
+    {
+        try
+        {
+            if( isFilteredOut( pageName ) ) return true;
         }
-        finally
+        catch( ProviderException e )
         {
-            if( !wasUpdated )
-                m_cache.cancelUpdate(name);
+            log.info( "Unable to read the page names: "+e.getMessage() );
         }
+        
+        CacheEntry entry = m_negCache.get( pageName );
+
+        return entry != null && entry.getValue() != null && !entry.isExpired( m_expiryPeriod );
     }
 
     public boolean pageExists( String pageName, int version )
@@ -315,16 +746,7 @@ public class CachingProvider
         //
         //  First, check the negative cache if we've seen it before
         //
-        try
-        {        
-            String isNonExistant = (String) m_negCache.getFromCache( pageName, m_expiryPeriod );
-            
-            if( isNonExistant != null ) return false; // No such page
-        }
-        catch( NeedsRefreshException e )
-        {
-            m_negCache.cancelUpdate(pageName);
-        }
+        if( isKnownNonexistent( pageName ) ) return false; // No such page
 
         WikiPage p = null;
         
@@ -381,16 +803,7 @@ public class CachingProvider
         //
         //  First, check the negative cache if we've seen it before
         //
-        try
-        {        
-            String isNonExistant = (String) m_negCache.getFromCache( pageName, m_expiryPeriod );
-            
-            if( isNonExistant != null ) return false; // No such page
-        }
-        catch( NeedsRefreshException e )
-        {
-            m_negCache.cancelUpdate(pageName);
-        }
+        if( isKnownNonexistent( pageName ) ) return false; // No such page
 
         WikiPage p = null;
         
@@ -496,80 +909,107 @@ public class CachingProvider
                RepositoryModifiedException
     {
         String text;
-        boolean wasUpdated = false;
         
         if( pageName == null ) return null;
         
         WikiPage page = getPageInfoFromCache( pageName );
 
-        try
+        if( page == null && !nameFilterContains( pageName ) ) return null;
+        
+        CacheEntry entry = m_textCache.get( pageName );
+
+        if( entry != null && !entry.isExpired( m_pageContentExpiryPeriod ) )
         {
-            text = (String)m_textCache.getFromCache( pageName,
-                                                     m_pageContentExpiryPeriod );
-            wasUpdated = true;
+            text = (String)entry.getValue();
             
             if( text == null )
             {
                 if( page != null )
                 {
-                    text = m_provider.getPageText( pageName, WikiPageProvider.LATEST_VERSION );
-                
-                    m_textCache.putInCache( pageName, text );
-                    
-                    m_cacheMisses++;
+                    text = loadPageText( pageName );
                 }
                 else
                 {
                     return null;
                 }
             }
-            else
-            {
-                m_cacheHits++;
-            }
         }
-        catch( NeedsRefreshException e )
+        else
         {            
             if( pageExists(pageName) )
             {
-                text = m_provider.getPageText( pageName, WikiPageProvider.LATEST_VERSION );
-                    
-                m_textCache.putInCache( pageName, text );
-                wasUpdated = true;
-                    
-                m_cacheMisses++;
+                text = loadPageText( pageName );
             }
             else
             {
-                m_textCache.putInCache( pageName, null );
-                wasUpdated = true;
+                m_textCache.put( pageName, null );
                 return null; // No page exists
             }
         }
-        finally
+        
+        return text;
+    }
+
+    /**
+     *  Returns the section index of the page text.  The index of the latest
+     *  version is kept next to its text, and it is valid as long as the text
+     *  in the cache is the very same String it was built from.  So it needs
+     *  no flushing of its own, and it is built only once for each version.
+     *
+     *  @param pageName The name of the page.
+     *  @param version The version of the page.
+     *  @return The SectionIndex, or null, if the page does not exist.
+     *  @throws ProviderException If the text cannot be read.
+     *  @throws RepositoryModifiedException If the page has been externally modified.
+     *  @since 2.4.71
+     */
+    public SectionIndex getSectionIndex( String pageName, int version )
+        throws ProviderException,
+               RepositoryModifiedException
+    {
+        String text = getPageText( pageName, version );
+        
+        if( text == null ) return null;
+        
+        CacheEntry   entry = m_sectionCache.get( pageName );
+        SectionIndex index = (entry != null) ? (SectionIndex) entry.getValue() : null;
+
+        if( index == null || index.getText() != text )
         {
-            if( !wasUpdated )
-                m_textCache.cancelUpdate(pageName);
+            index = new SectionIndex( text );
+            
+            //
+            //  Older versions are not cached, just like their text.
+            //
+            WikiPage p = getPageInfoFromCache( pageName );
+            
+            if( version == WikiPageProvider.LATEST_VERSION || 
+                (p != null && p.getVersion() == version) )
+            {
+                m_sectionCache.put( pageName, index );
+            }
         }
         
-        return text;
+        return index;
     }
 
     public void putPageText( WikiPage page, String text )
         throws ProviderException
     {
-        synchronized(this)
+        synchronized( m_locks[stripeFor( page.getName() )] )
         {
             m_provider.putPageText( page, text );
 
             page.setLastModified( new Date() );
             
+            addToNameFilter( page.getName() );
+            
             // Refresh caches properly
             
-            m_cache.flushEntry( page.getName() );
-            m_textCache.flushEntry( page.getName() );
-            m_historyCache.flushEntry( page.getName() );
-            m_negCache.flushEntry( page.getName() );
+            flushPageInfo( page.getName() );
+            m_textCache.remove( page.getName() );
+            m_historyCache.remove( page.getName() );
+            m_negCache.remove( page.getName() );
             
             // Refresh caches
             try
@@ -590,21 +1030,21 @@ public class CachingProvider
         {
             all = m_provider.getAllPages();
 
-            // Make sure that all pages are in the cache.
+            // Make sure that all pages are in the cache.  Should two threads
+            // get here at the same time, they just put the same pages twice.
 
-            synchronized(this)
+            for( Iterator i = all.iterator(); i.hasNext(); )
             {
-                for( Iterator i = all.iterator(); i.hasNext(); )
-                {
-                    WikiPage p = (WikiPage) i.next();
+                WikiPage p = (WikiPage) i.next();
                     
-                    m_cache.putInCache( p.getName(), p );
-                    // Requests for this page are now no longer denied
-                    m_negCache.putInCache( p.getName(), null );
-                }
-
-                m_gotall = true;
+                m_cache.put( p.getName(), p );
+                // Requests for this page are now no longer denied
+                m_negCache.remove( p.getName() );
             }
+
+            m_allCollector.putAll( all );
+                
+            m_gotall = true;
         }
         else
         {
@@ -670,6 +1110,8 @@ public class CachingProvider
         WikiPage page = null;
         WikiPage cached = getPageInfoFromCache( pageName );
         
+        if( cached == null && !nameFilterContains( pageName ) ) return null;
+        
         int latestcached = (cached != null) ? cached.getVersion() : Integer.MIN_VALUE;
        
         if( version == WikiPageProvider.LATEST_VERSION ||
@@ -677,13 +1119,13 @@ public class CachingProvider
         {
             if( cached == null )
             {
-                WikiPage data = m_provider.getPageInfo( pageName, version );
+                WikiPage data = loadPageInfo( pageName );
 
                 if( data != null )
                 {
-                    m_cache.putInCache( pageName, data );
+                    cachePageInfo( pageName, data );
                     // Requests for this page are now no longer denied
-                    m_negCache.putInCache( pageName, null );
+                    m_negCache.remove( pageName );
                 }
                 page = data;
             }
@@ -708,54 +1150,80 @@ public class CachingProvider
         throws ProviderException
     {
         List history = null;
-        boolean wasUpdated = false;
         
         if( pageName == null ) return null;
-        try
+
+        CacheEntry entry = m_historyCache.get( pageName );
+
+        if( entry != null && !entry.isExpired( m_expiryPeriod ) )
         {
-            history = (List)m_historyCache.getFromCache( pageName,
-                                                         m_expiryPeriod );
+            history = (List)entry.getValue();
 
             log.debug("History cache hit for page "+pageName);
-            m_historyCacheHits++;
-            wasUpdated = true;
         }
-        catch( NeedsRefreshException e )
+        else
         {
             history = m_provider.getVersionHistory( pageName );
 
-            m_historyCache.putInCache( pageName, history );
+            m_historyCache.put( pageName, history );
                 
             log.debug("History cache miss for page "+pageName);
-            m_historyCacheMisses++;
-            wasUpdated = true;
-        }
-        finally
-        {
-            if( !wasUpdated ) m_historyCache.cancelUpdate( pageName );
         }
         
         return history;
     }
 
-    public synchronized String getProviderInfo()
+    /**
+     *  Returns information about the real provider and the statistics
+     *  of all the caches.
+     */
+    public String getProviderInfo()
     {              
         return("Real provider: "+m_provider.getClass().getName()+
-               ". Cache misses: "+m_cacheMisses+
-               ". Cache hits: "+m_cacheHits+
-               ". History cache hits: "+m_historyCacheHits+
-               ". History cache misses: "+m_historyCacheMisses+
+               ". "+m_textCache.getStatistics()+
+               ". "+m_cache.getStatistics()+
+               ". "+m_negCache.getStatistics()+
+               ". "+m_historyCache.getStatistics()+
+               ". "+m_sectionCache.getStatistics()+
+               getNameFilterInfo()+
                ". Cache consistency checks: "+m_expiryPeriod+"s");
     }
 
+    /**
+     *  Describes the name filter and how well it has been doing.
+     */
+    private String getNameFilterInfo()
+    {
+        if( m_nameFilterRate <= 0 ) return "";
+        
+        BloomFilter filter = m_nameFilter;
+        
+        synchronized( m_nameFilterLock )
+        {
+            StringBuffer sb = new StringBuffer( ". Name filter: " );
+            
+            if( filter != null )
+            {
+                sb.append( filter.size()+" names, "+filter.getBitCount()+" bits, "+
+                           filter.getHashCount()+" hashes, estimated false positive rate "+
+                           filter.getFalsePositiveRate()+", " );
+            }
+            
+            sb.append( m_nameFilterLookups+" lookups, "+m_nameFilterMisses+" filtered out, "+
+                       m_nameFilterFalsePositives+" false positives" );
+            
+            return sb.toString();
+        }
+    }
+
     public void deleteVersion( String pageName, int version )
         throws ProviderException
     {
         //
-        //  Luckily, this is such a rare operation it is okay
-        //  to synchronize against the whole thing.
+        //  Only changes to the same page (or one sharing its
+        //  lock) need to wait for this.
         //
-        synchronized( this )
+        synchronized( m_locks[stripeFor( pageName )] )
         {
             WikiPage cached = getPageInfoFromCache( pageName );
 
@@ -767,9 +1235,9 @@ public class CachingProvider
             if( version == WikiPageProvider.LATEST_VERSION ||
                 version == latestcached )
             {
-                m_cache.flushEntry( pageName );
-                m_textCache.putInCache( pageName, null );
-                m_historyCache.putInCache( pageName, null );
+                flushPageInfo( pageName );
+                m_textCache.put( pageName, null );
+                m_historyCache.put( pageName, null );
             }
 
             m_provider.deleteVersion( pageName, version );
@@ -782,13 +1250,14 @@ public class CachingProvider
         //
         //  See note in deleteVersion().
         //
-        synchronized(this)
+        synchronized( m_locks[stripeFor( pageName )] )
         {
-            m_cache.putInCache( pageName, null );
-            m_textCache.putInCache( pageName, null );
-            m_historyCache.putInCache( pageName, null );
-            m_negCache.putInCache( pageName, pageName );
+            cachePageInfo( pageName, null );
+            m_textCache.put( pageName, null );
+            m_historyCache.put( pageName, null );
+            m_negCache.put( pageName, pageName );
             m_provider.deletePage( pageName );
+            removedFromNameFilter( pageName );
         }
     }
 
@@ -796,20 +1265,34 @@ public class CachingProvider
                           String to )
         throws ProviderException 
     {
-        m_provider.movePage( from, to );
+        //
+        //  Both pages are locked, always in the same order so that two
+        //  opposite moves cannot deadlock.
+        //
+        int a = stripeFor( from );
+        int b = stripeFor( to );
         
-        synchronized(this)
+        synchronized( m_locks[Math.min(a,b)] )
         {
-            // Clear any cached version of the old page
-            log.debug("Removing page "+from+" from cache");
-            m_cache.flushEntry( from );
+            synchronized( m_locks[Math.max(a,b)] )
+            {
+                m_provider.movePage( from, to );
+                
+                addToNameFilter( to );
+                removedFromNameFilter( from );
+                m_negCache.remove( to );
+        
+                // Clear any cached version of the old page
+                log.debug("Removing page "+from+" from cache");
+                flushPageInfo( from );
         
-            // Clear the cache for the to page, if that page already exists
-            //if ( m_cache.get( to ) != null )
-            //{
-                log.debug("Removing page "+to+" from cache");
-                m_cache.flushEntry( to );
-            //}
+                // Clear the cache for the to page, if that page already exists
+                //if ( m_cache.get( to ) != null )
+                //{
+                    log.debug("Removing page "+to+" from cache");
+                    flushPageInfo( to );
+                //}
+            }
         }
     }
 
@@ -822,20 +1305,83 @@ public class CachingProvider
         return m_provider;
     }
 
+    /**
+     *  Checks the expired page infos in the background, one page at a time.
+     *  A page is queued only once, no matter how many times it is asked for
+     *  while waiting.
+     *
+     *  @since 2.4.71
+     */
+    private class Revalidator extends WikiBackgroundThread
+    {
+        private final Set m_queue = new LinkedHashSet();
+        
+        private Revalidator( WikiEngine engine )
+        {
+            super( engine, 1 );
+            setName( "JSPWiki Page Cache Revalidator" );
+            setDaemon( true );
+        }
+        
+        public void revalidate( String name )
+        {
+            synchronized( m_queue )
+            {
+                m_queue.add( name );
+            }
+        }
+        
+        public void backgroundTask()
+        {
+            while( true )
+            {
+                String name;
+                
+                synchronized( m_queue )
+                {
+                    if( m_queue.isEmpty() ) return;
+                    
+                    Iterator i = m_queue.iterator();
+                    name = (String) i.next();
+                    i.remove();
+                }
+                
+                try
+                {
+                    revalidatePageInfo( name );
+                }
+                catch( ProviderException e )
+                {
+                    //  Let the next request find out what is wrong.
+                    log.info( "Unable to check page "+name+": "+e.getMessage() );
+                    pagesChanged( Collections.singleton( name ) );
+                }
+            }
+        }
+    }
+
     /**
      *  This is a simple class that keeps a list of all WikiPages that
-     *  we have in memory.  Because the OSCache cannot give us a list
+     *  we have in memory.  Because the WikiCache cannot give us a list
      *  of all pages currently in cache, we'll have to check this
      *  ourselves.
+     *  <p>
+     *  Since 2.4.71 the list is copied on write: readers take the current
+     *  snapshot without locking, and only the writers wait for each other.
+     *  Putting back the very same page, which is what happens on every
+     *  cache consistency check, does not copy anything.
      * 
      *  @author jalkanen
      *
      *  @since 2.4
      */
     private static class CacheItemCollector
-        implements CacheEntryEventListener
     {
-        private Map m_allItems = new HashMap();
+        /** Never modified once published. */
+        private volatile Map       m_allItems = Collections.EMPTY_MAP;
+        
+        /** The sorted pages of m_allItems, built on demand. */
+        private volatile SortedSet m_sorted   = new TreeSet();
         
         /**
          * Returns a clone of the set - you cannot manipulate this.
@@ -844,60 +1390,72 @@ public class CachingProvider
          */
         public Set getAllItems()
         {
-            Set ret = new TreeSet();
-            ret.addAll(m_allItems.values());
-        
-            return ret;
-        }
-        
-        public void cacheEntryAdded( CacheEntryEvent arg0 )
-        {
-            cacheEntryUpdated( arg0 );
+            SortedSet sorted = m_sorted;
+            
+            if( sorted == null )
+            {
+                Map items = m_allItems;
+                
+                sorted = new TreeSet( items.values() );
+                
+                //  Only publish it, if no-one has changed the items meanwhile.
+                synchronized( this )
+                {
+                    if( m_allItems == items ) m_sorted = sorted;
+                }
+            }
+            
+            return new TreeSet( sorted );
         }
 
-        public void cachePatternFlushed( CachePatternEvent ev )
-        {
-        }
-        
-        public void cacheGroupFlushed( CacheGroupEvent ev )
-        {
-        }
-        
-        public void cacheFlushed( CachewideEvent ev )
-        {
-        }
-        
-        public void cacheEntryFlushed( CacheEntryEvent arg0 )
+        /**
+         *  Adds or replaces a page.  A null page removes it.
+         */
+        public synchronized void put( String name, WikiPage item )
         {
-            cacheEntryRemoved( arg0 );
+            if( item == null )
+            {
+                remove( name );
+            }
+            else if( m_allItems.get( name ) != item )
+            {
+                Map items = new HashMap( m_allItems );
+                items.put( name, item );
+                publish( items );
+            }
         }
 
-        public void cacheEntryRemoved( CacheEntryEvent arg0 )
+        /**
+         *  Adds or replaces a bunch of pages with one copy.
+         */
+        public synchronized void putAll( Collection pages )
         {
-            WikiPage item = (WikiPage) arg0.getEntry().getContent();
-
-            if( item != null )
+            Map items = new HashMap( m_allItems );
+            
+            for( Iterator i = pages.iterator(); i.hasNext(); )
             {
-                m_allItems.remove( item );
+                WikiPage p = (WikiPage) i.next();
+                
+                items.put( p.getName(), p );
             }
+            
+            publish( items );
         }
 
-        public void cacheEntryUpdated( CacheEntryEvent arg0 )
+        public synchronized void remove( String name )
         {
-            WikiPage item = (WikiPage) arg0.getEntry().getContent();
-
-            if( item != null )
-            {
-                // Item added or replaced.
-                m_allItems.put( item.getName(), item );
-            }
-            else
+            if( m_allItems.containsKey( name ) )
             {
-                // Removed item
-                // FIXME: If the page system is changed during this time, we'll just fail gracefully
-                
-                m_allItems.remove( arg0.getKey() );
+                Map items = new HashMap( m_allItems );
+                items.remove( name );
+                publish( items );
             }
         }
+        
+        private void publish( Map items )
+        {
+            m_allItems = items;
+            m_sorted   = null;
+        }
     }
 }
@@ -0,0 +1,219 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.providers;
+
+import java.io.File;
+import java.util.*;
+
+import org.apache.log4j.Logger;
+
+import com.ecyrd.jspwiki.WikiEngine;
+import com.ecyrd.jspwiki.util.WikiBackgroundThread;
+
+/**
+ *  Watches directory trees for files which have been added, changed or
+ *  removed, and tells the listener of each tree which files they were.
+ *  This allows the caching providers to drop exactly the entries which
+ *  someone has modified outside JSPWiki, instead of checking every entry
+ *  against the repository whenever it expires.
+ *  <p>
+ *  Since there is no change notification available from the platform,
+ *  the trees are scanned in the background every few seconds.  A scan
+ *  lists the directories and compares the modification time and the size
+ *  of each file with the previous scan.
+ *
+ *  @since 2.4.71
+ */
+public class FileChangeWatcher
+    extends WikiBackgroundThread
+{
+    private static final Logger log = Logger.getLogger( FileChangeWatcher.class );
+
+    /**
+     *  Receives the changes to a watched tree.
+     */
+    public static interface Listener
+    {
+        /**
+         *  Called from the watcher thread after a scan has found changes.
+         *
+         *  @param paths The paths of the added, changed and removed files,
+         *               relative to the root of the tree, with '/' as the
+         *               separator.
+         */
+        public void filesChanged( Collection paths );
+    }
+
+    private final List m_trees = new ArrayList();
+    
+    private final int  m_depth;
+
+    /**
+     *  Creates a new watcher.  The thread is not started.
+     *
+     *  @param engine The WikiEngine; the thread ends when it shuts down.
+     *  @param interval Seconds between the scans.
+     *  @param depth How many levels of subdirectories are watched.
+     */
+    public FileChangeWatcher( WikiEngine engine, int interval, int depth )
+    {
+        super( engine, interval );
+        m_depth = depth;
+        setName( "JSPWiki File Change Watcher" );
+        setDaemon( true );
+    }
+
+    /**
+     *  Starts watching a directory tree.  Its current state is read
+     *  immediately, so any change after this call will be reported.
+     *
+     *  @param root The directory.
+     *  @param listener The listener which is told about the changes.
+     */
+    public synchronized void watch( File root, Listener listener )
+    {
+        Tree tree = new Tree( root, listener );
+        
+        scan( tree.m_root, "", 0, tree.m_files );
+        
+        m_trees.add( tree );
+        
+        log.info( "Watching "+root.getAbsolutePath()+" for changes ("+tree.m_files.size()+" files)" );
+    }
+
+    public void backgroundTask()
+    {
+        checkChanges();
+    }
+
+    /**
+     *  Scans all the trees once and tells the listeners about the changes.
+     *  This is normally called by the watcher thread.
+     */
+    public synchronized void checkChanges()
+    {
+        for( Iterator i = m_trees.iterator(); i.hasNext(); )
+        {
+            Tree tree    = (Tree) i.next();
+            Map  current = new HashMap( tree.m_files.size()*4/3+16 );
+            
+            scan( tree.m_root, "", 0, current );
+            
+            List changed = new ArrayList();
+            
+            for( Iterator j = current.entrySet().iterator(); j.hasNext(); )
+            {
+                Map.Entry e = (Map.Entry) j.next();
+                
+                if( !e.getValue().equals( tree.m_files.get( e.getKey() ) ) )
+                {
+                    changed.add( e.getKey() );
+                }
+            }
+            
+            for( Iterator j = tree.m_files.keySet().iterator(); j.hasNext(); )
+            {
+                Object path = j.next();
+                
+                if( !current.containsKey( path ) ) changed.add( path );
+            }
+            
+            tree.m_files = current;
+            
+            if( changed.size() > 0 )
+            {
+                log.debug( changed.size()+" files changed in "+tree.m_root );
+                
+                try
+                {
+                    tree.m_listener.filesChanged( changed );
+                }
+                catch( RuntimeException e )
+                {
+                    log.error( "Failed to handle changes in "+tree.m_root, e );
+                }
+            }
+        }
+    }
+
+    /**
+     *  Records the state of each file under the directory.
+     */
+    private void scan( File dir, String prefix, int level, Map files )
+    {
+        File[] list = dir.listFiles();
+        
+        if( list == null ) return;
+        
+        for( int i = 0; i < list.length; i++ )
+        {
+            File   f    = list[i];
+            String path = prefix + f.getName();
+            
+            if( f.isDirectory() )
+            {
+                if( level < m_depth ) scan( f, path+"/", level+1, files );
+            }
+            else
+            {
+                files.put( path, new FileState( f.lastModified(), f.length() ) );
+            }
+        }
+    }
+
+    private static class Tree
+    {
+        final File     m_root;
+        final Listener m_listener;
+        Map            m_files = new HashMap();
+        
+        Tree( File root, Listener listener )
+        {
+            m_root     = root;
+            m_listener = listener;
+        }
+    }
+
+    private static final class FileState
+    {
+        private final long m_lastModified;
+        private final long m_length;
+        
+        FileState( long lastModified, long length )
+        {
+            m_lastModified = lastModified;
+            m_length       = length;
+        }
+        
+        public boolean equals( Object o )
+        {
+            if( !(o instanceof FileState) ) return false;
+            
+            FileState s = (FileState) o;
+            
+            return s.m_lastModified == m_lastModified && s.m_length == m_length;
+        }
+        
+        public int hashCode()
+        {
+            return (int)(m_lastModified ^ m_length);
+        }
+    }
+}
@@ -43,6 +43,19 @@ public class FileSystemProvider
      */
     public static final String PROP_EXT = ".properties";
 
+    /**
+     *  The metadata files belong to their pages, too.
+     */
+    protected String getPageName( String path )
+    {
+        if( path.indexOf('/') == -1 && path.endsWith( PROP_EXT ) )
+        {
+            return unmangleName( path.substring( 0, path.length()-PROP_EXT.length() ) );
+        }
+        
+        return super.getPageName( path );
+    }
+
     public void putPageText( WikiPage page, String text )        
         throws ProviderException
     {
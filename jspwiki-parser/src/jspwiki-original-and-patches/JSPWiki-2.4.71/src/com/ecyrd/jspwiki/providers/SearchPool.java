@@ -0,0 +1,480 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.providers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.LinkedList;
+
+/**
+ *  A small pool of worker threads which search the page files for an
+ *  {@link AbstractFileProvider}.  A search is divided into {@link Part}s.
+ *  The searching thread runs the first part itself and queues the rest for
+ *  the workers.  Once its own part is done, it runs every part no worker
+ *  has got to yet.  This way the number of threads stays bounded however
+ *  many searches there are, and a search never waits for a saturated pool.
+ *  <p>
+ *  Each worker reads the files into buffers of its own, and keeps them from
+ *  one search to the next.  Idle workers exit after a while.
+ *
+ *  @since 2.4.71
+ */
+class SearchPool
+{
+    /** How long an idle worker waits for more work before it exits. */
+    private static final long   IDLE_TIME = 60*1000L;
+
+    private final int        m_maxThreads;
+    private final String     m_encoding;
+
+    /** Queued Parts; also guards the thread counts and the spare readers. */
+    private final LinkedList m_queue = new LinkedList();
+    private final LinkedList m_spareReaders = new LinkedList();
+    private int              m_threads;
+    private int              m_idleThreads;
+    private int              m_threadNumber;
+
+    /**
+     *  Creates a new pool.
+     *
+     *  @param maxThreads The maximum number of worker threads.
+     *  @param encoding The encoding of the page files.
+     */
+    SearchPool( int maxThreads, String encoding )
+    {
+        m_maxThreads = maxThreads;
+        m_encoding   = encoding;
+    }
+
+    /**
+     *  Runs the parts of a search, and waits until they are done.  If the
+     *  thread is interrupted, the parts which are still running are told
+     *  to stop, and the rest are not run at all.
+     *
+     *  @param parts The parts of the search.
+     *  @return True, if all the parts were searched through; false, if the
+     *          search was interrupted.  The interrupt is then left set.
+     */
+    boolean search( Part[] parts )
+    {
+        if( Thread.currentThread().isInterrupted() ) return false;
+
+        submit( parts );
+
+        PageReader reader = borrowReader();
+
+        try
+        {
+            for( int i = 0; i < parts.length; i++ )
+            {
+                if( Thread.currentThread().isInterrupted() )
+                {
+                    throw new InterruptedException();
+                }
+
+                if( parts[i].claim() )
+                {
+                    parts[i].run( reader );
+                }
+            }
+
+            for( int i = 0; i < parts.length; i++ )
+            {
+                parts[i].waitUntilDone();
+            }
+
+            return !Thread.currentThread().isInterrupted();
+        }
+        catch( InterruptedException e )
+        {
+            for( int i = 0; i < parts.length; i++ )
+            {
+                parts[i].stop();
+            }
+
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            returnReader( reader );
+        }
+    }
+
+    /**
+     *  Queues all but the first part for the workers.
+     */
+    private void submit( Part[] parts )
+    {
+        if( parts.length < 2 ) return;
+
+        synchronized( m_queue )
+        {
+            for( int i = 1; i < parts.length; i++ )
+            {
+                m_queue.add( parts[i] );
+            }
+
+            int needed = Math.min( parts.length - 1 - m_idleThreads, m_maxThreads - m_threads );
+
+            for( int i = 0; i < needed; i++ )
+            {
+                new Worker( ++m_threadNumber ).start();
+                m_threads++;
+            }
+
+            m_queue.notifyAll();
+        }
+    }
+
+    /**
+     *  Returns a reader for a searching thread which is not a worker.
+     */
+    private PageReader borrowReader()
+    {
+        synchronized( m_queue )
+        {
+            if( !m_spareReaders.isEmpty() )
+            {
+                return (PageReader) m_spareReaders.removeFirst();
+            }
+        }
+
+        return new PageReader( m_encoding );
+    }
+
+    /**
+     *  Keeps the reader for the next search, unless there are plenty already.
+     */
+    private void returnReader( PageReader reader )
+    {
+        synchronized( m_queue )
+        {
+            if( m_spareReaders.size() < m_maxThreads )
+            {
+                m_spareReaders.add( reader );
+            }
+        }
+    }
+
+    /**
+     *  Returns the next part for a worker, or null, if the worker should exit.
+     */
+    private Part nextPart()
+    {
+        synchronized( m_queue )
+        {
+            long deadline = System.currentTimeMillis() + IDLE_TIME;
+
+            while( m_queue.isEmpty() )
+            {
+                long wait = deadline - System.currentTimeMillis();
+
+                if( wait <= 0 ) break;
+
+                m_idleThreads++;
+                try
+                {
+                    m_queue.wait( wait );
+                }
+                catch( InterruptedException e )
+                {
+                    break;
+                }
+                finally
+                {
+                    m_idleThreads--;
+                }
+            }
+
+            if( m_queue.isEmpty() )
+            {
+                m_threads--;
+                return null;
+            }
+
+            return (Part) m_queue.removeFirst();
+        }
+    }
+
+    private class Worker extends Thread
+    {
+        private final PageReader m_reader = new PageReader( m_encoding );
+
+        Worker( int number )
+        {
+            super( "JSPWiki page search "+number );
+            setDaemon( true );
+        }
+
+        public void run()
+        {
+            Part p;
+
+            while( (p = nextPart()) != null )
+            {
+                if( p.claim() )
+                {
+                    p.run( m_reader );
+                }
+            }
+        }
+    }
+
+    /**
+     *  A part of a search, run once by a worker or by the searching thread.
+     */
+    abstract static class Part
+    {
+        private static final int NEW       = 0;
+        private static final int RUNNING   = 1;
+        private static final int DONE      = 2;
+        private static final int CANCELLED = 3;
+
+        private int              m_state = NEW;
+        private volatile boolean m_stopped;
+
+        /**
+         *  Searches this part.  Implementations should give up as soon as
+         *  {@link #isStopped()} returns true.
+         *
+         *  @param reader The reader to use for reading the files.
+         */
+        protected abstract void search( PageReader reader );
+
+        /**
+         *  Tells whether the search has been interrupted.
+         *
+         *  @return True, if this part should stop.
+         */
+        protected boolean isStopped()
+        {
+            return m_stopped || Thread.currentThread().isInterrupted();
+        }
+
+        /**
+         *  Tells whether this part has been searched through, so that its
+         *  results may be read.
+         *
+         *  @return True, if the part is done.
+         */
+        synchronized boolean isDone()
+        {
+            return m_state == DONE;
+        }
+
+        synchronized boolean claim()
+        {
+            if( m_state != NEW ) return false;
+
+            m_state = RUNNING;
+            return true;
+        }
+
+        synchronized void stop()
+        {
+            m_stopped = true;
+
+            if( m_state == NEW ) m_state = CANCELLED;
+        }
+
+        synchronized void waitUntilDone()
+            throws InterruptedException
+        {
+            while( m_state == RUNNING )
+            {
+                wait();
+            }
+        }
+
+        void run( PageReader reader )
+        {
+            try
+            {
+                search( reader );
+            }
+            finally
+            {
+                synchronized( this )
+                {
+                    m_state = DONE;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     *  Reads page files into buffers which are reused from page to page.
+     *  The buffers grow to fit the largest page up to MAX_KEPT; a larger
+     *  page is read into buffers of its own, which are not kept, so that a
+     *  single huge page does not tie up memory in every reader.
+     *  Like FileUtil.readContents(), falls back to ISO-8859-1 if a file
+     *  is not in the wiki encoding.
+     */
+    static class PageReader
+    {
+        /** Buffers larger than this, in bytes or chars, are not kept. */
+        static final int             MAX_KEPT = 1024*1024;
+
+        private final CharsetDecoder m_decoder;
+        private final CharsetDecoder m_fallback;
+        private ByteBuffer           m_bytes = ByteBuffer.allocate( 8192 );
+        private CharBuffer           m_chars = CharBuffer.allocate( 8192 );
+
+        PageReader( String encoding )
+        {
+            m_decoder  = Charset.forName( encoding ).newDecoder();
+            m_fallback = Charset.forName( "ISO-8859-1" ).newDecoder();
+        }
+
+        /**
+         *  Reads and decodes the file.  The returned text is valid until
+         *  the next call.
+         *
+         *  @param file The file to read.
+         *  @return The contents of the file.
+         *  @throws IOException If the file cannot be read or decoded.
+         */
+        CharSequence read( File file )
+            throws IOException
+        {
+            FileInputStream input = new FileInputStream( file );
+            ByteBuffer      bytes;
+
+            try
+            {
+                FileChannel channel = input.getChannel();
+                long        size    = channel.size();
+
+                if( size > Integer.MAX_VALUE ) throw new IOException( "Page is too large: "+file );
+
+                bytes = getByteBuffer( (int) size );
+
+                while( bytes.position() < size && channel.read( bytes ) > 0 ) {}
+
+                bytes.flip();
+            }
+            finally
+            {
+                try
+                {
+                    input.close();
+                }
+                catch( IOException e ) {} // It's fine to fail silently.
+            }
+
+            CharBuffer chars = decode( m_decoder, bytes );
+
+            if( chars == null )
+            {
+                bytes.rewind();
+
+                chars = decode( m_fallback, bytes );
+
+                if( chars == null )
+                {
+                    throw new IOException( "Unable to decode "+file );
+                }
+            }
+
+            return chars;
+        }
+
+        /**
+         *  Returns an empty buffer for the given number of bytes.
+         */
+        private ByteBuffer getByteBuffer( int size )
+        {
+            if( size > MAX_KEPT )
+            {
+                return ByteBuffer.allocate( size );
+            }
+
+            if( m_bytes.capacity() < size )
+            {
+                m_bytes = ByteBuffer.allocate( size );
+            }
+
+            m_bytes.clear();
+
+            return m_bytes;
+        }
+
+        /**
+         *  Returns an empty buffer for the given number of chars.
+         */
+        private CharBuffer getCharBuffer( int size )
+        {
+            if( size > MAX_KEPT )
+            {
+                return CharBuffer.allocate( size );
+            }
+
+            if( m_chars.capacity() < size )
+            {
+                m_chars = CharBuffer.allocate( size );
+            }
+
+            m_chars.clear();
+
+            return m_chars;
+        }
+
+        /**
+         *  Decodes the bytes.
+         *
+         *  @return The text, or null, if the bytes are not in the encoding
+         *          of the decoder.
+         */
+        private CharBuffer decode( CharsetDecoder decoder, ByteBuffer bytes )
+        {
+            int        needed = (int) (bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+            CharBuffer chars  = getCharBuffer( needed );
+
+            decoder.reset();
+
+            CoderResult result = decoder.decode( bytes, chars, true );
+
+            if( result.isError() ) return null;
+
+            decoder.flush( chars );
+            chars.flip();
+
+            return chars;
+        }
+
+        /**
+         *  Returns the number of bytes and chars this reader keeps between
+         *  pages.
+         */
+        int getKeptCapacity()
+        {
+            return m_bytes.capacity() + m_chars.capacity();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.providers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ *  Makes sure that only one thread at a time loads the value for a key.
+ *  The threads which ask for the same key while it is being loaded wait
+ *  for the loading thread and get its result, or its exception.
+ *
+ *  @since 2.4.71
+ */
+final class SingleFlight
+{
+    /**
+     *  Loads a value.
+     */
+    static interface Call
+    {
+        public Object call() throws ProviderException;
+    }
+
+    /** Maps keys to the Flights in progress. */
+    private final Map m_flights = new HashMap();
+
+    /**
+     *  Runs the call, unless another thread is already running one for
+     *  the same key, in which case waits for its result instead.
+     *
+     *  @param key The key.
+     *  @param call The call to run.
+     *  @return The value the call returned.
+     *  @throws ProviderException If the call threw it.
+     */
+    public Object execute( Object key, Call call )
+        throws ProviderException
+    {
+        Flight  flight;
+        boolean leader = false;
+        
+        synchronized( m_flights )
+        {
+            flight = (Flight) m_flights.get( key );
+            
+            if( flight == null )
+            {
+                flight = new Flight();
+                m_flights.put( key, flight );
+                leader = true;
+            }
+        }
+        
+        if( leader )
+        {
+            try
+            {
+                flight.m_result = call.call();
+            }
+            catch( ProviderException e )
+            {
+                flight.m_error = e;
+            }
+            catch( RuntimeException e )
+            {
+                flight.m_error = e;
+            }
+            finally
+            {
+                synchronized( m_flights )
+                {
+                    m_flights.remove( key );
+                }
+                flight.land();
+            }
+        }
+        else
+        {
+            flight.await();
+        }
+        
+        if( flight.m_error instanceof ProviderException ) throw (ProviderException) flight.m_error;
+        if( flight.m_error instanceof RuntimeException ) throw (RuntimeException) flight.m_error;
+        
+        return flight.m_result;
+    }
+
+    private static class Flight
+    {
+        Object    m_result;
+        Exception m_error;
+        boolean   m_done;
+        
+        synchronized void land()
+        {
+            m_done = true;
+            notifyAll();
+        }
+        
+        synchronized void await()
+        {
+            boolean interrupted = false;
+            
+            while( !m_done )
+            {
+                try
+                {
+                    wait();
+                }
+                catch( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+            
+            if( interrupted ) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -90,6 +90,23 @@ public class VersioningFileProvider
 
         return new File( oldpages, mangleName(page) );
     }
+
+    /**
+     *  The files under "OLD/&lt;pagename&gt;/" belong to their pages, too.
+     */
+    protected String getPageName( String path )
+    {
+        if( path.startsWith( PAGEDIR+"/" ) )
+        {
+            int slash = path.indexOf( '/', PAGEDIR.length()+1 );
+            
+            if( slash == -1 ) return null;
+            
+            return unmangleName( path.substring( PAGEDIR.length()+1, slash ) );
+        }
+        
+        return super.getPageName( path );
+    }
     
     /**
      *  Goes through the repository and decides which version is
@@ -20,15 +20,16 @@
 package com.ecyrd.jspwiki.render;
 
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.List;
 
 import org.apache.log4j.Logger;
-import org.jdom.JDOMException;
+import org.jdom.Element;
 import org.jdom.Text;
-import org.jdom.xpath.XPath;
 
 import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.parser.CompactDocument;
 import com.ecyrd.jspwiki.parser.WikiDocument;
 
 /**
@@ -52,30 +53,57 @@ public class CleanTextRenderer
     public String getString()
         throws IOException
     {
-        StringBuffer sb = new StringBuffer();
+        StringWriter out = new StringWriter();
         
-        try
+        render( out );
+        
+        return out.toString();
+    }
+
+    /**
+     *  Writes the text nodes straight to the given Writer, in document order.
+     *  
+     *  @since 2.4.71
+     */
+    public void render( Writer out )
+        throws IOException
+    {
+        m_document.setContext( m_context );
+
+        CompactDocument compact = m_document.getCompactDocument();
+        
+        if( compact != null )
         {
-            XPath xp = XPath.newInstance("//text()");
+            compact.writeText( m_document, out );
+        }
+        else if( m_document.hasRootElement() )
+        {
+            writeText( m_document.getRootElement(), out );
+        }
+    }
+    
+    /**
+     *  Walks the content of the given element.  This used to be an XPath
+     *  "//text()" query, but that compiles the expression and collects all
+     *  of the nodes in a List each time, which is rather slow.
+     */
+    private static void writeText( Element el, Writer out )
+        throws IOException
+    {
+        List content = el.getContent();
         
-            List nodes = xp.selectNodes(m_document.getDocument());
+        for( int i = 0, size = content.size(); i < size; i++ )
+        {
+            Object o = content.get( i );
             
-            for( Iterator i = nodes.iterator(); i.hasNext(); )
+            if( o instanceof Text )
             {
-                Object el = i.next();
-                
-                if( el instanceof Text )
-                {
-                    sb.append( ((Text)el).getValue() );
-                }
+                out.write( ((Text)o).getValue() );
+            }
+            else if( o instanceof Element )
+            {
+                writeText( (Element)o, out );
             }
         }
-        catch( JDOMException e )
-        {
-            log.error("Could not parse XPATH expression");
-            throw new IOException( e.getMessage() );
-        }
-    
-        return sb.toString();
     }
 }
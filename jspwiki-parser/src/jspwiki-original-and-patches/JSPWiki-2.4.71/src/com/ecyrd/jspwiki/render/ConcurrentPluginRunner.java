@@ -0,0 +1,472 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.render;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.parser.CompactDocument;
+import com.ecyrd.jspwiki.parser.JSPWikiMarkupParser;
+import com.ecyrd.jspwiki.parser.PluginContent;
+import com.ecyrd.jspwiki.parser.WikiDocument;
+import com.ecyrd.jspwiki.plugin.PluginManager;
+
+/**
+ *  Runs the {@link com.ecyrd.jspwiki.plugin.ConcurrentPlugin}s of a document
+ *  in a small pool of worker threads, before the document is written out.
+ *  As the renderer then walks the document, each PluginContent picks up
+ *  its own result with {@link #getResult(PluginContent)}, so the output is
+ *  still in document order.
+ *  <p>
+ *  If no worker has got to a plugin by the time the renderer needs it, and
+ *  all of the workers are busy, the rendering thread runs the plugin itself.
+ *  This way the rendering never waits for a saturated pool.  Nested documents
+ *  (e.g. ones rendered by InsertPage) are not run concurrently, so the
+ *  workers never wait for each other.
+ *  <p>
+ *  A plugin which does not finish in a worker within the timeout is 
+ *  interrupted, so that a hung plugin does not keep the worker from 
+ *  running the plugins of other pages.
+ *  
+ *  @since 2.4.71
+ */
+public class ConcurrentPluginRunner
+{
+    private static final Logger log = Logger.getLogger( ConcurrentPluginRunner.class );
+
+    /** How long an idle worker waits for more work before it exits. */
+    private static final long   IDLE_TIME = 60*1000L;
+
+    /** How often the renderer checks whether a queued plugin has been started. */
+    private static final long   POLL_TIME = 10L;
+
+    /** The tasks of the document which this thread is rendering. */
+    private static final ThreadLocal c_tasks = new ThreadLocal();
+    
+    private final int        m_maxThreads;
+    private final long       m_timeout;
+    
+    /** Queued Tasks; also guards the thread counts. */
+    private final LinkedList m_queue = new LinkedList();
+    private int              m_threads;
+    private int              m_idleThreads;
+    private int              m_busyThreads;
+    private int              m_threadNumber;
+    private boolean          m_shutdown;
+    
+    /**
+     *  Creates a new runner.
+     *  
+     *  @param maxThreads The maximum number of worker threads.
+     *  @param timeout How long a plugin may run in a worker, in milliseconds,
+     *                 before the renderer gives up on it and interrupts it.
+     */
+    ConcurrentPluginRunner( int maxThreads, long timeout )
+    {
+        m_maxThreads = maxThreads;
+        m_timeout    = timeout;
+    }
+    
+    /**
+     *  Starts running the concurrent plugins of the document.  If this
+     *  returns true, {@link #finish()} must be called once the document 
+     *  has been rendered.
+     *  
+     *  @param context The context in which the document is rendered.
+     *  @param doc The document.
+     *  @return True, if any plugins were started.
+     */
+    boolean start( WikiContext context, WikiDocument doc )
+    {
+        if( c_tasks.get() != null || Thread.currentThread() instanceof Worker )
+        {
+            return false;
+        }
+        
+        PluginManager mgr = context.getEngine().getPluginManager();
+        List tasks = new ArrayList();
+        CompactDocument compact = doc.getCompactDocument();
+        Iterator content = (compact != null) ? compact.getPlugins().iterator() : doc.getDescendants();
+        
+        while( content.hasNext() )
+        {
+            Object o = content.next();
+            
+            if( o instanceof PluginContent && 
+                mgr.isConcurrentPlugin( ((PluginContent)o).getPluginName() ) )
+            {
+                tasks.add( new Task( (PluginContent)o, doc, context.deepClone() ) );
+            }
+        }
+        
+        //
+        //  A single plugin would run just as fast in this thread.
+        //
+        if( tasks.size() < 2 )
+        {
+            return false;
+        }
+        
+        Map taskMap = new IdentityHashMap();
+        
+        for( Iterator i = tasks.iterator(); i.hasNext(); )
+        {
+            Task t = (Task) i.next();
+            taskMap.put( t.m_content, t );
+        }
+        
+        c_tasks.set( taskMap );
+        
+        submit( tasks );
+        
+        return true;
+    }
+    
+    /**
+     *  Forgets the plugins started by {@link #start(WikiContext, WikiDocument)}.
+     *  Any plugins which have not been started yet are not run.
+     */
+    void finish()
+    {
+        Map taskMap = (Map) c_tasks.get();
+        
+        if( taskMap != null )
+        {
+            c_tasks.set( null );
+            
+            for( Iterator i = taskMap.values().iterator(); i.hasNext(); )
+            {
+                ((Task) i.next()).cancel();
+            }
+        }
+    }
+    
+    /**
+     *  Stops all worker threads once they have finished their current plugin.
+     */
+    void shutdown()
+    {
+        synchronized( m_queue )
+        {
+            m_shutdown = true;
+            m_queue.clear();
+            m_queue.notifyAll();
+        }
+    }
+    
+    /**
+     *  Returns the output of the given plugin, if it was started by this
+     *  thread's runner.  If a worker has not yet got to it, it is run
+     *  right away in this thread.
+     *  
+     *  @param content The plugin.
+     *  @return The output of the plugin, or null, if the plugin was not
+     *          started concurrently.
+     */
+    public static String getResult( PluginContent content )
+    {
+        Map taskMap = (Map) c_tasks.get();
+        
+        if( taskMap == null )
+        {
+            return null;
+        }
+        
+        Task t = (Task) taskMap.get( content );
+        
+        return t != null ? t.getResult() : null;
+    }
+    
+    private void submit( List tasks )
+    {
+        synchronized( m_queue )
+        {
+            if( m_shutdown ) return;
+            
+            m_queue.addAll( tasks );
+            
+            int needed = Math.min( tasks.size() - m_idleThreads, m_maxThreads - m_threads );
+            
+            for( int i = 0; i < needed; i++ )
+            {
+                new Worker( ++m_threadNumber ).start();
+                m_threads++;
+            }
+            
+            m_queue.notifyAll();
+        }
+    }
+    
+    /**
+     *  Returns true, if some worker is not running a plugin at the moment.
+     */
+    private boolean hasFreeWorker()
+    {
+        synchronized( m_queue )
+        {
+            return !m_shutdown && m_busyThreads < m_threads;
+        }
+    }
+    
+    private void setBusy( boolean busy )
+    {
+        synchronized( m_queue )
+        {
+            m_busyThreads += busy ? 1 : -1;
+        }
+    }
+    
+    /**
+     *  Returns the next task for a worker, or null, if the worker should exit.
+     */
+    private Task nextTask()
+    {
+        synchronized( m_queue )
+        {
+            long deadline = System.currentTimeMillis() + IDLE_TIME;
+            
+            while( m_queue.isEmpty() && !m_shutdown )
+            {
+                long wait = deadline - System.currentTimeMillis();
+                
+                if( wait <= 0 ) break;
+                
+                m_idleThreads++;
+                try
+                {
+                    m_queue.wait( wait );
+                }
+                catch( InterruptedException e )
+                {
+                    break;
+                }
+                finally
+                {
+                    m_idleThreads--;
+                }
+            }
+            
+            if( m_queue.isEmpty() || m_shutdown )
+            {
+                m_threads--;
+                return null;
+            }
+            
+            return (Task) m_queue.removeFirst();
+        }
+    }
+    
+    private class Worker extends Thread
+    {
+        Worker( int number )
+        {
+            super( "JSPWiki plugin runner "+number );
+            setDaemon( true );
+        }
+        
+        public void run()
+        {
+            Task t;
+            
+            while( (t = nextTask()) != null )
+            {
+                if( t.claim() )
+                {
+                    setBusy( true );
+                    try
+                    {
+                        t.run();
+                    }
+                    finally
+                    {
+                        setBusy( false );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     *  A single plugin execution.
+     */
+    private class Task
+    {
+        private static final int NEW       = 0;
+        private static final int RUNNING   = 1;
+        private static final int DONE      = 2;
+        private static final int CANCELLED = 3;
+        
+        private final PluginContent m_content;
+        private final WikiDocument  m_document;
+        private final WikiContext   m_context;
+        private int                 m_state = NEW;
+        private long                m_started;
+        private Thread              m_thread;
+        private String              m_result;
+        
+        Task( PluginContent content, WikiDocument doc, WikiContext context )
+        {
+            m_content  = content;
+            m_document = doc;
+            m_context  = context;
+        }
+        
+        synchronized boolean claim()
+        {
+            if( m_state != NEW ) return false;
+            
+            m_state   = RUNNING;
+            m_started = System.currentTimeMillis();
+            m_thread  = Thread.currentThread();
+            notifyAll();
+            
+            return true;
+        }
+        
+        synchronized boolean isNew()
+        {
+            return m_state == NEW;
+        }
+        
+        synchronized void waitForStart()
+        {
+            if( m_state == NEW )
+            {
+                try
+                {
+                    wait( POLL_TIME );
+                }
+                catch( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        
+        synchronized void cancel()
+        {
+            if( m_state == NEW ) m_state = CANCELLED;
+        }
+        
+        void run()
+        {
+            String result;
+            
+            try
+            {
+                result = m_content.invoke( m_context, m_document );
+            }
+            catch( Throwable t )
+            {
+                log.info( "Plugin "+m_content.getPluginName()+" failed", t );
+                result = JSPWikiMarkupParser.makeError( "Plugin insertion failed: "+t.getMessage() ).getText();
+            }
+            
+            synchronized( this )
+            {
+                m_result = result;
+                m_state  = DONE;
+                notifyAll();
+            }
+            
+            //
+            //  The renderer interrupts a running task only, so any interrupt
+            //  is for this one, and must not hit the next plugin.
+            //
+            if( Thread.currentThread() instanceof Worker )
+            {
+                Thread.interrupted();
+            }
+        }
+        
+        /**
+         *  Interrupts the worker which runs the plugin, once the renderer
+         *  no longer waits for it.  Must be called with the lock held.
+         */
+        private void abandon()
+        {
+            if( m_state == RUNNING && m_thread != Thread.currentThread() )
+            {
+                m_thread.interrupt();
+            }
+        }
+        
+        String getResult()
+        {
+            //
+            //  Wait for a worker to start the plugin, unless they are all busy.
+            //
+            while( isNew() )
+            {
+                if( !hasFreeWorker() )
+                {
+                    if( claim() ) run();
+                }
+                else
+                {
+                    waitForStart();
+                }
+            }
+            
+            synchronized( this )
+            {
+                long deadline = m_started + m_timeout;
+                
+                while( m_state != DONE )
+                {
+                    long wait = deadline - System.currentTimeMillis();
+                    
+                    if( wait <= 0 )
+                    {
+                        log.info( "Plugin "+m_content.getPluginName()+" did not finish in "+m_timeout+" ms" );
+                        break;
+                    }
+                    
+                    try
+                    {
+                        wait( wait );
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                
+                if( m_state != DONE )
+                {
+                    abandon();
+                    
+                    return JSPWikiMarkupParser.makeError( "Plugin "+m_content.getPluginName()+
+                                                          " did not finish in time." ).getText();
+                }
+                
+                return m_result;
+            }
+        }
+    }
+}
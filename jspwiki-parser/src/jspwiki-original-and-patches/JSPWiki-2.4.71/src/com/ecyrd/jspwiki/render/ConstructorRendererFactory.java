@@ -0,0 +1,77 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.render;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+import com.ecyrd.jspwiki.InternalWikiException;
+import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.WikiException;
+import com.ecyrd.jspwiki.parser.WikiDocument;
+
+/**
+ *  Creates renderers of some other WikiRenderer class through its
+ *  (WikiContext,WikiDocument) constructor.  This is only used when
+ *  "jspwiki.renderingManager.renderer" names a WikiRenderer which does
+ *  not have a factory of its own.
+ *
+ *  @since 2.4.71
+ */
+class ConstructorRendererFactory
+    implements WikiRendererFactory
+{
+    private static final Class[] PARAMS = { WikiContext.class, WikiDocument.class };
+    
+    private Constructor m_constructor;
+
+    public ConstructorRendererFactory( Class rendererClass )
+        throws WikiException
+    {
+        try
+        {
+            m_constructor = rendererClass.getConstructor( PARAMS );
+        }
+        catch( NoSuchMethodException e )
+        {
+            throw new WikiException( "Unable to locate the WikiRenderer(WikiContext,WikiDocument) constructor for "+rendererClass.getName() );
+        }
+        catch( SecurityException e )
+        {
+            throw new WikiException( "Unable to access the WikiRenderer(WikiContext,WikiDocument) constructor for "+rendererClass.getName() );
+        }
+    }
+
+    public WikiRenderer newRenderer( WikiContext context, WikiDocument doc )
+    {
+        try
+        {
+            return (WikiRenderer) m_constructor.newInstance( new Object[] { context, doc } );
+        }
+        catch( InvocationTargetException e )
+        {
+            throw new InternalWikiException( "WikiRenderer "+m_constructor.getName()+" failed: "+e.getTargetException().getMessage() );
+        }
+        catch( Exception e )
+        {
+            throw new InternalWikiException( "Unable to create WikiRenderer "+m_constructor.getName()+": "+e.getMessage() );
+        }
+    }
+}
@@ -20,29 +20,40 @@
 package com.ecyrd.jspwiki.render;
 
 import java.io.IOException;
-import java.io.StringReader;
-import java.lang.reflect.Constructor;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Properties;
-import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import com.ecyrd.jspwiki.StringTransmutator;
 import com.ecyrd.jspwiki.TextUtil;
 import com.ecyrd.jspwiki.WikiContext;
 import com.ecyrd.jspwiki.WikiEngine;
 import com.ecyrd.jspwiki.WikiException;
+import com.ecyrd.jspwiki.cache.CacheEntry;
+import com.ecyrd.jspwiki.cache.CacheFactory;
+import com.ecyrd.jspwiki.cache.CacheStatistics;
+import com.ecyrd.jspwiki.cache.DependencyIndex;
+import com.ecyrd.jspwiki.cache.WikiCache;
+import com.ecyrd.jspwiki.event.WikiEngineEvent;
 import com.ecyrd.jspwiki.event.WikiEvent;
 import com.ecyrd.jspwiki.event.WikiEventListener;
 import com.ecyrd.jspwiki.event.WikiEventUtils;
 import com.ecyrd.jspwiki.event.WikiPageEvent;
 import com.ecyrd.jspwiki.modules.InternalModule;
+import com.ecyrd.jspwiki.parser.CompactDocument;
 import com.ecyrd.jspwiki.parser.JSPWikiMarkupParser;
 import com.ecyrd.jspwiki.parser.MarkupParser;
+import com.ecyrd.jspwiki.parser.ParserConfig;
+import com.ecyrd.jspwiki.parser.PluginContent;
 import com.ecyrd.jspwiki.parser.WikiDocument;
+import com.ecyrd.jspwiki.plugin.InsertPage;
+import com.ecyrd.jspwiki.plugin.PluginManager;
+import com.ecyrd.jspwiki.util.ClassUtil;
 import com.ecyrd.jspwiki.providers.CachingProvider;
-import com.opensymphony.oscache.base.Cache;
-import com.opensymphony.oscache.base.NeedsRefreshException;
 
 /**
  *  This class provides a facade towards the differing rendering routines.  You should
@@ -57,6 +68,17 @@ import com.opensymphony.oscache.base.NeedsRefreshException;
  *  the same size as the page cache), but you may control them separately.
  *  <p>
  *  You can turn caching completely off by stating a cacheSize of zero.
+ *  <p>
+ *  The memory used by the cache is limited by "jspwiki.renderingManager.maxWeight",
+ *  which is the approximate size in bytes of all cached documents together.  The
+ *  default is 64 MB.  Zero means that only the number of documents is limited.
+ *  <p>
+ *  When a page is saved, only those documents which were built from it are
+ *  removed from the cache: all versions of the page itself and the pages which
+ *  include it using the InsertPage plugin.  These dependencies are recorded when
+ *  a document is parsed.  The pages which merely link to the saved page can stay
+ *  in the cache, because links are resolved only when a document is rendered
+ *  (see {@link com.ecyrd.jspwiki.parser.LinkElement}).
  *   
  *  @author jalkanen
  *  @since  2.4
@@ -71,20 +93,73 @@ public class RenderingManager implements WikiEventListener, InternalModule
 
     public  static final String PROP_CACHESIZE    = "jspwiki.renderingManager.capacity";    
     private static final int    DEFAULT_CACHESIZE = 1000;
-    private static final String OSCACHE_ALGORITHM = "com.opensymphony.oscache.base.algorithm.LRUCache";
-    private static final String PROP_RENDERER     = "jspwiki.renderingManager.renderer";
+    public  static final String PROP_MAXWEIGHT    = "jspwiki.renderingManager.maxWeight";
+    private static final int    DEFAULT_MAXWEIGHT = 64*1024*1024;
+    public  static final String PROP_RENDERER     = "jspwiki.renderingManager.renderer";
     public  static final String DEFAULT_RENDERER  = XHTMLRenderer.class.getName();
+    public  static final String PROP_PLUGINTHREADS = "jspwiki.renderingManager.pluginThreads";
+    private static final int    DEFAULT_PLUGINTHREADS = 4;
+    public  static final String PROP_PLUGINTIMEOUT = "jspwiki.renderingManager.pluginTimeout";
+    private static final int    DEFAULT_PLUGINTIMEOUT = 30;
+    public  static final String PROP_COMPACTDOCUMENTS = "jspwiki.renderingManager.compactDocuments";
+    public  static final String PROP_STREAMINGTHRESHOLD = "jspwiki.renderingManager.streamingThreshold";
+    private static final int    DEFAULT_STREAMINGTHRESHOLD = 1024*1024;
 
     /**
      *  Stores the WikiDocuments that have been cached.
      */
-    private              Cache  m_documentCache;
+    private          WikiCache  m_documentCache;
+
+    /**
+     *  Tells which cached documents depend on which pages.
+     */
+    private    DependencyIndex  m_dependencies;
+
+    /**
+     *  Incremented every time a page is saved or deleted.
+     */
+    private    volatile long    m_pageSetGeneration = 0;
 
     /**
-     * 
+     *  Creates the WikiRenderers.
+     */
+    private WikiRendererFactory m_rendererFactory;
+
+    /**
+     *  Holds a WikiRenderer per thread, which is reused for rendering.  While
+     *  the renderer is in use, the slot is empty, so that nested rendering
+     *  (e.g. by the InsertPage plugin) gets a new renderer.
+     */
+    private         ThreadLocal m_threadRenderer = new ThreadLocal();
+    
+    /**
+     *  Holds a JSPWikiMarkupParser per thread, which is reused for parsing
+     *  the documents of the cache, just like the renderers.
+     */
+    private         ThreadLocal m_threadParser = new ThreadLocal();
+    
+    /**
+     *  The settings of the parsers, compiled from the wiki properties.
      */
-    private         Constructor m_rendererConstructor;
+    private volatile ParserConfig m_parserConfig;
     
+    /**
+     *  Runs the plugins of a page concurrently, or is null, if that has
+     *  been turned off.
+     */
+    private ConcurrentPluginRunner m_pluginRunner;
+
+    /**
+     *  If true, the documents are stored in the cache as CompactDocuments.
+     */
+    private             boolean m_compactDocuments;
+
+    /**
+     *  Pages longer than this are rendered as they are parsed, without
+     *  caching.  Zero means never.
+     */
+    private                 int m_streamingThreshold;
+
     /**
      *  Initializes the RenderingManager.
      *  Checks for cache size settings, initializes the document cache.
@@ -98,6 +173,8 @@ public class RenderingManager implements WikiEventListener, InternalModule
     throws WikiException
     {
         m_engine = engine;
+        m_parserConfig = new ParserConfig( properties );
+
         int cacheSize = TextUtil.getIntegerProperty( properties, PROP_CACHESIZE, -1 );
             
         if( cacheSize == -1 )
@@ -109,9 +186,20 @@ public class RenderingManager implements WikiEventListener, InternalModule
         
         if( cacheSize > 0 )
         {
-            m_documentCache = new Cache(true,false,false,false,
-                                        OSCACHE_ALGORITHM,
-                                        cacheSize);
+            int maxWeight = TextUtil.getIntegerProperty( properties,
+                                                         PROP_MAXWEIGHT,
+                                                         DEFAULT_MAXWEIGHT );
+
+            m_documentCache = CacheFactory.createCache( properties,
+                                                        "renderingManager.documents",
+                                                        cacheSize,
+                                                        maxWeight );
+
+            m_dependencies = new DependencyIndex();
+            
+            m_compactDocuments = TextUtil.getBooleanProperty( properties,
+                                                              PROP_COMPACTDOCUMENTS,
+                                                              false );
         }
         else
         {
@@ -122,33 +210,84 @@ public class RenderingManager implements WikiEventListener, InternalModule
         if( renderImplName == null ) {
             renderImplName = DEFAULT_RENDERER;
         }
-        Class[] rendererParams = { WikiContext.class, WikiDocument.class };
-        try 
+        m_rendererFactory = createRendererFactory( renderImplName );
+        
+        m_streamingThreshold = TextUtil.getIntegerProperty( properties,
+                                                            PROP_STREAMINGTHRESHOLD,
+                                                            DEFAULT_STREAMINGTHRESHOLD );
+
+        log.info( "Rendering content with " + renderImplName + "." );
+        
+        int pluginThreads = TextUtil.getIntegerProperty( properties, 
+                                                         PROP_PLUGINTHREADS, 
+                                                         DEFAULT_PLUGINTHREADS );
+        if( pluginThreads > 0 )
         {
-            Class c = Class.forName( renderImplName );
-            m_rendererConstructor = c.getConstructor( rendererParams );
-        } 
-        catch( ClassNotFoundException e ) 
+            int timeout = TextUtil.getIntegerProperty( properties, 
+                                                       PROP_PLUGINTIMEOUT, 
+                                                       DEFAULT_PLUGINTIMEOUT );
+            
+            m_pluginRunner = new ConcurrentPluginRunner( pluginThreads, timeout * 1000L );
+        }
+        
+        WikiEventUtils.addWikiEventListener(m_engine, WikiPageEvent.POST_SAVE_BEGIN, this);
+        WikiEventUtils.addWikiEventListener(m_engine, WikiPageEvent.POST_SAVE_END, this);
+        WikiEventUtils.addWikiEventListener(m_engine.getPageManager(), WikiPageEvent.PAGE_DELETED, this);
+        WikiEventUtils.addWikiEventListener(m_engine.getPageManager(), WikiPageEvent.PAGE_CHANGED, this);
+        WikiEventUtils.addWikiEventListener(m_engine, WikiEngineEvent.SHUTDOWN, this);
+    }
+    
+    /**
+     *  Figures out the WikiRendererFactory for the given class name.  The class
+     *  may be either a WikiRendererFactory or a WikiRenderer.  The renderers
+     *  which come with JSPWiki have factories of their own; any other renderer
+     *  is created through its constructor.
+     */
+    private WikiRendererFactory createRendererFactory( String className )
+        throws WikiException
+    {
+        try
         {
-            log.error( "Unable to find WikiRenderer implementation " + renderImplName );
-        } 
-        catch( SecurityException e ) 
+            Class c = ClassUtil.findClass( "com.ecyrd.jspwiki.render", className );
+
+            if( c == XHTMLRenderer.class )
+            {
+                return new XHTMLRendererFactory();
+            }
+        
+            if( c == CleanTextRenderer.class )
+            {
+                return new CleanTextRendererFactory();
+            }
+            
+            if( WikiRendererFactory.class.isAssignableFrom( c ) )
+            {
+                return (WikiRendererFactory) c.newInstance();
+            }
+            
+            if( WikiRenderer.class.isAssignableFrom( c ) )
+            {
+                return new ConstructorRendererFactory( c );
+            }
+            
+            throw new WikiException( className+" is neither a WikiRenderer nor a WikiRendererFactory." );
+        }
+        catch( ClassNotFoundException e )
         {
-            log.error( "Unable to access the WikiRenderer(WikiContext,WikiDocument) constructor for "  + renderImplName );
-        } 
-        catch( NoSuchMethodException e ) 
+            log.error( "Unable to find WikiRenderer implementation " + className );
+        }
+        catch( InstantiationException e )
         {
-            log.error( "Unable to locate the WikiRenderer(WikiContext,WikiDocument) constructor for "  + renderImplName );
+            log.error( "Unable to create WikiRendererFactory " + className );
         }
-        if( m_rendererConstructor == null ) 
+        catch( IllegalAccessException e )
         {
-            throw new WikiException( "Failed to get WikiRenderer '" + renderImplName + "'." );
-        }        
-        log.info( "Rendering content with " + renderImplName + "." );
-        
-        WikiEventUtils.addWikiEventListener(m_engine, WikiPageEvent.POST_SAVE_BEGIN, this);
+            log.error( "Unable to access WikiRendererFactory " + className );
+        }
+
+        throw new WikiException( "Failed to get WikiRenderer '" + className + "'." );
     }
-    
+
     /**
      *  Returns the default Parser for this context.
      *  
@@ -158,11 +297,112 @@ public class RenderingManager implements WikiEventListener, InternalModule
      */
     public MarkupParser getParser( WikiContext context, String pagedata )
     {
-        MarkupParser parser = new JSPWikiMarkupParser( context, new StringReader(pagedata) );
+        MarkupParser parser = new JSPWikiMarkupParser( context, null );
+        parser.setInputText( pagedata );
+        
+        return parser;
+    }
+    
+    /**
+     *  Parses the given page data only for its links, and calls the given
+     *  hooks for each link found, just like parsing the page normally would.
+     *  The page is not rendered, no plugins are run and the access rules
+     *  are not parsed, so this is much cheaper than rendering the page with
+     *  the hooks in place.
+     *  
+     *  @param context the wiki context
+     *  @param pagedata the page data
+     *  @param localLinkHook the hook for links to wiki pages.  Null is safe.
+     *  @param extLinkHook the hook for external links.  Null is safe.
+     *  @param attLinkHook the hook for attachment links.  Null is safe.
+     *  @throws IOException If the page data could not be parsed.
+     *  @since 2.4.71
+     */
+    public void scanLinks( WikiContext context, 
+                           String pagedata,
+                           StringTransmutator localLinkHook,
+                           StringTransmutator extLinkHook,
+                           StringTransmutator attLinkHook )
+        throws IOException
+    {
+        JSPWikiMarkupParser parser = acquireParser( context, pagedata );
+        
+        try
+        {
+            parser.addLocalLinkHook( localLinkHook );
+            parser.addExternalLinkHook( extLinkHook );
+            parser.addAttachmentLinkHook( attLinkHook );
+            parser.disableAccessRules();
+            parser.enableLinksOnly( true );
+            
+            parser.parse();
+        }
+        finally
+        {
+            releaseParser( parser );
+        }
+    }
+    
+    /**
+     *  Returns the settings for the parsers of this engine.  The settings
+     *  are read from the wiki properties when the RenderingManager is
+     *  initialized, and again only when {@link #reloadParserConfig()} is
+     *  called.
+     *  
+     *  @return The current ParserConfig.
+     *  @since 2.4.71
+     */
+    public ParserConfig getParserConfig()
+    {
+        return m_parserConfig;
+    }
+    
+    /**
+     *  Reads the settings for the parsers again from the wiki properties.
+     *  This must be called if the properties are changed while the wiki is
+     *  running, since the parsers do not check the properties themselves.
+     *  
+     *  @since 2.4.71
+     */
+    public void reloadParserConfig()
+    {
+        m_parserConfig = new ParserConfig( m_engine.getWikiProperties() );
+    }
+    
+    /**
+     *  Returns the parser of this thread, reset for the given page data,
+     *  or a new parser, if the thread's parser is already busy.  The
+     *  parser must be given back with releaseParser().
+     */
+    private JSPWikiMarkupParser acquireParser( WikiContext context, String pagedata )
+    {
+        JSPWikiMarkupParser parser = (JSPWikiMarkupParser) m_threadParser.get();
+        
+        if( parser == null )
+        {
+            parser = new JSPWikiMarkupParser( context, null );
+        }
+        else
+        {
+            m_threadParser.set( null );
+            parser.reset( context, null );
+        }
+        
+        parser.setInputText( pagedata );
         
         return parser;
     }
     
+    private void releaseParser( JSPWikiMarkupParser parser )
+    {
+        //
+        //  Don't keep the document or the context alive.
+        //
+        parser.reset( null, null );
+        
+        m_threadParser.set( parser );
+    }
+    
     /**
      *  Returns a cached document, if one is found.
      *  
@@ -178,17 +418,14 @@ public class RenderingManager implements WikiEventListener, InternalModule
     {
         String pageid = context.getRealPage().getName()+"::"+context.getRealPage().getVersion();
 
-        boolean wasUpdated = false;
-        
         if( m_documentCache != null ) 
         {
-            try
+            CacheEntry entry = m_documentCache.get( pageid );
+
+            if( entry != null && !entry.isExpired( m_cacheExpiryPeriod ) )
             {
-                WikiDocument doc = (WikiDocument) m_documentCache.getFromCache( pageid, 
-                                                                                m_cacheExpiryPeriod );
+                WikiDocument doc = (WikiDocument) entry.getValue();
 
-                wasUpdated = true;
-                
                 //
                 //  This check is needed in case the different filters have actually
                 //  changed the page data.
@@ -199,7 +436,7 @@ public class RenderingManager implements WikiEventListener, InternalModule
                     return doc;
                 }
             }
-            catch( NeedsRefreshException e )
+            else
             {
                 if( log.isDebugEnabled() ) log.debug("Re-rendering and storing "+pageid );
             }
@@ -208,15 +445,23 @@ public class RenderingManager implements WikiEventListener, InternalModule
         //
         //  Refresh the data content
         //
+        JSPWikiMarkupParser parser = acquireParser( context, pagedata );
+        
         try
         {
-            MarkupParser parser = getParser( context, pagedata );
             WikiDocument doc = parser.parse();
             doc.setPageData( pagedata );
             if( m_documentCache != null ) 
             {
-                m_documentCache.putInCache( pageid, doc );
-                wasUpdated = true;
+                Collection deps = findDependencies( context, doc );
+                
+                if( m_compactDocuments )
+                {
+                    doc = CompactDocument.compact( doc );
+                }
+                
+                m_documentCache.put( pageid, doc );
+                m_dependencies.register( pageid, deps );
             }
             return doc;
         }
@@ -226,12 +471,43 @@ public class RenderingManager implements WikiEventListener, InternalModule
         }
         finally
         {
-            if( m_documentCache != null && !wasUpdated ) m_documentCache.cancelUpdate( pageid );
+            releaseParser( parser );
         }
         
         return null;
     }
     
+    /**
+     *  Figures out the names of the pages the given document was built from:
+     *  the page itself and the pages it inserts.
+     */
+    private Collection findDependencies( WikiContext context, WikiDocument doc )
+    {
+        Collection deps = new HashSet();
+        
+        deps.add( context.getRealPage().getName() );
+        
+        for( Iterator i = doc.getDescendants(); i.hasNext(); )
+        {
+            Object o = i.next();
+            
+            if( o instanceof PluginContent )
+            {
+                PluginContent plugin = (PluginContent) o;
+                String name = plugin.getPluginName();
+                
+                if( name.equals("InsertPage") || name.endsWith(".InsertPage") )
+                {
+                    Object page = plugin.getParameter( InsertPage.PARAM_PAGENAME );
+                    
+                    if( page != null ) deps.add( page.toString() );
+                }
+            }
+        }
+        
+        return deps;
+    }
+
     /**
      *  Simply renders a WikiDocument to a String.  This version does not get the document
      *  from the cache - in fact, it does not cache the document at all.  This is
@@ -247,30 +523,75 @@ public class RenderingManager implements WikiEventListener, InternalModule
     public String getHTML( WikiContext context, WikiDocument doc )
         throws IOException
     {
-        WikiRenderer rend = getRenderer( context, doc );
+        WikiRenderer  rend    = acquireRenderer( context, doc );
+        PluginManager plugins = m_engine.getPluginManager();
+        boolean budget     = false;
+        boolean concurrent = false;
         
-        return rend.getString();
+        try
+        {
+            budget     = plugins.startPageBudget( context );
+            concurrent = startPlugins( context, doc );
+            return rend.getString();
+        }
+        finally
+        {
+            if( concurrent ) m_pluginRunner.finish();
+            if( budget ) plugins.endPageBudget( context );
+            releaseRenderer( rend );
+        }
     }
 
     /**
-     * Returns a WikiRenderer instance, initialized with the given 
+     * Returns a new WikiRenderer instance, initialized with the given 
      * context and doc. The object is an XHTMLRenderer, unless overridden
      * in jspwiki.properties with PROP_RENDERER.
      */
     public WikiRenderer getRenderer( WikiContext context, WikiDocument doc ) 
     {
-        Object[] params = { context, doc };
-        WikiRenderer rval = null;
+        return m_rendererFactory.newRenderer( context, doc );
+    }
+
+    /**
+     *  Returns the renderer of this thread, reset for the given document,
+     *  or a new renderer, if the thread's renderer is already busy.
+     *  The renderer must be given back with releaseRenderer().
+     */
+    private WikiRenderer acquireRenderer( WikiContext context, WikiDocument doc )
+    {
+        WikiRenderer rend = (WikiRenderer) m_threadRenderer.get();
         
-        try 
+        if( rend == null )
         {
-            rval = (WikiRenderer)m_rendererConstructor.newInstance( params );
-        } 
-        catch( Exception e ) 
-        {
-            log.error( "Unable to create WikiRenderer", e );
-        } 
-        return rval;
+            return getRenderer( context, doc );
+        }
+        
+        m_threadRenderer.set( null );
+        rend.reset( context, doc );
+        
+        return rend;
+    }
+    
+    /**
+     *  Starts the plugins of the document which can be run concurrently.
+     *  
+     *  @return True, if the plugins were started, and the runner must be
+     *          told when the rendering is finished.
+     */
+    private boolean startPlugins( WikiContext context, WikiDocument doc )
+    {
+        return m_pluginRunner != null && m_pluginRunner.start( context, doc );
+    }
+    
+    private void releaseRenderer( WikiRenderer rend )
+    {
+        //
+        //  Don't keep the document or the context alive.
+        //
+        rend.m_context  = null;
+        rend.m_document = null;
+
+        m_threadRenderer.set( rend );
     }
 
     /**
@@ -301,36 +622,172 @@ public class RenderingManager implements WikiEventListener, InternalModule
     }
 
     /**
-     * Flushes the document cache in response to a POST_SAVE_BEGIN event.
+     *  Renders the page data into the given Writer, using the default parser
+     *  and renderer.  Just like {@link #getHTML(WikiContext, String)}, this
+     *  uses the document cache, but the HTML is written out as it is generated,
+     *  instead of being collected into a String.
+     *  <p>
+     *  Pages which are longer than the streaming threshold are not cached.
+     *  Instead, each part of the page is written out as soon as the parser has
+     *  finished it, so that only the open elements are kept in memory.  This
+     *  is only possible with the default XHTMLRenderer.
+     *  
+     *  @param context the wiki context
+     *  @param pagedata the page data
+     *  @param out the Writer to write the XHTML into.  It is not closed.
+     *  @throws IOException If the page cannot be parsed, or writing fails.
+     *  @since 2.4.71
+     */
+    public void render( WikiContext context, String pagedata, Writer out )
+        throws IOException
+    {
+        if( m_streamingThreshold > 0 && 
+            pagedata.length() > m_streamingThreshold &&
+            m_rendererFactory instanceof XHTMLRendererFactory )
+        {
+            renderStreaming( context, pagedata, out );
+            return;
+        }
+        
+        WikiDocument doc = getRenderedDocument( context, pagedata );
+
+        if( doc == null )
+        {
+            throw new IOException( "Unable to parse page "+context.getRealPage().getName() );
+        }
+        
+        WikiRenderer  rend    = acquireRenderer( context, doc );
+        PluginManager plugins = m_engine.getPluginManager();
+        boolean budget     = false;
+        boolean concurrent = false;
+        
+        try
+        {
+            budget     = plugins.startPageBudget( context );
+            concurrent = startPlugins( context, doc );
+            rend.render( out );
+        }
+        finally
+        {
+            if( concurrent ) m_pluginRunner.finish();
+            if( budget ) plugins.endPageBudget( context );
+            releaseRenderer( rend );
+        }
+    }
+
+    /**
+     *  Parses the page data and writes out the XHTML at the same time.
+     *  The plugins are all run in this thread, since the parser gets to
+     *  them one at a time.
+     */
+    private void renderStreaming( WikiContext context, String pagedata, Writer out )
+        throws IOException
+    {
+        if( log.isDebugEnabled() ) log.debug("Streaming large page "+context.getRealPage().getName() );
+        
+        JSPWikiMarkupParser parser  = acquireParser( context, pagedata );
+        PluginManager       plugins = m_engine.getPluginManager();
+        boolean budget = false;
+        
+        try
+        {
+            budget = plugins.startPageBudget( context );
+            parser.setBlockListener( new XHTMLBlockWriter( out ) );
+            parser.parse();
+        }
+        finally
+        {
+            if( budget ) plugins.endPageBudget( context );
+            releaseParser( parser );
+        }
+    }
+
+    /**
+     *  Returns the statistics of the document cache.
+     *  
+     *  @return A CacheStatistics object, or null, if caching is disabled.
+     */
+    public CacheStatistics getCacheStatistics()
+    {
+        return m_documentCache != null ? m_documentCache.getStatistics() : null;
+    }
+
+    /**
+     *  Returns a number which changes every time a page is saved or deleted,
+     *  i.e. whenever the set of existing pages may have changed.  Links in
+     *  cached documents use this to find out when they need to be resolved again,
+     *  and the PluginManager to find out when cached plugin output is too old.
+     *  <p>
+     *  A save changes the generation both before and after the post-save filters
+     *  (such as the ReferenceManager) have run, so that anything computed
+     *  while they are running is not used afterwards.
+     *  
+     *  @return The current generation.
+     *  @since 2.4.71
+     */
+    public long getPageSetGeneration()
+    {
+        return m_pageSetGeneration;
+    }
+
+    private synchronized void incrementPageSetGeneration()
+    {
+        m_pageSetGeneration++;
+    }
+
+    /**
+     * Flushes the documents which depend on the saved or deleted page from the
+     * document cache in response to a POST_SAVE_BEGIN or PAGE_DELETED event,
+     * and starts a new page set generation.  PAGE_CHANGED, which tells of
+     * renamed pages and pages changed outside JSPWiki, is handled the same way.
+     * POST_SAVE_END just starts a new generation, and the engine SHUTDOWN
+     * stops the plugin threads.
      *  
      * @see com.ecyrd.jspwiki.event.WikiEventListener#actionPerformed(com.ecyrd.jspwiki.event.WikiEvent)
      */
     public void actionPerformed(WikiEvent event)
     {
-        if( (event instanceof WikiPageEvent) && (event.getType() == WikiPageEvent.POST_SAVE_BEGIN) )
+        if( event instanceof WikiEngineEvent )
+        {
+            if( event.getType() == WikiEngineEvent.SHUTDOWN && m_pluginRunner != null )
+            {
+                m_pluginRunner.shutdown();
+            }
+            return;
+        }
+        
+        if( !(event instanceof WikiPageEvent) )
+        {
+            return;
+        }
+        
+        if( event.getType() == WikiPageEvent.POST_SAVE_BEGIN ||
+            event.getType() == WikiPageEvent.PAGE_DELETED ||
+            event.getType() == WikiPageEvent.PAGE_CHANGED )
         {
+            incrementPageSetGeneration();
+            
             if( m_documentCache != null )
             {
-                String pageName = ((WikiPageEvent) event).getPageName();
-                m_documentCache.flushPattern( pageName );
-                Set referringPages = m_engine.getReferenceManager().findReferredBy( pageName );
-                
-                //
-                //  Flush also those pages that refer to this page (if an nonexistant page
-                //  appears; we need to flush the HTML that refers to the now-existant page
-                //
-                if( referringPages != null )
-                {
-                    Iterator i = referringPages.iterator();
-                    while (i.hasNext())
-                    {
-                        String page = (String) i.next();
-                        log.debug( "Flushing " + page );
-                        m_documentCache.flushPattern( page );
-                    }
-                }
+                flushDependents( ((WikiPageEvent) event).getPageName() );
             }
         }
+        else if( event.getType() == WikiPageEvent.POST_SAVE_END )
+        {
+            incrementPageSetGeneration();
+        }
+    }
+
+    private void flushDependents( String pageName )
+    {
+        Collection keys = m_dependencies.invalidate( pageName );
+        
+        for( Iterator i = keys.iterator(); i.hasNext(); )
+        {
+            Object key = i.next();
+            log.debug( "Flushing " + key );
+            m_documentCache.remove( key );
+        }
     }
 
 }
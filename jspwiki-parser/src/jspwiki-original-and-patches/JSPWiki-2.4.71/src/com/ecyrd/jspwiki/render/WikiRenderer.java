@@ -20,6 +20,7 @@
 package com.ecyrd.jspwiki.render;
 
 import java.io.IOException;
+import java.io.Writer;
 
 import com.ecyrd.jspwiki.TextUtil;
 import com.ecyrd.jspwiki.WikiContext;
@@ -44,6 +45,25 @@ public abstract class WikiRenderer
     protected boolean         m_enablePlugins = true;
     
     protected WikiRenderer( WikiContext context, WikiDocument doc )
+    {
+        init( context, doc );
+    }
+
+    /**
+     *  Prepares this renderer for rendering another document, so that
+     *  the same instance can be used again.  Renderers which keep any state
+     *  of their own must override this, and call super.reset().
+     *
+     *  @param context The WikiContext to render in.
+     *  @param doc The document to render.
+     *  @since 2.4.71
+     */
+    public void reset( WikiContext context, WikiDocument doc )
+    {
+        init( context, doc );
+    }
+
+    private void init( WikiContext context, WikiDocument doc )
     {
         m_context = context;
         m_document = doc;
@@ -52,6 +72,8 @@ public abstract class WikiRenderer
         //
         //  Do some sane defaults
         //
+        m_enablePlugins = true;
+        
         WikiEngine engine = m_context.getEngine();
         String runplugins = engine.getVariable( m_context, MarkupParser.PROP_RUNPLUGINS );
         if( runplugins != null ) enablePlugins( TextUtil.isPositive(runplugins));
@@ -68,4 +90,19 @@ public abstract class WikiRenderer
     public abstract String getString()
         throws IOException;
 
+    /**
+     *  Renders the document into the given Writer.  Renderers which can
+     *  write their output piece by piece should override this; the default
+     *  implementation just writes out the result of {@link #getString()}.
+     *
+     *  @param out The Writer to write to.  It is not closed.
+     *  @throws IOException If the document cannot be rendered, or writing fails.
+     *  @since 2.4.71
+     */
+    public void render( Writer out )
+        throws IOException
+    {
+        out.write( getString() );
+    }
+
 }
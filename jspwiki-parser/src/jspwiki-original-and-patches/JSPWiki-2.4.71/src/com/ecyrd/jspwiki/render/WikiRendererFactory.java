@@ -0,0 +1,45 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.render;
+
+import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.parser.WikiDocument;
+
+/**
+ *  Creates WikiRenderers.  The RenderingManager uses a factory instead of
+ *  reflection to get a new renderer, and the factory is chosen with the
+ *  "jspwiki.renderingManager.renderer" property.  The property may name
+ *  either a WikiRendererFactory or a WikiRenderer class.
+ *  <p>
+ *  Factories must be thread-safe.
+ *
+ *  @since 2.4.71
+ */
+public interface WikiRendererFactory
+{
+    /**
+     *  Creates a new renderer for the given document.
+     *
+     *  @param context The WikiContext to render in.
+     *  @param doc The document to render.
+     *  @return A new WikiRenderer.  Never null.
+     */
+    public WikiRenderer newRenderer( WikiContext context, WikiDocument doc );
+}
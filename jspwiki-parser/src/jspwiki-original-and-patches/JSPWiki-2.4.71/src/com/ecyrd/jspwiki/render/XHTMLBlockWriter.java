@@ -0,0 +1,92 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.render;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import org.jdom.Attribute;
+import org.jdom.Element;
+import org.jdom.output.XMLOutputter;
+
+import com.ecyrd.jspwiki.parser.BlockListener;
+
+/**
+ *  Writes XHTML as the parser finishes the parts of a document.  The output
+ *  is the same as what XHTMLRenderer writes from the whole document.
+ *
+ *  @since 2.4.71
+ */
+class XHTMLBlockWriter implements BlockListener
+{
+    private final XMLOutputter m_outputter = XHTMLRenderer.createOutputter();
+    private final Writer       m_out;
+
+    /**
+     *  Creates a new writer.
+     *
+     *  @param out The Writer to write the XHTML into.  It is not flushed.
+     */
+    XHTMLBlockWriter( Writer out )
+    {
+        m_out = new XHTMLRenderer.UnflushedWriter( out );
+    }
+
+    public void elementStarted( Element el )
+        throws IOException
+    {
+        m_out.write( '<' );
+        m_out.write( el.getQualifiedName() );
+
+        List attrs = el.getAttributes();
+
+        for( int i = 0; i < attrs.size(); i++ )
+        {
+            Attribute a = (Attribute) attrs.get( i );
+
+            m_out.write( ' ' );
+            m_out.write( a.getQualifiedName() );
+            m_out.write( "=\"" );
+            m_out.write( m_outputter.escapeAttributeEntities( a.getValue() ) );
+            m_out.write( '"' );
+        }
+
+        m_out.write( '>' );
+    }
+
+    public void contentFinished( List content )
+        throws IOException
+    {
+        //
+        //  The same outputter is used throughout, since the processing
+        //  instructions which turn off escaping change its state.
+        //
+        m_outputter.output( content, m_out );
+    }
+
+    public void elementFinished( Element el )
+        throws IOException
+    {
+        m_out.write( "</" );
+        m_out.write( el.getQualifiedName() );
+        m_out.write( '>' );
+    }
+}
@@ -19,13 +19,16 @@
 */
 package com.ecyrd.jspwiki.render;
 
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 
 import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
 
 import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.parser.CompactDocument;
 import com.ecyrd.jspwiki.parser.WikiDocument;
 
 /**
@@ -39,6 +42,8 @@ import com.ecyrd.jspwiki.parser.WikiDocument;
 public class XHTMLRenderer
     extends WikiRenderer 
 {
+    private XMLOutputter m_outputter;
+    
     public XHTMLRenderer( WikiContext context, WikiDocument doc )
     {
         super( context, doc );
@@ -46,20 +51,69 @@ public class XHTMLRenderer
     
     public String getString()
         throws IOException
+    {
+        StringWriter out = new StringWriter();
+        
+        render( out );
+        
+        return out.toString();
+    }
+
+    /**
+     *  Writes the XHTML directly into the given Writer, without building
+     *  an intermediate String.
+     *  
+     *  @since 2.4.71
+     */
+    public void render( Writer out )
+        throws IOException
     {
         m_document.setContext( m_context );
 
-        XMLOutputter output = new XMLOutputter();
+        CompactDocument compact = m_document.getCompactDocument();
         
-        StringWriter out = new StringWriter();
+        if( compact != null )
+        {
+            compact.writeXHTML( m_document, out );
+            return;
+        }
+        
+        if( m_outputter == null )
+        {
+            m_outputter = createOutputter();
+        }
         
+        m_outputter.outputElementContent( m_document.getRootElement(), 
+                                          new UnflushedWriter( out ) );
+    }
+
+    /**
+     *  Creates an XMLOutputter which writes the XHTML in the format
+     *  the renderer uses.
+     */
+    static XMLOutputter createOutputter()
+    {
         Format fmt = Format.getRawFormat();
         fmt.setExpandEmptyElements( false );
         fmt.setLineSeparator("\n");
 
-        output.setFormat( fmt );
-        output.outputElementContent( m_document.getRootElement(), out );
+        return new XMLOutputter( fmt );
+    }
+
+    /**
+     *  XMLOutputter flushes the Writer once it is done, which is not
+     *  allowed for example for the body content of a JSP tag.  This Writer
+     *  just ignores the flush.
+     */
+    static class UnflushedWriter extends FilterWriter
+    {
+        public UnflushedWriter( Writer out )
+        {
+            super( out );
+        }
         
-        return out.toString();
+        public void flush()
+        {
+        }
     }
 }
@@ -114,7 +114,7 @@ public class InsertPageTag
             switch(m_mode)
             {
               case HTML:
-                out.print( engine.getHTML(m_wikiContext, page) );
+                engine.getHTML( m_wikiContext, page, out );
                 break;
               case PLAIN:
                 out.print( engine.getText(m_wikiContext, page) );
@@ -56,9 +56,7 @@ public class TranslateTag
             {
                 wikiText = wikiText.trim();
             
-                String result = context.getEngine().textToHTML( context, wikiText );
-
-                getPreviousOut().write( result );
+                context.getEngine().textToHTML( context, wikiText, getPreviousOut() );
             }
         }
         catch( Exception e )
@@ -462,7 +462,7 @@ public final class CommandResolver
 
     /**
      * Determines whether a "page" exists by examining the list of special pages
-     * and querying the page manager.
+     * and the page name index of the page manager.
      * @param page the page to seek
      * @return <code>true</code> if the page exists, <code>false</code>
      *         otherwise
@@ -473,7 +473,11 @@ public final class CommandResolver
         {
             return true;
         }
-        return m_engine.getPageManager().pageExists( page );
+        if ( page == null || page.length() == 0 )
+        {
+            throw new ProviderException( "Illegal page name" );
+        }
+        return m_engine.getPageManager().getPageNameIndex().contains( page );
     }
 
 }
@@ -0,0 +1,197 @@
+/* 
+  JSPWiki - a JSP-based WikiWiki clone.
+
+  Copyright (C) 2001-2006 Janne Jalkanen (Janne.Jalkanen@iki.fi)
+
+  This program is free software; you can redistribute it and/or modify
+  it under the terms of the GNU Lesser General Public License as published by
+  the Free Software Foundation; either version 2.1 of the License, or
+  (at your option) any later version.
+
+  This program is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+  GNU Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public License
+  along with this program; if not, write to the Free Software
+  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+*/
+package com.ecyrd.jspwiki.util;
+
+/**
+ *  A Bloom filter of strings: a compact set which can tell for certain that
+ *  a string has never been added, but may now and then claim that one has,
+ *  when it has not.  The chance of such a false positive is chosen when the
+ *  filter is created, for a given number of strings.  Strings cannot be
+ *  removed.
+ *  <p>
+ *  This class is not synchronized.  A filter which is shared between threads
+ *  should not be modified after it has been published; use {@link #copy()}
+ *  and publish the modified copy instead.
+ *
+ *  @since 2.4.71
+ */
+public final class BloomFilter
+{
+    private static final double LN2 = Math.log( 2 );
+
+    private final long[] m_bits;
+    private final int    m_bitCount;
+    private final int    m_hashCount;
+    private final int    m_capacity;
+    private int          m_size;
+
+    /**
+     *  Creates an empty filter.
+     *
+     *  @param capacity The number of strings the filter is sized for.
+     *  @param falsePositiveRate The wanted chance of a false positive, when
+     *                           the filter holds that many strings.
+     */
+    public BloomFilter( int capacity, double falsePositiveRate )
+    {
+        if( capacity < 1 ) capacity = 1;
+
+        if( falsePositiveRate <= 0 || falsePositiveRate >= 1 )
+        {
+            throw new IllegalArgumentException( "False positive rate must be between 0 and 1: "+falsePositiveRate );
+        }
+
+        long bits = (long) Math.ceil( -capacity * Math.log( falsePositiveRate ) / (LN2*LN2) );
+
+        bits = Math.max( 64, Math.min( bits, Integer.MAX_VALUE - 63 ) );
+
+        m_bitCount  = (int) ((bits + 63) & ~63L);
+        m_hashCount = Math.max( 1, Math.min( 16, (int) Math.round( (double) m_bitCount / capacity * LN2 ) ) );
+        m_capacity  = capacity;
+        m_bits      = new long[m_bitCount / 64];
+    }
+
+    private BloomFilter( BloomFilter f )
+    {
+        m_bitCount  = f.m_bitCount;
+        m_hashCount = f.m_hashCount;
+        m_capacity  = f.m_capacity;
+        m_size      = f.m_size;
+        m_bits      = (long[]) f.m_bits.clone();
+    }
+
+    /**
+     *  Returns a copy of this filter, which can be modified independently.
+     *
+     *  @return A new BloomFilter.
+     */
+    public BloomFilter copy()
+    {
+        return new BloomFilter( this );
+    }
+
+    /**
+     *  The second hash; the first one is String.hashCode(), which Strings
+     *  keep in memory.  FNV-1a over the chars.
+     */
+    private static int hash2( String s )
+    {
+        int h = 0x811c9dc5;
+
+        for( int i = 0; i < s.length(); i++ )
+        {
+            h ^= s.charAt( i );
+            h *= 0x01000193;
+        }
+
+        return h | 1; // Odd, so that the probes never repeat
+    }
+
+    /**
+     *  Adds a string.
+     *
+     *  @param s The string.
+     */
+    public void add( String s )
+    {
+        int h1 = s.hashCode();
+        int h2 = hash2( s );
+
+        for( int i = 0; i < m_hashCount; i++ )
+        {
+            int bit = ((h1 + i*h2) & Integer.MAX_VALUE) % m_bitCount;
+
+            m_bits[bit >>> 6] |= 1L << bit;
+        }
+
+        m_size++;
+    }
+
+    /**
+     *  Checks whether a string may have been added.
+     *
+     *  @param s The string.
+     *  @return False, if the string has certainly not been added.
+     */
+    public boolean mightContain( String s )
+    {
+        int h1 = s.hashCode();
+        int h2 = hash2( s );
+
+        for( int i = 0; i < m_hashCount; i++ )
+        {
+            int bit = ((h1 + i*h2) & Integer.MAX_VALUE) % m_bitCount;
+
+            if( (m_bits[bit >>> 6] & (1L << bit)) == 0 ) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     *  Returns the number of strings added, counting duplicates.
+     *
+     *  @return The number of strings.
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     *  Returns the number of strings the filter was sized for.
+     *
+     *  @return The capacity.
+     */
+    public int getCapacity()
+    {
+        return m_capacity;
+    }
+
+    /**
+     *  Returns the size of the filter.
+     *
+     *  @return The number of bits.
+     */
+    public int getBitCount()
+    {
+        return m_bitCount;
+    }
+
+    /**
+     *  Returns the number of bits set for each string.
+     *
+     *  @return The number of hash functions.
+     */
+    public int getHashCount()
+    {
+        return m_hashCount;
+    }
+
+    /**
+     *  Estimates the chance of a false positive with the strings added so far.
+     *
+     *  @return The chance, between 0 and 1.
+     */
+    public double getFalsePositiveRate()
+    {
+        return Math.pow( 1 - Math.exp( -(double) m_hashCount * m_size / m_bitCount ), m_hashCount );
+    }
+}
@@ -44,6 +44,7 @@ public class AllTests extends TestCase
         suite.addTest( FileUtilTest.suite() );
         suite.addTest( ReleaseTest.suite() );
         suite.addTest( PageManagerTest.suite() );
+        suite.addTest( SearchMatcherTest.suite() );
         suite.addTest( TextUtilTest.suite() );
         // suite.addTest( TranslatorReaderTest.suite() );
         suite.addTest( VariableManagerTest.suite() );
@@ -67,6 +68,7 @@ public class AllTests extends TestCase
         suite.addTest( com.ecyrd.jspwiki.url.AllTests.suite() );
         suite.addTest( com.ecyrd.jspwiki.diff.AllTests.suite() );
         suite.addTest( com.ecyrd.jspwiki.search.AllTests.suite() );
+        suite.addTest( com.ecyrd.jspwiki.cache.AllTests.suite() );
         
         return suite;
     }
@@ -2,6 +2,7 @@
 package com.ecyrd.jspwiki;
 
 import junit.framework.*;
+import java.io.*;
 import java.util.*;
 
 import org.apache.log4j.*;
@@ -49,6 +50,108 @@ public class PageManagerTest extends TestCase
         assertTrue( !(m.getProvider() instanceof CachingProvider) );
     }
 
+    public void testPageNameIndex()
+        throws Exception
+    {
+        PageNameIndex index = engine.getPageManager().getPageNameIndex();
+        
+        assertFalse( "before save", index.contains( "TestPageNameIndex" ) );
+        
+        engine.saveText( "TestPageNameIndex", "Foobar" );
+        
+        assertTrue( "after save", index.contains( "TestPageNameIndex" ) );
+        assertEquals( "plural", "TestPageNameIndex", 
+                      engine.getFinalPageName( "TestPageNameIndexs" ) );
+        
+        engine.deletePage( "TestPageNameIndex" );
+        
+        assertFalse( "after delete", index.contains( "TestPageNameIndex" ) );
+        assertNull( "plural after delete", engine.getFinalPageName( "TestPageNameIndexs" ) );
+    }
+
+    public void testPageNameIndexRename()
+        throws Exception
+    {
+        PageNameIndex index = engine.getPageManager().getPageNameIndex();
+        
+        engine.saveText( "TestPageNameIndex", "Foobar" );
+        
+        WikiContext context = new WikiContext( engine, engine.getPage( "TestPageNameIndex" ) );
+        
+        try
+        {
+            engine.renamePage( context, "TestPageNameIndex", "TestPageNameIndex2", false );
+            
+            assertFalse( "old name", index.contains( "TestPageNameIndex" ) );
+            assertTrue( "new name", index.contains( "TestPageNameIndex2" ) );
+            
+            engine.renamePage( context, "TestPageNameIndex2", "TestPageNameIndex", false );
+            
+            assertTrue( "old name after renaming back", index.contains( "TestPageNameIndex" ) );
+            assertFalse( "new name after renaming back", index.contains( "TestPageNameIndex2" ) );
+        }
+        finally
+        {
+            TestEngine.deleteTestPage( "TestPageNameIndex" );
+            TestEngine.deleteTestPage( "TestPageNameIndex2" );
+        }
+    }
+
+    /**
+     *  Without a watcher, a page added outside JSPWiki must still be found
+     *  once the missing name has expired.
+     */
+    public void testPageNameIndexExternalAdd()
+        throws Exception
+    {
+        props.setProperty( CachingProvider.PROP_CACHECHECKINTERVAL, "0" );
+        engine = new TestEngine( props );
+        
+        PageNameIndex index = engine.getPageManager().getPageNameIndex();
+        
+        assertFalse( "before", index.contains( "TestPageNameIndex" ) );
+        
+        File f = new File( props.getProperty( FileSystemProvider.PROP_PAGEDIR ), 
+                           "TestPageNameIndex"+FileSystemProvider.FILE_EXT );
+        Writer out = new FileWriter( f );
+        out.write( "Foobar" );
+        out.close();
+        
+        try
+        {
+            assertTrue( "added outside", index.contains( "TestPageNameIndex" ) );
+        }
+        finally
+        {
+            TestEngine.deleteTestPage( "TestPageNameIndex" );
+        }
+    }
+
+    public void testSectionIndex()
+        throws Exception
+    {
+        PageManager m = engine.getPageManager();
+        
+        engine.saveText( "TestSectionIndex", "One\n----\nTwo" );
+        
+        SectionIndex index = m.getSectionIndex( "TestSectionIndex", WikiProvider.LATEST_VERSION );
+        
+        assertEquals( "count", 2, index.getSectionCount() );
+        assertEquals( "section 2", "Two", index.getSection(2).toString().trim() );
+        assertSame( "not cached", index, m.getSectionIndex( "TestSectionIndex", WikiProvider.LATEST_VERSION ) );
+        
+        engine.saveText( "TestSectionIndex", "One\n----\nTwo\n----\nThree" );
+        
+        index = m.getSectionIndex( "TestSectionIndex", WikiProvider.LATEST_VERSION );
+        
+        assertEquals( "count after save", 3, index.getSectionCount() );
+        
+        engine.deletePage( "TestSectionIndex" );
+        
+        assertEquals( "count after delete", 0, 
+                      m.getSectionIndex( "TestSectionIndex", WikiProvider.LATEST_VERSION ).getSectionCount() );
+    }
+
     public static Test suite()
     {
         return new TestSuite( PageManagerTest.class );
@@ -5,6 +5,8 @@ import junit.framework.*;
 import java.util.*;
 import java.io.*;
 
+import org.apache.commons.lang.time.StopWatch;
+
 /**
  *  @author Torsten Hildebrandt.
  */
@@ -325,6 +327,87 @@ public class ReferenceManagerTest extends TestCase
 
     }
 
+    private String readTestPage( String name )
+        throws IOException
+    {
+        InputStream  is  = getClass().getResourceAsStream( name );
+        Reader       in  = new InputStreamReader( is, "ISO-8859-1" );
+        StringWriter out = new StringWriter();
+
+        FileUtil.copyContents( in, out );
+        in.close();
+        
+        return out.toString();
+    }
+    
+    private Collection renderedLinks( WikiPage page, String text )
+    {
+        LinkCollector coll = new LinkCollector();
+        
+        engine.textToHTML( new WikiContext( engine, page ), text, coll, null, coll );
+        
+        return coll.getLinks();
+    }
+    
+    /**
+     *  Scanning only for links must find exactly the same links, in the same
+     *  order, as rendering the page with the link hooks does.
+     */
+    public void testScanWikiLinksOnly()
+        throws Exception
+    {
+        WikiPage page = engine.getPage( "TestPage" );
+        
+        String src = "!!! Heading with [Foobar] link\n"+
+                     "CamelCaseWord, ~NoLinkHere, [Foobar#Section], [Text|Foobar2]\n"+
+                     "[{CurrentTimePlugin}] [{$pagename}] [JSPWiki:InterWiki] [1] [#1]\n"+
+                     "[Foobar|http://www.ecyrd.com/test.png] http://www.ecyrd.com/ "+
+                     "[TestPage/attachment.txt]\n"+
+                     "{{{ [NotALink] }}} [[NotALinkEither] __[BoldLink]__\n";
+        
+        Collection links = engine.scanWikiLinks( page, src );
+        
+        assertEquals( renderedLinks( page, src ), links );
+        assertTrue( "heading link", links.contains( "Foobar" ) );
+        assertTrue( "camelcase", links.contains( "CamelCaseWord" ) );
+        assertFalse( "escaped", links.contains( "NotALink" ) );
+
+        src = readTestPage( "/TextFormattingRules.txt" );
+        
+        assertEquals( "formatting rules", renderedLinks( page, src ), engine.scanWikiLinks( page, src ) );
+    }
+
+    public void testScanWikiLinksSpeed()
+        throws Exception
+    {
+        WikiPage page = engine.getPage( "TestPage" );
+        String   src  = readTestPage( "/TextFormattingRules.txt" );
+        
+        StopWatch sw = new StopWatch();
+        
+        System.out.println("Link scanning speed test:");
+        sw.start();
+        
+        for( int i = 0; i < 100; i++ )
+        {
+            renderedLinks( page, src );
+        }
+        
+        sw.stop();
+        System.out.println("  Rendering took "+sw);
+
+        sw.reset();
+        sw.start();
+        
+        for( int i = 0; i < 100; i++ )
+        {
+            engine.scanWikiLinks( page, src );
+        }
+        
+        sw.stop();
+        System.out.println("  Scanning took "+sw);
+    }
+
     public static Test suite()
     {
         return new TestSuite( ReferenceManagerTest.class );
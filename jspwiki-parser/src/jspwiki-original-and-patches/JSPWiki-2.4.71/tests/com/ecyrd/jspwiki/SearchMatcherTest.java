@@ -0,0 +1,204 @@
+package com.ecyrd.jspwiki;
+
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.lang.time.StopWatch;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class SearchMatcherTest extends TestCase
+{
+    private TestEngine m_engine;
+
+    public SearchMatcherTest( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        m_engine = new TestEngine( props );
+    }
+
+    private static QueryItem item( String word, int type )
+    {
+        QueryItem item = new QueryItem();
+        item.word = word;
+        item.type = type;
+
+        return item;
+    }
+
+    private int score( QueryItem[] query, String name, String text )
+        throws Exception
+    {
+        SearchResult r = new SearchMatcher( m_engine, query ).matchPageContent( name, text );
+
+        return (r != null) ? r.getScore() : -1;
+    }
+
+    /**
+     *  Counts the occurrences the way the old line-by-line matcher did.
+     */
+    private static int naiveCount( String text, String word )
+    {
+        int count = 0;
+        int index = -1;
+
+        text = text.toLowerCase();
+
+        while( (index = text.indexOf( word, index+1 )) != -1 ) count++;
+
+        return count;
+    }
+
+    public void testSingleWord()
+        throws Exception
+    {
+        QueryItem[] q = { item( "foo", QueryItem.REQUESTED ) };
+
+        assertEquals( "none", -1, score( q, "Page", "bar" ) );
+        assertEquals( "case", 2, score( q, "Page", "Foo and FOO" ) );
+        assertEquals( "overlap", 2, score( q, "Page", "xfoofoo" ) );
+        assertEquals( "name", 6, score( q, "FooPage", "foo" ) );
+        assertEquals( "name only", 5, score( q, "FooPage", "bar" ) );
+    }
+
+    public void testOverlappingWords()
+        throws Exception
+    {
+        QueryItem[] q = { item( "he", QueryItem.REQUESTED ),
+                          item( "she", QueryItem.REQUESTED ),
+                          item( "his", QueryItem.REQUESTED ),
+                          item( "hers", QueryItem.REQUESTED ) };
+
+        // "ushers": she, he, hers
+        assertEquals( 3, score( q, "Page", "ushers" ) );
+
+        // "ahishers": his, she, he, hers
+        assertEquals( 4, score( q, "Page", "ahishers" ) );
+    }
+
+    public void testRequired()
+        throws Exception
+    {
+        QueryItem[] q = { item( "foo", QueryItem.REQUESTED ),
+                          item( "bar", QueryItem.REQUIRED ) };
+
+        assertEquals( "missing", -1, score( q, "Page", "foo foo" ) );
+        assertEquals( "present", 3, score( q, "Page", "foo foo bar" ) );
+        assertEquals( "in name", 7, score( q, "BarPage", "foo foo" ) );
+    }
+
+    public void testForbidden()
+        throws Exception
+    {
+        QueryItem[] q = { item( "foo", QueryItem.REQUESTED ),
+                          item( "bar", QueryItem.FORBIDDEN ) };
+
+        assertEquals( "absent", 1, score( q, "Page", "foo" ) );
+        assertEquals( "present", -1, score( q, "Page", "foo Bar" ) );
+        assertEquals( "in name only", 1, score( q, "BarPage", "foo" ) );
+    }
+
+    public void testSameWordTwice()
+        throws Exception
+    {
+        QueryItem[] q = { item( "foo", QueryItem.REQUESTED ),
+                          item( "foo", QueryItem.REQUESTED ) };
+
+        assertEquals( 4, score( q, "Page", "foo foo" ) );
+    }
+
+    public void testEmptyQuery()
+        throws Exception
+    {
+        assertEquals( "null", -1, score( null, "Page", "foo" ) );
+        assertEquals( "empty", -1, score( new QueryItem[0], "Page", "foo" ) );
+        assertEquals( "empty word", -1, score( new QueryItem[] { item( "", QueryItem.REQUESTED ) }, "Page", "foo" ) );
+    }
+
+    /**
+     *  Compares against the old way of counting with random words and texts
+     *  over a small alphabet, which makes for lots of overlaps.
+     */
+    public void testRandom()
+        throws Exception
+    {
+        Random rnd = new Random( 42 );
+
+        for( int round = 0; round < 200; round++ )
+        {
+            QueryItem[] q = new QueryItem[1 + rnd.nextInt( 5 )];
+
+            for( int j = 0; j < q.length; j++ )
+            {
+                q[j] = item( randomString( rnd, 1 + rnd.nextInt( 4 ) ).toLowerCase(), QueryItem.REQUESTED );
+            }
+
+            String text = randomString( rnd, rnd.nextInt( 200 ) );
+
+            int expected = 0;
+
+            for( int j = 0; j < q.length; j++ ) expected += naiveCount( text, q[j].word );
+
+            assertEquals( "round "+round, (expected > 0) ? expected : -1, score( q, "X", text ) );
+        }
+    }
+
+    private static String randomString( Random rnd, int length )
+    {
+        StringBuffer sb = new StringBuffer();
+
+        for( int i = 0; i < length; i++ ) sb.append( "abAB c".charAt( rnd.nextInt( 6 ) ) );
+
+        return sb.toString();
+    }
+
+    /**
+     *  Prints how long matching a large text against many words takes.
+     */
+    public void testSpeed()
+        throws Exception
+    {
+        Random       rnd  = new Random( 1 );
+        StringBuffer text = new StringBuffer();
+
+        while( text.length() < 1000000 )
+        {
+            text.append( "Lorem ipsum dolor sit amet, consectetur adipiscing elit "+rnd.nextInt( 1000 )+"\n" );
+        }
+
+        QueryItem[] q = new QueryItem[20];
+
+        for( int j = 0; j < q.length; j++ ) q[j] = item( "word"+j, QueryItem.REQUESTED );
+
+        q[0] = item( "ipsum", QueryItem.REQUESTED );
+
+        SearchMatcher matcher = new SearchMatcher( m_engine, q );
+        String        page    = text.toString();
+
+        StopWatch sw = new StopWatch();
+        sw.start();
+
+        SearchResult r = matcher.matchPageContent( "Page", page );
+
+        sw.stop();
+
+        assertEquals( naiveCount( page, "ipsum" ), r.getScore() );
+
+        System.out.println( "Matched "+q.length+" words in "+page.length()+" chars in "+sw );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SearchMatcherTest.class );
+    }
+}
@@ -291,6 +291,50 @@ public class TextUtilTest extends TestCase
         catch( IllegalArgumentException e ) {}
     }
 
+    public void testSectionIndex()
+        throws Exception
+    {
+        String src = "First section\n----\nSecond section\n\n----\n\nThird section";
+
+        SectionIndex index = new SectionIndex( src );
+
+        assertEquals( "count", 3, index.getSectionCount() );
+        assertEquals( "count same", TextUtil.countSections(src), index.getSectionCount() );
+        assertEquals( "start 2", src.indexOf("\nSecond"), index.getSectionStart(2) );
+        assertEquals( "end 2", src.lastIndexOf("----"), index.getSectionEnd(2) );
+
+        CharSequence section = index.getSection( 2 );
+
+        assertEquals( "section 2", "\nSecond section\n\n", section.toString() );
+        assertEquals( "length", 17, section.length() );
+        assertEquals( "charAt", 'S', section.charAt(1) );
+        assertEquals( "subSequence", "Second", section.subSequence(1,7).toString() );
+
+        try
+        {
+            section.charAt( 17 );
+            fail("Did not get exception for reading past the section");
+        }
+        catch( IndexOutOfBoundsException e ) {}
+
+        try
+        {
+            index.getSection( 4 );
+            fail("Did not get exception for section 4");
+        }
+        catch( IllegalArgumentException e ) {}
+    }
+
+    public void testSectionIndexEmpty()
+        throws Exception
+    {
+        SectionIndex index = new SectionIndex( "" );
+
+        assertEquals( "count", 0, index.getSectionCount() );
+        assertEquals( "section 1", "", index.getSection(1).toString() );
+        assertEquals( "null", 0, new SectionIndex( null ).getSectionCount() );
+    }
+
     public void testBooleanParameter()
        throws Exception
     {
@@ -0,0 +1,22 @@
+
+package com.ecyrd.jspwiki.cache;
+
+import junit.framework.*;
+
+public class AllTests extends TestCase
+{
+    public AllTests( String s )
+    {
+        super( s );
+    }
+
+    public static Test suite()
+    {
+        TestSuite suite = new TestSuite("Cache suite");
+
+        suite.addTest( ConcurrentWikiCacheTest.suite() );
+        suite.addTest( DependencyIndexTest.suite() );
+
+        return suite;
+    }
+}
@@ -0,0 +1,235 @@
+
+package com.ecyrd.jspwiki.cache;
+
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ConcurrentWikiCacheTest extends TestCase
+{
+    public ConcurrentWikiCacheTest( String s )
+    {
+        super( s );
+    }
+
+    private WikiCache createCache( int capacity, long maxWeight )
+    {
+        Properties props = new Properties();
+        props.setProperty( ConcurrentWikiCache.PROP_SEGMENTS, "1" );
+
+        return CacheFactory.createCache( props, "test", capacity, maxWeight );
+    }
+
+    private static String makeString( int length )
+    {
+        StringBuffer sb = new StringBuffer();
+
+        for( int i = 0; i < length; i++ ) sb.append( 'x' );
+
+        return sb.toString();
+    }
+
+    public void testDefaultImplementation()
+    {
+        WikiCache cache = CacheFactory.createCache( new Properties(), "test", 10, 0 );
+
+        assertTrue( cache instanceof ConcurrentWikiCache );
+    }
+
+    public void testOSCacheImplementation()
+    {
+        Properties props = new Properties();
+        props.setProperty( CacheFactory.PROP_IMPLEMENTATION, "OSCacheWikiCache" );
+
+        WikiCache cache = CacheFactory.createCache( props, "test", 10, 0 );
+
+        assertTrue( cache instanceof OSCacheWikiCache );
+
+        cache.put( "Foo", "bar" );
+        assertEquals( "bar", cache.get( "Foo" ).getValue() );
+        assertNull( cache.get( "Gobble" ) );
+    }
+
+    public void testPutGet()
+    {
+        WikiCache cache = createCache( 10, 0 );
+
+        cache.put( "Foo", "bar" );
+        cache.put( "Empty", null );
+
+        assertEquals( "Foo", "bar", cache.get( "Foo" ).getValue() );
+        assertNotNull( "Empty", cache.get( "Empty" ) );
+        assertNull( "Empty value", cache.get( "Empty" ).getValue() );
+        assertNull( "Nonexistant", cache.get( "Gobble" ) );
+
+        cache.remove( "Foo" );
+
+        assertNull( "removed", cache.get( "Foo" ) );
+    }
+
+    public void testExpiry()
+    {
+        WikiCache cache = createCache( 10, 0 );
+
+        cache.put( "Foo", "bar" );
+
+        CacheEntry e = cache.get( "Foo" );
+
+        assertFalse( "fresh", e.isExpired( 60 ) );
+        assertTrue( "stale", e.isExpired( 0 ) );
+        assertFalse( "indefinite", e.isExpired( CacheEntry.INDEFINITE_EXPIRY ) );
+    }
+
+    public void testCapacity()
+    {
+        WikiCache cache = createCache( 10, 0 );
+
+        for( int i = 0; i < 100; i++ )
+        {
+            cache.put( "Page"+i, "text" );
+        }
+
+        CacheStatistics stats = cache.getStatistics();
+
+        assertEquals( "size", 10, stats.getSize() );
+        assertEquals( "evictions", 90, stats.getEvictions() + stats.getRejections() );
+    }
+
+    public void testWeight()
+    {
+        WikiCache cache = createCache( 0, 10000 );
+
+        for( int i = 0; i < 100; i++ )
+        {
+            cache.put( "Page"+i, makeString( 1000 ) );
+        }
+
+        CacheStatistics stats = cache.getStatistics();
+
+        assertTrue( "weight "+stats.getWeight(), stats.getWeight() <= 10000 );
+        assertTrue( "size "+stats.getSize(), stats.getSize() <= 5 );
+        assertTrue( "evictions", stats.getEvictions() > 0 );
+    }
+
+    public void testTooBig()
+    {
+        WikiCache cache = createCache( 0, 1000 );
+
+        cache.put( "Big", makeString( 10000 ) );
+
+        assertNull( cache.get( "Big" ) );
+        assertEquals( "rejections", 1, cache.getStatistics().getRejections() );
+    }
+
+    /**
+     *  A page which is used a lot must not be thrown out by
+     *  a bunch of pages which are used only once, even if
+     *  a plain LRU cache would have thrown it out.
+     */
+    public void testFrequentEntryStays()
+    {
+        WikiCache cache = createCache( 8, 0 );
+
+        cache.put( "Main", "text" );
+
+        for( int i = 0; i < 5; i++ )
+        {
+            cache.get( "Main" );
+        }
+
+        for( int i = 0; i < 100; i++ )
+        {
+            if( i % 10 == 0 )
+            {
+                assertNotNull( "Main was evicted at "+i, cache.get( "Main" ) );
+            }
+
+            cache.get( "Scan"+i );
+            cache.put( "Scan"+i, "text" );
+        }
+
+        assertTrue( "rejections", cache.getStatistics().getRejections() > 0 );
+    }
+
+    public void testStatistics()
+    {
+        WikiCache cache = createCache( 10, 0 );
+
+        cache.put( "Foo", "bar" );
+        cache.get( "Foo" );
+        cache.get( "Foo" );
+        cache.get( "Bar" );
+
+        CacheStatistics stats = cache.getStatistics();
+
+        assertEquals( "hits", 2, stats.getHits() );
+        assertEquals( "misses", 1, stats.getMisses() );
+        assertEquals( "size", 1, stats.getSize() );
+    }
+
+    public void testRemoveMatching()
+    {
+        WikiCache cache = createCache( 10, 0 );
+
+        cache.put( "Foo::1", "a" );
+        cache.put( "FooBar::1", "b" );
+        cache.put( "Bar::1", "c" );
+
+        cache.removeMatching( "Foo" );
+
+        assertNull( cache.get( "Foo::1" ) );
+        assertNull( cache.get( "FooBar::1" ) );
+        assertNotNull( cache.get( "Bar::1" ) );
+    }
+
+    public void testConcurrentAccess()
+        throws Exception
+    {
+        Properties props = new Properties();
+        final WikiCache cache = CacheFactory.createCache( props, "test", 100, 0 );
+        final Throwable[] failure = new Throwable[1];
+
+        Thread[] threads = new Thread[8];
+
+        for( int t = 0; t < threads.length; t++ )
+        {
+            final int id = t;
+
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for( int i = 0; i < 5000; i++ )
+                        {
+                            String key = "Page"+((i*7+id) % 300);
+                            CacheEntry e = cache.get( key );
+
+                            if( e == null ) cache.put( key, key );
+                            else assertEquals( key, e.getValue() );
+                        }
+                    }
+                    catch( Throwable ex )
+                    {
+                        failure[0] = ex;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for( int t = 0; t < threads.length; t++ ) threads[t].join();
+
+        if( failure[0] != null ) fail( failure[0].toString() );
+
+        assertTrue( "size", cache.getStatistics().getSize() <= 100 );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ConcurrentWikiCacheTest.class );
+    }
+}
@@ -0,0 +1,73 @@
+package com.ecyrd.jspwiki.cache;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class DependencyIndexTest extends TestCase
+{
+    public DependencyIndexTest( String s )
+    {
+        super( s );
+    }
+
+    public void testInvalidate()
+    {
+        DependencyIndex index = new DependencyIndex();
+
+        index.register( "Foo::1", Arrays.asList( new String[] { "Foo", "Bar" } ) );
+        index.register( "Foo::2", Arrays.asList( new String[] { "Foo" } ) );
+        index.register( "FooBar::1", Arrays.asList( new String[] { "FooBar", "Bar" } ) );
+
+        Collection keys = index.invalidate( "Foo" );
+
+        assertEquals( "size", 2, keys.size() );
+        assertTrue( keys.contains( "Foo::1" ) );
+        assertTrue( keys.contains( "Foo::2" ) );
+        assertEquals( "left", 1, index.size() );
+
+        keys = index.invalidate( "Bar" );
+
+        assertEquals( "bar size", 1, keys.size() );
+        assertTrue( keys.contains( "FooBar::1" ) );
+        assertEquals( "empty", 0, index.size() );
+    }
+
+    public void testInvalidateUnknown()
+    {
+        DependencyIndex index = new DependencyIndex();
+
+        assertEquals( 0, index.invalidate( "Foo" ).size() );
+    }
+
+    public void testRegisterReplaces()
+    {
+        DependencyIndex index = new DependencyIndex();
+
+        index.register( "Foo::1", Arrays.asList( new String[] { "Foo", "Bar" } ) );
+        index.register( "Foo::1", Arrays.asList( new String[] { "Foo", "Gobble" } ) );
+
+        assertEquals( "bar", 0, index.invalidate( "Bar" ).size() );
+        assertEquals( "gobble", 1, index.invalidate( "Gobble" ).size() );
+        assertNull( "gone", index.getDependencies( "Foo::1" ) );
+    }
+
+    public void testRemove()
+    {
+        DependencyIndex index = new DependencyIndex();
+
+        index.register( "Foo::1", Arrays.asList( new String[] { "Foo", "Bar" } ) );
+        index.remove( "Foo::1" );
+
+        assertEquals( 0, index.size() );
+        assertEquals( 0, index.invalidate( "Bar" ).size() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( DependencyIndexTest.class );
+    }
+}
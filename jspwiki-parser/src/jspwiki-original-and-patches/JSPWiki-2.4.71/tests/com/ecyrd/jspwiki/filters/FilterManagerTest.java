@@ -2,6 +2,11 @@
 package com.ecyrd.jspwiki.filters;
 
 import junit.framework.*;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.*;
 
 import org.apache.log4j.*;
@@ -68,6 +73,79 @@ public class FilterManagerTest extends TestCase
         assertEquals("no blatblaa", "5", p.getProperty( "blatblaa" ) );
     }
 
+    /**
+     *  Appends "[s]" to the whole page.
+     */
+    private static class StringFilter extends BasicPageFilter
+    {
+        public String postTranslate( WikiContext context, String html )
+        {
+            return html+"[s]";
+        }
+    }
+
+    /**
+     *  Turns everything to upper case as it streams past.
+     */
+    private static class UpperCaseFilter extends BasicPageFilter implements StreamingPageFilter
+    {
+        public Writer postTranslate( WikiContext context, Writer out )
+        {
+            return new FilterWriter( out )
+            {
+                public void write( char[] cbuf, int off, int len ) throws IOException
+                {
+                    out.write( new String( cbuf, off, len ).toUpperCase() );
+                }
+                
+                public void write( String str, int off, int len ) throws IOException
+                {
+                    out.write( str.substring( off, off+len ).toUpperCase() );
+                }
+                
+                public void write( int c ) throws IOException
+                {
+                    out.write( Character.toUpperCase( (char)c ) );
+                }
+            };
+        }
+    }
+
+    private String postTranslate( FilterManager m, String html )
+        throws Exception
+    {
+        WikiContext context = new WikiContext( engine, new WikiPage( engine, "FilterTest" ) );
+        StringWriter out = new StringWriter();
+        
+        Writer w = m.doPostTranslateFiltering( context, out );
+        w.write( html );
+        w.close();
+        
+        return out.toString();
+    }
+
+    public void testStreamingPostTranslate()
+        throws Exception
+    {
+        FilterManager m = new FilterManager( engine, props );
+
+        m.addPageFilter( new StringFilter(), 10 );
+        m.addPageFilter( new UpperCaseFilter(), 5 );
+
+        assertEquals( "ABC[S]", postTranslate( m, "abc" ) );
+    }
+
+    public void testStreamingPostTranslateOrder()
+        throws Exception
+    {
+        FilterManager m = new FilterManager( engine, props );
+
+        m.addPageFilter( new UpperCaseFilter(), 10 );
+        m.addPageFilter( new StringFilter(), 5 );
+
+        assertEquals( "ABC[s]", postTranslate( m, "abc" ) );
+    }
+
     public static Test suite()
     {
         return new TestSuite( FilterManagerTest.class );
@@ -19,7 +19,10 @@ public class AllTests extends TestCase
     {
         TestSuite suite = new TestSuite("Parser tests");
 
+        suite.addTest( CompactDocumentTest.suite() );
         suite.addTest( JSPWikiMarkupParserTest.suite() );
+        suite.addTest( ParserInputTest.suite() );
+        suite.addTest( WikiWordScannerTest.suite() );
 
         return suite;
     }
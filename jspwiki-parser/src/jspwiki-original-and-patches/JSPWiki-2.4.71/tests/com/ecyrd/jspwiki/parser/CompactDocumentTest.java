@@ -0,0 +1,280 @@
+package com.ecyrd.jspwiki.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.lang.time.StopWatch;
+
+import com.ecyrd.jspwiki.FileUtil;
+import com.ecyrd.jspwiki.TestEngine;
+import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.WikiPage;
+import com.ecyrd.jspwiki.render.CleanTextRenderer;
+import com.ecyrd.jspwiki.render.RenderingManager;
+import com.ecyrd.jspwiki.render.XHTMLRenderer;
+
+public class CompactDocumentTest extends TestCase
+{
+    static final String PAGE_NAME = "TestPage";
+
+    static final String[] SNIPPETS = 
+    {
+        "",
+        "Just text.",
+        "__bold__ and ''italic'' and {{mono}} text & <stuff> \"quoted\"",
+        "!!!Heading\n!!Subheading\nText\n----\n!Third",
+        "* one\n* two\n** three\n# four\n## five",
+        "|| head || head2\n| cell | [Foobar] \n| [Nonexistent] | [link|http://www.example.com/?a=1&b=2]",
+        "[Foobar#Section] [Foobar] [foobar] FooBar [Foobar.jpg] [http://www.example.com/image.png]",
+        "{{{\npreformatted <b>\n\ttext\n}}}",
+        "%%small\nstyled %%  %%(color:red) red%%",
+        "Line\\\\break ~[escaped] [[notalink]",
+        "[{$pagename}] and [{$nosuchvariable}]",
+        "[{Counter}] [{Counter}] [{INSERT Counter WHERE show=yes}]",
+        "!!Heading one\n[{TableOfContents}]\n!Heading two\ntext",
+        "[{NoSuchPlugin}]",
+        "äö € [Åäö]",
+        "Term;:definition\n;Another:one",
+        "<script>alert('x')</script>"
+    };
+
+    TestEngine m_engine;
+
+    public CompactDocumentTest( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        m_engine = new TestEngine( props );
+        m_engine.saveText( "Foobar", "This is foobar." );
+        m_engine.saveText( PAGE_NAME, "Test." );
+    }
+
+    public void tearDown()
+    {
+        TestEngine.deleteTestPage( "Foobar" );
+        TestEngine.deleteTestPage( PAGE_NAME );
+    }
+
+    private WikiContext newContext()
+    {
+        return new WikiContext( m_engine, m_engine.getPage( PAGE_NAME ) );
+    }
+
+    private WikiDocument parse( WikiContext context, String src )
+        throws IOException
+    {
+        JSPWikiMarkupParser p = new JSPWikiMarkupParser( context, new StringReader( src ) );
+
+        WikiDocument doc = p.parse();
+        doc.setPageData( src );
+
+        return doc;
+    }
+
+    private String xhtml( WikiContext context, WikiDocument doc )
+        throws IOException
+    {
+        return new XHTMLRenderer( context, doc ).getString();
+    }
+
+    private String text( WikiContext context, WikiDocument doc )
+        throws IOException
+    {
+        return new CleanTextRenderer( context, doc ).getString();
+    }
+
+    private String readTestPage( String name )
+        throws IOException
+    {
+        InputStream  is  = getClass().getResourceAsStream( name );
+        Reader       in  = new InputStreamReader( is, "ISO-8859-1" );
+        StringWriter out = new StringWriter();
+
+        FileUtil.copyContents( in, out );
+        in.close();
+
+        return out.toString();
+    }
+
+    private String[] getSources()
+        throws IOException
+    {
+        String[] sources = new String[SNIPPETS.length + 2];
+
+        System.arraycopy( SNIPPETS, 0, sources, 0, SNIPPETS.length );
+        sources[SNIPPETS.length]   = readTestPage( "/TextFormattingRules.txt" );
+        sources[SNIPPETS.length+1] = readTestPage( "/TestPlugins.txt" );
+
+        return sources;
+    }
+
+    public void testXHTML()
+        throws Exception
+    {
+        String[] sources = getSources();
+
+        for( int i = 0; i < sources.length; i++ )
+        {
+            WikiContext  context = newContext();
+            WikiDocument doc     = parse( context, sources[i] );
+            WikiDocument compact = CompactDocument.compact( doc );
+
+            assertNotNull( "not compacted: "+sources[i], compact.getCompactDocument() );
+            assertEquals( sources[i], xhtml( newContext(), doc ), xhtml( newContext(), compact ) );
+        }
+    }
+
+    public void testCleanText()
+        throws Exception
+    {
+        String[] sources = getSources();
+
+        for( int i = 0; i < sources.length; i++ )
+        {
+            WikiContext  context = newContext();
+            WikiDocument doc     = parse( context, sources[i] );
+            WikiDocument compact = CompactDocument.compact( doc );
+
+            assertEquals( sources[i], text( newContext(), doc ), text( newContext(), compact ) );
+        }
+    }
+
+    public void testInflate()
+        throws Exception
+    {
+        String[] sources = getSources();
+
+        for( int i = 0; i < sources.length; i++ )
+        {
+            WikiContext  context = newContext();
+            WikiDocument doc     = parse( context, sources[i] );
+            WikiDocument compact = CompactDocument.compact( doc );
+
+            assertTrue( "root", compact.hasRootElement() );
+            assertNull( "still compact", compact.getCompactDocument() );
+            assertEquals( sources[i], xhtml( newContext(), doc ), xhtml( newContext(), compact ) );
+        }
+    }
+
+    public void testKeepsMetadata()
+        throws Exception
+    {
+        WikiContext  context = newContext();
+        WikiDocument doc     = parse( context, "!!One\ntext\n!Two" );
+        WikiDocument compact = CompactDocument.compact( doc );
+
+        assertSame( "page", doc.getPage(), compact.getPage() );
+        assertEquals( "data", doc.getPageData(), compact.getPageData() );
+        assertEquals( "headings", doc.getHeadings(), compact.getHeadings() );
+        assertSame( "compact twice", compact, CompactDocument.compact( compact ) );
+    }
+
+    public void testRenderingCache()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+        props.setProperty( RenderingManager.PROP_COMPACTDOCUMENTS, "true" );
+
+        m_engine.saveText( PAGE_NAME, readTestPage( "/TextFormattingRules.txt" ) );
+
+        String expected = m_engine.getHTML( PAGE_NAME );
+
+        TestEngine engine = new TestEngine( props );
+
+        assertEquals( "first", expected, engine.getHTML( PAGE_NAME ) );
+        assertEquals( "cached", expected, engine.getHTML( PAGE_NAME ) );
+    }
+
+    /**
+     *  Prints out the memory used by the cached documents, and how fast they
+     *  are written out, with and without compacting.
+     */
+    public void testSizeAndSpeed()
+        throws Exception
+    {
+        final int copies = 200;
+        final int renders = 200;
+
+        String src = readTestPage( "/TextFormattingRules.txt" );
+
+        WikiDocument[] docs = new WikiDocument[copies];
+        long before = usedMemory();
+
+        for( int i = 0; i < copies; i++ )
+        {
+            docs[i] = parse( newContext(), src );
+        }
+
+        long jdomSize = (usedMemory() - before) / copies;
+
+        WikiDocument[] compacts = new WikiDocument[copies];
+        before = usedMemory();
+
+        for( int i = 0; i < copies; i++ )
+        {
+            compacts[i] = CompactDocument.compact( docs[i] );
+        }
+
+        long compactSize = (usedMemory() - before) / copies;
+
+        System.out.println("Compact document test:");
+        System.out.println("  Heap per page: JDOM "+jdomSize+" bytes, compact "+compactSize+
+                           " bytes (estimated "+compacts[0].getCompactDocument().getSize()+" bytes)");
+
+        WikiContext context = newContext();
+        StopWatch sw = new StopWatch();
+
+        sw.start();
+        for( int i = 0; i < renders; i++ )
+        {
+            xhtml( context, docs[0] );
+        }
+        sw.stop();
+        System.out.println("  Rendering JDOM took "+sw);
+
+        sw.reset();
+        sw.start();
+        for( int i = 0; i < renders; i++ )
+        {
+            xhtml( context, compacts[0] );
+        }
+        sw.stop();
+        System.out.println("  Rendering compact took "+sw);
+
+        assertTrue( "compact is bigger", compactSize < jdomSize );
+    }
+
+    private static long usedMemory()
+    {
+        Runtime rt = Runtime.getRuntime();
+
+        for( int i = 0; i < 3; i++ )
+        {
+            System.gc();
+        }
+
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CompactDocumentTest.class );
+    }
+}
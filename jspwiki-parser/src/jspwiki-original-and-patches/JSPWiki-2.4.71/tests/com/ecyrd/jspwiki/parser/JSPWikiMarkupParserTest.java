@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 import java.util.Vector;
 
@@ -14,6 +15,8 @@ import javax.servlet.ServletException;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+
+import org.jdom.Element;
 import stress.Benchmark;
 
 import com.ecyrd.jspwiki.*;
@@ -1733,6 +1736,25 @@ public class JSPWikiMarkupParserTest extends TestCase
                       translate(src) );
     }
     
+    /**
+     *  Headings used to be limited by the size of the pushback buffer.
+     */
+    public void testHeadingLongLine()
+    throws Exception
+    {
+        StringBuffer title = new StringBuffer();
+        
+        for( int i = 0; i < 2000; i++ )
+        {
+            title.append( "Hello " );
+        }
+        
+        String out = translate( "!"+title+"\nThis is a test" );
+        
+        assertTrue( "title cut", out.indexOf( ">"+title+"</h4>" ) != -1 );
+        assertTrue( "text lost", out.endsWith( "</h4>\nThis is a test" ) );
+    }
+    
     public void testHeadingHyperlinks()
     throws Exception
     {
@@ -2078,6 +2100,75 @@ public class JSPWikiMarkupParserTest extends TestCase
         }
     }
 
+    public void testParserReset()
+    throws Exception
+    {
+        LinkCollector coll = new LinkCollector();
+        WikiContext context = new WikiContext( testEngine,
+                                               new WikiPage(testEngine,PAGE_NAME) );
+        
+        String src1 = "''italic __bold [Link1]\n* list\n|| table";
+        String src2 = "Just [Link2] and {{{pre}}}";
+        
+        JSPWikiMarkupParser p = new JSPWikiMarkupParser( context, new StringReader(src1) );
+        p.addLocalLinkHook( coll );
+        p.parse();
+
+        p.reset( context, new StringReader(src2) );
+        String reused = new XHTMLRenderer( context, p.parse() ).getString();
+        
+        String fresh  = translate( src2 );
+        
+        assertEquals( "same as a new parser", fresh, reused );
+        assertEquals( "hooks removed", 1, coll.getLinks().size() );
+    }
+
+    public void testHeadingsRecorded()
+    throws Exception
+    {
+        String src = "Intro\n!!!Large [Link]\nText\n!Small\n";
+        WikiContext context = new WikiContext( testEngine,
+                                               new WikiPage(testEngine,PAGE_NAME) );
+        
+        WikiDocument doc = new JSPWikiMarkupParser( context, new StringReader(src) ).parse();
+        
+        List headings = doc.getHeadings();
+        
+        assertEquals( "headings", 2, headings.size() );
+        
+        Heading hd = (Heading) headings.get(0);
+        assertEquals( "level 1", Heading.HEADING_LARGE, hd.m_level );
+        assertEquals( "title 1", "Large Link", hd.m_titleText );
+        assertEquals( "anchor 1", "section-"+PAGE_NAME+"-LargeLink", hd.m_titleAnchor );
+        assertEquals( "offset 1", src.indexOf("!!!"), hd.m_offset );
+        
+        hd = (Heading) headings.get(1);
+        assertEquals( "level 2", Heading.HEADING_SMALL, hd.m_level );
+        assertEquals( "title 2", "Small", hd.m_titleText );
+        assertEquals( "offset 2", src.indexOf("!Small"), hd.m_offset );
+    }
+
+    public void testParserConfigShared()
+    throws Exception
+    {
+        ParserConfig config = testEngine.getRenderingManager().getParserConfig();
+        
+        assertSame( "built again", config, testEngine.getRenderingManager().getParserConfig() );
+        assertFalse( "allowHTML", config.isAllowHTML() );
+        
+        testEngine.getWikiProperties().setProperty( MarkupParser.PROP_ALLOWHTML, "true" );
+        
+        assertSame( "rebuilt without being told", config, testEngine.getRenderingManager().getParserConfig() );
+        
+        testEngine.getRenderingManager().reloadParserConfig();
+        
+        ParserConfig changed = testEngine.getRenderingManager().getParserConfig();
+        
+        assertNotSame( "not rebuilt", config, changed );
+        assertTrue( "allowHTML not changed", changed.isAllowHTML() );
+        assertEquals( "<p>", translate( "<p>" ) );
+    }
+
     public void testDivStyle1()
     throws Exception
     {
@@ -2359,6 +2450,78 @@ public class JSPWikiMarkupParserTest extends TestCase
         "----\n" +
         "author: [Asser], [Ebu], [JanneJalkanen], [Jarmo|mailto:jarmo@regex.com.au]\n";
     
+    /**
+     *  Returns how deeply the elements below the given one are nested.
+     */
+    private int depth( Element e )
+    {
+        int max = 0;
+        
+        for( Iterator i = e.getChildren().iterator(); i.hasNext(); )
+        {
+            max = Math.max( max, 1 + depth( (Element) i.next() ) );
+        }
+        
+        return max;
+    }
+    
+    private int parsedDepth( String src )
+        throws IOException
+    {
+        WikiContext context = new WikiContext( testEngine, new WikiPage(testEngine, PAGE_NAME) );
+        JSPWikiMarkupParser p = new JSPWikiMarkupParser( context, new StringReader(src) );
+        
+        return depth( p.parse().getRootElement() );
+    }
+    
+    private static String repeat( String s, int n )
+    {
+        StringBuffer sb = new StringBuffer();
+        
+        for( int i = 0; i < n; i++ )
+        {
+            sb.append( s );
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     *  Pathological nesting must not make the tree deeper than the parser
+     *  allows, since the parser and the output are slower the deeper it is.
+     */
+    public void testDeepStylesBounded()
+        throws Exception
+    {
+        int d = parsedDepth( repeat( "%%(color:red) text ", 1000 ) );
+        
+        assertTrue( "too deep: "+d, d <= 102 );
+    }
+    
+    public void testDeepMonospaceBounded()
+        throws Exception
+    {
+        int d = parsedDepth( repeat( "{{text ", 1000 ) );
+        
+        assertTrue( "too deep: "+d, d <= 102 );
+    }
+    
+    public void testDeepListBounded()
+        throws Exception
+    {
+        int d = parsedDepth( repeat( "*#", 500 )+" item\n" );
+        
+        assertTrue( "too deep: "+d, d <= 2*32+1 );
+    }
+    
+    public void testUnclosedBoldBounded()
+        throws Exception
+    {
+        int d = parsedDepth( repeat( "__a ''b ", 1000 ) );
+        
+        assertTrue( "too deep: "+d, d <= 3 );
+    }
+    
     public static Test suite()
     {
         return new TestSuite( JSPWikiMarkupParserTest.class );
@@ -0,0 +1,85 @@
+package com.ecyrd.jspwiki.parser;
+
+import java.io.StringReader;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ParserInputTest extends TestCase
+{
+    public ParserInputTest( String s )
+    {
+        super( s );
+    }
+
+    public void testReadAndUnread()
+    {
+        ParserInput in = new ParserInput( "abc" );
+        
+        assertEquals( 'a', in.read() );
+        assertEquals( 'b', in.read() );
+        
+        in.unread( 'b' );
+        in.unread( 'a' );
+        
+        assertEquals( 'a', in.read() );
+        assertEquals( 'b', in.read() );
+        assertEquals( 'c', in.read() );
+        assertEquals( -1, in.read() );
+        assertEquals( -1, in.read() );
+    }
+
+    /**
+     *  Characters which were not read from there must come back in
+     *  the order they were pushed, like with a PushbackReader.
+     */
+    public void testUnreadOtherCharacters()
+    {
+        ParserInput in = new ParserInput( "abc" );
+        
+        assertEquals( 'a', in.read() );
+        
+        in.unread( 'x' );
+        in.unread( 'a' );
+        in.unread( 'y' );
+        
+        assertEquals( 'y', in.peek(0) );
+        assertEquals( 'a', in.peek(1) );
+        assertEquals( 'x', in.peek(2) );
+        assertEquals( 'b', in.peek(3) );
+        assertEquals( -1,  in.peek(5) );
+
+        assertEquals( 'y', in.read() );
+        assertEquals( 'a', in.read() );
+        assertEquals( 'x', in.read() );
+        assertEquals( 'b', in.read() );
+        assertEquals( 'c', in.read() );
+        assertEquals( -1, in.read() );
+    }
+
+    public void testReadFromReader()
+        throws Exception
+    {
+        StringBuffer sb = new StringBuffer();
+        
+        for( int i = 0; i < 5000; i++ )
+        {
+            sb.append( (char)('a' + i % 26) );
+        }
+        
+        ParserInput in = ParserInput.read( new StringReader(sb.toString()) );
+        
+        for( int i = 0; i < sb.length(); i++ )
+        {
+            assertEquals( "char "+i, sb.charAt(i), in.read() );
+        }
+        
+        assertEquals( -1, in.read() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ParserInputTest.class );
+    }
+}
@@ -0,0 +1,214 @@
+package com.ecyrd.jspwiki.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.lang.time.StopWatch;
+import org.apache.oro.text.regex.MatchResult;
+import org.apache.oro.text.regex.Pattern;
+import org.apache.oro.text.regex.PatternMatcher;
+import org.apache.oro.text.regex.Perl5Compiler;
+import org.apache.oro.text.regex.Perl5Matcher;
+
+public class WikiWordScannerTest extends TestCase
+{
+    /** Characters which are likely to make a difference. */
+    private static final String ALPHABET = "aAbBzZhtpsmailo:/.,~[]_-&;#@?=+ \n\t19\u00e9\u00c9\u00df\u2160\u24b6\u00aa";
+
+    private static final String PROSE = 
+        "The WikiEngine renders pages which are written in WikiMarkup.  Each page "+
+        "may link to OtherPages by writing their names in CamelCase, or to the "+
+        "outside world with plain URIs like http://www.jspwiki.org/Wiki.jsp?page=Main "+
+        "or mailto:someone@example.com.  Most of the text, however, is ordinary "+
+        "prose, where nothing at all is to be found, and this is what the parser "+
+        "has to go through as quickly as it can, sentence after sentence.\n";
+
+    private Pattern m_pattern;
+
+    public WikiWordScannerTest( String s )
+    {
+        super( s );
+    }
+
+    protected void setUp() throws Exception
+    {
+        m_pattern = new Perl5Compiler().compile( JSPWikiMarkupParser.WIKIWORD_REGEX );
+    }
+
+    /**
+     *  Lists the matches the way the parser used to find them with the regexp:
+     *  after each match, the rest of the text is searched again.
+     */
+    private List regexpMatches( String text )
+    {
+        List           result  = new ArrayList();
+        PatternMatcher matcher = new Perl5Matcher();
+        int            offset  = 0;
+        
+        while( matcher.contains( text, m_pattern ) )
+        {
+            MatchResult m = matcher.getMatch();
+            String prefix = m.group(1) == null ? "" : m.group(1);
+            String word   = m.group(2);
+            
+            result.add( (offset+m.beginOffset(0))+":"+prefix+":"+word+":"+
+                        (m.group(3) != null ? "uri" : "camel") );
+            
+            offset += m.endOffset(0);
+            text    = text.substring( m.endOffset(0) );
+        }
+        
+        return result;
+    }
+
+    private List scannerMatches( String text )
+    {
+        List            result  = new ArrayList();
+        WikiWordScanner scanner = new WikiWordScanner();
+        int             pos     = 0;
+        
+        while( scanner.find( text, pos ) )
+        {
+            String prefix = text.substring( scanner.getStart(), scanner.getWordStart() );
+            String word   = text.substring( scanner.getWordStart(), scanner.getEnd() );
+            boolean uri   = scanner.getType() == WikiWordScanner.URI;
+            
+            if( uri )
+            {
+                assertTrue( "protocol", text.substring(scanner.getWordStart(), 
+                                                       scanner.getProtocolEnd()).endsWith(":") ||
+                                        text.substring(scanner.getWordStart(), 
+                                                       scanner.getProtocolEnd()).endsWith("//") );
+            }
+            
+            result.add( scanner.getStart()+":"+prefix+":"+word+":"+(uri ? "uri" : "camel") );
+            
+            pos = scanner.getEnd();
+        }
+        
+        return result;
+    }
+
+    private void assertSameMatches( String text )
+    {
+        assertEquals( text, regexpMatches(text), scannerMatches(text) );
+    }
+
+    public void testCamelCase()
+    {
+        assertEquals( 1, scannerMatches("CamelCase").size() );
+        assertEquals( 0, scannerMatches("notCamelCase").size() );
+        assertEquals( 0, scannerMatches("Camelcase").size() );
+        assertEquals( 0, scannerMatches("CAMELCASE").size() );
+        assertEquals( 2, scannerMatches("ABCdeF.GhI2k").size() );
+
+        assertSameMatches( "CamelCase" );
+        assertSameMatches( "This is CamelCase, and SoIsThis2." );
+        assertSameMatches( "~NotALink but [AnotherOne and ~~TwoTildes" );
+        assertSameMatches( "Mixed\u00c9\u00e9\u00c9 and \u00c9t\u00e9\u00c9t\u00e9" );
+    }
+
+    public void testURIs()
+    {
+        assertSameMatches( "http://www.jspwiki.org/ is a link" );
+        assertSameMatches( "See https://example.com/a?b=c&amp;d=e#f." );
+        assertSameMatches( "mailto:foo@bar.com, http:// and mailto: alone" );
+        assertSameMatches( "httpx://no.link or xhttp://no.link" );
+        assertSameMatches( "~http://escaped.com [http://bracketed.com" );
+    }
+
+    /**
+     *  Characters which are uppercase but not letters can only start a word
+     *  if the regexp backtracks into the prefix.
+     */
+    public void testBacktracking()
+    {
+        assertSameMatches( "\u2160abCd" );
+        assertSameMatches( " \u2160abCd" );
+        assertSameMatches( " \u24b6\u24b6abCd" );
+        assertSameMatches( "x \u2160ab\u2160" );
+    }
+
+    public void testRandomText()
+    {
+        Random random = new Random( 42 );
+        
+        for( int i = 0; i < 20000; i++ )
+        {
+            StringBuffer sb = new StringBuffer();
+            int len = random.nextInt( 30 );
+            
+            for( int j = 0; j < len; j++ )
+            {
+                if( random.nextInt(10) == 0 )
+                {
+                    String[] words = { "http://", "https://", "mailto:", "CamelCase", "AbC" };
+                    sb.append( words[random.nextInt(words.length)] );
+                }
+                else
+                {
+                    sb.append( ALPHABET.charAt( random.nextInt( ALPHABET.length() ) ) );
+                }
+            }
+            
+            assertSameMatches( sb.toString() );
+        }
+    }
+
+    /**
+     *  Compares the speed of the scanner with the regexp on prose.
+     */
+    public void testSpeed()
+    {
+        StringBuffer sb = new StringBuffer();
+        
+        for( int i = 0; i < 20; i++ )
+        {
+            sb.append( PROSE );
+        }
+        
+        String text = sb.toString();
+        
+        assertSameMatches( text );
+        
+        StopWatch sw = new StopWatch();
+        
+        System.out.println("CamelCase scanning speed test:");
+        sw.start();
+        
+        for( int i = 0; i < 200; i++ )
+        {
+            assertEquals( 120, regexpMatches( text ).size() );
+        }
+        
+        sw.stop();
+        System.out.println("  Regexp took "+sw);
+        
+        long regexptime = sw.getTime();
+        
+        sw.reset();
+        sw.start();
+        
+        for( int i = 0; i < 200; i++ )
+        {
+            assertEquals( 120, scannerMatches( text ).size() );
+        }
+        
+        sw.stop();
+        System.out.println("  Scanner took "+sw);
+        
+        long scannertime = sw.getTime();
+        
+        System.out.println("  Approx speedup: "+(regexptime/Math.max(scannertime,1))+"x");
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( WikiWordScannerTest.class );
+    }
+}
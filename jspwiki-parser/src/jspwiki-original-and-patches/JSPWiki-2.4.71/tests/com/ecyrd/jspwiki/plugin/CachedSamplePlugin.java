@@ -0,0 +1,38 @@
+package com.ecyrd.jspwiki.plugin;
+
+import com.ecyrd.jspwiki.*;
+import com.ecyrd.jspwiki.cache.CacheEntry;
+import java.util.*;
+
+/**
+ *  A cacheable plugin which returns its text and the number of times
+ *  it has been executed.
+ *  <P>
+ *  Parameters: text - text to return.
+ */
+public class CachedSamplePlugin
+    implements WikiPlugin, CacheablePlugin
+{
+    static int     c_executions = 0;
+    static boolean c_fail       = false;
+    
+    public int getCacheTime( WikiContext context, Map params )
+    {
+        return CacheEntry.INDEFINITE_EXPIRY;
+    }
+
+    public int getCacheDependencies( WikiContext context, Map params )
+    {
+        return DEPENDS_ON_PAGESET;
+    }
+
+    public String execute( WikiContext context, Map params )
+        throws PluginException
+    {
+        if( c_fail ) throw new IllegalStateException( "Failing on purpose" );
+        
+        c_executions++;
+        
+        return params.get("text")+":"+c_executions;
+    }
+}
@@ -0,0 +1,31 @@
+package com.ecyrd.jspwiki.plugin;
+
+import com.ecyrd.jspwiki.*;
+import java.util.*;
+
+/**
+ *  A plugin which takes its time, and then runs a SlowPlugin which
+ *  would take even longer, the way InsertPage runs the plugins of
+ *  the page it inserts.
+ *  <P>
+ *  Parameters: delay - how long to sleep before running the SlowPlugin,
+ *  in milliseconds.
+ */
+public class NestingPlugin
+    implements WikiPlugin
+{
+    public String execute( WikiContext context, Map params )
+        throws PluginException
+    {
+        try
+        {
+            Thread.sleep( TextUtil.parseIntParameter( (String)params.get("delay"), 0 ) );
+        }
+        catch( InterruptedException e )
+        {
+            throw new PluginException( "Interrupted" );
+        }
+        
+        return context.getEngine().getPluginManager().execute( context, "{SlowPlugin delay=5000 crash=true text=inner}" );
+    }
+}
@@ -33,7 +33,9 @@ public class PluginManagerTest extends TestCase
     }
 
     public void tearDown()
+        throws Exception
     {
+        ((TestEngine)engine).deletePage( NAME1 );
     }
 
     public void testSimpleInsert()
@@ -173,6 +175,266 @@ public class PluginManagerTest extends TestCase
         assertEquals( "xyzzy", res );
     }
 
+    public void testCachedOutput()
+        throws Exception
+    {
+        String res = manager.execute( context, "{CachedSamplePlugin text=foo}" );
+        
+        assertEquals( "same", res, manager.execute( context, "{CachedSamplePlugin text=foo}" ) );
+        assertFalse( "other params", res.equals( manager.execute( context, "{CachedSamplePlugin text=bar}" ) ) );
+    }
+
+    public void testCachedOutputFlushedOnSave()
+        throws Exception
+    {
+        String res = manager.execute( context, "{CachedSamplePlugin text=foo}" );
+
+        ((TestEngine)engine).saveText( NAME1, "Some text" );
+        
+        assertFalse( "after save", res.equals( manager.execute( context, "{CachedSamplePlugin text=foo}" ) ) );
+    }
+
+    public void testCachedOutputFlushedOnRename()
+        throws Exception
+    {
+        ((TestEngine)engine).saveText( NAME1, "Some text" );
+
+        String res = manager.execute( context, "{CachedSamplePlugin text=foo}" );
+
+        try
+        {
+            engine.renamePage( context, NAME1, "Test2", false );
+        
+            assertFalse( "after rename", res.equals( manager.execute( context, "{CachedSamplePlugin text=foo}" ) ) );
+        }
+        finally
+        {
+            ((TestEngine)engine).deletePage( "Test2" );
+        }
+    }
+
+    public void testCacheDisabled()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_CACHESIZE, "0" );
+        manager = new PluginManager( engine, props );
+        
+        String res = manager.execute( context, "{CachedSamplePlugin text=foo}" );
+        
+        assertFalse( res.equals( manager.execute( context, "{CachedSamplePlugin text=foo}" ) ) );
+    }
+
+    public void testTimeBudget()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_TIMEBUDGET, "200" );
+        manager = new PluginManager( engine, props );
+        
+        long start = System.currentTimeMillis();
+        try
+        {
+            manager.execute( context, "{SlowPlugin delay=5000 text=foo}" );
+            fail( "Not interrupted" );
+        }
+        catch( PluginException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().indexOf( "did not finish" ) != -1 );
+        }
+        
+        assertTrue( "took too long", System.currentTimeMillis() - start < 2000 );
+        assertFalse( "interrupt cleared", Thread.currentThread().isInterrupted() );
+        assertEquals( "bar", manager.execute( context, "{SlowPlugin text=bar}" ) );
+    }
+
+    /**
+     *  When an outer plugin runs out of time while an inner one runs, the
+     *  outer one is to blame.
+     */
+    public void testNestedTimeBudget()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_TIMEBUDGET, "300" );
+        props.setProperty( PluginManager.PROP_BREAKERTHRESHOLD, "1" );
+        engine  = new TestEngine( props );
+        context = new WikiContext( engine, new WikiPage(engine, "testpage") );
+        manager = engine.getPluginManager();
+        
+        try
+        {
+            manager.execute( context, "{NestingPlugin delay=150}" );
+            fail( "Not interrupted" );
+        }
+        catch( PluginException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().indexOf( "NestingPlugin did not finish" ) != -1 );
+        }
+        
+        assertFalse( "interrupt cleared", Thread.currentThread().isInterrupted() );
+        assertEquals( "inner not blamed", "bar", manager.execute( context, "{SlowPlugin text=bar}" ) );
+        
+        String res = manager.execute( context, "{NestingPlugin}" );
+        assertTrue( "outer blamed: "+res, res.indexOf( "not available" ) != -1 );
+    }
+
+    public void testCircuitBreaker()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_TIMEBUDGET, "100" );
+        props.setProperty( PluginManager.PROP_BREAKERTHRESHOLD, "2" );
+        manager = new PluginManager( engine, props );
+        
+        for( int i = 0; i < 2; i++ )
+        {
+            try
+            {
+                manager.execute( context, "{SlowPlugin delay=5000 text=foo}" );
+                fail( "Not interrupted" );
+            }
+            catch( PluginException e ) {}
+        }
+        
+        String res = manager.execute( context, "{SlowPlugin text=foo}" );
+        assertTrue( res, res.indexOf( "not available" ) != -1 );
+        
+        PluginStatistics stats = (PluginStatistics) manager.getPluginStatistics().iterator().next();
+        
+        assertEquals( "name", SlowPlugin.class.getName(), stats.getName() );
+        assertEquals( "executions", 2, stats.getExecutions() );
+        assertEquals( "slow", 2, stats.getSlowExecutions() );
+        assertEquals( "rejections", 1, stats.getRejections() );
+        long[] histogram = stats.getHistogram();
+        assertEquals( "buckets", PluginStatistics.BUCKET_LIMITS.length+1, histogram.length );
+        assertEquals( "over 10ms", 2, histogram[2]+histogram[3]+histogram[4]+histogram[5] );
+        assertTrue( "open", stats.isCircuitOpen() );
+    }
+
+    /**
+     *  A trial run which is stopped by an enclosing plugin does not count,
+     *  but must not keep the breaker from trying again either.
+     */
+    public void testTrialStoppedByOuterPlugin()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_TIMEBUDGET, "300" );
+        props.setProperty( PluginManager.PROP_BREAKERTHRESHOLD, "1" );
+        props.setProperty( PluginManager.PROP_BREAKEROPENTIME, "0" );
+        engine  = new TestEngine( props );
+        context = new WikiContext( engine, new WikiPage(engine, "testpage") );
+        manager = engine.getPluginManager();
+        
+        try
+        {
+            manager.execute( context, "{SlowPlugin delay=5000 text=foo}" );
+            fail( "Not interrupted" );
+        }
+        catch( PluginException e ) {}
+        
+        try
+        {
+            manager.execute( context, "{NestingPlugin delay=150}" );
+            fail( "Not interrupted" );
+        }
+        catch( PluginException e ) {}
+        
+        assertEquals( "trial still running", "bar", manager.execute( context, "{SlowPlugin text=bar}" ) );
+    }
+
+    public void testCircuitBreakerPerPage()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_TIMEBUDGET, "100" );
+        props.setProperty( PluginManager.PROP_BREAKERTHRESHOLD, "1" );
+        manager = new PluginManager( engine, props );
+        
+        try
+        {
+            manager.execute( context, "{SlowPlugin delay=5000 text=foo}" );
+            fail( "Not interrupted" );
+        }
+        catch( PluginException e ) {}
+        
+        String res = manager.execute( context, "{SlowPlugin text=foo}" );
+        assertTrue( res, res.indexOf( "not available" ) != -1 );
+        
+        WikiContext other = new WikiContext( engine, new WikiPage(engine, "OtherPage") );
+        
+        assertEquals( "other page", "bar", manager.execute( other, "{SlowPlugin text=bar}" ) );
+    }
+
+    public void testPluginExceptionsDoNotOpenBreaker()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_BREAKERTHRESHOLD, "1" );
+        manager = new PluginManager( engine, props );
+        
+        ((TestEngine)engine).saveText( NAME1, "Some text" );
+        
+        try
+        {
+            manager.execute( context, "{InsertPage section=12 page="+NAME1+"}" );
+            fail( "No such section" );
+        }
+        catch( PluginException e ) {}
+        
+        String res = manager.execute( context, "{InsertPage page="+NAME1+"}" );
+        assertTrue( res, res.indexOf( "Some text" ) != -1 );
+    }
+
+    public void testStaleOutput()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_BREAKERTHRESHOLD, "2" );
+        manager = new PluginManager( engine, props );
+        
+        String res = manager.execute( context, "{CachedSamplePlugin text=foo}" );
+        
+        CachedSamplePlugin.c_fail = true;
+        try
+        {
+            ((TestEngine)engine).saveText( NAME1, "Some text" );
+            
+            for( int i = 0; i < 2; i++ )
+            {
+                try
+                {
+                    manager.execute( context, "{CachedSamplePlugin text=foo}" );
+                    fail( "Did not fail" );
+                }
+                catch( PluginException e ) {}
+            }
+            
+            assertEquals( "stale", res, manager.execute( context, "{CachedSamplePlugin text=foo}" ) );
+        }
+        finally
+        {
+            CachedSamplePlugin.c_fail = false;
+        }
+    }
+
+    public void testPageTimeBudget()
+        throws Exception
+    {
+        props.setProperty( PluginManager.PROP_PAGETIMEBUDGET, "300" );
+        manager = new PluginManager( engine, props );
+        
+        assertTrue( "started", manager.startPageBudget( context ) );
+        assertFalse( "nested", manager.startPageBudget( context ) );
+        
+        try
+        {
+            manager.execute( context, "{SlowPlugin delay=5000 text=foo}" );
+            fail( "Not interrupted" );
+        }
+        catch( PluginException e ) {}
+        
+        String res = manager.execute( context, "{SamplePlugin text=bar}" );
+        assertTrue( res, res.indexOf( "not available" ) != -1 );
+        
+        manager.endPageBudget( context );
+        
+        assertEquals( "bar", manager.execute( context, "{SamplePlugin text=bar}" ) );
+    }
+
     public static Test suite()
     {
         return new TestSuite( PluginManagerTest.class );
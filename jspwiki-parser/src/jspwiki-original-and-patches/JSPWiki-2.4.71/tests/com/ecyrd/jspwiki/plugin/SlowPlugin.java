@@ -0,0 +1,38 @@
+package com.ecyrd.jspwiki.plugin;
+
+import com.ecyrd.jspwiki.*;
+import java.util.*;
+
+/**
+ *  A concurrent plugin which takes its time, and then returns its text.
+ *  <P>
+ *  Parameters: text - text to return, delay - how long to sleep, in milliseconds,
+ *  crash - if "true", an interrupt is not reported as a PluginException, the way
+ *  a plugin doing I/O would fail.
+ *  <P>
+ *  c_interrupted lists the texts of the executions which were interrupted.
+ */
+public class SlowPlugin
+    implements WikiPlugin, ConcurrentPlugin
+{
+    public static final List c_interrupted = Collections.synchronizedList( new ArrayList() );
+    
+    public String execute( WikiContext context, Map params )
+        throws PluginException
+    {
+        try
+        {
+            Thread.sleep( TextUtil.parseIntParameter( (String)params.get("delay"), 0 ) );
+        }
+        catch( InterruptedException e )
+        {
+            c_interrupted.add( params.get("text") );
+            
+            if( "true".equals( params.get("crash") ) ) throw new IllegalStateException( "Interrupted" );
+            
+            throw new PluginException( "Interrupted" );
+        }
+        
+        return (String)params.get("text");
+    }
+}
@@ -7,6 +7,7 @@ package com.ecyrd.jspwiki.plugin;
 import java.util.Properties;
 
 import com.ecyrd.jspwiki.TestEngine;
+import com.ecyrd.jspwiki.WikiContext;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -217,6 +218,23 @@ public class TableOfContentsTest extends TestCase
         
     }
     
+    /**
+     *  The headings come from the text being rendered, not from the
+     *  saved page.
+     */
+    public void testHeadingsFromDocument()
+        throws Exception
+    {
+        testEngine.saveText( "Test", "!!!Saved heading" );
+        
+        WikiContext context = new WikiContext( testEngine, testEngine.getPage("Test") );
+        
+        String res = testEngine.textToHTML( context, "[{TableOfContents}]\n\n!!!Previewed heading" );
+        
+        assertTrue( "previewed", res.indexOf("Previewed heading</a>") != -1 );
+        assertTrue( "saved", res.indexOf("Saved heading") == -1 );
+    }
+    
     public static Test suite()
     {
         return new TestSuite( TableOfContentsTest.class );
@@ -19,6 +19,8 @@ public class AllTests extends TestCase
         suite.addTest( VersioningFileProviderTest.suite() );
         suite.addTest( BasicAttachmentProviderTest.suite() );
         suite.addTest( CachingProviderTest.suite() );
+        suite.addTest( FileChangeWatcherTest.suite() );
+        suite.addTest( SearchPoolTest.suite() );
 
         return suite;
     }
@@ -9,6 +9,7 @@ import java.io.File;
 import java.io.StringReader;
 import java.util.*;
 
+import org.apache.commons.lang.time.StopWatch;
 import org.apache.log4j.*;
 
 import com.ecyrd.jspwiki.*;
@@ -95,7 +96,347 @@ public class CachingProviderTest extends TestCase
         
         // TODO: ReferenceManager check as well
     }
+
+    /**
+     *  With the page directory watched, a change on disk is noticed at the
+     *  next scan, no matter how long the cache check interval is.
+     */
+    public void testWatchedChange()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( "jspwiki.cachingProvider.cacheCheckInterval", "3600" );
+        props.setProperty( CachingProvider.PROP_WATCHINTERVAL, "3600" );
+        
+        TestEngine engine = new TestEngine( props );
+        
+        engine.saveText( "Testi", "[foo]" );
+        assertEquals( "before", "[foo]\r\n", engine.getText( "Testi" ) );
+        
+        String dir = props.getProperty( FileSystemProvider.PROP_PAGEDIR );
+        
+        File f = new File( dir, "Testi.txt" );
+        
+        PrintWriter out = new PrintWriter( new FileWriter(f) );
+        FileUtil.copyContents( new StringReader("[fuufaa]"), out );
+        out.close();
+        f.setLastModified( System.currentTimeMillis()+10000L );
+        
+        assertEquals( "not scanned yet", "[foo]\r\n", engine.getText( "Testi" ) );
+        
+        CachingProvider provider = (CachingProvider)engine.getPageManager().getProvider();
+        provider.getWatcher().checkChanges();
+        
+        assertEquals( "after", "[fuufaa]", engine.getText( "Testi" ) );
+    }
+
+    /**
+     *  Pages created or removed outside JSPWiki must show up in the page
+     *  name index once the watcher has seen them.
+     */
+    public void testWatchedNewPage()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( "jspwiki.cachingProvider.cacheCheckInterval", "3600" );
+        props.setProperty( CachingProvider.PROP_WATCHINTERVAL, "3600" );
+        
+        TestEngine engine = new TestEngine( props );
+        
+        assertFalse( "before", engine.pageExists( "Testi" ) );
+        
+        String dir = props.getProperty( FileSystemProvider.PROP_PAGEDIR );
+        
+        File f = new File( dir, "Testi.txt" );
+        
+        PrintWriter out = new PrintWriter( new FileWriter(f) );
+        FileUtil.copyContents( new StringReader("[fuufaa]"), out );
+        out.close();
+        
+        CachingProvider provider = (CachingProvider)engine.getPageManager().getProvider();
+        provider.getWatcher().checkChanges();
+        
+        assertTrue( "created", engine.pageExists( "Testi" ) );
+        assertEquals( "resolved", "Testi", engine.getFinalPageName( "Testi" ) );
+        
+        f.delete();
+        provider.getWatcher().checkChanges();
+        
+        assertFalse( "removed", engine.pageExists( "Testi" ) );
+        assertNull( "not resolved", engine.getFinalPageName( "Testi" ) );
+    }
     
+    /**
+     *  Writers to different pages must not wait for each other, and readers
+     *  must keep going while the writes are in progress.  Prints the numbers,
+     *  too.
+     */
+    public void testContention()
+        throws Exception
+    {
+        final int WRITERS = 8;
+        final int READERS = 4;
+        final int PUTS    = 10;
+        
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( "jspwiki.usePageCache", "true" );
+        props.setProperty( "jspwiki.pageProvider", "com.ecyrd.jspwiki.providers.DelayingProvider" );
+
+        final TestEngine engine = new TestEngine( props );
+
+        final CachingProvider provider = (CachingProvider)engine.getPageManager().getProvider();
+        final Throwable[] failure = new Throwable[1];
+        final int[] reads = new int[READERS];
+        final boolean[] done = new boolean[1];
+        
+        Thread[] writers = new Thread[WRITERS];
+        Thread[] readers = new Thread[READERS];
+        
+        for( int t = 0; t < READERS; t++ )
+        {
+            final int id = t;
+            
+            readers[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        while( !done[0] )
+                        {
+                            assertNotNull( provider.getPageText( "Foo", WikiPageProvider.LATEST_VERSION ) );
+                            assertTrue( provider.pageExists( "Bar" ) );
+                            assertTrue( provider.getAllPages().size() >= 4 );
+                            provider.getProviderInfo();
+                            reads[id]++;
+                        }
+                    }
+                    catch( Throwable ex )
+                    {
+                        failure[0] = ex;
+                    }
+                }
+            };
+        }
+        
+        for( int t = 0; t < WRITERS; t++ )
+        {
+            final String name = "Writer"+t;
+            
+            writers[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for( int i = 0; i < PUTS; i++ )
+                        {
+                            provider.putPageText( new WikiPage( engine, name ), "text "+i );
+                        }
+                    }
+                    catch( Throwable ex )
+                    {
+                        failure[0] = ex;
+                    }
+                }
+            };
+        }
+        
+        StopWatch sw = new StopWatch();
+        sw.start();
+        
+        for( int t = 0; t < READERS; t++ ) readers[t].start();
+        for( int t = 0; t < WRITERS; t++ ) writers[t].start();
+        for( int t = 0; t < WRITERS; t++ ) writers[t].join();
+        
+        sw.stop();
+        
+        done[0] = true;
+        for( int t = 0; t < READERS; t++ ) readers[t].join();
+        
+        if( failure[0] != null ) fail( failure[0].toString() );
+        
+        long serialized = WRITERS * PUTS * DelayingProvider.c_writeDelay;
+        int  total      = 0;
+        
+        for( int t = 0; t < READERS; t++ ) total += reads[t];
+        
+        System.out.println( WRITERS+" writers, "+WRITERS*PUTS+" puts of "+DelayingProvider.c_writeDelay+
+                            " ms: "+sw.getTime()+" ms (serialized "+serialized+" ms); "+
+                            READERS+" readers did "+total+" reads meanwhile." );
+
+        assertTrue( "writers waited for each other: "+sw.getTime()+" ms", 
+                    sw.getTime() < serialized / 2 );
+        
+        for( int t = 0; t < READERS; t++ )
+        {
+            assertTrue( "reader "+t+" starved", reads[t] > 0 );
+        }
+    }
+
+    /**
+     *  Concurrent misses on the same page go to the real provider once.
+     */
+    public void testSingleFlight()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( "jspwiki.usePageCache", "true" );
+        props.setProperty( "jspwiki.pageProvider", "com.ecyrd.jspwiki.providers.DelayingProvider" );
+
+        TestEngine engine = new TestEngine( props );
+
+        final CachingProvider provider = (CachingProvider)engine.getPageManager().getProvider();
+        final Throwable[] failure = new Throwable[1];
+        CounterProvider counter = (CounterProvider)provider.getRealProvider();
+        
+        DelayingProvider.c_readDelay = 200;
+        
+        try
+        {
+            int textCalls = counter.m_getPageTextCalls;
+            int infoCalls = counter.m_getPageCalls;
+            
+            //  The PageManager checks the page for its name index right away,
+            //  which loads the info.
+            provider.pagesChanged( Collections.singleton( "Foo" ) );
+            
+            Thread[] threads = new Thread[8];
+            
+            for( int t = 0; t < threads.length; t++ )
+            {
+                threads[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            assertNotNull( provider.getPageText( "Foo", WikiPageProvider.LATEST_VERSION ) );
+                        }
+                        catch( Throwable ex )
+                        {
+                            failure[0] = ex;
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            
+            for( int t = 0; t < threads.length; t++ ) threads[t].join();
+            
+            if( failure[0] != null ) fail( failure[0].toString() );
+            
+            assertEquals( "text loads", 1, counter.m_getPageTextCalls - textCalls );
+            assertEquals( "info loads", 1, counter.m_getPageCalls - infoCalls );
+        }
+        finally
+        {
+            DelayingProvider.c_readDelay = 0;
+        }
+    }
+
+    /**
+     *  An expired page info is served at once, and checked in the background.
+     */
+    public void testStaleWhileRevalidate()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( "jspwiki.usePageCache", "true" );
+        props.setProperty( "jspwiki.pageProvider", "com.ecyrd.jspwiki.providers.DelayingProvider" );
+        props.setProperty( "jspwiki.cachingProvider.cacheCheckInterval", "1" );
+        props.setProperty( CachingProvider.PROP_STALEWHILEREVALIDATE, "true" );
+
+        TestEngine engine = new TestEngine( props );
+
+        CachingProvider provider = (CachingProvider)engine.getPageManager().getProvider();
+        CounterProvider counter = (CounterProvider)provider.getRealProvider();
+        
+        assertNotNull( provider.getPageInfo( "Foo", WikiPageProvider.LATEST_VERSION ) );
+        
+        DelayingProvider.c_readDelay = 500;
+        
+        try
+        {
+            Thread.sleep( 1100L );
+            
+            int infoCalls = counter.m_getPageCalls;
+            
+            StopWatch sw = new StopWatch();
+            sw.start();
+            
+            for( int i = 0; i < 10; i++ )
+            {
+                assertNotNull( provider.getPageInfo( "Foo", WikiPageProvider.LATEST_VERSION ) );
+            }
+            
+            sw.stop();
+            
+            assertTrue( "waited for the provider: "+sw.getTime()+" ms", sw.getTime() < 500 );
+            
+            Thread.sleep( 2000L );
+            
+            assertEquals( "checked once", 1, counter.m_getPageCalls - infoCalls );
+            
+            //  ...and now it is fresh again
+            assertNotNull( provider.getPageInfo( "Foo", WikiPageProvider.LATEST_VERSION ) );
+            assertEquals( "still once", 1, counter.m_getPageCalls - infoCalls );
+        }
+        finally
+        {
+            DelayingProvider.c_readDelay = 0;
+        }
+    }
+
+    /**
+     *  With the page directory watched, the pages which do not exist are
+     *  mostly answered by the name filter, without asking the provider.
+     */
+    public void testNameFilter()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        props.setProperty( "jspwiki.pageProvider", "com.ecyrd.jspwiki.providers.CountingFileProvider" );
+        props.setProperty( CachingProvider.PROP_WATCHINTERVAL, "3600" );
+        
+        TestEngine engine = new TestEngine( props );
+        
+        CachingProvider provider = (CachingProvider)engine.getPageManager().getProvider();
+        CountingFileProvider counter = (CountingFileProvider)provider.getRealProvider();
+        
+        int calls = counter.m_getPageCalls + counter.m_pageExistsCalls;
+        
+        for( int i = 0; i < 1000; i++ )
+        {
+            assertFalse( provider.pageExists( "NoSuchPage"+i ) );
+            assertNull( provider.getPageInfo( "NoSuchPage"+i, WikiPageProvider.LATEST_VERSION ) );
+        }
+        
+        calls = counter.m_getPageCalls + counter.m_pageExistsCalls - calls;
+        
+        assertTrue( "provider was asked "+calls+" times", calls < 100 );
+        
+        engine.saveText( "Testi", "[foo]" );
+        
+        assertTrue( "saved", engine.pageExists( "Testi" ) );
+        assertNotNull( "info", provider.getPageInfo( "Testi", WikiPageProvider.LATEST_VERSION ) );
+        
+        String info = provider.getProviderInfo();
+        assertTrue( info, info.indexOf( "Name filter:" ) != -1 );
+    }
+
     public static Test suite()
     {
         return new TestSuite( CachingProviderTest.class );
@@ -0,0 +1,26 @@
+package com.ecyrd.jspwiki.providers;
+
+import com.ecyrd.jspwiki.*;
+
+/**
+ *  A FileSystemProvider which counts how many times the pages are looked at.
+ */
+public class CountingFileProvider
+    extends FileSystemProvider
+{
+    public int m_getPageCalls    = 0;
+    public int m_pageExistsCalls = 0;
+
+    public WikiPage getPageInfo( String page, int version )
+        throws ProviderException
+    {
+        m_getPageCalls++;
+        return super.getPageInfo( page, version );
+    }
+
+    public boolean pageExists( String page )
+    {
+        m_pageExistsCalls++;
+        return super.pageExists( page );
+    }
+}
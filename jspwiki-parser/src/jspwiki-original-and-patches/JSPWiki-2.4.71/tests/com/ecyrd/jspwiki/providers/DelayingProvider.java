@@ -0,0 +1,53 @@
+package com.ecyrd.jspwiki.providers;
+
+import com.ecyrd.jspwiki.*;
+
+/**
+ *  A CounterProvider whose reads and writes take a while, like those of a slow disk.
+ */
+public class DelayingProvider
+    extends CounterProvider
+{
+    /** Milliseconds every putPageText() takes. */
+    public static long c_writeDelay = 20;
+
+    /** Milliseconds every getPageInfo() and getPageText() takes. */
+    public static long c_readDelay  = 0;
+
+    private static void delay( long millis )
+    {
+        if( millis <= 0 ) return;
+        
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch( InterruptedException e ) {}
+    }
+
+    public void putPageText( WikiPage page, String text )
+        throws ProviderException
+    {
+        delay( c_writeDelay );
+    }
+
+    public WikiPage getPageInfo( String page, int version )
+    {
+        delay( c_readDelay );
+        
+        synchronized( this )
+        {
+            return super.getPageInfo( page, version );
+        }
+    }
+
+    public String getPageText( String page, int version )
+    {
+        delay( c_readDelay );
+        
+        synchronized( this )
+        {
+            return super.getPageText( page, version );
+        }
+    }
+}
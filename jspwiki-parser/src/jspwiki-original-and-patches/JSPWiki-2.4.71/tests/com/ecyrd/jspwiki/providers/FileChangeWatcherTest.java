@@ -0,0 +1,138 @@
+package com.ecyrd.jspwiki.providers;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.ecyrd.jspwiki.TestEngine;
+
+public class FileChangeWatcherTest extends TestCase
+{
+    private TestEngine m_engine;
+    private File       m_dir;
+    private List       m_changes = new ArrayList();
+    
+    private FileChangeWatcher.Listener m_listener = new FileChangeWatcher.Listener()
+    {
+        public void filesChanged( Collection paths )
+        {
+            m_changes.addAll( paths );
+        }
+    };
+
+    public FileChangeWatcherTest( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+        
+        m_engine = new TestEngine( props );
+        
+        m_dir = new File( props.getProperty( "jspwiki.workDir" ), "watched" );
+        m_dir.mkdirs();
+    }
+
+    public void tearDown()
+    {
+        TestEngine.deleteAll( m_dir );
+    }
+
+    private void write( String path, String content )
+        throws Exception
+    {
+        File f = new File( m_dir, path );
+        f.getParentFile().mkdirs();
+        
+        FileWriter out = new FileWriter( f );
+        out.write( content );
+        out.close();
+    }
+    
+    private List getChanges()
+    {
+        List changes = new ArrayList( m_changes );
+        Collections.sort( changes );
+        m_changes.clear();
+        
+        return changes;
+    }
+
+    public void testChanges()
+        throws Exception
+    {
+        write( "a.txt", "a" );
+        write( "sub/b.txt", "b" );
+        write( "sub/c.txt", "c" );
+        
+        FileChangeWatcher watcher = new FileChangeWatcher( m_engine, 1, 1 );
+        watcher.watch( m_dir, m_listener );
+        
+        watcher.checkChanges();
+        assertEquals( "nothing", 0, m_changes.size() );
+        
+        write( "a.txt", "aa" );
+        write( "d.txt", "d" );
+        new File( m_dir, "sub/b.txt" ).delete();
+        new File( m_dir, "sub/c.txt" ).setLastModified( System.currentTimeMillis()+10000L );
+        
+        watcher.checkChanges();
+        assertEquals( "[a.txt, d.txt, sub/b.txt, sub/c.txt]", getChanges().toString() );
+
+        watcher.checkChanges();
+        assertEquals( "again", 0, m_changes.size() );
+    }
+
+    public void testDepth()
+        throws Exception
+    {
+        FileChangeWatcher watcher = new FileChangeWatcher( m_engine, 1, 0 );
+        watcher.watch( m_dir, m_listener );
+        
+        write( "a.txt", "a" );
+        write( "sub/b.txt", "b" );
+        
+        watcher.checkChanges();
+        assertEquals( "[a.txt]", getChanges().toString() );
+    }
+
+    public void testPageNames()
+        throws Exception
+    {
+        WikiPageProvider p = ((CachingProvider)m_engine.getPageManager().getProvider()).getRealProvider();
+        
+        AbstractFileProvider files = (AbstractFileProvider) p;
+        
+        assertEquals( "page", "Foo Bar", files.getPageName( "Foo+Bar.txt" ) );
+        assertNull( "other", files.getPageName( "Foo.bak" ) );
+        assertNull( "subdir", files.getPageName( "sub/Foo.txt" ) );
+        assertEquals( "properties", "Foo", files.getPageName( "Foo.properties" ) );
+        
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties("/jspwiki_vers.properties") );
+        
+        VersioningFileProvider versions = new VersioningFileProvider();
+        versions.initialize( m_engine, props );
+        
+        assertEquals( "current", "Foo", versions.getPageName( "Foo.txt" ) );
+        assertEquals( "old", "Foo Bar", versions.getPageName( "OLD/Foo+Bar/2.txt" ) );
+        assertNull( "in OLD", versions.getPageName( "OLD/x.txt" ) );
+        
+        
+        assertEquals( "attachment", "Foo Bar", BasicAttachmentProvider.getPageName( "Foo+Bar-att/x.png-dir/1.png" ) );
+        assertNull( "not attachment", BasicAttachmentProvider.getPageName( "Foo.txt" ) );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( FileChangeWatcherTest.class );
+    }
+}
@@ -249,6 +249,213 @@ public class FileSystemProviderTest extends TestCase
         assertFalse( "properties exist", f.exists() );
     }
 
+    private FileSystemProvider createSearchProvider( File dir, int threads, int max )
+        throws Exception
+    {
+        Properties p = new Properties();
+        p.setProperty( FileSystemProvider.PROP_PAGEDIR, dir.getAbsolutePath() );
+        p.setProperty( WikiEngine.PROP_ENCODING, "UTF-8" );
+        p.setProperty( FileSystemProvider.PROP_SEARCHTHREADS, Integer.toString(threads) );
+        p.setProperty( FileSystemProvider.PROP_MAXSEARCHRESULTS, Integer.toString(max) );
+        
+        FileSystemProvider provider = new FileSystemProvider();
+        provider.initialize( m_engine, p );
+        
+        return provider;
+    }
+    
+    private static QueryItem[] query( String word, int type )
+    {
+        QueryItem item = new QueryItem();
+        item.word = word;
+        item.type = type;
+        
+        return new QueryItem[] { item };
+    }
+    
+    private static String names( Collection results )
+    {
+        StringBuffer sb = new StringBuffer();
+        
+        for( Iterator i = results.iterator(); i.hasNext(); )
+        {
+            SearchResult r = (SearchResult) i.next();
+            sb.append( r.getPage().getName()+"="+r.getScore()+" " );
+        }
+        
+        return sb.toString();
+    }
+
+    /**
+     *  The parallel search finds the same pages as the single threaded one,
+     *  ignoring case and encoding differences.
+     */
+    public void testFindPages()
+        throws Exception
+    {
+        File dir = new File( m_pagedir, "findpages" );
+        
+        try
+        {
+            FileSystemProvider single = createSearchProvider( dir, 1, 0 );
+            
+            for( int i = 0; i < 1000; i++ )
+            {
+                StringBuffer text = new StringBuffer( "Page "+i+"\n" );
+                
+                for( int j = 0; j < i % 7; j++ ) text.append( "Some J\u00e4nne text.\n" );
+                
+                if( i % 10 == 0 ) text.append( "forbidden\n" );
+                
+                single.putPageText( new WikiPage( m_engine, "Page"+i ), text.toString() );
+            }
+            
+            FileSystemProvider parallel = createSearchProvider( dir, 4, 0 );
+            
+            Collection res1 = single.findPages( query( "j\u00e4nne", QueryItem.REQUESTED ) );
+            Collection res4 = parallel.findPages( query( "j\u00e4nne", QueryItem.REQUESTED ) );
+            
+            assertEquals( "count", 1000 - 1000/7 - 1, res1.size() );
+            assertEquals( "parallel", names( res1 ), names( res4 ) );
+            
+            SearchResult best = (SearchResult) res4.iterator().next();
+            assertEquals( "best", 6, best.getScore() );
+            
+            QueryItem[] q = new QueryItem[] { query( "page", QueryItem.REQUESTED )[0],
+                                              query( "forbidden", QueryItem.FORBIDDEN )[0] };
+            
+            assertEquals( "forbidden", 900, parallel.findPages( q ).size() );
+            
+            FileSystemProvider limited = createSearchProvider( dir, 4, 10 );
+            
+            Collection res10 = limited.findPages( query( "j\u00e4nne", QueryItem.REQUESTED ) );
+            
+            assertEquals( "limited", 10, res10.size() );
+            assertTrue( "best ones", names( res1 ).startsWith( names( res10 ) ) );
+        }
+        finally
+        {
+            TestEngine.deleteAll( dir );
+        }
+    }
+
+    /**
+     *  An interrupted search, e.g. by the time budget of a plugin, stops
+     *  instead of failing to read every remaining file.
+     */
+    public void testFindPagesInterrupted()
+        throws Exception
+    {
+        File dir = new File( m_pagedir, "findpages" );
+        
+        try
+        {
+            FileSystemProvider single = createSearchProvider( dir, 1, 0 );
+            
+            for( int i = 0; i < 400; i++ )
+            {
+                single.putPageText( new WikiPage( m_engine, "Page"+i ), "Some text" );
+            }
+            
+            FileSystemProvider parallel = createSearchProvider( dir, 4, 0 );
+            
+            Thread.currentThread().interrupt();
+            
+            Collection res = single.findPages( query( "text", QueryItem.REQUESTED ) );
+            
+            assertTrue( "still interrupted", Thread.interrupted() );
+            assertEquals( "no results", 0, res.size() );
+            
+            Thread.currentThread().interrupt();
+            
+            res = parallel.findPages( query( "text", QueryItem.REQUESTED ) );
+            
+            assertTrue( "parallel still interrupted", Thread.interrupted() );
+            assertEquals( "no parallel results", 0, res.size() );
+        }
+        finally
+        {
+            Thread.interrupted();
+            TestEngine.deleteAll( dir );
+        }
+    }
+
+    private static int countSearchWorkers()
+    {
+        Thread[] all = new Thread[Thread.activeCount()*2];
+        int count = Thread.enumerate( all );
+        int found = 0;
+        
+        for( int i = 0; i < count; i++ )
+        {
+            if( all[i].getName().startsWith( "JSPWiki page search" ) ) found++;
+        }
+        
+        return found;
+    }
+    
+    /**
+     *  Simultaneous searches share the same few worker threads.
+     */
+    public void testFindPagesSharedPool()
+        throws Exception
+    {
+        File dir = new File( m_pagedir, "findpages" );
+        
+        try
+        {
+            final FileSystemProvider provider = createSearchProvider( dir, 2, 0 );
+            
+            for( int i = 0; i < 400; i++ )
+            {
+                provider.putPageText( new WikiPage( m_engine, "Page"+i ), "Some text" );
+            }
+            
+            //  The other tests may have left idle workers behind
+            int idle = countSearchWorkers();
+            
+            final int[] counts = new int[8];
+            Thread[] searches = new Thread[counts.length];
+            
+            for( int t = 0; t < searches.length; t++ )
+            {
+                final int n = t;
+                
+                searches[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        for( int i = 0; i < 5; i++ )
+                        {
+                            counts[n] += provider.findPages( query( "text", QueryItem.REQUESTED ) ).size();
+                        }
+                    }
+                };
+                searches[t].start();
+            }
+            
+            int workers = 0;
+            
+            for( int t = 0; t < searches.length; t++ ) 
+            {
+                workers = Math.max( workers, countSearchWorkers() - idle );
+                
+                searches[t].join();
+            }
+            
+            for( int t = 0; t < counts.length; t++ )
+            {
+                assertEquals( "results", 5*400, counts[t] );
+            }
+            
+            assertTrue( "too many workers: "+workers, workers <= 2 );
+        }
+        finally
+        {
+            TestEngine.deleteAll( dir );
+        }
+    }
+
     public static Test suite()
     {
         return new TestSuite( FileSystemProviderTest.class );
@@ -0,0 +1,81 @@
+package com.ecyrd.jspwiki.providers;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class SearchPoolTest extends TestCase
+{
+    private File m_file;
+
+    public SearchPoolTest( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+        throws Exception
+    {
+        m_file = File.createTempFile( "searchpool", ".txt" );
+    }
+
+    public void tearDown()
+    {
+        m_file.delete();
+    }
+
+    private void write( String content )
+        throws Exception
+    {
+        FileWriter out = new FileWriter( m_file );
+        out.write( content );
+        out.close();
+    }
+
+    public void testRead()
+        throws Exception
+    {
+        SearchPool.PageReader reader = new SearchPool.PageReader( "UTF-8" );
+
+        write( "Some text." );
+
+        assertEquals( "Some text.", reader.read( m_file ).toString() );
+    }
+
+    /**
+     *  A huge page must be read in full, but its buffers must not be kept.
+     */
+    public void testHugePageNotKept()
+        throws Exception
+    {
+        SearchPool.PageReader reader = new SearchPool.PageReader( "UTF-8" );
+
+        StringBuffer sb = new StringBuffer();
+        while( sb.length() <= 3*SearchPool.PageReader.MAX_KEPT )
+        {
+            sb.append( "Line of text.\n" );
+        }
+        sb.append( "The end." );
+
+        write( sb.toString() );
+
+        CharSequence text = reader.read( m_file );
+
+        assertEquals( "length", sb.length(), text.length() );
+        assertTrue( "end", text.toString().endsWith( "The end." ) );
+        assertTrue( "kept "+reader.getKeptCapacity(), 
+                    reader.getKeptCapacity() <= 2*SearchPool.PageReader.MAX_KEPT );
+
+        write( "Small again." );
+
+        assertEquals( "Small again.", reader.read( m_file ).toString() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SearchPoolTest.class );
+    }
+}
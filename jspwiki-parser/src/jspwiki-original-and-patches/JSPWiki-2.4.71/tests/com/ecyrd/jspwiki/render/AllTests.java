@@ -19,6 +19,8 @@ public class AllTests extends TestCase
     {
         TestSuite suite = new TestSuite("rendering tests");
 
+        suite.addTest( CleanTextRendererTest.suite() );
+        suite.addTest( ConcurrentPluginRunnerTest.suite() );
         suite.addTest( RenderingManagerTest.suite() );
 
         return suite;
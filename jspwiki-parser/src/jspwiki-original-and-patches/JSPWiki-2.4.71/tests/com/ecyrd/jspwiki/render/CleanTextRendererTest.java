@@ -0,0 +1,142 @@
+package com.ecyrd.jspwiki.render;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.commons.lang.time.StopWatch;
+import org.jdom.Text;
+import org.jdom.xpath.XPath;
+
+import com.ecyrd.jspwiki.TestEngine;
+import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.WikiPage;
+import com.ecyrd.jspwiki.parser.WikiDocument;
+
+public class CleanTextRendererTest extends TestCase
+{
+    TestEngine       m_engine;
+    RenderingManager m_manager;
+    WikiContext      m_context;
+    
+    public CleanTextRendererTest( String s )
+    {
+        super( s );
+    }
+
+    protected void setUp() throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+        
+        m_engine = new TestEngine( props );
+        
+        m_manager = new RenderingManager();
+        m_manager.initialize( m_engine, props );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        m_engine.deletePage( "TestPage" );
+    }
+
+    private WikiDocument getDocument( String text )
+        throws Exception
+    {
+        m_engine.saveText( "TestPage", text );
+        
+        WikiPage page = m_engine.getPage( "TestPage" );
+        m_context = new WikiContext( m_engine, page );
+        
+        return m_manager.getRenderedDocument( m_context, m_engine.getPureText( page ) );
+    }
+
+    /**
+     *  The way CleanTextRenderer used to collect the text.
+     */
+    private static String xpathText( WikiDocument doc )
+        throws Exception
+    {
+        StringBuffer sb = new StringBuffer();
+        
+        List nodes = XPath.newInstance( "//text()" ).selectNodes( doc.getDocument() );
+        
+        for( Iterator i = nodes.iterator(); i.hasNext(); )
+        {
+            Object el = i.next();
+            
+            if( el instanceof Text )
+            {
+                sb.append( ((Text)el).getValue() );
+            }
+        }
+        
+        return sb.toString();
+    }
+
+    public void testPlainText()
+        throws Exception
+    {
+        WikiDocument doc = getDocument( "Some __bold__ and ''italic'' [link|Foo] text." );
+        
+        String text = new CleanTextRenderer( m_context, doc ).getString();
+        
+        assertEquals( "Some bold and italic link text.", text.trim() );
+    }
+
+    public void testSameAsXPath()
+        throws Exception
+    {
+        WikiDocument doc = getDocument( RenderingManagerTest.TEST_TEXT );
+        
+        assertEquals( xpathText( doc ), new CleanTextRenderer( m_context, doc ).getString() );
+    }
+
+    /**
+     *  Compares the speed of the tree walk with the old XPath query.
+     */
+    public void testSpeed()
+        throws Exception
+    {
+        WikiDocument doc = getDocument( RenderingManagerTest.TEST_TEXT );
+        
+        StopWatch sw = new StopWatch();
+        
+        System.out.println("Clean text speed test:");
+        sw.start();
+        
+        for( int i = 0; i < 1000; i++ )
+        {
+            assertNotNull( xpathText( doc ) );
+        }
+        
+        sw.stop();
+        System.out.println("  XPath took "+sw);
+        
+        long xpathtime = sw.getTime();
+        
+        sw.reset();
+        sw.start();
+        
+        for( int i = 0; i < 1000; i++ )
+        {
+            assertNotNull( new CleanTextRenderer( m_context, doc ).getString() );
+        }
+        
+        sw.stop();
+        System.out.println("  Tree walk took "+sw);
+        
+        long walktime = sw.getTime();
+        
+        System.out.println("  Approx speedup: "+(xpathtime/Math.max(walktime,1))+"x");
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( CleanTextRendererTest.class );
+    }
+}
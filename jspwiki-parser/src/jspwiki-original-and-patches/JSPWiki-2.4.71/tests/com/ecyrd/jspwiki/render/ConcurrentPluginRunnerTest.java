@@ -0,0 +1,134 @@
+package com.ecyrd.jspwiki.render;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.ecyrd.jspwiki.TestEngine;
+import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.plugin.SlowPlugin;
+
+public class ConcurrentPluginRunnerTest extends TestCase
+{
+    TestEngine m_engine;
+    Properties m_props = new Properties();
+    
+    public ConcurrentPluginRunnerTest( String s )
+    {
+        super( s );
+    }
+
+    protected void setUp() throws Exception
+    {
+        m_props.load( TestEngine.findTestProperties() );
+        
+        m_engine = new TestEngine( m_props );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        m_engine.deletePage( "TestPage" );
+    }
+
+    private String render( RenderingManager manager, String text )
+        throws Exception
+    {
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( "TestPage" ) );
+        
+        return manager.getHTML( context, text );
+    }
+    
+    private RenderingManager newManager( int threads, int timeout )
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.putAll( m_props );
+        props.setProperty( RenderingManager.PROP_CACHESIZE, "0" );
+        props.setProperty( RenderingManager.PROP_PLUGINTHREADS, Integer.toString(threads) );
+        props.setProperty( RenderingManager.PROP_PLUGINTIMEOUT, Integer.toString(timeout) );
+        
+        RenderingManager manager = new RenderingManager();
+        manager.initialize( m_engine, props );
+        
+        return manager;
+    }
+
+    public void testConcurrent()
+        throws Exception
+    {
+        String text = "[{SlowPlugin delay=500 text=aaa}] [{SlowPlugin delay=500 text=bbb}] "+
+                      "[{SlowPlugin delay=500 text=ccc}] [{SlowPlugin delay=500 text=ddd}]";
+        
+        m_engine.saveText( "TestPage", "Empty" );
+        
+        long start = System.currentTimeMillis();
+        String res = render( newManager( 4, 30 ), text );
+        long time = System.currentTimeMillis() - start;
+        
+        assertTrue( "order: "+res, res.indexOf("aaa") < res.indexOf("bbb") && 
+                                   res.indexOf("bbb") < res.indexOf("ccc") &&
+                                   res.indexOf("ccc") < res.indexOf("ddd") &&
+                                   res.indexOf("aaa") != -1 );
+        assertTrue( "took "+time+" ms", time < 1200 );
+    }
+
+    public void testSameAsSequential()
+        throws Exception
+    {
+        String text = "Some text\n\n[{SlowPlugin text=aaa}] and [{SamplePlugin text=bbb}]\n\n"+
+                      "* [{SlowPlugin text=ccc}]\n* [{ReferringPagesPlugin}]";
+        
+        m_engine.saveText( "TestPage", "Empty" );
+        
+        assertEquals( render( newManager( 0, 30 ), text ), render( newManager( 2, 30 ), text ) );
+    }
+
+    public void testTimeout()
+        throws Exception
+    {
+        String text = "[{SlowPlugin delay=5000 text=aaa}] [{SlowPlugin delay=5000 text=bbb}] "+
+                      "[{SamplePlugin text=ccc}]";
+        
+        m_engine.saveText( "TestPage", "Empty" );
+        
+        long start = System.currentTimeMillis();
+        String res = render( newManager( 2, 1 ), text );
+        long time = System.currentTimeMillis() - start;
+        
+        assertTrue( "timeout message: "+res, res.indexOf("did not finish in time") != -1 );
+        assertTrue( "rest of page: "+res, res.indexOf("ccc") != -1 );
+        assertTrue( "took "+time+" ms", time < 4000 );
+    }
+
+    /**
+     *  A plugin which the renderer gave up on must not keep its worker.
+     */
+    public void testTimeoutInterrupts()
+        throws Exception
+    {
+        String text = "[{SlowPlugin delay=5000 text=hung1}] [{SlowPlugin delay=5000 text=hung2}]";
+        
+        m_engine.saveText( "TestPage", "Empty" );
+        
+        String res = render( newManager( 2, 1 ), text );
+        
+        assertTrue( "timeout message: "+res, res.indexOf("did not finish in time") != -1 );
+        
+        for( int i = 0; i < 100 && !SlowPlugin.c_interrupted.containsAll( Arrays.asList( new String[] { "hung1", "hung2" } ) ); i++ )
+        {
+            Thread.sleep( 10 );
+        }
+        
+        assertTrue( "first not interrupted", SlowPlugin.c_interrupted.contains( "hung1" ) );
+        assertTrue( "second not interrupted", SlowPlugin.c_interrupted.contains( "hung2" ) );
+        assertFalse( "renderer interrupted", Thread.currentThread().isInterrupted() );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ConcurrentPluginRunnerTest.class );
+    }
+}
@@ -1,5 +1,12 @@
 package com.ecyrd.jspwiki.render;
 
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Properties;
 
 import junit.framework.Test;
@@ -8,8 +15,10 @@ import junit.framework.TestSuite;
 
 import org.apache.commons.lang.time.StopWatch;
 
+import com.ecyrd.jspwiki.FileUtil;
 import com.ecyrd.jspwiki.TestEngine;
 import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.WikiEngine;
 import com.ecyrd.jspwiki.WikiPage;
 import com.ecyrd.jspwiki.parser.MarkupParser;
 import com.ecyrd.jspwiki.parser.WikiDocument;
@@ -33,8 +42,339 @@ public class RenderingManagerTest extends TestCase
     protected void tearDown() throws Exception
     {
         m_engine.deletePage( "TestPage" );
+        m_engine.deletePage( "Foo" );
+        m_engine.deletePage( "FooBar" );
+        m_engine.deletePage( "Referrer" );
+        m_engine.deletePage( "Linker" );
     }
+
+    private WikiDocument getDocument( String name )
+        throws Exception
+    {
+        WikiPage page = m_engine.getPage( name );
+        String pagedata = m_engine.getPureText( page );
+            
+        WikiContext context = new WikiContext( m_engine, page );
+
+        return m_manager.getRenderedDocument( context, pagedata );
+    }
+
+    /**
+     *  Saving a page must flush the pages which insert it, but not
+     *  the pages whose name just contains the saved page name, or the
+     *  pages which just link to it.
+     */
+    public void testFlushDependents()
+        throws Exception
+    {
+        m_engine.saveText( "Foo", "Foo text." );
+        m_engine.saveText( "FooBar", "FooBar text." );
+        m_engine.saveText( "Referrer", "Link to [Foo]. [{InsertPage page='Foo'}]" );
+        m_engine.saveText( "Linker", "Link to [Foo]." );
+        
+        WikiDocument foobar   = getDocument( "FooBar" );
+        WikiDocument referrer = getDocument( "Referrer" );
+        WikiDocument linker   = getDocument( "Linker" );
+        
+        assertSame( "foobar not cached", foobar, getDocument( "FooBar" ) );
+        assertSame( "referrer not cached", referrer, getDocument( "Referrer" ) );
         
+        m_engine.saveText( "Foo", "New Foo text." );
+        
+        assertSame( "foobar was flushed", foobar, getDocument( "FooBar" ) );
+        assertSame( "linker was flushed", linker, getDocument( "Linker" ) );
+        assertNotSame( "referrer was not flushed", referrer, getDocument( "Referrer" ) );
+    }
+
+    /**
+     *  Creating and deleting a page must change the links in cached
+     *  documents which point at it.
+     */
+    public void testLinksResolvedWhenRendered()
+        throws Exception
+    {
+        m_engine.saveText( "Linker", "Link to [Foo]." );
+        
+        WikiDocument linker = getDocument( "Linker" );
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( "Linker" ) );
+
+        assertTrue( "edit link", m_manager.getHTML( context, linker ).indexOf( "class=\"editpage\"" ) != -1 );
+        
+        m_engine.saveText( "Foo", "Foo text." );
+        
+        assertSame( "linker was flushed", linker, getDocument( "Linker" ) );
+        assertTrue( "view link", m_manager.getHTML( context, linker ).indexOf( "class=\"wikipage\"" ) != -1 );
+
+        m_engine.deletePage( "Foo" );
+
+        assertTrue( "edit link again", m_manager.getHTML( context, linker ).indexOf( "class=\"editpage\"" ) != -1 );
+    }
+
+    /**
+     *  Renaming a page must change the links in cached documents which
+     *  point at either name, and flush the documents which insert it.
+     */
+    public void testLinksResolvedAfterRename()
+        throws Exception
+    {
+        m_engine.saveText( "Foo", "Foo text." );
+        m_engine.saveText( "Referrer", "[{InsertPage page='Foo'}]" );
+        
+        //  Not saved, so that the ReferenceManager does not mind the
+        //  links which the rename leaves dangling.
+        WikiContext context = new WikiContext( m_engine, new WikiPage( m_engine, "Linker" ) );
+        String linkerText = "Link to [Foo] and [FooBar].";
+        
+        WikiDocument linker   = m_manager.getRenderedDocument( context, linkerText );
+        WikiDocument referrer = getDocument( "Referrer" );
+
+        String html = m_manager.getHTML( context, linker );
+        
+        assertTrue( "view link before", html.indexOf( "Wiki.jsp?page=Foo\"" ) != -1 );
+        assertTrue( "edit link before", html.indexOf( "Edit.jsp?page=FooBar\"" ) != -1 );
+        
+        m_engine.renamePage( context, "Foo", "FooBar", false );
+        
+        assertSame( "linker was flushed", linker, m_manager.getRenderedDocument( context, linkerText ) );
+        assertNotSame( "referrer was not flushed", referrer, getDocument( "Referrer" ) );
+
+        html = m_manager.getHTML( context, linker );
+        
+        assertTrue( "edit link after", html.indexOf( "Edit.jsp?page=Foo\"" ) != -1 );
+        assertTrue( "view link after", html.indexOf( "Wiki.jsp?page=FooBar\"" ) != -1 );
+    }
+
+    /**
+     *  A cached document which is rendered with absolute URLs, as in the
+     *  RSS feed, must not give them to the normal page views, and vice versa.
+     */
+    public void testLinksPerURLStyle()
+        throws Exception
+    {
+        m_engine.saveText( "Foo", "Foo text." );
+        m_engine.saveText( "Linker", "Link to [Foo]." );
+        
+        WikiDocument linker = getDocument( "Linker" );
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( "Linker" ) );
+        WikiContext absolute = new WikiContext( m_engine, m_engine.getPage( "Linker" ) );
+        absolute.setVariable( WikiEngine.PROP_REFSTYLE, "absolute" );
+        
+        assertTrue( "relative", m_manager.getHTML( context, linker ).indexOf( "http://localhost/" ) == -1 );
+        assertTrue( "absolute", m_manager.getHTML( absolute, linker ).indexOf( "href=\"http://localhost/Wiki.jsp?page=Foo\"" ) != -1 );
+        assertTrue( "relative again", m_manager.getHTML( context, linker ).indexOf( "http://localhost/" ) == -1 );
+    }
+
+    public void testRenderToWriter()
+        throws Exception
+    {
+        m_engine.saveText( "TestPage", TEST_TEXT );
+        
+        WikiPage page = m_engine.getPage( "TestPage" );
+        String pagedata = m_engine.getPureText( page );
+        WikiContext context = new WikiContext( m_engine, page );
+
+        StringWriter out = new StringWriter();
+        m_manager.render( context, pagedata, out );
+        
+        assertEquals( m_manager.getHTML( context, pagedata ), out.toString() );
+    }
+
+    private RenderingManager newManager( int streamingThreshold )
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+        props.setProperty( RenderingManager.PROP_STREAMINGTHRESHOLD, Integer.toString( streamingThreshold ) );
+        
+        RenderingManager manager = new RenderingManager();
+        manager.initialize( m_engine, props );
+        
+        return manager;
+    }
+    
+    private String render( RenderingManager manager, String pagedata )
+        throws Exception
+    {
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( "TestPage" ) );
+        StringWriter out = new StringWriter();
+        
+        manager.render( context, pagedata, out );
+        
+        return out.toString();
+    }
+    
+    private String readTestPage( String name )
+        throws IOException
+    {
+        InputStream  is  = getClass().getResourceAsStream( name );
+        Reader       in  = new InputStreamReader( is, "ISO-8859-1" );
+        StringWriter out = new StringWriter();
+
+        FileUtil.copyContents( in, out );
+        in.close();
+        
+        return out.toString();
+    }
+    
+    /**
+     *  Streaming a page must produce exactly the same XHTML as rendering
+     *  the whole document.
+     */
+    public void testStreamingRender()
+        throws Exception
+    {
+        m_engine.saveText( "Foo", "Foo text." );
+        
+        RenderingManager streaming = newManager( 1 );
+        RenderingManager normal    = newManager( 0 );
+        
+        String[] sources = 
+        {
+            TEST_TEXT,
+            readTestPage( "/TextFormattingRules.txt" ),
+            readTestPage( "/TestPlugins.txt" ),
+            "|| A || B\n| [Foo] | 1\n| [Bar] | __2__\n\nAfter the table.",
+            "* one\n** two [Foo]\n*** three\n# four\n\n%%small\nstyled\n%%\nEnd",
+            "!!Heading\n[{TableOfContents}]\n!Another\n[{InsertPage page='Foo'}] [{$pagename}]",
+            "__bold continues\n\nover paragraphs__ and ''italic\n* into lists''",
+            ""
+        };
+        
+        for( int i = 0; i < sources.length; i++ )
+        {
+            //
+            //  TableOfContents reads a streamed page from the repository.
+            //
+            m_engine.saveText( "TestPage", sources[i] );
+            
+            assertEquals( sources[i], render( normal, sources[i] ), render( streaming, sources[i] ) );
+        }
+    }
+    
+    /**
+     *  Renders a large generated page with and without streaming, and prints
+     *  out the time to the first byte and the total time.
+     */
+    public void testStreamingLargePage()
+        throws Exception
+    {
+        StringBuffer sb = new StringBuffer();
+        
+        for( int i = 0; sb.length() < 2*1024*1024; i++ )
+        {
+            sb.append( "!!Part "+i+"\n" );
+            sb.append( "Some __text__ for part "+i+", with a link to [Foo].\n\n" );
+            sb.append( "|| Row || Value\n" );
+            
+            for( int j = 0; j < 20; j++ )
+            {
+                sb.append( "| "+j+" | ''value "+i+"."+j+"''\n" );
+            }
+            
+            sb.append( "\n* item "+i+"\n* another item\n\n" );
+        }
+        
+        String pagedata = sb.toString();
+        
+        RenderingManager streaming = newManager( 1024*1024 );
+        RenderingManager normal    = newManager( 0 );
+        
+        System.out.println("Streaming render test ("+pagedata.length()+" characters):");
+        
+        String expected = timedRender( "Normal", normal, pagedata );
+        String result   = timedRender( "Streaming", streaming, pagedata );
+        
+        assertEquals( "output differs", expected, result );
+    }
+    
+    private String timedRender( String name, RenderingManager manager, String pagedata )
+        throws Exception
+    {
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( "TestPage" ) );
+        StopWatch sw = new StopWatch();
+        FirstByteWriter out = new FirstByteWriter( new StringWriter(), sw );
+        
+        sw.start();
+        manager.render( context, pagedata, out );
+        sw.stop();
+        
+        System.out.println("  "+name+": first byte after "+out.m_firstByte+" ms, took "+sw);
+        
+        return out.toString();
+    }
+    
+    /**
+     *  Records the time at which something was first written.
+     */
+    private static class FirstByteWriter extends FilterWriter
+    {
+        StopWatch m_watch;
+        long      m_firstByte = -1;
+        
+        FirstByteWriter( Writer out, StopWatch watch )
+        {
+            super( out );
+            m_watch = watch;
+        }
+        
+        public void write( int c ) throws IOException
+        {
+            if( m_firstByte < 0 ) m_firstByte = m_watch.getTime();
+            super.write( c );
+        }
+        
+        public void write( char[] cbuf, int off, int len ) throws IOException
+        {
+            if( m_firstByte < 0 ) m_firstByte = m_watch.getTime();
+            super.write( cbuf, off, len );
+        }
+        
+        public void write( String str, int off, int len ) throws IOException
+        {
+            if( m_firstByte < 0 ) m_firstByte = m_watch.getTime();
+            super.write( str, off, len );
+        }
+        
+        public String toString()
+        {
+            return out.toString();
+        }
+    }
+    
+    public void testConfiguredRenderer()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+        props.setProperty( RenderingManager.PROP_RENDERER, "CleanTextRenderer" );
+        
+        RenderingManager manager = new RenderingManager();
+        manager.initialize( m_engine, props );
+
+        m_engine.saveText( "TestPage", "Some __bold__ text." );
+        
+        WikiPage page = m_engine.getPage( "TestPage" );
+        WikiContext context = new WikiContext( m_engine, page );
+        
+        WikiDocument doc = manager.getRenderedDocument( context, m_engine.getPureText( page ) );
+        
+        assertTrue( manager.getRenderer( context, doc ) instanceof CleanTextRenderer );
+        assertEquals( "Some bold text.", manager.getHTML( context, doc ).trim() );
+    }
+
+    public void testRendererReused()
+        throws Exception
+    {
+        m_engine.saveText( "TestPage", "Some __bold__ text." );
+        m_engine.saveText( "Foo", "Before [{InsertPage page='TestPage'}] after" );
+
+        WikiContext context = new WikiContext( m_engine, m_engine.getPage( "Foo" ) );
+        String first = m_manager.getHTML( context, getDocument( "Foo" ) );
+
+        assertTrue( "inserted", first.indexOf( "<b>bold</b>" ) != -1 );
+        assertEquals( "second", first, m_manager.getHTML( context, getDocument( "Foo" ) ) );
+    }
+
     /**
      * Tests the relative speed of the DOM cache with respect to
      * page being parsed every single time.
@@ -99,7 +439,7 @@ public class RenderingManagerTest extends TestCase
         return suite;
     }
     
-    private static final String TEST_TEXT =
+    static final String TEST_TEXT =
         "Please ''check [RecentChanges].\n" + 
         "\n" + 
         "Testing. fewfwefe\n" + 
@@ -14,6 +14,7 @@ public class AllTests extends TestCase
     {
         TestSuite suite = new TestSuite("Utility suite tests");
 
+        suite.addTest( BloomFilterTest.suite() );
         suite.addTest( ClassUtilTest.suite() );
         suite.addTest( CommentedPropertiesTest.suite() );
         suite.addTest( PriorityListTest.suite() );
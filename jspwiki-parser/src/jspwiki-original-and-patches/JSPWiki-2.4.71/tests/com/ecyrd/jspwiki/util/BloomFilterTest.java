@@ -0,0 +1,82 @@
+package com.ecyrd.jspwiki.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class BloomFilterTest extends TestCase
+{
+    public BloomFilterTest( String s )
+    {
+        super( s );
+    }
+
+    public void testNoFalseNegatives()
+    {
+        BloomFilter filter = new BloomFilter( 1000, 0.01 );
+
+        for( int i = 0; i < 1000; i++ ) filter.add( "Page"+i );
+
+        for( int i = 0; i < 1000; i++ )
+        {
+            assertTrue( "Page"+i, filter.mightContain( "Page"+i ) );
+        }
+
+        assertEquals( "size", 1000, filter.size() );
+    }
+
+    public void testFalsePositiveRate()
+    {
+        BloomFilter filter = new BloomFilter( 10000, 0.01 );
+
+        for( int i = 0; i < 10000; i++ ) filter.add( "Page"+i );
+
+        int positives = 0;
+
+        for( int i = 0; i < 100000; i++ )
+        {
+            if( filter.mightContain( "Other"+i ) ) positives++;
+        }
+
+        assertTrue( "false positives "+positives, positives < 2000 );
+        assertEquals( "estimate", 0.01, filter.getFalsePositiveRate(), 0.005 );
+    }
+
+    public void testEmpty()
+    {
+        BloomFilter filter = new BloomFilter( 100, 0.01 );
+
+        assertFalse( filter.mightContain( "" ) );
+        assertFalse( filter.mightContain( "Foo" ) );
+        assertEquals( 0.0, filter.getFalsePositiveRate(), 0.0 );
+    }
+
+    public void testCopy()
+    {
+        BloomFilter filter = new BloomFilter( 100, 0.01 );
+        filter.add( "Foo" );
+
+        BloomFilter copy = filter.copy();
+        copy.add( "Bar" );
+
+        assertTrue( "copy", copy.mightContain( "Foo" ) );
+        assertTrue( "copy add", copy.mightContain( "Bar" ) );
+        assertFalse( "original", filter.mightContain( "Bar" ) );
+        assertEquals( "size", 1, filter.size() );
+    }
+
+    public void testIllegalRate()
+    {
+        try
+        {
+            new BloomFilter( 100, 1.0 );
+            fail( "accepted 1.0" );
+        }
+        catch( IllegalArgumentException e ) {}
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BloomFilterTest.class );
+    }
+}
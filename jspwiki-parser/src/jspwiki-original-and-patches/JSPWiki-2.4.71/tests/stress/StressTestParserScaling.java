@@ -0,0 +1,313 @@
+package stress;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Properties;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.ecyrd.jspwiki.TestEngine;
+import com.ecyrd.jspwiki.WikiContext;
+import com.ecyrd.jspwiki.WikiPage;
+import com.ecyrd.jspwiki.parser.JSPWikiMarkupParser;
+import com.ecyrd.jspwiki.render.XHTMLRenderer;
+
+/**
+ *  Guards against markup which makes the parser slower than linear.  Each
+ *  test generates a pathological document of size n and of size 2n, and
+ *  checks that the bigger one does not take much more than twice as long
+ *  to parse and render.  A quadratic construct would take four times as long.
+ *  <p>
+ *  The documents are big enough that the times are tens of milliseconds,
+ *  and each is timed several times, taking the fastest, so that garbage
+ *  collection and the JIT do not disturb the result much.  The comparison
+ *  is also retried a couple of times before the test fails.
+ *  <p>
+ *  The times still depend on the machine and on how full the heap is, so
+ *  this is not a part of the normal test suite.  Run it by hand, or set
+ *  <tt>tests.stress.enabled</tt>, after changing the parser.
+ */
+public class StressTestParserScaling extends TestCase
+{
+    /** Size of the smaller document, in repetitions of the construct. */
+    static final int    SIZE     = 2000;
+
+    /** How many times each document is timed. */
+    static final int    ROUNDS   = 3;
+
+    /** How many times the measurement is tried before giving up. */
+    static final int    ATTEMPTS = 3;
+
+    /** The largest ratio of the times which still counts as linear. */
+    static final double MAX_RATIO = 3.0;
+
+    TestEngine m_engine;
+
+    public StressTestParserScaling( String s )
+    {
+        super( s );
+    }
+
+    public void setUp()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.load( TestEngine.findTestProperties() );
+
+        m_engine = new TestEngine( props );
+    }
+
+    /**
+     *  Generates a pathological document.
+     */
+    private interface Generator
+    {
+        public String generate( int n );
+    }
+
+    private long time( String src )
+        throws IOException
+    {
+        long best = Long.MAX_VALUE;
+
+        for( int i = 0; i < ROUNDS; i++ )
+        {
+            WikiContext context = new WikiContext( m_engine, new WikiPage( m_engine, "TestPage" ) );
+
+            System.gc();
+            long start = System.currentTimeMillis();
+
+            JSPWikiMarkupParser p = new JSPWikiMarkupParser( context, new StringReader( src ) );
+            new XHTMLRenderer( context, p.parse() ).getString();
+
+            best = Math.min( best, System.currentTimeMillis() - start );
+        }
+
+        return best;
+    }
+
+    private void checkScaling( String name, Generator gen )
+        throws IOException
+    {
+        String small = gen.generate( SIZE );
+        String large = gen.generate( 2*SIZE );
+
+        //
+        //  Warm up, so that the first timing does not include compiling.
+        //
+        time( small );
+
+        //
+        //  A busy machine can make a single measurement look bad, so
+        //  only fail if it happens every time.
+        //
+        for( int attempt = 1; ; attempt++ )
+        {
+            long t1 = time( small );
+            long t2 = time( large );
+
+            double ratio = (double) Math.max( t2, 1 ) / Math.max( t1, 1 );
+
+            System.out.println("  "+name+": "+small.length()+" chars took "+t1+" ms, "+
+                               large.length()+" chars took "+t2+" ms (ratio "+((int)(ratio*100))/100.0+")");
+
+            //
+            //  Times which are this short are mostly noise.
+            //
+            if( t2 <= 20 || ratio < MAX_RATIO )
+            {
+                return;
+            }
+
+            assertTrue( name+" does not scale linearly: "+t1+" ms vs. "+t2+" ms", attempt < ATTEMPTS );
+        }
+    }
+
+    private static String repeat( String s, int n )
+    {
+        StringBuffer sb = new StringBuffer( s.length() * n );
+
+        for( int i = 0; i < n; i++ )
+        {
+            sb.append( s );
+        }
+
+        return sb.toString();
+    }
+
+    public void testNestedLists()
+        throws Exception
+    {
+        checkScaling( "Nested lists", new Generator() {
+            public String generate( int n )
+            {
+                StringBuffer sb = new StringBuffer();
+
+                for( int i = 1; i <= n; i++ )
+                {
+                    int depth = 1 + (i % 50);
+                    sb.append( repeat( "*#", depth/2 ) );
+                    if( depth % 2 == 1 ) sb.append( '*' );
+                    sb.append( " item\n" );
+                }
+
+                return sb.toString();
+            }
+        } );
+    }
+
+    public void testDeepList()
+        throws Exception
+    {
+        checkScaling( "Deep list", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "*#", n*2 )+" item\n"+repeat( "Line\n", n*20 );
+            }
+        } );
+    }
+
+    public void testDeepStyles()
+        throws Exception
+    {
+        checkScaling( "Deep styles", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "%%(color:red) text ", n )+"\n"+repeat( "Line\n", n*20 );
+            }
+        } );
+    }
+
+    public void testDeepMonospace()
+        throws Exception
+    {
+        checkScaling( "Deep monospace", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "{{text ", n*4 )+"\n"+repeat( "Line\n", n*20 );
+            }
+        } );
+    }
+
+    public void testUnclosedBold()
+        throws Exception
+    {
+        checkScaling( "Unclosed bold", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "__a ''b ", n*20 );
+            }
+        } );
+    }
+
+    public void testUnclosedStyles()
+        throws Exception
+    {
+        checkScaling( "Unclosed styles", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "%%(color:red) text\n\n", n*4 );
+            }
+        } );
+    }
+
+    public void testWideTable()
+        throws Exception
+    {
+        checkScaling( "Wide table", new Generator() {
+            public String generate( int n )
+            {
+                return "|| "+repeat( "head || ", 10 )+"\n"+repeat( "| cell ", n*10 )+"\n";
+            }
+        } );
+    }
+
+    public void testUnclosedBrackets()
+        throws Exception
+    {
+        checkScaling( "Unclosed brackets", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "[text ", n*20 );
+            }
+        } );
+    }
+
+    public void testUnclosedBracketLines()
+        throws Exception
+    {
+        checkScaling( "Unclosed bracket lines", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "[text\n", n*20 );
+            }
+        } );
+    }
+
+    public void testUnclosedPlugins()
+        throws Exception
+    {
+        checkScaling( "Unclosed plugins", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "[{text ", n*20 );
+            }
+        } );
+    }
+
+    public void testHugePreformatted()
+        throws Exception
+    {
+        checkScaling( "Huge preformatted", new Generator() {
+            public String generate( int n )
+            {
+                return "{{{\n"+repeat( "some <code> & {{text}}\n", n*4 )+"}}}\n";
+            }
+        } );
+    }
+
+    public void testUnclosedPreformatted()
+        throws Exception
+    {
+        checkScaling( "Unclosed preformatted", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "{{{ ", n*20 );
+            }
+        } );
+    }
+
+    public void testManyHeadings()
+        throws Exception
+    {
+        checkScaling( "Many headings", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "!!Heading\n", n*4 );
+            }
+        } );
+    }
+
+    public void testLongLine()
+        throws Exception
+    {
+        checkScaling( "Long line", new Generator() {
+            public String generate( int n )
+            {
+                return repeat( "WikiName http://www.example.com/ text ", n );
+            }
+        } );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( StressTestParserScaling.class );
+    }
+
+    public static void main( String[] argv )
+    {
+        junit.textui.TestRunner.run(suite());
+    }
+}